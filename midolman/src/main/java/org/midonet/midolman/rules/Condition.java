@@ -262,14 +262,15 @@ public class Condition extends BaseConfig {
             return conjunctionInv;
         if (!matchIP(nwDstIp, pmDstIP, nwDstInv))
             return conjunctionInv;
-        if (!matchRange(tpSrc, pktMatch.getSrcPort(), tpSrcInv))
+        if (!matchSrcPort(pktMatch))
             return conjunctionInv;
-        if (!matchRange(
-                tpDst, pktMatch.getDstPort(), tpDstInv))
+        if (!matchDstPort(pktMatch))
             return conjunctionInv;
-        if (!matchIpToGroup(ipAddrGroupSrc, pmSrcIP, invIpAddrGroupIdSrc))
+        if (!matchIpToGroup(pktCtx, ipAddrGroupSrc, pmSrcIP,
+                            invIpAddrGroupIdSrc))
             return conjunctionInv;
-        if (!matchIpToGroup(ipAddrGroupDst, pmDstIP, invIpAddrGroupIdDst))
+        if (!matchIpToGroup(pktCtx, ipAddrGroupDst, pmDstIP,
+                            invIpAddrGroupIdDst))
             return conjunctionInv;
         if (!matchTraversedDevice(pktCtx))
             return conjunctionInv;
@@ -317,10 +318,16 @@ public class Condition extends BaseConfig {
                 negate ^ (pktIp != null && condSubnet.containsAddress(pktIp));
     }
 
-    private boolean matchIpToGroup(
+    // The flow is tagged with the matched address, such that it is
+    // invalidated only when that address joins or leaves the group.
+    private boolean matchIpToGroup(PacketContext pktCtx,
             IPAddrGroup ipAddrGroup, IPAddr ipAddr, boolean negate) {
-        return ipAddrGroup == null ||
-                negate ^ ipAddrGroup.contains(ipAddr);
+        if (ipAddrGroup == null)
+            return true;
+        if (ipAddr != null)
+            pktCtx.addFlowTag(FlowTagger.tagForIPAddrGroupAddress(
+                ipAddrGroup.id(), ipAddr));
+        return negate ^ ipAddrGroup.contains(ipAddr);
     }
 
     private boolean matchTraversedDevice(PacketContext pktCtx) {
@@ -379,10 +386,27 @@ public class Condition extends BaseConfig {
                 negate ^ (pktGroups != null && pktGroups.contains(condGroup));
     }
 
-    private <E extends Comparable<E>> boolean matchRange(
-            Range<E> range, E pktField, boolean negate) {
-        return range == null ||
-                negate ^ (null == pktField || range.isInside(pktField));
+    // The port ranges are tested on the packet match such that, when port
+    // masks are enabled, only the port bits that determine the result are
+    // seen, rather than the whole port.
+    private boolean matchSrcPort(FlowMatch pktMatch) {
+        return tpSrc == null ||
+               tpSrcInv ^ pktMatch.isSrcPortInRange(rangeStart(tpSrc),
+                                                    rangeEnd(tpSrc));
+    }
+
+    private boolean matchDstPort(FlowMatch pktMatch) {
+        return tpDst == null ||
+               tpDstInv ^ pktMatch.isDstPortInRange(rangeStart(tpDst),
+                                                    rangeEnd(tpDst));
+    }
+
+    private static int rangeStart(Range<Integer> range) {
+        return range.start() == null ? 0 : range.start();
+    }
+
+    private static int rangeEnd(Range<Integer> range) {
+        return range.end() == null ? 0xffff : range.end();
     }
 
     private boolean isNotNullOrEmpty(Object value) {
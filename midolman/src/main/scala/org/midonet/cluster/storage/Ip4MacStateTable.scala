@@ -50,4 +50,8 @@ final class Ip4MacStateTable(override val tableKey: Key,
 
     override val nullValue = null
 
+    // The VXLAN gateway looks up the IP addresses of a MAC on every MAC
+    // update.
+    override val indexValues = true
+
 }
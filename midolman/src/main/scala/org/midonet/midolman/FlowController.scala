@@ -16,7 +16,7 @@
 
 package org.midonet.midolman
 
-import java.util.ArrayList
+import java.util.{ArrayDeque, ArrayList}
 
 import org.jctools.queues.SpscArrayQueue
 
@@ -32,14 +32,17 @@ import org.midonet.midolman.monitoring.metrics.PacketPipelineMetrics
 import org.midonet.midolman.simulation.PacketContext
 import org.midonet.sdn.flows.FlowTagger.FlowTag
 import org.midonet.util.collection.{ArrayObjectPool, NoOpPool}
-import org.midonet.util.concurrent.WakerUpper.Parkable
 import org.midonet.util.concurrent.{DisruptorBackChannel, NanoClock}
 import org.midonet.util.functors.Callback0
 
 object FlowController {
     private val NoCallbacks = new ArrayList[Callback0]()
     private val NoTags = new ArrayList[FlowTag]()
-    private[midolman] val IndexShift = 28 // Leave 4 bits for the work ID
+    // The flow mark packs the worker ID in the high bits and the flow index
+    // in the low bits, leaving room for 64 workers and 64M flows per worker.
+    private[midolman] val WorkerBits = 6
+    private[midolman] val MaxWorkers = 1 << WorkerBits
+    private[midolman] val IndexShift = 32 - WorkerBits
     private[midolman] val IndexMask = (1 << IndexShift) - 1
 }
 
@@ -64,6 +67,9 @@ trait FlowController extends FlowIndexer with FlowTagIndexer
         Util.findNextPositivePowerOfTwo(maxFlows))
     private var mask = indexToFlow.length - 1
 
+    // Sized for a few distinct tags per flow, to keep false positives low.
+    override protected val tagFilter = new FlowTagFilter(maxFlows * 4)
+
     val meters = new MeterRegistry(maxFlows)
     Metering.registerAsMXBean(meters)
 
@@ -78,6 +84,10 @@ trait FlowController extends FlowIndexer with FlowTagIndexer
         flowProcessor.capacity, new FlowOperation(_, completedFlowOperations))
     private val flowRemoveCommandsToRetry = new ArrayList[FlowOperation](
         flowProcessor.capacity)
+    // The flows removed from the worker and waiting to be deleted from the
+    // datapath, in the order they were removed. Each holds a reference.
+    private val pendingFlowDeletions = new ArrayDeque[ManagedFlow]()
+    private var reportedBacklog = 0
 
     def addFlow(context: PacketContext, expiration: Expiration): Unit = {
         val flow = takeFlow()
@@ -124,13 +134,22 @@ trait FlowController extends FlowIndexer with FlowTagIndexer
         }
     }
 
-    override def shouldProcess() = completedFlowOperations.size > 0
+    override def shouldProcess() =
+        completedFlowOperations.size > 0 || !pendingFlowDeletions.isEmpty
 
     override def process(): Unit = {
         processCompletedFlowOperations()
+        ejectPendingFlowDeletions()
         checkFlowsExpiration(clock.tick)
     }
 
+    /**
+     * Called with the number of flow deletions waiting for the flow
+     * processor whenever it changes, so that the admission of new packets
+     * can be throttled while the deletions catch up.
+     */
+    protected def flowDeletionBacklog(pending: Int): Unit = { }
+
     override def registerFlow(flow: ManagedFlow): Unit = {
         super.registerFlow(flow)
         indexFlow(flow)
@@ -222,32 +241,51 @@ trait FlowController extends FlowIndexer with FlowTagIndexer
         req.clear()
     }
 
-    private val flowOperationParkable = new Parkable {
-        override def shouldWakeUp() = completedFlowOperations.size > 0
+    private def removeFlowFromDatapath(flow: ManagedFlow): Unit = {
+        log.debug(s"Removing flow $flow from datapath")
+        flow.ref()
+        pendingFlowDeletions.add(flow)
+        ejectPendingFlowDeletions()
     }
 
-    private def takeFlowOperation(flow: ManagedFlow): FlowOperation = {
-        var flowOp: FlowOperation = null
-        while ({ flowOp = pooledFlowOperations.take; flowOp } eq null) {
-            processCompletedFlowOperations()
-            if (pooledFlowOperations.available == 0) {
-                log.debug("Parking until the pending flow operations complete")
-                flowOperationParkable.park()
+    /**
+     * Hands over the pending flow deletions to the flow processor, in order,
+     * until it doesn't accept more: either because it has too many requests
+     * in flight, or because the next flow has not been created yet, which
+     * happens if we invalidated a flow so close to its creation. Instead of
+     * waiting, the remaining deletions are retried the next time the worker
+     * processes its back channel.
+     */
+    private def ejectPendingFlowDeletions(): Unit = {
+        var flow: ManagedFlow = null
+        while ({ flow = pendingFlowDeletions.peek(); flow } ne null) {
+            var flowOp = pooledFlowOperations.take
+            if (flowOp eq null) {
+                processCompletedFlowOperations()
+                flowOp = pooledFlowOperations.take
+                if (flowOp eq null) {
+                    reportFlowDeletionBacklog()
+                    return
+                }
             }
+            flowOp.reset(flow, retries = 10)
+            if (!flowProcessor.tryEject(flow.sequence, datapathId,
+                                        flow.flowMatch, flowOp)) {
+                flowOp.clear()
+                reportFlowDeletionBacklog()
+                return
+            }
+            pendingFlowDeletions.poll()
+            flow.unref()
         }
-        flowOp.reset(flow, retries = 10)
-        flowOp
+        reportFlowDeletionBacklog()
     }
 
-    private def removeFlowFromDatapath(flow: ManagedFlow): Unit = {
-        log.debug(s"Removing flow $flow from datapath")
-        val flowOp = takeFlowOperation(flow)
-        // Spin while we try to eject the flow. This can happen if we invalidated
-        // a flow so close to its creation that it has not been created yet.
-        while (!flowProcessor.tryEject(flow.sequence, datapathId,
-                                       flow.flowMatch, flowOp)) {
-            processCompletedFlowOperations()
-            Thread.`yield`()
+    private def reportFlowDeletionBacklog(): Unit = {
+        val pending = pendingFlowDeletions.size()
+        if (pending != reportedBacklog) {
+            reportedBacklog = pending
+            flowDeletionBacklog(pending)
         }
     }
 
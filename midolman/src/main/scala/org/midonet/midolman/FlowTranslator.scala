@@ -74,6 +74,7 @@ trait FlowTranslator {
                     a.getFlowKey match {
                         case k: FlowKeyICMPError =>
                             mangleIcmp(context.ethernet, k.icmp_data)
+                            context.packet.invalidateOriginalData()
                         case k: FlowKeyICMPEcho =>
                         case _ =>
                             addFlowAndPacketAction(context, a)
@@ -141,18 +141,24 @@ class HostRequestProxy(hostId: UUID,
 
     private def requestStateForPort(portInfo: (UUID, UUID)): Future[FlowStateBatch] = {
         val (port, previousOwnerId) = portInfo
+        // Chunks of the port state are sent to the workers as soon as they
+        // are decoded, and only the remainder is merged with the state of
+        // the other ports.
+        val chunkSize = flowStateConfig.importChunkSize
+        val chunks = (chunk: FlowStateBatch) => backChannel tell chunk
 
         Future {
             if (previousOwnerId == null || previousOwnerId == hostId) {
                 log debug s"Requesting local flow state for port: $port"
-                tcpClient.internalFlowStateFrom(port)
+                tcpClient.internalFlowStateFrom(port, chunkSize, chunks)
             } else {
                 log debug s"Requesting remote flow state for port: $port"
                 val ip = resolveHostIp(previousOwnerId)
 
                 ip match {
                     case Some(hostIp) =>
-                        tcpClient.remoteFlowStateFrom(hostIp, port)
+                        tcpClient.remoteFlowStateFrom(hostIp, port,
+                                                      chunkSize, chunks)
                     case None =>
                         log.debug(
                             s"Host $previousOwnerId is not registered in" +
@@ -47,7 +47,7 @@ import org.midonet.midolman.host.services.{HostService, TcRequestHandler, QosSer
 import org.midonet.midolman.io._
 import org.midonet.midolman.logging.rule.{DisruptorRuleLogEventChannel, RuleLogEventChannel}
 import org.midonet.midolman.logging.{FlowTracingAppender, FlowTracingSchema}
-import org.midonet.midolman.monitoring.metrics.{DatapathMetrics, PacketExecutorMetrics}
+import org.midonet.midolman.monitoring.metrics.{BackChannelMetrics, DatapathMetrics, PacketExecutorMetrics}
 import org.midonet.midolman.openstack.metadata.{DatapathInterface, Plumber}
 import org.midonet.midolman.services._
 import org.midonet.midolman.state.ConnTrackState.ConnTrackKey
@@ -82,7 +82,8 @@ class MidolmanModule(injector: Injector,
         // We add an extra slot so that channels can return tokens
         // they obtained due to the multiplier effect but didn't use.
         val counter = new StatisticalCounter(config.simulationThreads + 1)
-        val policy = htbPolicy(counter)
+        val rate = htbRate(counter)
+        val policy = htbPolicy(counter, rate)
         bind(classOf[StatisticalCounter]).toInstance(counter)
         bind(classOf[TokenBucketPolicy]).toInstance(policy)
 
@@ -100,7 +101,8 @@ class MidolmanModule(injector: Injector,
         bind(classOf[ActorSystem]).toInstance(as)
         bind(classOf[SupervisorStrategy]).toInstance(crashStrategy())
 
-        val backChannel = new ShardedSimulationBackChannel
+        val backChannel = new ShardedSimulationBackChannel(
+            new BackChannelMetrics(metricRegistry))
         bind(classOf[ShardedSimulationBackChannel]).toInstance(backChannel)
         bind(classOf[SimulationBackChannel]).toInstance(backChannel)
 
@@ -145,6 +147,8 @@ class MidolmanModule(injector: Injector,
 
         val vt = virtualTopology(backChannel)
         bind(classOf[VirtualTopology]).toInstance(vt)
+        policy.groupVmPortsBy(TokenBucketPolicy.vmGrouping(
+            config, dpState, vt, policy.regroupVmPort))
 
         val vtpm = virtualToPhysicalMapper(host, vt)
         bind(classOf[VirtualToPhysicalMapper]).toInstance(vtpm)
@@ -160,7 +164,7 @@ class MidolmanModule(injector: Injector,
                                                         NanoClock.DEFAULT,
                                                         backend,
                                                         metricRegistry,
-                                                        counter, as)
+                                                        counter, rate, as)
         bind(classOf[PacketWorkersService]).toInstance(workersService)
 
         val dpConnectionManager = upcallDatapathConnectionManager(
@@ -177,8 +181,22 @@ class MidolmanModule(injector: Injector,
     protected def hostId() =
         HostIdGenerator.getHostId
 
-    protected def htbPolicy(counter: StatisticalCounter) = {
-        val multiplier = 8
+    protected val htbMultiplier = 8
+
+    protected def htbRate(counter: StatisticalCounter) =
+        new TokenBucketAdaptiveRate(
+            new TokenBucketSystemRate(counter, htbMultiplier),
+            Math.max(1, config.simulationThreads),
+            config.datapath.htbTargetSimulationLatency,
+            0.25,
+            // The flow deletions the flow processor can have in flight.
+            config.datapath.globalIncomingBurstCapacity * 2,
+            // The capacity of the root bucket.
+            Math.max(1, config.datapath.globalIncomingBurstCapacity / htbMultiplier))
+
+    protected def htbPolicy(counter: StatisticalCounter,
+                            rate: TokenBucketFillRate) = {
+        val multiplier = htbMultiplier
         // Here we check whether increments to our slot in the StatisticalCounter
         // should be atomic or not, depending on whether multiple threads will
         // be accessing it (true in the one_to_one" configuration setting).
@@ -191,9 +209,10 @@ class MidolmanModule(injector: Injector,
 
         new TokenBucketPolicy(
             config,
-            new TokenBucketSystemRate(counter, multiplier),
+            rate,
             multiplier,
-            tb => new Bucket(tb, multiplier, counter, config.simulationThreads, atomic))
+            tb => new Bucket(tb, multiplier, counter, config.simulationThreads, atomic),
+            metricRegistry)
     }
 
     protected def netlinkChannelFactory() =
@@ -235,7 +254,8 @@ class MidolmanModule(injector: Injector,
             SelectorProvider.provider,
             backChannel,
             new DatapathMetrics(metricRegistry),
-            NanoClock.DEFAULT)
+            NanoClock.DEFAULT,
+            config.datapath.flowDeleteBatchSize)
 
     protected def createProcessors(
             ringBuffer: RingBuffer[PacketContextHolder],
@@ -333,12 +353,14 @@ class MidolmanModule(injector: Injector,
                                              backend: MidonetBackend,
                                              metricsRegistry: MetricRegistry,
                                              counter: StatisticalCounter,
+                                             htbRate: TokenBucketAdaptiveRate,
                                              actorSystem: ActorSystem)
             : PacketWorkersService =
         new PacketWorkersServiceImpl(config, hostIdProvider, dpChannel, dpState,
                                         flowProcessor, natBlockAllocator, peerResolver,
                                         backChannel, vt, clock, backend,
-                                        metricsRegistry, counter, actorSystem)
+                                        metricsRegistry, counter, htbRate,
+                                        actorSystem)
 
     protected def connectionPool(): DatapathConnectionPool =
         new OneToOneConnectionPool(
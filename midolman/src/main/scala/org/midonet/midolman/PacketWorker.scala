@@ -37,20 +37,25 @@ object DisruptorPacketWorker {
 
 class DisruptorPacketWorker(packetWorkflow: PacketWorkflow,
                             metrics: PacketPipelineMetrics,
-                            index: Int)
+                            index: Int,
+                            val load: PacketWorkerLoad = new PacketWorkerLoad,
+                            parkTimeoutNanos: Long = TimeUnit.MICROSECONDS.toNanos(
+                                DisruptorPacketWorker.WaitTimeoutMicros))
         extends Thread(s"packet-worker-${index}")
         with ExceptionHandler
-        with PacketWorker with MidolmanLogging {
+        with PacketWorker with ParkablePacketWorker with MidolmanLogging {
     override def logSource = s"org.midonet.packet-worker.packet-worker-$index"
 
     setDaemon(true)
 
+    private val waitStrategy = new ParkingWaitStrategy(
+        TimeUnit.MICROSECONDS.toNanos(DisruptorPacketWorker.WaitTimeoutMicros),
+        parkTimeoutNanos)
+
     val ringBuffer = RingBuffer
         .createMultiProducer(PacketWorkflow.PacketRefFactory,
                              DisruptorPacketWorker.RingBufferCapacity,
-                             new TimeoutBlockingWaitStrategy(
-                                 DisruptorPacketWorker.WaitTimeoutMicros,
-                                 TimeUnit.MICROSECONDS))
+                             waitStrategy)
     val eventProcessor = new BatchEventProcessor(
         ringBuffer, ringBuffer.newBarrier(), packetWorkflow)
     ringBuffer.addGatingSequences(eventProcessor.getSequence())
@@ -73,6 +78,15 @@ class DisruptorPacketWorker(packetWorkflow: PacketWorkflow,
         }
     }
 
+    override def queuedPackets: Long =
+        ringBuffer.getCursor - eventProcessor.getSequence.get
+
+    override def park(): Unit = waitStrategy.park()
+
+    override def unpark(): Unit = waitStrategy.unpark()
+
+    override def isParked: Boolean = waitStrategy.isParked
+
     def isRunning() = eventProcessor.isRunning
 
     def shutdown(): Unit = {
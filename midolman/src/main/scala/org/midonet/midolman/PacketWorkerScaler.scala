@@ -0,0 +1,118 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman
+
+import scala.collection.IndexedSeq
+
+import com.codahale.metrics.MetricRegistry.name
+import com.codahale.metrics.{Gauge, MetricRegistry}
+
+import org.midonet.midolman.logging.MidolmanLogging
+import org.midonet.midolman.monitoring.metrics.PacketPipelineGauge
+
+/**
+ * The simulation latency recorded by a packet worker. Only the worker thread
+ * writes to it.
+ */
+final class PacketWorkerLoad {
+    @volatile private var latencyNanos = 0L
+    @volatile private var samples = 0L
+
+    def recordLatency(nanos: Long): Unit = {
+        latencyNanos += nanos
+        samples += 1
+    }
+
+    def totalLatencyNanos: Long = latencyNanos
+
+    def totalSamples: Long = samples
+}
+
+/**
+ * A packet worker that can be parked while it is idle.
+ */
+trait ParkablePacketWorker {
+    def load: PacketWorkerLoad
+    /** The number of packets waiting in the queue of the worker. */
+    def queuedPackets: Long
+    def park(): Unit
+    def unpark(): Unit
+    def isParked: Boolean
+}
+
+/**
+ * Parks and unparks the packet workers according to their load, sampled
+ * periodically by the packet workers supervisor. A worker is loaded when
+ * it has packets waiting in its queue, or when its average simulation latency
+ * since the last sample is above the target latency. A loaded worker is
+ * unparked right away, whereas an idle one is only parked after `idleSamples`
+ * consecutive idle samples.
+ *
+ * The packets of a connection are always processed by the same worker, as
+ * the workers keep their per-connection flow state: parking does not take
+ * a worker out of the dispatch, it only reduces how often it wakes up
+ * when there are no packets.
+ */
+class PacketWorkerScaler(workers: IndexedSeq[ParkablePacketWorker],
+                         idleSamples: Int,
+                         targetLatencyNanos: Long,
+                         registry: MetricRegistry)
+    extends MidolmanLogging {
+
+    override def logSource = "org.midonet.packet-worker.packet-worker-scaler"
+
+    private val lastLatencyNanos = new Array[Long](workers.length)
+    private val lastSamples = new Array[Long](workers.length)
+    private val idle = new Array[Int](workers.length)
+
+    registry.register(
+        name(classOf[PacketPipelineGauge], "packetWorkers", "parked"),
+        new Gauge[Int] {
+            override def getValue: Int = parkedWorkers
+        })
+
+    def parkedWorkers: Int = workers.count(_.isParked)
+
+    def sample(): Unit = {
+        var i = 0
+        while (i < workers.length) {
+            val worker = workers(i)
+            val latency = worker.load.totalLatencyNanos
+            val samples = worker.load.totalSamples
+            val slow = targetLatencyNanos > 0 && samples > lastSamples(i) &&
+                (latency - lastLatencyNanos(i)) / (samples - lastSamples(i)) >
+                    targetLatencyNanos
+            lastLatencyNanos(i) = latency
+            lastSamples(i) = samples
+
+            if (worker.queuedPackets > 0 || slow) {
+                idle(i) = 0
+                if (worker.isParked) {
+                    log.debug(s"Unparking packet worker $i")
+                    worker.unpark()
+                }
+            } else if (idle(i) < idleSamples) {
+                idle(i) += 1
+                if (idle(i) == idleSamples && !worker.isParked) {
+                    log.debug(s"Parking idle packet worker $i")
+                    worker.park()
+                }
+            }
+            i += 1
+        }
+    }
+}
@@ -16,7 +16,7 @@
 
 package org.midonet.midolman
 
-import java.util.concurrent.CountDownLatch
+import java.util.concurrent.{CountDownLatch, TimeUnit}
 
 import scala.collection.IndexedSeq
 
@@ -42,7 +42,7 @@ import org.midonet.midolman.state.{NatBlockAllocator, NatLeaser, PeerResolver}
 import org.midonet.midolman.topology.VirtualTopology
 import org.midonet.packets.NatState.NatBinding
 import org.midonet.sdn.state.ShardedFlowStateTable
-import org.midonet.util.StatisticalCounter
+import org.midonet.util.{StatisticalCounter, TokenBucketAdaptiveRate}
 import org.midonet.util.concurrent.NanoClock
 import org.midonet.util.logging.Logger
 
@@ -63,6 +63,7 @@ class PacketWorkersServiceImpl(config: MidolmanConfig,
                                backend: MidonetBackend,
                                metricsRegistry: MetricRegistry,
                                counter: StatisticalCounter,
+                               htbRate: TokenBucketAdaptiveRate,
                                actorSystem: ActorSystem)
         extends PacketWorkersService with Runnable with MidolmanLogging {
 
@@ -72,8 +73,8 @@ class PacketWorkersServiceImpl(config: MidolmanConfig,
         val n = config.simulationThreads
         if (n <= 0)
             1
-        else if (n > 16)
-            16
+        else if (n > FlowController.MaxWorkers)
+            FlowController.MaxWorkers
         else
             n
     }
@@ -94,6 +95,14 @@ class PacketWorkersServiceImpl(config: MidolmanConfig,
     val workers: IndexedSeq[DisruptorPacketWorker] =
         0 until numWorkers map createWorker
 
+    val scaler =
+        if (config.adaptiveSimulationThreads)
+            new PacketWorkerScaler(workers,
+                                   config.adaptiveSimulationIdleSamples,
+                                   config.datapath.htbTargetSimulationLatency,
+                                   metricsRegistry)
+        else null
+
     override def doStart(): Unit = {
         supervisorThread.start()
     }
@@ -107,7 +116,13 @@ class PacketWorkersServiceImpl(config: MidolmanConfig,
 
         notifyStarted()
 
-        shutdownLatch.await()
+        if (scaler ne null) {
+            val interval = config.adaptiveSimulationSampleInterval.toMillis
+            while (!shutdownLatch.await(interval, TimeUnit.MILLISECONDS))
+                scaler.sample()
+        } else {
+            shutdownLatch.await()
+        }
 
         workers foreach { w => w.shutdown() }
 
@@ -128,11 +143,7 @@ class PacketWorkersServiceImpl(config: MidolmanConfig,
     private def shardLogger(t: AnyRef) =
         Logger(LoggerFactory.getLogger("org.midonet.state.table"))
 
-    private def dhcpConfig = {
-        implicit val as = actorSystem
-        implicit val ec = actorSystem.dispatcher
-        new DhcpConfigFromNsdb(vt)
-    }
+    private def dhcpConfig = new DhcpConfigFromNsdb(vt)
 
     protected def createWorker(index: Int): DisruptorPacketWorker = {
         val cookieGen = new CookieGenerator(index, numWorkers)
@@ -146,6 +157,7 @@ class PacketWorkersServiceImpl(config: MidolmanConfig,
 
         val backChannelProcessor = backChannel.registerProcessor()
 
+        val load = new PacketWorkerLoad
         val metrics = new PacketPipelineMetrics(metricsRegistry, index)
         val flowRecorder = FlowRecorder(config, hostIdProvider.hostId,
                                         backend)
@@ -157,8 +169,14 @@ class PacketWorkersServiceImpl(config: MidolmanConfig,
             connTrackShard, natShard, traceShard,
             peerResolver, natLeaser,
             metrics, flowRecorder,
-            vt, counter.addAndGet(index, _: Int))
-
-        new DisruptorPacketWorker(workflow, metrics, index)
+            vt, counter.addAndGet(index, _: Int),
+            { latency: Long =>
+                htbRate.recordLatency(index, latency)
+                load.recordLatency(latency)
+            },
+            htbRate.recordBacklog(index, _: Int))
+
+        new DisruptorPacketWorker(workflow, metrics, index, load,
+                                  config.adaptiveSimulationParkTimeout.toNanos)
     }
 }
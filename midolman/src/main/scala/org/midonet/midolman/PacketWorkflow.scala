@@ -34,7 +34,7 @@ import org.slf4j.{LoggerFactory, MDC}
 import org.midonet.midolman.HostRequestProxy.FlowStateBatch
 import org.midonet.midolman.config.MidolmanConfig
 import org.midonet.midolman.datapath.{DatapathChannel, FlowProcessor}
-import org.midonet.midolman.flows.FlowExpirationIndexer
+import org.midonet.midolman.flows.{FlowExpirationIndexer, SimulationCache}
 import org.midonet.midolman.flows.FlowExpirationIndexer.Expiration
 import org.midonet.midolman.logging.FlowTracingContext
 import org.midonet.midolman.logging.MidolmanLogging
@@ -45,7 +45,7 @@ import org.midonet.midolman.openstack.metadata.MetadataServiceWorkflow
 import org.midonet.midolman.routingprotocols.RoutingWorkflow
 import org.midonet.midolman.simulation.{Port, _}
 import org.midonet.midolman.simulation.Simulator.Fip64Action
-import org.midonet.midolman.SimulationBackChannel.BackChannelMessage
+import org.midonet.midolman.SimulationBackChannel.{BackChannelMessage, BackChannelShard, InvalidationBatch}
 import org.midonet.midolman.datapath.FlowProcessor.{DuplicateFlow, FlowError}
 import org.midonet.midolman.state.ConnTrackState.{ConnTrackKey, ConnTrackValue}
 import org.midonet.midolman.state.NatState.{NatKey, releaseBinding}
@@ -239,7 +239,9 @@ class PacketWorkflow(
             val metrics: PacketPipelineMetrics,
             val flowRecorder: FlowRecorder,
             val vt: VirtualTopology,
-            val packetOut: Int => Unit)
+            val packetOut: Int => Unit,
+            val simulationLatency: Long => Unit,
+            val deletionBacklog: Int => Unit = _ => { })
         extends AbstractService
         with EventHandler[PacketWorkflow.PacketRef]
         with TimeoutHandler
@@ -275,12 +277,32 @@ class PacketWorkflow(
             peerResolver,
             dpState,
             this,
-            config)
+            config,
+            workerId,
+            numWorkers)
 
     protected val datapathId = dpState.datapath.getIndex
 
     protected val arpBroker = new ArpRequestBroker(config, backChannel)
 
+    // Invalidations are only enqueued to this worker for the tags of its
+    // flows, so the ones sent while simulating a new flow are rechecked
+    // once its tags are indexed.
+    private val invalidationShard = backChannel match {
+        case shard: BackChannelShard =>
+            shard.filterInvalidations(tagFilter)
+            shard
+        case _ => null
+    }
+    private var invalidationSequence = 0L
+
+    private val simulationCache =
+        if (config.simulationCacheSize > 0)
+            new SimulationCache(config.simulationCacheSize)
+        else null
+
+    private val coarsePortMasks = config.coarsePortMasks
+
     private val invalidateExpiredConnTrackKeys =
         new Reducer[ConnTrackKey, ConnTrackValue, Unit]() {
             override def apply(u: Unit, k: ConnTrackKey, v: ConnTrackValue) {
@@ -320,6 +342,9 @@ class PacketWorkflow(
             process()
         }
 
+    override protected def flowDeletionBacklog(pending: Int): Unit =
+        deletionBacklog(pending)
+
     override def shouldProcess(): Boolean =
         super.shouldProcess() ||
         backChannel.hasMessages ||
@@ -354,7 +379,10 @@ class PacketWorkflow(
 
     private def handle(msg: BackChannelMessage): Unit = msg match {
         case m: InvalidateFlows => invalidateRoutedFlows(m)
-        case tag: FlowTag => invalidateFlowsFor(tag)
+        case batch: InvalidationBatch => invalidateFlowsFor(batch)
+        case tag: FlowTag =>
+            metrics.invalidationsProcessed.mark()
+            invalidateFlowsFor(tag)
         case RestartWorkflow(pktCtx, error) => restart(pktCtx, error)
         case m: GeneratedPacket => startWorkflow(generatedPacketContext(m))
         case m: FlowStateBatch => replicator.importFromStorage(m)
@@ -362,6 +390,15 @@ class PacketWorkflow(
         case FlowError(index) => // Do nothing.
     }
 
+    private def invalidateFlowsFor(batch: InvalidationBatch): Unit = {
+        var i = 0
+        while (i < batch.tags.size()) {
+            invalidateFlowsFor(batch.tags.get(i))
+            i += 1
+        }
+        metrics.invalidationsProcessed.mark(batch.tags.size())
+    }
+
     override def process(): Unit = {
         super.process()
         while (backChannel.hasMessages)
@@ -407,7 +444,9 @@ class PacketWorkflow(
                         egressPortId, egressPortNo,
                         backChannel, arpBroker)
         context.initialize(connTrackTx, natTx, natLeaser, traceStateTx)
+        context.wcmatch.setPortMasksEnabled(coarsePortMasks)
         context.log = PacketTracing.loggerFor(fmatch)
+        context.latencies = metrics.latencies
         context
     }
 
@@ -436,6 +475,7 @@ class PacketWorkflow(
     private def postponeOn(pktCtx: PacketContext, f: Future[_]): Unit = {
         val cookie = pktCtx.cookie
         pktCtx.postpone()
+        pktCtx.postponedAtNanos = NanoClock.DEFAULT.tick
         f.onComplete { res =>
             val error = res match {
                 case Failure(ex) => ex
@@ -452,6 +492,7 @@ class PacketWorkflow(
     private def restart(pktCtx: PacketContext, error: Throwable): Unit =
         if (pktCtx.idle) {
             metrics.packetsOnHold.dec()
+            pktCtx.postponedNanos += NanoClock.DEFAULT.tick - pktCtx.postponedAtNanos
             pktCtx.log.debug("Restarting workflow")
             MDC.put("cookie", pktCtx.cookieStr)
             if (error eq null) {
@@ -497,6 +538,8 @@ class PacketWorkflow(
             val latency = NanoClock.DEFAULT.tick - pktCtx.packet.startTimeNanos
             metrics.packetsProcessed.update(latency.toInt,
                                             TimeUnit.NANOSECONDS)
+            metrics.latencies.recordSimulated(pktCtx)
+            simulationLatency(latency)
         }
 
         meters.recordPacket(pktCtx.packet.packetLen, pktCtx.flowTags)
@@ -504,6 +547,7 @@ class PacketWorkflow(
     }
 
     private def handoff(context: PacketContext): Unit = {
+        context.handoffNanos = NanoClock.DEFAULT.tick
         val seq = dpChannel.handoff(context)
         if (context.flow ne null) {
             context.flow.assignSequence(seq)
@@ -533,6 +577,7 @@ class PacketWorkflow(
         try {
             MDC.put("cookie", context.cookieStr)
             context.log.debug(s"New cookie for new match ${context.origMatch}")
+            context.simulationStartNanos = NanoClock.DEFAULT.tick
             runWorkflow(context)
         } finally {
             if (context.ingressed)
@@ -541,9 +586,12 @@ class PacketWorkflow(
             FlowTracingContext.clearContext()
         }
 
-    protected def runWorkflow(pktCtx: PacketContext): Unit =
+    protected def runWorkflow(pktCtx: PacketContext): Unit = {
+        val runStart = NanoClock.DEFAULT.tick
         try {
-            complete(pktCtx, start(pktCtx))
+            val result = start(pktCtx)
+            pktCtx.simulationNanos += NanoClock.DEFAULT.tick - runStart
+            complete(pktCtx, result)
             flushTransactions()
         } catch {
             case TraceRequiredException =>
@@ -554,10 +602,12 @@ class PacketWorkflow(
                 runWorkflow(pktCtx)
             case NotYetException(f, msg) =>
                 pktCtx.log.debug(s"Postponing simulation because: $msg")
+                pktCtx.simulationNanos += NanoClock.DEFAULT.tick - runStart
                 postponeOn(pktCtx, f)
             case NonFatal(ex) =>
                 handleErrorOn(pktCtx, ex)
         }
+    }
 
     protected def handlePacket(packet: Packet): Unit =
         if (FlowState.isStateMessage(packet.getMatch)) {
@@ -582,6 +632,8 @@ class PacketWorkflow(
     }
 
     protected[midolman] def start(context: PacketContext): SimulationResult = {
+        if (invalidationShard ne null)
+            invalidationSequence = invalidationShard.invalidationSequence
         context.prepareForSimulation()
         context.log.debug(s"Initiating processing, attempt: ${context.runs}")
         if (context.ingressed)
@@ -605,6 +657,9 @@ class PacketWorkflow(
                 UserspaceFlow
             } else {
                 addFlow(context, expiration)
+                if (invalidationShard ne null)
+                    invalidationShard.recheckInvalidations(invalidationSequence,
+                                                           context.flowTags)
                 FlowCreated
             }
         }
@@ -632,6 +687,8 @@ class PacketWorkflow(
 
             if (result ne null) {
                 processSimulationResult(context, result)
+            } else if (simulationCache ne null) {
+                simulateCached(context)
             } else {
                 processSimulationResult(context, simulatePacketIn(context))
             }
@@ -714,6 +771,61 @@ class PacketWorkflow(
         }
     }
 
+    /**
+     * Reuses the result of a previous simulation for a packet that only
+     * differs from the simulated one in fields the simulation did not read.
+     * Otherwise, simulates the packet and caches the result if it does not
+     * depend on flow state and has no side effects other than the flow.
+     */
+    private def simulateCached(context: PacketContext): SimulationResult = {
+        val entry = simulationCache.get(context.origMatch)
+        if (entry ne null) {
+            context.log.debug("Reusing cached simulation result")
+            metrics.simulationCacheHits.mark()
+            metrics.simulationCacheSavedNanos.inc(entry.simulationNanos)
+            context.origMatch.propagateSeenFieldsFrom(entry.seenFields)
+            context.flowTags.clear()
+            context.flowTags.addAll(entry.tags)
+            context.flowActions.addAll(entry.actions)
+            context.packetActions.addAll(entry.actions)
+            val result = addTranslatedFlow(context,
+                                           FlowExpirationIndexer.FLOW_EXPIRATION)
+            if ((context.flow ne null) && !context.flow.removed)
+                entry.addFlow(context.flow)
+            result
+        } else {
+            metrics.simulationCacheMisses.mark()
+            val start = NanoClock.DEFAULT.tick
+            val result = processSimulationResult(context,
+                                                 simulatePacketIn(context))
+            if ((result eq FlowCreated) && isCacheable(context)) {
+                val cached = simulationCache.put(
+                    context.origMatch, context.flowActions, context.flowTags,
+                    NanoClock.DEFAULT.tick - start)
+                if (cached ne null)
+                    cached.addFlow(context.flow)
+            }
+            result
+        }
+    }
+
+    private def isCacheable(context: PacketContext): Boolean = {
+        val flow = context.flow
+        if ((flow eq null) || flow.removed || (flow.linkedFlow ne null) ||
+            !flow.callbacks.isEmpty ||
+            flow.expirationType != FlowExpirationIndexer.FLOW_EXPIRATION.typeId ||
+            context.containsFlowState || context.connectionTracked ||
+            context.hasGeneratedPackets || context.isRecirc)
+            return false
+        var i = 0
+        while (i < context.flowTags.size()) {
+            if (context.flowTags.get(i).isInstanceOf[FlowStateTag])
+                return false
+            i += 1
+        }
+        true
+    }
+
     protected def simulatePacketIn(context: PacketContext): SimulationResult =
         if (handleDHCP(context)) {
             NoOp
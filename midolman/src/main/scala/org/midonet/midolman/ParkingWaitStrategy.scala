@@ -0,0 +1,78 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman
+
+import java.util.concurrent.locks.ReentrantLock
+
+import com.lmax.disruptor._
+
+/**
+ * A blocking wait strategy with a timeout, like the Disruptor's
+ * TimeoutBlockingWaitStrategy, where the timeout can be switched between a
+ * short one, while the consumer is busy, and a long one, while the consumer
+ * is parked. The consumer is woken up as soon as an event is published in
+ * either case: the timeout only bounds how long it waits when there are no
+ * events, and hence how often it runs its timeout handler.
+ */
+final class ParkingWaitStrategy(busyTimeoutNanos: Long,
+                                parkTimeoutNanos: Long) extends WaitStrategy {
+
+    private val lock = new ReentrantLock()
+    private val processorNotifyCondition = lock.newCondition()
+    @volatile private var parked = false
+
+    def park(): Unit = parked = true
+
+    def unpark(): Unit = parked = false
+
+    def isParked: Boolean = parked
+
+    @throws[AlertException]
+    @throws[InterruptedException]
+    @throws[TimeoutException]
+    override def waitFor(sequence: Long, cursorSequence: Sequence,
+                         dependentSequence: Sequence,
+                         barrier: SequenceBarrier): Long = {
+        var nanos = if (parked) parkTimeoutNanos else busyTimeoutNanos
+        if (cursorSequence.get() < sequence) {
+            lock.lock()
+            try {
+                while (cursorSequence.get() < sequence) {
+                    barrier.checkAlert()
+                    nanos = processorNotifyCondition.awaitNanos(nanos)
+                    if (nanos <= 0)
+                        throw TimeoutException.INSTANCE
+                }
+            } finally {
+                lock.unlock()
+            }
+        }
+
+        var availableSequence = dependentSequence.get()
+        while (availableSequence < sequence) {
+            barrier.checkAlert()
+            availableSequence = dependentSequence.get()
+        }
+        availableSequence
+    }
+
+    override def signalAllWhenBlocking(): Unit = {
+        lock.lock()
+        try processorNotifyCondition.signalAll()
+        finally lock.unlock()
+    }
+}
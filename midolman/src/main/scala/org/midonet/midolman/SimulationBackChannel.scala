@@ -17,11 +17,17 @@
 package org.midonet.midolman
 
 import java.util.ArrayList
+import java.util.concurrent.atomic.{AtomicLong, AtomicReference, AtomicReferenceArray}
 
 import scala.util.control.NonFatal
 
+import com.codahale.metrics.MetricRegistry
+
 import org.jctools.queues.MpscLinkedQueue8
 
+import org.midonet.midolman.flows.FlowTagFilter
+import org.midonet.midolman.monitoring.metrics.BackChannelMetrics
+import org.midonet.sdn.flows.FlowTagger.FlowTag
 import org.midonet.util.concurrent.WakerUpper.Parkable
 
 object SimulationBackChannel {
@@ -33,6 +39,81 @@ object SimulationBackChannel {
 
     trait BackChannelShard extends SimulationBackChannel {
         def offer(msg: BackChannelMessage): Unit
+
+        /** Returns false if the consumer of this shard has no flows with
+          * the given tag. */
+        def mayMatch(tag: FlowTag): Boolean
+
+        /** Sets the filter summarizing the flow tags of the consumer of this
+          * shard, such that invalidations of other tags are not enqueued. */
+        def filterInvalidations(filter: FlowTagFilter): Unit
+
+        /** The sequence number of the next flow tag invalidation. */
+        def invalidationSequence: Long
+
+        /** Enqueues again the invalidations since the given sequence number
+          * that match any of the given tags. A consumer must call this after
+          * adding the tags of a new flow to its filter, with the sequence
+          * number read before computing the flow, because those
+          * invalidations may have been filtered out. */
+        def recheckInvalidations(sequence: Long, tags: ArrayList[FlowTag]): Unit
+    }
+
+    /**
+     * A bulk message of the flow tag invalidations enqueued to a shard
+     * since the shard was last polled. Producers add tags until the
+     * consumer seals the batch when it polls it from the queue.
+     */
+    final class InvalidationBatch private[midolman] (first: FlowTag)
+        extends BackChannelMessage {
+
+        val tags = new ArrayList[FlowTag]()
+        tags.add(first)
+        private var isSealed = false
+
+        private[midolman] def add(tag: FlowTag): Boolean = synchronized {
+            if (!isSealed) tags.add(tag)
+            !isSealed
+        }
+
+        private[midolman] def seal(): Unit = synchronized {
+            isSealed = true
+        }
+
+        override def toString = s"InvalidationBatch[${tags.size} tags]"
+    }
+
+    private[midolman] final val LogSize = 4096
+    private[midolman] final val LogMask = LogSize - 1
+
+    private[midolman] final class LogEntry(val sequence: Long, val tag: FlowTag)
+
+    /**
+     * Records the most recent flow tag invalidations, such that a consumer
+     * can find the invalidations that were filtered out while it computed a
+     * new flow. An invalidation is appended before the shard filters are
+     * checked, which pairs with the consumer adding the tags of the flow to
+     * its filter before reading the sequence number: either the producer
+     * sees the tags, or the consumer sees the invalidation.
+     */
+    private[midolman] final class InvalidationLog {
+        private val next = new AtomicLong()
+        private val entries = new AtomicReferenceArray[LogEntry](LogSize)
+
+        def sequence: Long = next.get
+
+        def append(tag: FlowTag): Unit = {
+            val sequence = next.getAndIncrement()
+            entries.set((sequence & LogMask).toInt, new LogEntry(sequence, tag))
+        }
+
+        /** Returns the tag invalidated with the given sequence number, or
+          * null if the entry was overwritten or is not yet written. */
+        def get(sequence: Long): FlowTag = {
+            val entry = entries.get((sequence & LogMask).toInt)
+            if ((entry ne null) && entry.sequence == sequence) entry.tag
+            else null
+        }
     }
 
 }
@@ -43,11 +124,15 @@ trait SimulationBackChannel {
     def poll(): SimulationBackChannel.BackChannelMessage
 }
 
-final class ShardedSimulationBackChannel extends SimulationBackChannel {
+final class ShardedSimulationBackChannel(metrics: BackChannelMetrics)
+    extends SimulationBackChannel {
     import SimulationBackChannel._
 
+    def this() = this(new BackChannelMetrics(new MetricRegistry))
+
     private val noShard: BackChannelShard = null
     private val processors = new ArrayList[BackChannelShard]()
+    private val invalidations = new InvalidationLog
 
     /**
       * Registers a queue-based back-channel shard.
@@ -83,14 +168,66 @@ final class ShardedSimulationBackChannel extends SimulationBackChannel {
 
 
     private def tellOthers(shardToSkip: BackChannelShard,
-                           msg: BackChannelMessage): Unit = {
+                           msg: BackChannelMessage): Unit = msg match {
+        case tag: FlowTag =>
+            invalidate(shardToSkip, tag)
+        case _ =>
+            var i = 0
+            while (i < processors.size()) {
+                val p = processors.get(i)
+                if (p ne shardToSkip)
+                    p.offer(msg)
+                i += 1
+            }
+    }
+
+    /**
+      * Enqueues a flow tag invalidation only to the shards whose consumers
+      * may have flows with that tag. The shard to skip, if any, already
+      * enqueued the invalidation.
+      */
+    private def invalidate(shardToSkip: BackChannelShard, tag: FlowTag): Unit = {
+        invalidations.append(tag)
+        var enqueued = if (shardToSkip ne null) 1 else 0
         var i = 0
         while (i < processors.size()) {
             val p = processors.get(i)
-            if (p ne shardToSkip)
-                p.offer(msg)
+            if ((p ne shardToSkip) && p.mayMatch(tag)) {
+                p.offer(tag)
+                enqueued += 1
+            }
             i += 1
         }
+        metrics.invalidationsSent.mark()
+        metrics.invalidationsEnqueued.mark(enqueued)
+        metrics.invalidationsFiltered.mark(processors.size() - enqueued)
+    }
+
+    private def recheckInvalidations(shard: BackChannelShard, sequence: Long,
+                                     tags: ArrayList[FlowTag]): Unit = {
+        val last = invalidations.sequence
+        if (sequence == last)
+            return
+        var current = sequence
+        while (current < last) {
+            val tag = invalidations.get(current)
+            if (tag eq null) {
+                // The log no longer has all the invalidations: conservatively
+                // invalidate all tags.
+                var i = 0
+                while (i < tags.size()) {
+                    shard.offer(tags.get(i))
+                    i += 1
+                }
+                metrics.invalidationsRechecked.mark(tags.size())
+                return
+            }
+            if (tags.contains(tag)) {
+                shard.offer(tag)
+                metrics.invalidationsRechecked.mark()
+            }
+            current += 1
+        }
     }
 
     override def hasMessages: Boolean = {
@@ -110,18 +247,56 @@ final class ShardedSimulationBackChannel extends SimulationBackChannel {
     /**
       * A back-channel shard that uses a multi-producer single-consumer queue.
       * Back-channel consumers must regularly poll the shard in order to fetch
-      * the last back-channel messages.
+      * the last back-channel messages. Flow tag invalidations are coalesced
+      * into [[InvalidationBatch]] messages, and once the consumer sets a tag
+      * filter, only the invalidations of tags that may be in the filter are
+      * enqueued.
       */
     final class QueueBackChannelShard extends BackChannelShard with Parkable {
 
         private val q = new MpscLinkedQueue8[BackChannelMessage]()
+        private val openBatch = new AtomicReference[InvalidationBatch]()
+        @volatile private var tagFilter: FlowTagFilter = null
 
-        override def offer(msg: BackChannelMessage): Unit = {
+        override def offer(msg: BackChannelMessage): Unit = msg match {
+            case tag: FlowTag => offerTag(tag)
+            case _ => enqueue(msg)
+        }
+
+        private def offerTag(tag: FlowTag): Unit = {
+            while (true) {
+                val batch = openBatch.get
+                if ((batch ne null) && batch.add(tag))
+                    return
+                val newBatch = new InvalidationBatch(tag)
+                if (openBatch.compareAndSet(batch, newBatch)) {
+                    enqueue(newBatch)
+                    return
+                }
+            }
+        }
+
+        private def enqueue(msg: BackChannelMessage): Unit = {
             while (!q.offer(msg)) {
                 park(retries = 0)
             }
         }
 
+        override def mayMatch(tag: FlowTag): Boolean = {
+            val filter = tagFilter
+            (filter eq null) || filter.mightContain(tag)
+        }
+
+        override def filterInvalidations(filter: FlowTagFilter): Unit =
+            tagFilter = filter
+
+        override def invalidationSequence: Long = invalidations.sequence
+
+        override def recheckInvalidations(sequence: Long,
+                                          tags: ArrayList[FlowTag]): Unit =
+            ShardedSimulationBackChannel.this.recheckInvalidations(
+                this, sequence, tags)
+
         /**
          * Schedules this message on the current back-channel, and, if it is
          * a broadcast message, schedules it on all the remaining shards.
@@ -137,8 +312,18 @@ final class ShardedSimulationBackChannel extends SimulationBackChannel {
         /**
          * Processes the messages in this instance.
          */
-        override def poll(): BackChannelMessage =
-            q.poll()
+        override def poll(): BackChannelMessage = {
+            val msg = q.poll()
+            msg match {
+                case batch: InvalidationBatch =>
+                    // Producers add to the batch until it is sealed, after
+                    // which they start a new batch.
+                    batch.seal()
+                    openBatch.compareAndSet(batch, null)
+                case _ =>
+            }
+            msg
+        }
 
         override def shouldWakeUp(): Boolean = hasMessages
     }
@@ -155,6 +340,15 @@ final class ShardedSimulationBackChannel extends SimulationBackChannel {
             catch { case NonFatal(e) => /* Catch all exceptions */ }
         }
 
+        override def mayMatch(tag: FlowTag): Boolean = true
+
+        override def filterInvalidations(filter: FlowTagFilter): Unit = { }
+
+        override def invalidationSequence: Long = invalidations.sequence
+
+        override def recheckInvalidations(sequence: Long,
+                                          tags: ArrayList[FlowTag]): Unit = { }
+
         /**
           * Schedules this message on the current back-channel, and, if it is
           * a broadcast message, schedules it on all the remaining shards.
@@ -78,6 +78,12 @@ class MidolmanConfig(_conf: Config, val schema: Config = ConfigFactory.empty())
 
     def dhcpMtu = Math.min(getInt(s"$PREFIX.midolman.dhcp_mtu"), 0xffff)
     def simulationThreads = getInt(s"$PREFIX.midolman.simulation_threads")
+    def adaptiveSimulationThreads = getBoolean(s"$PREFIX.midolman.adaptive_simulation_threads")
+    def adaptiveSimulationSampleInterval = getDuration(s"$PREFIX.midolman.adaptive_simulation_sample_interval", TimeUnit.MILLISECONDS) millis
+    def adaptiveSimulationIdleSamples = getInt(s"$PREFIX.midolman.adaptive_simulation_idle_samples")
+    def adaptiveSimulationParkTimeout = getDuration(s"$PREFIX.midolman.adaptive_simulation_park_timeout", TimeUnit.MICROSECONDS) micros
+    def simulationCacheSize = getInt(s"$PREFIX.midolman.simulation_cache_size")
+    def coarsePortMasks = getBoolean(s"$PREFIX.midolman.coarse_port_masks")
     def maxPooledContexts = getInt(s"$PREFIX.midolman.max_pooled_contexts")
     def outputChannels = getInt(s"$PREFIX.midolman.output_channels")
     def inputChannelThreading = getString(s"$PREFIX.midolman.input_channel_threading")
@@ -107,6 +113,7 @@ class MidolmanConfig(_conf: Config, val schema: Config = ConfigFactory.empty())
 class HostConfig(val conf: Config, val schema: Config) extends TypeFailureFallback {
     def waitTimeForUniqueId: Long = Try(getDuration("agent.host.wait_time_gen_id", TimeUnit.MILLISECONDS)).getOrElse(1000L)
     def retriesForUniqueId = Try(getInt("agent.host.retries_gen_id")).getOrElse(300)
+    def interfacesUpdateWindow: Long = Try(getDuration("agent.host.interfaces_update_window", TimeUnit.MILLISECONDS)).getOrElse(500L)
 }
 
 class BridgeConfig(val conf: Config, val schema: Config) extends TypeFailureFallback {
@@ -127,6 +134,7 @@ class DatapathConfig(val conf: Config, val schema: Config) extends TypeFailureFa
     def sendBufferPoolBufSizeKb = getInt(s"$PREFIX.send_buffer_pool_buf_size_kb")
 
     def maxFlowCount = getInt(s"$PREFIX.max_flow_count")
+    def flowDeleteBatchSize = getInt(s"$PREFIX.flow_delete_batch_size")
 
     def vxlanVtepUdpPort = getInt(s"$PREFIX.vxlan_vtep_udp_port")
     def vxlanOverlayUdpPort = getInt(s"$PREFIX.vxlan_overlay_udp_port")
@@ -140,6 +148,9 @@ class DatapathConfig(val conf: Config, val schema: Config) extends TypeFailureFa
     def vmIncomingBurstCapacity = getInt(s"$PREFIX.vm_incoming_burst_capacity")
     def tunnelIncomingBurstCapacity = getInt(s"$PREFIX.tunnel_incoming_burst_capacity")
     def vtepIncomingBurstCapacity = getInt(s"$PREFIX.vtep_incoming_burst_capacity")
+    def htbVmGrouping = Try(getString(s"$PREFIX.htb_vm_grouping")).getOrElse("none")
+    def htbVmGroupMaxWeight = Try(getInt(s"$PREFIX.htb_vm_group_max_weight")).getOrElse(1)
+    def htbTargetSimulationLatency: Long = Try(getDuration(s"$PREFIX.htb_target_simulation_latency", TimeUnit.NANOSECONDS)).getOrElse(0L)
 
     def controlPacketTos: Byte = getInt(s"$PREFIX.control_packet_tos").toByte
 }
@@ -176,6 +187,7 @@ class HealthMonitorConfig(val conf: Config, val schema: Config) extends TypeFail
     def enable = getBoolean(s"$PREFIX.health_monitor_enable")
     def namespaceCleanup = getBoolean(s"$PREFIX.namespace_cleanup")
     def haproxyFileLoc = getString(s"$PREFIX.haproxy_file_loc")
+    def nioHealthChecks = getBoolean(s"$PREFIX.nio_health_checks")
 }
 
 
@@ -195,6 +207,12 @@ class MetadataConfig(val conf: Config, val schema: Config)
     def novaMetadataUrl =
         getString("agent.openstack.metadata.nova_metadata_url")
     def sharedSecret = getString("agent.openstack.metadata.shared_secret")
+    def novaConnections = getInt("agent.openstack.metadata.nova_connections")
+    def requestTimeout = getDuration(
+        "agent.openstack.metadata.request_timeout", TimeUnit.MILLISECONDS) millis
+    def cacheTtl = getDuration(
+        "agent.openstack.metadata.cache_ttl", TimeUnit.MILLISECONDS) millis
+    def cacheSize = getInt("agent.openstack.metadata.cache_size")
 }
 
 class FlowHistoryConfig(val conf: Config, val schema: Config) extends TypeFailureFallback {
@@ -251,6 +269,7 @@ class FlowStateConfig(val conf: Config, val schema: Config)
     def localPushState: Boolean = getBoolean(s"$prefix.local_push_state")
     def connectionTimeout: Int = getDuration(s"$prefix.connection_timeout",
                                         TimeUnit.MILLISECONDS).toInt
+    def importChunkSize: Int = Math.max(getInt(s"$prefix.import_chunk_size"), 1)
 }
 
 class BindingApiConfig(val conf: Config, val schema: Config)
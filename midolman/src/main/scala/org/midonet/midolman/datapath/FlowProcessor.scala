@@ -79,7 +79,8 @@ class FlowProcessor(dpState: DatapathState,
                     selectorProvider: SelectorProvider,
                     backChannel: SimulationBackChannel,
                     datapathMetrics: DatapathMetrics,
-                    clock: NanoClock)
+                    clock: NanoClock,
+                    maxDeleteBatchSize: Int = 1)
     extends EventPoller.Handler[PacketContextHolder]
     with DisruptorBackChannel
     with LifecycleAware {
@@ -115,7 +116,8 @@ class FlowProcessor(dpState: DatapathState,
         maxPendingRequests,
         maxRequestSize,
         BytesUtil.instance.allocateDirect(64 * 1024),
-        clock)
+        clock,
+        maxBatchSize = maxDeleteBatchSize)
     private val timeoutMillis = broker.timeout.toMillis
 
     private val flowMask = new FlowMask()
@@ -141,6 +143,10 @@ class FlowProcessor(dpState: DatapathState,
                         context.recircMatch, context.recircFlowActions, context, index)
                     datapathMetrics.flowsCreated.mark()
                 }
+                if (context.latencies ne null) {
+                    context.latencies.recordFlowCreate(context.handoffNanos,
+                                                       NanoClock.DEFAULT.tick)
+                }
             } catch { case t: Throwable =>
                 context.log.error("Failed to create datapath flow", t)
             }
@@ -19,7 +19,7 @@ package org.midonet.midolman.datapath
 import java.nio.BufferOverflowException
 import java.nio.channels.AsynchronousCloseException
 import java.util.concurrent.TimeUnit
-import java.util.{ArrayList => JArrayList}
+import java.util.{Arrays, ArrayList => JArrayList}
 
 import scala.annotation.tailrec
 import scala.util.control.NonFatal
@@ -31,7 +31,7 @@ import org.slf4j.LoggerFactory
 
 import org.midonet.midolman.DatapathState
 import org.midonet.midolman.datapath.DisruptorDatapathChannel._
-import org.midonet.midolman.monitoring.metrics.PacketExecutorMetrics
+import org.midonet.midolman.monitoring.metrics.{PacketExecutorMetrics, PacketPipelineLatencies}
 import org.midonet.midolman.simulation.PacketContext
 import org.midonet.netlink._
 import org.midonet.odp._
@@ -71,7 +71,10 @@ object PacketExecutor {
         // Don't do MSS clamping on packet tunneled here from another Midolman
         // node, since the other node already did it if needed.
         if (ctx.inputPort != null) {
-            try clampMss(ctx.packet.getEthernet, 0, log) catch {
+            try {
+                if (clampMss(ctx.packet.getEthernet, 0, log))
+                    ctx.packet.invalidateOriginalData()
+            } catch {
                 case ex: ArrayIndexOutOfBoundsException =>
                     log.debug(
                         "Could not parse TCP options for packet " + ctx.packet)
@@ -79,9 +82,10 @@ object PacketExecutor {
         }
     }
 
+    /** Returns whether the packet was modified. */
     @tailrec
     private def clampMss(pkt: IPacket, wrapperSize: Int, log: Logger)
-    : Unit = pkt match {
+    : Boolean = pkt match {
         case t: TCP if t.getFlag(TCP.Flag.Syn) && (t.getOptions ne null) =>
             var i = 0
             val opts = t.getOptions
@@ -97,7 +101,7 @@ object PacketExecutor {
                     val len = opts(i)
                     if (len != 4) {
                         log.debug("MSS length should be 4, was " + len)
-                        return
+                        return false
                     }
                     i += 1
                     val mss = ((opts(i) << 8) | opts(i + 1) & 0xff).toShort
@@ -108,19 +112,23 @@ object PacketExecutor {
                         opts(i) = (newMss >> 8).toByte
                         opts(i + 1) = newMss.toByte
                         clearChecksums(t)
+                        return true
                     }
-                    return
+                    return false
                 } else {
                     // Don't care about other options, so just skip arguments.
                     val len = opts(i)
                     i += len - 1
                 }
             }
-        case t: TCP => // Don't expect TCP nested in TCP.
+            false
+        case t: TCP => false // Don't expect TCP nested in TCP.
         case _ =>
             if (pkt.getPayload != null) {
                 val headerLen = pkt.length - pkt.getPayload.length
                 clampMss(pkt.getPayload, wrapperSize + headerLen, log)
+            } else {
+                false
             }
     }
 
@@ -164,6 +172,13 @@ sealed class PacketExecutor(dpState: DatapathState,
     private val writer = new NetlinkBlockingWriter(channel)
     private val reader = new NetlinkReader(channel)
 
+    // The start and handoff times and the latency histograms of the packets
+    // in the write buffer, for the latency metrics once they are sent.
+    private var pendingStartNanos = new Array[Long](64)
+    private var pendingHandoffNanos = new Array[Long](64)
+    private var pendingLatencies = new Array[PacketPipelineLatencies](64)
+    private var pendingPackets = 0
+
     override def onEvent(event: PacketContextHolder, sequence: Long,
                          endOfBatch: Boolean): Unit = {
         val context = event.packetExecRef
@@ -176,16 +191,17 @@ sealed class PacketExecutor(dpState: DatapathState,
                     clampMss(context, log)
                     maybeExecuteStatePacket(datapathId, context)
                     executePacket(datapathId, packet, actions)
-                    val latency = NanoClock.DEFAULT.tick - packet.startTimeNanos
-                    metrics.packetsExecuted.update(latency.toInt,
-                                                   TimeUnit.NANOSECONDS)
-                    context.log.debug(s"Executed packet")
+                    addPending(context)
+                    context.log.debug(s"Queued packet for execution")
                 } catch { case t: Throwable =>
                     context.log.error(s"Failed to execute packet", t)
                 }
             }
             context.setPacketProcessed()
         }
+        if (endOfBatch) {
+            flush()
+        }
     }
 
     private def maybeExecuteStatePacket(datapathId: Int, context: PacketContext): Unit = {
@@ -195,7 +211,7 @@ sealed class PacketExecutor(dpState: DatapathState,
                 val statePacket = prepareStatePacket(context.stateMessage,
                                                      context.stateMessageLength)
                 executePacket(datapathId, statePacket, actions)
-                context.log.debug(s"Executed flow state message")
+                context.log.debug(s"Queued flow state message for execution")
             } finally {
                 context.stateMessageLength = 0
                 context.stateActions.clear()
@@ -203,23 +219,69 @@ sealed class PacketExecutor(dpState: DatapathState,
         }
     }
 
+    /**
+     * Appends the execute message for a packet to the write buffer, which
+     * batches the messages for the packets of a Disruptor batch into a single
+     * write. The buffer is sent first if the message doesn't fit in it.
+     */
     private def executePacket(datapathId: Int, packet: Packet,
                               actions: JArrayList[FlowAction]): Unit =
         try {
-            protocol.preparePacketExecute(datapathId, packet, actions, writeBuf)
-            writer.write(writeBuf)
+            protocol.appendPacketExecute(datapathId, packet, actions, writeBuf)
         } catch { case e: BufferOverflowException =>
-            val capacity = writeBuf.capacity()
-            if (capacity >= PacketExecutor.MAX_BUF_CAPACITY)
-                throw e
-            val newCapacity = capacity * 2
-            writeBuf = BytesUtil.instance.allocateDirect(newCapacity)
-            log.debug(s"Increasing buffer size to $newCapacity")
+            if (writeBuf.position() > 0) {
+                flush()
+            } else {
+                val capacity = writeBuf.capacity()
+                if (capacity >= PacketExecutor.MAX_BUF_CAPACITY)
+                    throw e
+                val newCapacity = capacity * 2
+                writeBuf = BytesUtil.instance.allocateDirect(newCapacity)
+                log.debug(s"Increasing buffer size to $newCapacity")
+            }
             executePacket(datapathId, packet, actions)
-        } finally {
-            writeBuf.clear()
         }
 
+    private def addPending(context: PacketContext): Unit = {
+        if (pendingPackets == pendingStartNanos.length) {
+            val length = pendingPackets * 2
+            pendingStartNanos = Arrays.copyOf(pendingStartNanos, length)
+            pendingHandoffNanos = Arrays.copyOf(pendingHandoffNanos, length)
+            pendingLatencies = Arrays.copyOf(pendingLatencies, length)
+        }
+        pendingStartNanos(pendingPackets) = context.packet.startTimeNanos
+        pendingHandoffNanos(pendingPackets) = context.handoffNanos
+        pendingLatencies(pendingPackets) = context.latencies
+        pendingPackets += 1
+    }
+
+    /** Sends the execute messages in the write buffer. */
+    private def flush(): Unit = {
+        if (writeBuf.position() > 0) {
+            writeBuf.flip()
+            try {
+                writer.write(writeBuf)
+                val now = NanoClock.DEFAULT.tick
+                var i = 0
+                while (i < pendingPackets) {
+                    metrics.packetsExecuted.update(
+                        (now - pendingStartNanos(i)).toInt, TimeUnit.NANOSECONDS)
+                    val latencies = pendingLatencies(i)
+                    if (latencies ne null)
+                        latencies.recordExecute(pendingHandoffNanos(i), now)
+                    i += 1
+                }
+            } catch { case NonFatal(e) =>
+                log.error(s"Failed to execute $pendingPackets packets", e)
+            } finally {
+                writeBuf.clear()
+                Arrays.fill(pendingLatencies.asInstanceOf[Array[AnyRef]], 0,
+                            pendingPackets, null)
+                pendingPackets = 0
+            }
+        }
+    }
+
     private def processError(): Unit =
         try {
            if (reader.read(readBuf) > 0) {
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.flows
+
+import java.util.concurrent.atomic.AtomicIntegerArray
+
+import org.midonet.Util
+import org.midonet.sdn.flows.FlowTagger.FlowTag
+
+object FlowTagFilter {
+    private final val MinCounters = 1 << 12
+    private final val MaxCounters = 1 << 22
+}
+
+/**
+ * A counting Bloom filter summarizing the tags of the flows of a packet
+ * worker, such that invalidations of tags that no flow of the worker has
+ * need not be sent to that worker. Each tag maps to two counters, and a tag
+ * may be present only if both are non-zero.
+ *
+ * The filter is modified only by the thread owning the flows, while any
+ * thread may query it. The counters are written with volatile semantics,
+ * such that a tag added before a concurrent invalidation is announced is
+ * seen by the invalidating thread.
+ */
+final class FlowTagFilter(capacity: Int) {
+
+    import FlowTagFilter._
+
+    private val size = Util.findNextPositivePowerOfTwo(
+        Math.min(MaxCounters, Math.max(MinCounters, capacity)))
+    private val shift = 32 - Integer.numberOfTrailingZeros(size)
+    private val counters = new AtomicIntegerArray(size)
+
+    /** Adds a tag that was not present in the indexed flows. */
+    def add(tag: FlowTag): Unit = {
+        val hash = tag.hashCode()
+        increment(first(hash))
+        increment(second(hash))
+    }
+
+    /** Removes a tag that is no longer present in the indexed flows. */
+    def remove(tag: FlowTag): Unit = {
+        val hash = tag.hashCode()
+        decrement(first(hash))
+        decrement(second(hash))
+    }
+
+    /** Returns false if the tag is definitely not present in the indexed
+      * flows. */
+    def mightContain(tag: FlowTag): Boolean = {
+        val hash = tag.hashCode()
+        counters.get(first(hash)) > 0 && counters.get(second(hash)) > 0
+    }
+
+    private def first(hash: Int): Int = (hash * 0x9e3779b9) >>> shift
+
+    private def second(hash: Int): Int =
+        (Integer.reverse(hash) * 0x85ebca6b) >>> shift
+
+    private def increment(index: Int): Unit =
+        counters.set(index, counters.get(index) + 1)
+
+    private def decrement(index: Int): Unit =
+        counters.set(index, counters.get(index) - 1)
+}
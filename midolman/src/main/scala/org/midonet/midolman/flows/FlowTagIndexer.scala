@@ -22,55 +22,190 @@ import org.midonet.midolman.logging.MidolmanLogging
 
 import org.midonet.sdn.flows.FlowTagger.FlowTag
 
+object FlowTagIndexer {
+    private final val InitialTags = 1024
+}
+
+/**
+ * Indexes the flows by their tags, such that all flows with a given tag can
+ * be invalidated. Every tag of the indexed flows is assigned a dense integer
+ * identifier, which is reused once no flow has that tag. The flows with the
+ * same tag form a doubly linked list, whose links are stored in the tag
+ * slots of each [[ManagedFlow]], such that registering and removing a flow
+ * does not allocate.
+ *
+ * When a [[FlowTagFilter]] is provided, the indexer adds every tag to the
+ * filter when the tag is first indexed, and removes it when no flow has it
+ * anymore, such that other threads can tell which tags may be indexed.
+ *
+ * Like the flows it indexes, the indexer is not thread-safe and must only be
+ * used from the thread owning the flows.
+ */
 trait FlowTagIndexer extends FlowIndexer with MidolmanLogging {
-    private val tagToFlows = new HashMap[FlowTag, Set[ManagedFlow]]()
+
+    import FlowTagIndexer._
+
+    private val tagToId = new HashMap[FlowTag, Integer]()
+    private var idToTag = new Array[FlowTag](InitialTags)
+    private var heads = new Array[ManagedFlow](InitialTags)
+    private var counts = new Array[Int](InitialTags)
+    private var freeIds = new Array[Int](InitialTags)
+    private var numFreeIds = 0
+    private var nextId = 0
+    private val invalidated = new ArrayList[ManagedFlow]()
+
+    /** The filter summarizing the indexed tags, if any. */
+    protected def tagFilter: FlowTagFilter = null
 
     abstract override def registerFlow(flow: ManagedFlow): Unit = {
         super.registerFlow(flow)
+        if (flow.linkedTags > 0) {
+            unlinkAll(flow)
+        }
         val numTags = flow.tags.size()
+        flow.ensureTagSlots(numTags)
         var i = 0
         while (i < numTags) {
-            getOrAdd(flow.tags.get(i)).add(flow)
+            val id = idFor(flow.tags.get(i))
+            // Link the flow once for every distinct tag.
+            if (flow.tagSlot(id) < 0) {
+                link(flow, i, id)
+            }
             i += 1
         }
     }
 
     abstract override def removeFlow(flow: ManagedFlow): Unit = {
         super.removeFlow(flow)
-        val numTags = flow.tags.size()
-        var i = 0
-        while (i < numTags) {
-            val tag = flow.tags.get(i)
-            val flows = tagToFlows.get(tag)
-            if (flows ne null) {
-                flows.remove(flow)
-                if (flows.size() == 0)
-                    tagToFlows.remove(tag)
-            }
+        unlinkAll(flow)
+    }
+
+    def invalidateFlowsFor(tag: FlowTag): Unit = {
+        val id = tagToId.get(tag)
+        log.debug(s"Invalidating ${if (id ne null) counts(id) else 0} flows " +
+                  s"for tag $tag")
+        if (id eq null) {
+            return
+        }
+
+        // Collect the flows first, since removing a flow unlinks it and may
+        // release the tag identifier.
+        val start = invalidated.size()
+        var flow = heads(id)
+        while (flow ne null) {
+            invalidated.add(flow)
+            flow = flow.nextByTag(flow.tagSlot(id))
+        }
+        var i = start
+        while (i < invalidated.size()) {
+            removeFlow(invalidated.get(i))
             i += 1
         }
+        while (invalidated.size() > start) {
+            invalidated.remove(invalidated.size() - 1)
+        }
     }
 
-    def invalidateFlowsFor(tag: FlowTag): Unit = {
-        val flows = tagToFlows.remove(tag)
-        log.debug(s"Invalidating ${if (flows ne null) flows.size() else 0} flows for tag $tag")
-        if (flows ne null) {
-            val it = flows.iterator()
-            while (it.hasNext) {
-                removeFlow(it.next())
+    def flowsFor(tag: FlowTag): Set[ManagedFlow] = {
+        val id = tagToId.get(tag)
+        if (id eq null) {
+            return null
+        }
+        val flows = Collections.newSetFromMap(new IdentityHashMap[ManagedFlow,
+                                                                  java.lang.Boolean]())
+        var flow = heads(id)
+        while (flow ne null) {
+            flows.add(flow)
+            flow = flow.nextByTag(flow.tagSlot(id))
+        }
+        flows
+    }
+
+    /** The number of distinct tags of the indexed flows. */
+    def indexedTags: Int = tagToId.size()
+
+    private def idFor(tag: FlowTag): Int = {
+        val existing = tagToId.get(tag)
+        if (existing ne null) {
+            return existing
+        }
+        val id = if (numFreeIds > 0) {
+            numFreeIds -= 1
+            freeIds(numFreeIds)
+        } else {
+            if (nextId == idToTag.length) {
+                grow()
             }
+            nextId += 1
+            nextId - 1
+        }
+        idToTag(id) = tag
+        tagToId.put(tag, id)
+        if (tagFilter ne null) {
+            tagFilter.add(tag)
         }
+        id
     }
 
-    def flowsFor(tag: FlowTag): Set[ManagedFlow] =
-        tagToFlows.get(tag)
+    private def releaseId(id: Int): Unit = {
+        if (tagFilter ne null) {
+            tagFilter.remove(idToTag(id))
+        }
+        tagToId.remove(idToTag(id))
+        idToTag(id) = null
+        freeIds(numFreeIds) = id
+        numFreeIds += 1
+    }
 
-    private def getOrAdd(tag: FlowTag): Set[ManagedFlow] = {
-        var set = tagToFlows.get(tag)
-        if (set eq null) {
-            set = Collections.newSetFromMap(new IdentityHashMap())
-            tagToFlows.put(tag, set)
+    private def grow(): Unit = {
+        val capacity = idToTag.length * 2
+        idToTag = Arrays.copyOf(idToTag, capacity)
+        heads = Arrays.copyOf(heads, capacity)
+        counts = Arrays.copyOf(counts, capacity)
+        freeIds = Arrays.copyOf(freeIds, capacity)
+    }
+
+    private def link(flow: ManagedFlow, slot: Int, id: Int): Unit = {
+        val head = heads(id)
+        flow.tagIds(slot) = id
+        flow.prevByTag(slot) = null
+        flow.nextByTag(slot) = head
+        if (head ne null) {
+            head.prevByTag(head.tagSlot(id)) = flow
+        }
+        heads(id) = flow
+        counts(id) += 1
+    }
+
+    private def unlinkAll(flow: ManagedFlow): Unit = {
+        var slot = 0
+        while (slot < flow.linkedTags) {
+            val id = flow.tagIds(slot)
+            if (id >= 0) {
+                unlink(flow, slot, id)
+            }
+            slot += 1
+        }
+        flow.linkedTags = 0
+    }
+
+    private def unlink(flow: ManagedFlow, slot: Int, id: Int): Unit = {
+        val prev = flow.prevByTag(slot)
+        val next = flow.nextByTag(slot)
+        if (prev ne null) {
+            prev.nextByTag(prev.tagSlot(id)) = next
+        } else {
+            heads(id) = next
+        }
+        if (next ne null) {
+            next.prevByTag(next.tagSlot(id)) = prev
+        }
+        flow.tagIds(slot) = -1
+        flow.prevByTag(slot) = null
+        flow.nextByTag(slot) = null
+        counts(id) -= 1
+        if (counts(id) == 0) {
+            releaseId(id)
         }
-        set
     }
 }
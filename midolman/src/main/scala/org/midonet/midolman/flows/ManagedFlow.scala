@@ -23,6 +23,11 @@ import org.midonet.sdn.flows.FlowTagger.FlowTag
 import org.midonet.util.collection.{ArrayListUtil, ObjectPool, PooledObject}
 import org.midonet.util.functors.Callback0
 
+object ManagedFlow {
+    private val NoTagIds = new Array[Int](0)
+    private val NoFlows = new Array[ManagedFlow](0)
+}
+
 /**
  * A ManagedFlow that is stored in a pool.
  * Once the instance is no longer used, the pool entry can be reused.
@@ -44,6 +49,15 @@ final class ManagedFlow(override val pool: ObjectPool[ManagedFlow])
     var removed = true
     var linkedFlow: ManagedFlow = null
 
+    // The links of this flow in the per-tag flow lists of the
+    // FlowTagIndexer: for every tag slot, the tag identifier, or -1 if not
+    // linked, and the previous and next flows with the same tag. The slots
+    // are kept when the flow is reused.
+    private[flows] var tagIds = ManagedFlow.NoTagIds
+    private[flows] var prevByTag = ManagedFlow.NoFlows
+    private[flows] var nextByTag = ManagedFlow.NoFlows
+    private[flows] var linkedTags = 0
+
     def reset(flowMatch: FlowMatch, flowTags: ArrayList[FlowTag],
               flowRemovedCallbacks: ArrayList[Callback0], sequence: Long,
               expiration: Expiration, now: Long, linkedFlow: ManagedFlow = null): Unit = {
@@ -64,6 +78,30 @@ final class ManagedFlow(override val pool: ObjectPool[ManagedFlow])
         }
     }
 
+    /** Ensures this flow has at least the given number of unlinked tag
+      * slots. */
+    private[flows] def ensureTagSlots(count: Int): Unit = {
+        if (tagIds.length < count) {
+            tagIds = new Array[Int](count)
+            prevByTag = new Array[ManagedFlow](count)
+            nextByTag = new Array[ManagedFlow](count)
+        }
+        java.util.Arrays.fill(tagIds, 0, count, -1)
+        linkedTags = count
+    }
+
+    /** Returns the slot linking this flow for the given tag identifier, or
+      * -1 if the flow is not linked for that tag. */
+    private[flows] def tagSlot(id: Int): Int = {
+        var slot = 0
+        while (slot < linkedTags) {
+            if (tagIds(slot) == id)
+                return slot
+            slot += 1
+        }
+        -1
+    }
+
     override def clear(): Unit = {
         flowMatch.clear()
         callbacks.clear()
@@ -0,0 +1,216 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.flows
+
+import java.util.{ArrayList, HashMap}
+
+import org.midonet.odp.FlowMatch
+import org.midonet.odp.flows.FlowAction
+import org.midonet.sdn.flows.FlowTagger.FlowTag
+import org.midonet.util.functors.Callback0
+
+object SimulationCache {
+
+    private final val Fields = FlowMatch.Field.values()
+
+    /**
+     * A flow match restricted to the fields in a mask. Two masked matches
+     * are equal when they have the same used fields and the same values for
+     * the fields in the mask.
+     */
+    private[flows] final class MaskedMatch(var fmatch: FlowMatch,
+                                           var used: Long,
+                                           var mask: Long) {
+        private var hash = 0
+
+        def rehash(): MaskedMatch = {
+            var h = java.lang.Long.hashCode(used)
+            var i = 0
+            while (i < Fields.length) {
+                if ((mask & (1L << i)) != 0)
+                    h = 31 * h + Fields(i).hashCode(fmatch)
+                i += 1
+            }
+            hash = h
+            this
+        }
+
+        override def hashCode: Int = hash
+
+        override def equals(o: Any): Boolean = o match {
+            case that: MaskedMatch =>
+                if (used != that.used || mask != that.mask)
+                    return false
+                var i = 0
+                while (i < Fields.length) {
+                    if ((mask & (1L << i)) != 0 &&
+                        !Fields(i).equals(fmatch, that.fmatch))
+                        return false
+                    i += 1
+                }
+                true
+            case _ => false
+        }
+    }
+
+    /** The entries with the same used fields and mask. */
+    private final class Tuple(val used: Long, val mask: Long) {
+        val entries = new HashMap[MaskedMatch, Entry]()
+    }
+
+    /**
+     * The cached result of a simulation: the translated datapath actions and
+     * the flow tags, valid for every packet matching the seen fields of the
+     * simulated packet. The entry is also the removal callback of the flows
+     * created from it, and it is removed from the cache once none of them
+     * remain.
+     */
+    final class Entry private[SimulationCache](cache: SimulationCache,
+                                               private[flows] val key: MaskedMatch,
+                                               val actions: ArrayList[FlowAction],
+                                               val tags: ArrayList[FlowTag],
+                                               val simulationNanos: Long)
+        extends Callback0 {
+
+        private var flows = 0
+
+        /** The fields seen by the simulation. */
+        def seenFields: FlowMatch = key.fmatch
+
+        /** Ties the entry to a flow created from it. */
+        def addFlow(flow: ManagedFlow): Unit = {
+            flows += 1
+            flow.callbacks.add(this)
+        }
+
+        override def call(): Unit = {
+            flows -= 1
+            if (flows == 0)
+                cache.remove(this)
+        }
+    }
+}
+
+/**
+ * A userspace cache of simulation results, organized as a tuple space: the
+ * entries are grouped by the mask of the fields seen by their simulation,
+ * and a packet is looked up in every group with that group's mask. This
+ * lets a worker skip simulating packets that only differ from a previously
+ * simulated one in fields the simulation did not read, for instance packets
+ * of other microflows of an installed megaflow, or packets of a flow evicted
+ * from the datapath.
+ *
+ * Entries are only valid while the flows created from them are: they are
+ * removed when the last of those flows is removed, which includes the flows
+ * invalidated by tag. Since the flows keep their tags indexed, the tags of
+ * the entries remain in the worker's invalidation filter.
+ *
+ * Like the flows, the cache is not thread-safe and must only be used from
+ * the thread owning the flows.
+ */
+final class SimulationCache(maxEntries: Int) {
+
+    import SimulationCache._
+
+    private val tuples = new ArrayList[Tuple]()
+    private val probe = new MaskedMatch(null, 0L, 0L)
+    private var numEntries = 0
+
+    def size: Int = numEntries
+
+    def tupleCount: Int = tuples.size()
+
+    /** Returns the entry matching the given flow match, or null. The seen
+      * fields of the match are not modified. */
+    def get(fmatch: FlowMatch): Entry = {
+        val used = fmatch.getUsedFields
+        probe.fmatch = fmatch
+        try {
+            var i = 0
+            while (i < tuples.size()) {
+                val tuple = tuples.get(i)
+                if (tuple.used == used) {
+                    probe.used = used
+                    probe.mask = tuple.mask
+                    val entry = tuple.entries.get(probe.rehash())
+                    if (entry ne null)
+                        return entry
+                }
+                i += 1
+            }
+            null
+        } finally {
+            probe.fmatch = null
+        }
+    }
+
+    /**
+     * Caches the result of simulating a packet with the given match, whose
+     * seen fields are those read by the simulation. Returns the new entry,
+     * or null if the cache is full or there is already an entry for the
+     * same masked match.
+     */
+    def put(fmatch: FlowMatch, actions: ArrayList[FlowAction],
+            tags: ArrayList[FlowTag], simulationNanos: Long): Entry = {
+        if (numEntries >= maxEntries)
+            return null
+
+        val used = fmatch.getUsedFields
+        // The ports seen through range tests are part of the key as if
+        // they were seen, which is more specific than needed.
+        val mask = (fmatch.getSeenFields | fmatch.getPortMaskedFields) & used
+        var tuple: Tuple = null
+        var i = 0
+        while ((tuple eq null) && i < tuples.size()) {
+            val t = tuples.get(i)
+            if (t.used == used && t.mask == mask)
+                tuple = t
+            i += 1
+        }
+        if (tuple eq null) {
+            tuple = new Tuple(used, mask)
+            tuples.add(tuple)
+        }
+
+        val copy = new FlowMatch()
+        copy.resetWithoutIcmpData(fmatch)
+        val key = new MaskedMatch(copy, used, mask).rehash()
+        if (tuple.entries.containsKey(key))
+            return null
+
+        val entry = new Entry(this, key, new ArrayList(actions),
+                              new ArrayList(tags), simulationNanos)
+        tuple.entries.put(key, entry)
+        numEntries += 1
+        entry
+    }
+
+    private def remove(entry: Entry): Unit = {
+        var i = 0
+        while (i < tuples.size()) {
+            val tuple = tuples.get(i)
+            if (tuple.used == entry.key.used && tuple.mask == entry.key.mask) {
+                if (tuple.entries.remove(entry.key) eq entry)
+                    numEntries -= 1
+                if (tuple.entries.isEmpty)
+                    tuples.remove(i)
+                return
+            }
+            i += 1
+        }
+    }
+}
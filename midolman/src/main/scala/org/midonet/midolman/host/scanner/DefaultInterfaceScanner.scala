@@ -112,6 +112,11 @@ class DefaultInterfaceScanner(channelFactory: NetlinkChannelFactory,
     // only L2 Ethernet interfaces, interfaces with MAC addresses.
     private val interfaceDescriptions =
         mutable.Map.empty[Int, InterfaceDescription]
+    // The published set of L2 Ethernet interfaces. This is an immutable set
+    // updated incrementally for each interface change, such that a
+    // notification only adds or replaces the modified interface instead of
+    // rebuilding the set from all interface descriptions.
+    @volatile private var filteredIfDescSet = Set.empty[InterfaceDescription]
 
     // Mapping from an ifindex to a link.
     private val links = mutable.Map.empty[Int, Link]
@@ -237,11 +242,34 @@ class DefaultInterfaceScanner(channelFactory: NetlinkChannelFactory,
     }
 
     /*
-     * Returns a set of interface descriptions where interfaces without MAC
-     * addresses are filtered out.
+     * Adds or replaces the description for the interface with the given index,
+     * updating the published set, where interfaces without MAC addresses are
+     * filtered out.
      */
-    private def filteredIfDescSet: Set[InterfaceDescription] =
-        interfaceDescriptions.values.filter(_.getMac != null).toSet
+    private def putIfDesc(index: Int, desc: InterfaceDescription): Unit = {
+        var published = filteredIfDescSet
+        interfaceDescriptions.put(index, desc) match {
+            case Some(previous) if previous.getMac ne null =>
+                published -= previous
+            case _ =>
+        }
+        if (desc.getMac ne null) {
+            published += desc
+        }
+        filteredIfDescSet = published
+    }
+
+    /*
+     * Removes the description for the interface with the given index from
+     * the interface descriptions and the published set.
+     */
+    private def removeIfDesc(index: Int): Unit = {
+        interfaceDescriptions.remove(index) match {
+            case Some(previous) if previous.getMac ne null =>
+                filteredIfDescSet -= previous
+            case _ =>
+        }
+    }
 
     private def isAddrNotification(nlType: Short): Boolean = nlType match {
         case Rtnetlink.Type.NEWADDR | Rtnetlink.Type.DELADDR => true
@@ -276,8 +304,8 @@ class DefaultInterfaceScanner(channelFactory: NetlinkChannelFactory,
                             log.debug("Received NEWLINK notification with a " +
                                           s"new link $link")
                             links += (link.ifi.index -> link)
-                            interfaceDescriptions += (link.ifi.index ->
-                                linkToIntefaceDescription(link))
+                            putIfDesc(link.ifi.index,
+                                      linkToIntefaceDescription(link))
                             Observable.just(filteredIfDescSet)
                     }
                 case Rtnetlink.Type.DELLINK =>
@@ -287,7 +315,7 @@ class DefaultInterfaceScanner(channelFactory: NetlinkChannelFactory,
                         log.debug("Received DELLINK notification with the " +
                                       s"existing link $link")
                         links -= link.ifi.index
-                        interfaceDescriptions -= link.ifi.index
+                        removeIfDesc(link.ifi.index)
                         Observable.just(filteredIfDescSet)
                     } else {
                         Observable.empty[Set[InterfaceDescription]]
@@ -310,8 +338,7 @@ class DefaultInterfaceScanner(channelFactory: NetlinkChannelFactory,
                                 addrs(addr.ifa.index) =
                                     addrs.getOrElse(addr.ifa.index,
                                         mutable.Set.empty) + addr
-                                interfaceDescriptions += (addr.ifa.index ->
-                                    addAddr(addr))
+                                putIfDesc(addr.ifa.index, addAddr(addr))
                                 Observable.just(filteredIfDescSet)
                         }
                     }
@@ -330,8 +357,7 @@ class DefaultInterfaceScanner(channelFactory: NetlinkChannelFactory,
                                 addrSet -= addr
                                 val descOption = removeAddr(addr)
                                 if (descOption.isDefined) {
-                                    interfaceDescriptions += (addr.ifa.index ->
-                                        descOption.get)
+                                    putIfDesc(addr.ifa.index, descOption.get)
                                 }
                                 Observable.just(filteredIfDescSet)
                             case _ =>
@@ -386,13 +412,11 @@ class DefaultInterfaceScanner(channelFactory: NetlinkChannelFactory,
     private def composeIfDesc(links: Set[Link],
                               addrs: Set[Addr]): Set[InterfaceDescription] = {
         links.foreach { link =>
-            interfaceDescriptions +=
-                (link.ifi.index -> linkToIntefaceDescription(link))
+            putIfDesc(link.ifi.index, linkToIntefaceDescription(link))
             this.links += (link.ifi.index -> link)
         }
         addrs.foreach { addr =>
-            interfaceDescriptions +=
-                (addr.ifa.index -> addAddr(addr))
+            putIfDesc(addr.ifa.index, addAddr(addr))
             this.addrs(addr.ifa.index) =
                 this.addrs.getOrElse(addr.ifa.index, mutable.Set.empty) + addr
         }
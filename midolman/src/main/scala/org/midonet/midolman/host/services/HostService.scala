@@ -17,15 +17,15 @@
 package org.midonet.midolman.host.services
 
 import java.net.{InetAddress, UnknownHostException}
-import java.util.concurrent.atomic.AtomicReference
+import java.util.concurrent.atomic.{AtomicBoolean, AtomicReference}
 import java.util.concurrent.{CountDownLatch, TimeUnit, TimeoutException}
 import java.util.{UUID, ConcurrentModificationException}
 import javax.annotation.Nullable
 
 import scala.collection.JavaConverters._
-import scala.concurrent.Await
+import scala.concurrent.{Await, Future, Promise}
 import scala.concurrent.duration._
-import scala.util.Success
+import scala.util.{Failure, Success, Try}
 import scala.util.control.NonFatal
 
 import com.google.common.util.concurrent.AbstractService
@@ -61,6 +61,10 @@ object HostService {
 
     val InterfacesTimeoutInSecs = 3
 
+    /** The minimum delay before writing again the interfaces after a failed
+      * write. */
+    val InterfacesRetryDelayMs = 1000L
+
     class HostIdAlreadyInUseException(message: String)
         extends Exception(message)
 }
@@ -105,6 +109,26 @@ class HostService (config: MidolmanConfig,
     @volatile private var oldInterfaces: Set[InterfaceDescription] = null
     @volatile private var scannerSubscription: Subscription = null
 
+    // The interfaces written to the host state, with their encoded protocol
+    // buffers message, such that an update only encodes the interfaces that
+    // changed since the last write. There is at most one write in progress:
+    // an update requested meanwhile is deferred until the write completes.
+    private var publishedInterfaces =
+        Map.empty[InterfaceDescription, State.HostState.Interface]
+    private var publishedState: String = null
+    private var interfacesWriting = false
+    private var interfacesDeferred = false
+    private var interfacesForced = false
+    private val interfacesUpdatePending = new AtomicBoolean(false)
+    private val interfacesUpdate = new Runnable {
+        override def run(): Unit = {
+            interfacesUpdatePending.set(false)
+            if (aliveState.get == OwnershipState.Acquired) {
+                updateInterfaces(force = false)
+            }
+        }
+    }
+
     private val aliveState = new AtomicReference(OwnershipState.Released)
     @volatile private var aliveSubscription: Subscription = null
     private val aliveObserver = new Observer[StateKey] {
@@ -162,7 +186,7 @@ class HostService (config: MidolmanConfig,
                         (aliveState.get != OwnershipState.Acquired)) {
                         return
                     }
-                    updateInterfaces()
+                    scheduleInterfacesUpdate()
                 }
             })
             identifyHost()
@@ -292,10 +316,12 @@ class HostService (config: MidolmanConfig,
                 store.create(host)
             }
 
-            // Set the alive state and update the interfaces.
+            // Set the alive state and update the interfaces. A failed update
+            // of the interfaces is retried, and does not fail the host.
             stateStore.addValue(classOf[Host], hostId, AliveKey, AliveKey)
                 .await(timeout)
-            updateInterfaces()
+            try Await.ready(updateInterfaces(force = true), timeout)
+            catch { case e: TimeoutException => }
 
             aliveState.set(OwnershipState.Acquired)
 
@@ -373,27 +399,108 @@ class HostService (config: MidolmanConfig,
             .subscribe(aliveObserver)
     }
 
+    /**
+     * Schedules an update of the host interfaces after the configured update
+     * window, such that a burst of interface changes, as it happens when a
+     * VM boots, results in a single write to storage. If the window is zero,
+     * the interfaces are updated immediately.
+     */
+    private def scheduleInterfacesUpdate(
+            delay: Long = config.host.interfacesUpdateWindow): Unit = {
+        if (delay <= 0) {
+            updateInterfaces(force = false)
+        } else if (interfacesUpdatePending.compareAndSet(false, true)) {
+            reactor.schedule(interfacesUpdate, delay, TimeUnit.MILLISECONDS)
+        }
+    }
+
     /**
      * Updates the host with the current set of interfaces in V2.x storage.
+     * Only the interfaces that changed since the last update are encoded, and
+     * the host state is not written unless the encoded state has changed or
+     * the `force` argument is set. The method does not wait for the write,
+     * and returns a future that completes when the write completes: if a
+     * write is already in progress, the update is deferred until then.
      */
-    private def updateInterfaces(): Unit = {
+    private def updateInterfaces(force: Boolean): Future[Any] = synchronized {
+        if (interfacesWriting) {
+            interfacesDeferred = true
+            interfacesForced |= force
+            return Future.successful(null)
+        }
+        val forced = force || interfacesForced
+        interfacesForced = false
+
         def upOrDown(iface: InterfaceDescription) =
                 if (iface.isUp) "UP" else "DOWN"
         def pluggedOrNot(iface: InterfaceDescription) =
                 if (iface.isUp) "LINK" else "NO_LINK"
-
-        val ifdescs = currentInterfaces map { i =>
+        def describe(ifaces: Iterable[InterfaceDescription]) = ifaces map { i =>
             s"${i.getName}<${upOrDown(i)},${pluggedOrNot(i)},${i.getMtu}>"
+        } mkString ", "
+
+        val interfaces = currentInterfaces
+        val added = interfaces.filterNot(publishedInterfaces.contains)
+        val removed = publishedInterfaces.keys.filterNot(interfaces.contains)
+        if (!forced && added.isEmpty && removed.isEmpty) {
+            return Future.successful(null)
+        }
+        log.debug("Updating network interfaces: added {} removed {}",
+                  describe(added), describe(removed))
+
+        val encoded = publishedInterfaces -- removed ++ added.map(i =>
+            i -> ZoomConvert.toProto(i, classOf[State.HostState.Interface]))
+        val state = getInterfaces(encoded.values)
+        if (!forced && state == publishedState) {
+            publishedInterfaces = encoded
+            return Future.successful(null)
         }
-        log.debug("Updating network interfaces: {}", ifdescs.mkString(", "))
 
+        val written = Promise[Any]()
+        interfacesWriting = true
         try {
-            stateStore.addValue(classOf[Host], hostId, HostKey, getInterfaces)
-                .await(timeout)
+            stateStore.addValue(classOf[Host], hostId, HostKey, state) andThen {
+                case result =>
+                    interfacesWritten(encoded, state, forced, result)
+                    written complete result
+            }
         } catch {
             case NonFatal(e) =>
-                log.error("Failed to update network interfaces for host {}",
-                          hostId, e)
+                interfacesWritten(encoded, state, forced, Failure(e))
+                written failure e
+        }
+        written.future
+    }
+
+    /**
+     * Completes a write of the host interfaces. If the write failed, the
+     * update is scheduled again, such that the interfaces are not lost.
+     */
+    private def interfacesWritten(interfaces: Map[InterfaceDescription,
+                                                  State.HostState.Interface],
+                                  state: String, forced: Boolean,
+                                  result: Try[Any]): Unit = {
+        val retry = synchronized {
+            interfacesWriting = false
+            result match {
+                case Success(_) =>
+                    publishedInterfaces = interfaces
+                    publishedState = state
+                case Failure(e) =>
+                    log.error("Failed to update network interfaces for host " +
+                              "{}: retrying", hostId, e)
+                    interfacesDeferred = true
+                    interfacesForced |= forced
+            }
+            val deferred = interfacesDeferred
+            interfacesDeferred = false
+            deferred
+        }
+        if (retry) {
+            scheduleInterfacesUpdate(
+                if (result.isSuccess) 0L
+                else Math.max(config.host.interfacesUpdateWindow,
+                              InterfacesRetryDelayMs))
         }
     }
 
@@ -421,15 +528,12 @@ class HostService (config: MidolmanConfig,
         }
     }
 
-    /** Returns the current set of interfaces for this host as a set of protocol
-      * buffers messages. */
-    private def getInterfaces: String = {
+    /** Returns the host state for the given set of encoded interfaces. */
+    private def getInterfaces(interfaces: Iterable[State.HostState.Interface])
+    : String = {
         State.HostState.newBuilder()
             .setHostId(UUIDUtil.toProto(hostId))
-            .addAllInterfaces(
-                currentInterfaces.map(
-                    ZoomConvert.toProto(_, classOf[State.HostState.Interface]))
-                    .asJava)
+            .addAllInterfaces(interfaces.asJava)
             .build()
             .toString
     }
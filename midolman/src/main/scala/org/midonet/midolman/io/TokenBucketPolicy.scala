@@ -19,22 +19,89 @@ package org.midonet.midolman.io
 import java.util.concurrent.locks.ReentrantLock
 
 import scala.collection.mutable
+import scala.concurrent.ExecutionContext
+
+import com.codahale.metrics.MetricRegistry.name
+import com.codahale.metrics.{Gauge, MetricRegistry}
 
 import org.slf4j.{Logger, LoggerFactory}
 
+import org.midonet.midolman.{DatapathStateDriver, NotYetException}
 import org.midonet.midolman.config.MidolmanConfig
+import org.midonet.midolman.monitoring.metrics.PacketPipelineGauge
+import org.midonet.midolman.simulation.Port
+import org.midonet.midolman.topology.VirtualTopology
 import org.midonet.odp.DpPort
 import org.midonet.util.{Bucket, TokenBucketFillRate, TokenBucket}
+import org.midonet.util.concurrent._
+
+object TokenBucketPolicy {
+
+    final val NoGroup: String => String = _ => null
+
+    /**
+     * Returns a function that resolves the HTB group of a VM port from the
+     * virtual port bound to the port's interface: either the virtual port's
+     * device or its first port group, according to the configured grouping.
+     * The function returns null if the port cannot be grouped, including when
+     * the virtual port is not yet available in the virtual topology: in this
+     * case, `onAvailable` is called with the port name once the virtual port
+     * becomes available, such that the port can be grouped then.
+     */
+    def vmGrouping(config: MidolmanConfig, dpState: DatapathStateDriver,
+                   vt: VirtualTopology,
+                   onAvailable: String => Unit): String => String = {
+        def vport(interfaceName: String): Port = {
+            val triad = dpState.interfaceToTriad.get(interfaceName)
+            if ((triad eq null) || (triad.vport eq null)) {
+                null
+            } else try {
+                vt.tryGet(classOf[Port], triad.vport)
+            } catch {
+                case e: NotYetException =>
+                    e.waitFor.onComplete { _ =>
+                        onAvailable(interfaceName)
+                    }(ExecutionContext.callingThread)
+                    null
+            }
+        }
+
+        config.datapath.htbVmGrouping match {
+            case "device" => interfaceName =>
+                val port = vport(interfaceName)
+                if ((port ne null) && (port.deviceId ne null))
+                    port.deviceId.toString
+                else null
+            case "port_group" => interfaceName =>
+                val port = vport(interfaceName)
+                if ((port ne null) && (port.portGroups ne null) &&
+                    !port.portGroups.isEmpty)
+                    port.portGroups.get(0).toString
+                else null
+            case _ => NoGroup
+        }
+    }
+
+    private class Group(val bucket: TokenBucket) {
+        var ports = 0
+    }
+}
 
 /**
  * This class contains a policy to assign token buckets to datapath ports.
  * Depending on the port type, token buckets are linked at different levels
- * in the hierarchy.
+ * in the hierarchy. The buckets of VM ports can be further grouped per device
+ * or port group, such that the tokens given to VM ports are first shared
+ * among the groups in a weighted round-robin and then among the ports of each
+ * group.
  */
 class TokenBucketPolicy(config: MidolmanConfig,
                         tbRate: TokenBucketFillRate,
                         multiplier: Int,
-                        factory: TokenBucket => Bucket) {
+                        factory: TokenBucket => Bucket,
+                        registry: MetricRegistry = new MetricRegistry) {
+    import TokenBucketPolicy._
+
     private val log: Logger = LoggerFactory.getLogger("org.midonet.io.htb")
 
     private val root = TokenBucket.create(adjust(config.datapath.globalIncomingBurstCapacity),
@@ -47,8 +114,58 @@ class TokenBucketPolicy(config: MidolmanConfig,
     private val vmBuckets = root.link(0, "vms")
 
     private val tokenBuckets = mutable.Map[String, Bucket]()
+    private val groups = mutable.Map[String, Group]()
+    private val portGroups = mutable.Map[String, String]()
+    private val groupMaxWeight = Math.max(1, config.datapath.htbVmGroupMaxWeight)
     private val lock = new ReentrantLock
 
+    @volatile private var groupOf: String => String = NoGroup
+
+    /**
+     * Sets the function that resolves the group of a VM port from its name.
+     * Ports linked before calling this method are not grouped until
+     * [[regroupVmPort]] is called for them.
+     */
+    def groupVmPortsBy(resolver: String => String): Unit = {
+        groupOf = resolver
+    }
+
+    /**
+     * Resolves again the group of a linked VM port, and moves the bucket of
+     * the port, with its tokens, to the resolved group if it changed. A port
+     * whose group cannot be resolved remains in its current group.
+     */
+    def regroupVmPort(portName: String): Unit = {
+        lock.lock()
+        try {
+            val tb = tokenBuckets.get(portName) match {
+                case Some(bucket) => bucket.underlyingTokenBucket()
+                case None => return
+            }
+            val current = portGroups.get(portName)
+            if ((tb eq null) ||
+                ((tb.getParent ne vmBuckets) && current.isEmpty)) {
+                // Not a VM port.
+                return
+            }
+            val group = groupOf(portName)
+            if ((group eq null) || current.contains(group)) {
+                return
+            }
+
+            tb.relink(joinGroup(group))
+            portGroups.put(portName, group)
+            for (previous <- current) {
+                root.addTokens(leaveGroup(previous))
+            }
+
+            log.info("HTB port {} regrouped to {}", portName, group)
+            root.dumpToLog()
+        } finally {
+            lock.unlock()
+        }
+    }
+
     def calculateMinimumSystemTokens: Int =
         tokenBuckets.foldLeft(0)(_ + _._2.underlyingTokenBucket().getCapacity)
 
@@ -65,7 +182,7 @@ class TokenBucketPolicy(config: MidolmanConfig,
                 case VtepTunnel if config.datapath.vtepIncomingBurstCapacity > 0 =>
                     root.link(adjust(config.datapath.vtepIncomingBurstCapacity), port.getName)
                 case VirtualMachine if config.datapath.vmIncomingBurstCapacity > 0 =>
-                    vmBuckets.link(adjust(config.datapath.vmIncomingBurstCapacity), port.getName)
+                    linkVm(adjust(config.datapath.vmIncomingBurstCapacity), port.getName)
                 case _ =>
                     return null
             })
@@ -91,7 +208,8 @@ class TokenBucketPolicy(config: MidolmanConfig,
         try {
             tokenBuckets.remove(port.getName) match {
                 case Some(tb) =>
-                    val tokens = tb.underlyingTokenBucket().unlink()
+                    val tokens = tb.underlyingTokenBucket().unlink() +
+                                 unlinkVm(port.getName)
                     val newMax = calculateMinimumSystemTokens
                     if (newMax >= adjust(config.datapath.globalIncomingBurstCapacity))
                         root.setCapacity(newMax)
@@ -108,5 +226,94 @@ class TokenBucketPolicy(config: MidolmanConfig,
         }
     }
 
+    /**
+     * Returns the number of tokens consumed by the VM ports of a group, or
+     * -1 if the group does not exist.
+     */
+    def groupConsumedTokens(group: String): Long = {
+        lock.lock()
+        try groups.get(group).map(_.bucket.getConsumedTokens).getOrElse(-1L)
+        finally lock.unlock()
+    }
+
+    /**
+     * Returns the number of tokens requested but not obtained by the VM ports
+     * of a group, or -1 if the group does not exist.
+     */
+    def groupDeniedTokens(group: String): Long = {
+        lock.lock()
+        try groups.get(group).map(_.bucket.getDeniedTokens).getOrElse(-1L)
+        finally lock.unlock()
+    }
+
+    private def linkVm(capacity: Int, portName: String): TokenBucket = {
+        val group = groupOf(portName)
+        if (group eq null) {
+            return vmBuckets.link(capacity, portName)
+        }
+
+        portGroups.put(portName, group)
+        joinGroup(group).link(capacity, portName)
+    }
+
+    private def unlinkVm(portName: String): Int = {
+        portGroups.remove(portName) match {
+            case Some(group) => leaveGroup(group)
+            case None => 0
+        }
+    }
+
+    /**
+     * Adds a port to a group, creating the group if needed, and returns the
+     * bucket of the group.
+     */
+    private def joinGroup(group: String): TokenBucket = {
+        val g = groups.getOrElseUpdate(group, {
+            val bucket = vmBuckets.link(0, group)
+            registerGroupMetrics(group, bucket)
+            new Group(bucket)
+        })
+        g.ports += 1
+        g.bucket.setWeight(Math.min(g.ports, groupMaxWeight))
+        g.bucket
+    }
+
+    /**
+     * Removes a port from a group, deleting the group when it has no ports,
+     * and returns the number of tokens held by a deleted group.
+     */
+    private def leaveGroup(group: String): Int = {
+        val g = groups(group)
+        g.ports -= 1
+        if (g.ports == 0) {
+            groups.remove(group)
+            unregisterGroupMetrics(group)
+            Math.max(0, g.bucket.unlink())
+        } else {
+            g.bucket.setWeight(Math.min(g.ports, groupMaxWeight))
+            0
+        }
+    }
+
+    private def registerGroupMetrics(group: String, bucket: TokenBucket): Unit = {
+        registry.register(
+            name(classOf[PacketPipelineGauge], "htb", group, "consumedTokens"),
+            new Gauge[Long] {
+                override def getValue: Long = bucket.getConsumedTokens
+            })
+        registry.register(
+            name(classOf[PacketPipelineGauge], "htb", group, "deniedTokens"),
+            new Gauge[Long] {
+                override def getValue: Long = bucket.getDeniedTokens
+            })
+    }
+
+    private def unregisterGroupMetrics(group: String): Unit = {
+        registry.remove(
+            name(classOf[PacketPipelineGauge], "htb", group, "consumedTokens"))
+        registry.remove(
+            name(classOf[PacketPipelineGauge], "htb", group, "deniedTokens"))
+    }
+
     private def adjust(tokens: Int): Int = Math.max(1, tokens / multiplier)
 }
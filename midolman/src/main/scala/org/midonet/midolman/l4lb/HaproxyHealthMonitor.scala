@@ -111,7 +111,7 @@ class HaproxyHealthMonitor(var config: PoolConfig,
 
     private var currentUpNodes = Set.empty[UUID]
     private var currentDownNodes = Set.empty[UUID]
-    private val healthMonitorName = config.id.toString.substring(0,8) +
+    protected val healthMonitorName = config.id.toString.substring(0,8) +
                                     config.nsPostFix
     private var routerPortId: UUID = null
     private var routeId: UUID = null
@@ -140,12 +140,11 @@ class HaproxyHealthMonitor(var config: PoolConfig,
 
     override def preStart(): Unit = {
         try {
-            writeConf(config)
+            prepareChecks(config)
             namespaceName = createNamespace(healthMonitorName,
                                             config.vip.ip)
             hookNamespaceToRouter()
-            restartHaproxy(healthMonitorName, config.haproxyConfFileLoc,
-                           config.haproxyPidFileLoc)
+            startChecks(config)
             system.scheduler.scheduleOnce(1 second, self, CheckHealth)
             setPoolMappingStatus(config.id, ACTIVE, rethrowException = true)
         } catch {
@@ -168,11 +167,9 @@ class HaproxyHealthMonitor(var config: PoolConfig,
     def receive = {
         case ConfigUpdate(conf) =>
             try {
-                writeConf(conf)
+                prepareChecks(conf)
                 if (conf.isConfigurable){
-                    restartHaproxy(healthMonitorName,
-                                   config.haproxyConfFileLoc,
-                                   config.haproxyPidFileLoc)
+                    startChecks(conf)
 
                     // The vip may have changed. If so, we need to change the
                     // routes on the router.
@@ -193,9 +190,7 @@ class HaproxyHealthMonitor(var config: PoolConfig,
                         tx.update(pool.toBuilder.setMappingStatus(ACTIVE).build())
                     }
                 } else {
-                    killHaproxyIfRunning(healthMonitorName,
-                                         conf.haproxyConfFileLoc,
-                                         conf.haproxyPidFileLoc)
+                    stopChecks(conf)
                 }
             } catch {
                 case NonFatal(e) =>
@@ -270,6 +265,29 @@ class HaproxyHealthMonitor(var config: PoolConfig,
         }
     }
 
+    /**
+      * Prepares the health checks for the given configuration, before the
+      * namespace of the pool is created. By default, it writes the haproxy
+      * configuration file.
+      */
+    protected def prepareChecks(conf: PoolConfig): Unit = writeConf(conf)
+
+    /**
+      * Starts or restarts the health checks for the given configuration. By
+      * default, it restarts the haproxy process in the namespace of the pool.
+      */
+    protected def startChecks(conf: PoolConfig): Unit =
+        restartHaproxy(healthMonitorName, conf.haproxyConfFileLoc,
+                       conf.haproxyPidFileLoc)
+
+    /**
+      * Stops the health checks when the configuration is no longer
+      * configurable. By default, it kills the haproxy process if running.
+      */
+    protected def stopChecks(conf: PoolConfig): Unit =
+        killHaproxyIfRunning(healthMonitorName, conf.haproxyConfFileLoc,
+                             conf.haproxyPidFileLoc)
+
     /*
      * Take the output from the haproxy response and turn it into a set
      * of UP member ids. Assumes the following:
@@ -0,0 +1,381 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.midonet.midolman.l4lb
+
+import java.io.IOException
+import java.net.{InetAddress, InetSocketAddress}
+import java.util.UUID
+import java.util.concurrent.{RejectedExecutionException, ThreadLocalRandom, TimeUnit}
+
+import scala.collection.mutable
+import scala.util.control.NonFatal
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder
+import com.sun.jna.LastErrorException
+
+import io.netty.bootstrap.Bootstrap
+import io.netty.channel.ChannelHandler.Sharable
+import io.netty.channel._
+import io.netty.channel.nio.NioEventLoopGroup
+import io.netty.channel.socket.nio.NioSocketChannel
+import io.netty.util.concurrent.ScheduledFuture
+
+import org.slf4j.LoggerFactory
+
+import org.midonet.midolman.l4lb.HealthChecker._
+import org.midonet.util.cLibrary
+
+object HealthChecker {
+
+    /** Receives the members of a pool that changed their status to up and
+      * down, respectively. */
+    type StatusCallback = (Set[UUID], Set[UUID]) => Unit
+
+    private val NetNsDir = "/var/run/netns/"
+    private val RootNetNs = "/proc/self/ns/net"
+
+    /** The minimum delay and timeout of the checks, in seconds: a zero delay
+      * would check the members in a tight loop, and a zero timeout would
+      * disable the connect timeout. */
+    private val MinIntervalSeconds = 1
+
+    private val log =
+        LoggerFactory.getLogger("org.midonet.l4lb.health-checker")
+
+    private object MemberStatus extends Enumeration {
+        val Unknown, Up, Down = Value
+    }
+
+    /** The check connections do not read any data, and errors after the
+      * connection is established do not affect the check. */
+    @Sharable
+    private object CheckHandler extends ChannelInboundHandlerAdapter {
+        override def exceptionCaught(ctx: ChannelHandlerContext,
+                                     cause: Throwable): Unit = {
+            ctx.close()
+        }
+    }
+
+    /** Opens the specified network namespace, returning its file descriptor.
+      * The namespace must have been created with `ip netns`. */
+    private def openNamespace(path: String): Int =
+        cLibrary.lib.open(path, cLibrary.O_RDONLY)
+
+    private def closeNamespace(fd: Int): Unit =
+        if (fd >= 0) cLibrary.lib.close(fd)
+
+    /** Moves the current thread to the network namespace of the specified
+      * file descriptor, returning whether the call succeeded. */
+    private def setNamespace(fd: Int): Boolean = {
+        try fd >= 0 && cLibrary.lib.setns(fd, cLibrary.CLONE_NEWNET) == 0
+        catch {
+            case e: LastErrorException =>
+                log.debug(s"Failed to set the network namespace $fd", e)
+                false
+        }
+    }
+}
+
+/**
+ * Checks the health of the members of all load balancer pools from a single
+ * NIO event loop, as an alternative to running one haproxy process per pool.
+ *
+ * Every member has its own timer, which opens a TCP connection to the member
+ * every `delay` seconds, failing the check if the connection is not
+ * established within `timeout` seconds. A member is reported up after a
+ * successful check, and down after `maxRetries` consecutive failed checks.
+ * Status changes are delivered to the callback of the pool in batches, on
+ * the event loop thread.
+ *
+ * When a pool specifies a network namespace, the check connections are
+ * created in that namespace, such that the members are reached through the
+ * same router port used by haproxy. Otherwise, the connections are created
+ * in the namespace of the agent. A check fails if its namespace cannot be
+ * entered, and all checks are stopped if the event loop thread cannot return
+ * to the namespace of the agent, since its later sockets would be created in
+ * the namespace of a pool.
+ */
+class HealthChecker {
+
+    private val group = new NioEventLoopGroup(
+        1, new ThreadFactoryBuilder().setNameFormat("health-checker")
+                                     .setDaemon(true).build())
+    private val loop = group.next()
+
+    // Health checks only verify that the connection is established, so they
+    // are reset when closed to not leave sockets in TIME_WAIT.
+    private val bootstrap = new Bootstrap()
+        .group(loop)
+        .channel(classOf[NioSocketChannel])
+        .option[Integer](ChannelOption.SO_LINGER, 0)
+        .handler(CheckHandler)
+
+    // The following are only accessed from the event loop thread.
+    private val pools = new mutable.HashMap[UUID, PoolChecks]
+    private var rootNamespaceFd = -1
+
+    /**
+     * Starts or updates the health checks of the members of the given pool,
+     * reporting their status changes to the given callback.
+     */
+    @throws[Exception]
+    def watch(config: PoolConfig, namespace: String,
+              callback: StatusCallback): Unit = {
+        val namespaceFd =
+            if (namespace eq null) -1 else openNamespace(NetNsDir + namespace)
+        try loop.execute(new Runnable {
+            override def run(): Unit = {
+                if (group.isShuttingDown) {
+                    closeNamespace(namespaceFd)
+                    return
+                }
+                try addPool(config, namespace, namespaceFd, callback)
+                catch {
+                    case NonFatal(e) =>
+                        log.error(s"Failed to start health checks for pool " +
+                                  s"${config.id}", e)
+                }
+            }
+        }) catch {
+            case e: RejectedExecutionException =>
+                closeNamespace(namespaceFd)
+                log.warn(s"Cannot start health checks for pool ${config.id}: " +
+                         "the health checker is closed")
+        }
+    }
+
+    /**
+     * Stops the health checks of the members of the given pool.
+     */
+    def unwatch(poolId: UUID): Unit = {
+        loop.execute(new Runnable {
+            override def run(): Unit = {
+                pools.remove(poolId) foreach (_.close())
+            }
+        })
+    }
+
+    /**
+     * Stops all health checks and the event loop.
+     */
+    def close(): Unit = {
+        if (group.isShuttingDown) return
+        loop.execute(new Runnable {
+            override def run(): Unit = stop()
+        })
+    }
+
+    private def addPool(config: PoolConfig, namespace: String,
+                        namespaceFd: Int, callback: StatusCallback): Unit = {
+        val monitor = config.healthMonitor
+        val members = config.members filter (_.isConfigurable)
+        pools.get(config.id) match {
+            case Some(pool) if pool.monitor == monitor &&
+                               pool.namespace == namespace =>
+                // Only update the members, keeping the status of the
+                // members that did not change.
+                closeNamespace(namespaceFd)
+                pool.callback = callback
+                pool.update(members)
+            case existing =>
+                existing foreach (_.close())
+                if ((namespaceFd >= 0) && (rootNamespaceFd < 0)) {
+                    rootNamespaceFd = openNamespace(RootNetNs)
+                }
+                val pool = new PoolChecks(config.id, monitor, namespace,
+                                          namespaceFd, callback)
+                pools.put(config.id, pool)
+                pool.update(members)
+        }
+    }
+
+    /** Creates a check connection for the given pool, in the namespace of
+      * the pool if any. The socket of a channel is created synchronously by
+      * the bootstrap, such that it belongs to the current namespace of the
+      * event loop thread. */
+    private def connect(pool: PoolChecks, address: InetSocketAddress)
+    : ChannelFuture = {
+        if (pool.namespaceFd < 0) {
+            pool.bootstrap.connect(address)
+        } else if ((rootNamespaceFd >= 0) && setNamespace(pool.namespaceFd)) {
+            try pool.bootstrap.connect(address)
+            finally if (!setNamespace(rootNamespaceFd)) {
+                log.error("Failed to restore the network namespace of the " +
+                          "health checker after entering namespace " +
+                          s"${pool.namespace}: stopping all health checks")
+                stop()
+            }
+        } else {
+            log.error(s"Failed to enter namespace ${pool.namespace} to check " +
+                      s"the members of pool ${pool.id}")
+            throw new IOException(s"Cannot enter namespace ${pool.namespace}")
+        }
+    }
+
+    /** Stops all health checks and the event loop, from the event loop
+      * thread. */
+    private def stop(): Unit = {
+        pools.values foreach (_.close())
+        pools.clear()
+        if (rootNamespaceFd >= 0) {
+            cLibrary.lib.close(rootNamespaceFd)
+            rootNamespaceFd = -1
+        }
+        group.shutdownGracefully(0, 5, TimeUnit.SECONDS)
+    }
+
+    private class PoolChecks(val id: UUID, val monitor: HealthMonitorConfig,
+                             val namespace: String, val namespaceFd: Int,
+                             var callback: StatusCallback) {
+
+        val bootstrap = HealthChecker.this.bootstrap.clone()
+            .option[Integer](ChannelOption.CONNECT_TIMEOUT_MILLIS,
+                             Math.max(monitor.timeout, MinIntervalSeconds) * 1000)
+        val delayNanos =
+            TimeUnit.SECONDS.toNanos(Math.max(monitor.delay, MinIntervalSeconds))
+
+        private val members = new mutable.HashMap[UUID, MemberCheck]
+        private val upMembers = new mutable.HashSet[UUID]
+        private val downMembers = new mutable.HashSet[UUID]
+        private var flushScheduled = false
+        private var closed = false
+
+        def update(configs: Set[PoolMemberConfig]): Unit = {
+            val ids = configs map (_.id)
+            for (id <- members.keys.toList if !ids.contains(id)) {
+                members.remove(id) foreach (_.close())
+                upMembers -= id
+                downMembers -= id
+            }
+            for (config <- configs) members.get(config.id) match {
+                case Some(check) if check.config == config =>
+                case existing =>
+                    existing foreach (_.close())
+                    val check = new MemberCheck(this, config)
+                    members.put(config.id, check)
+                    check.start()
+            }
+        }
+
+        def report(memberId: UUID, up: Boolean): Unit = {
+            if (up) {
+                downMembers -= memberId
+                upMembers += memberId
+            } else {
+                upMembers -= memberId
+                downMembers += memberId
+            }
+            if (!flushScheduled) {
+                flushScheduled = true
+                loop.execute(new Runnable {
+                    override def run(): Unit = flush()
+                })
+            }
+        }
+
+        private def flush(): Unit = {
+            flushScheduled = false
+            if (closed || (upMembers.isEmpty && downMembers.isEmpty))
+                return
+            val up = upMembers.toSet
+            val down = downMembers.toSet
+            upMembers.clear()
+            downMembers.clear()
+            try callback(up, down)
+            catch {
+                case NonFatal(e) =>
+                    log.warn(s"Failed to report the health of members of " +
+                             s"pool $id", e)
+            }
+        }
+
+        def close(): Unit = {
+            closed = true
+            members.values foreach (_.close())
+            members.clear()
+            closeNamespace(namespaceFd)
+        }
+    }
+
+    private class MemberCheck(pool: PoolChecks, val config: PoolMemberConfig)
+        extends Runnable with ChannelFutureListener {
+
+        private val address = new InetSocketAddress(
+            InetAddress.getByName(config.address), config.port)
+        private var status = MemberStatus.Unknown
+        private var failures = 0
+        private var startNanos = 0L
+        private var timer: ScheduledFuture[_] = null
+        private var channel: Channel = null
+        private var closed = false
+
+        /** Schedules the first check at a random time within the delay, to
+          * spread the checks of all members over time. */
+        def start(): Unit = {
+            val initialDelay =
+                ThreadLocalRandom.current().nextLong(pool.delayNanos + 1)
+            timer = loop.schedule(this, initialDelay, TimeUnit.NANOSECONDS)
+        }
+
+        override def run(): Unit = {
+            if (closed) return
+            startNanos = System.nanoTime()
+            try {
+                val future = connect(pool, address)
+                channel = future.channel()
+                future.addListener(this)
+            } catch {
+                case NonFatal(e) =>
+                    log.debug(s"Failed to check member ${config.id}", e)
+                    completed(success = false)
+            }
+        }
+
+        override def operationComplete(future: ChannelFuture): Unit = {
+            future.channel().close()
+            channel = null
+            completed(future.isSuccess)
+        }
+
+        private def completed(success: Boolean): Unit = {
+            if (closed) return
+            if (success) {
+                failures = 0
+                if (status != MemberStatus.Up) {
+                    status = MemberStatus.Up
+                    pool.report(config.id, up = true)
+                }
+            } else {
+                failures += 1
+                if (failures >= pool.monitor.maxRetries &&
+                    status != MemberStatus.Down) {
+                    status = MemberStatus.Down
+                    pool.report(config.id, up = false)
+                }
+            }
+            val elapsed = System.nanoTime() - startNanos
+            timer = loop.schedule(this, Math.max(0L, pool.delayNanos - elapsed),
+                                  TimeUnit.NANOSECONDS)
+        }
+
+        def close(): Unit = {
+            closed = true
+            if (timer ne null) timer.cancel(false)
+            if (channel ne null) channel.close()
+        }
+    }
+
+}
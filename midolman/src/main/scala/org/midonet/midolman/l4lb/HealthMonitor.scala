@@ -211,6 +211,7 @@ class HealthMonitor @Inject() (config: MidolmanConfig,
     val seqDispenser = new SequenceDispenser(curator, backendCfg)
 
     private var watcher: ActorRef = null
+    private var checker: HealthChecker = null
 
     val ipCom = HealthMonitor.ipCommand
 
@@ -261,6 +262,13 @@ class HealthMonitor @Inject() (config: MidolmanConfig,
         }
     }
 
+    override def postStop(): Unit = {
+        if (checker ne null) {
+            checker.close()
+            checker = null
+        }
+    }
+
     def receive = {
         case ConfigUpdated(poolId, poolConf, routerId) =>
             context.child(poolId.toString) match {
@@ -340,14 +348,21 @@ class HealthMonitor @Inject() (config: MidolmanConfig,
         case SockReadFailure => context.stop(sender)
     }
 
-    def startChildHaproxyMonitor(poolId: UUID, config: PoolConfig,
+    def startChildHaproxyMonitor(poolId: UUID, poolConfig: PoolConfig,
                                  routerId: UUID) = {
-        context.actorOf(
-            Props(
-                new HaproxyHealthMonitor(config, self, routerId, store, hostId,
-                                         seqDispenser)
-            ).withDispatcher(context.props.dispatcher),
-            config.id.toString)
+        val props = if (config.healthMonitor.nioHealthChecks) {
+            if (checker eq null) {
+                checker = new HealthChecker
+            }
+            val nioChecker = checker
+            Props(new NioHealthMonitor(poolConfig, self, routerId, store,
+                                       hostId, seqDispenser, nioChecker))
+        } else {
+            Props(new HaproxyHealthMonitor(poolConfig, self, routerId, store,
+                                           hostId, seqDispenser))
+        }
+        context.actorOf(props.withDispatcher(context.props.dispatcher),
+                        poolConfig.id.toString)
     }
 
     def cleanupNamespaces() = {
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.midonet.midolman.l4lb
+
+import java.util.UUID
+
+import scala.util.control.NonFatal
+
+import akka.actor.ActorRef
+
+import org.midonet.cluster.data.storage.Storage
+import org.midonet.cluster.util.SequenceDispenser
+import org.midonet.midolman.l4lb.HaproxyHealthMonitor.CheckHealth
+
+object NioHealthMonitor {
+    // Tells this actor that the health of some members has changed.
+    case class MembersStatus(up: Set[UUID], down: Set[UUID])
+}
+
+/**
+ * Health monitor for a pool that uses the shared in-process HealthChecker
+ * instead of a haproxy process. The pool namespace and its router port are
+ * still set up by the parent class, since the members are only reachable
+ * from the namespace, but no haproxy configuration is written and the
+ * member status is pushed by the checker rather than polled.
+ */
+class NioHealthMonitor(config: PoolConfig,
+                       manager: ActorRef,
+                       routerId: UUID,
+                       store: Storage,
+                       hostId: UUID,
+                       seqDispenser: SequenceDispenser,
+                       checker: HealthChecker)
+    extends HaproxyHealthMonitor(config, manager, routerId, store, hostId,
+                                 seqDispenser) {
+
+    import NioHealthMonitor._
+
+    private val poolId = config.id
+
+    override def receive = nioReceive orElse super.receive
+
+    private def nioReceive: Receive = {
+        case MembersStatus(up, down) =>
+            try setMembersStatus(up, down)
+            catch {
+                case NonFatal(e) =>
+                    log.warn(s"Unable to set the status of members of " +
+                             s"pool $poolId", e)
+            }
+
+        case CheckHealth => // The checker reports the member status.
+    }
+
+    override protected def prepareChecks(conf: PoolConfig): Unit = { }
+
+    override protected def startChecks(conf: PoolConfig): Unit = {
+        checker.watch(conf, healthMonitorName, (up, down) =>
+            self ! MembersStatus(up, down))
+    }
+
+    override protected def stopChecks(conf: PoolConfig): Unit = {
+        checker.unwatch(poolId)
+    }
+
+    override def postStop(): Unit = {
+        checker.unwatch(poolId)
+        super.postStop()
+    }
+}
@@ -33,46 +33,56 @@ object PacketTracing extends PacketTracingMXBean {
     @volatile
     var tracers: List[PacketTracer] = List.empty
 
+    // Compiled from the tracers whenever they change, null when there are
+    // no tracers, such that packets are not matched in the common case.
+    @volatile
+    private var matcher: TracerMatcher = null
+
+    private def update(newTracers: List[PacketTracer]): Unit = {
+        tracers = newTracers
+        matcher = TracerMatcher(newTracers)
+    }
+
     override def getLiveTracers = tracers.filter(_.isAlive).toArray
 
     override def getTracers = tracers.toArray
 
-    override def addTracer(tracer: PacketTracer) {
-        tracers ::= tracer
+    override def addTracer(tracer: PacketTracer) = synchronized {
+        update(tracer :: tracers)
     }
 
-    override def removeTracer(tracer: PacketTracer) = {
+    override def removeTracer(tracer: PacketTracer) = synchronized {
         val oldSize = tracers.size
-        tracers = tracers filterNot { _ == tracer }
+        update(tracers filterNot { _ == tracer })
         oldSize - tracers.size
     }
 
-    override def flush() = {
+    override def flush() = synchronized {
         val num = tracers.size
-        tracers = List.empty
+        update(List.empty)
         num
     }
 
-    override def flushDeadTracers() = {
+    override def flushDeadTracers() = synchronized {
         val oldSize = tracers.size
-        tracers = tracers filter { _.isAlive }
+        update(tracers filter { _.isAlive })
         oldSize - tracers.size
     }
 
     def loggerFor(wcmatch: FlowMatch): Logger = {
-        val it = tracers.iterator
-        while (it.hasNext) {
-            val tracer = it.next()
-            if (tracer.matches(wcmatch)) {
-                tracer.matched()
-                return tracer.level match {
-                    case LogLevel.DEBUG => PacketContext.debugLog
-                    case LogLevel.TRACE => PacketContext.traceLog
-                }
-            }
+        val m = matcher
+        if (m eq null)
+            return PacketContext.defaultLog
+
+        val tracer = m.find(wcmatch)
+        if (tracer eq null)
+            return PacketContext.defaultLog
+
+        tracer.matched()
+        tracer.level match {
+            case LogLevel.DEBUG => PacketContext.debugLog
+            case LogLevel.TRACE => PacketContext.traceLog
         }
-
-        PacketContext.defaultLog
     }
 
     /* this flag prevents multiple registrations on the same jvm. this would
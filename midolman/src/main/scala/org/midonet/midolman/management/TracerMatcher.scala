@@ -0,0 +1,130 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.midonet.midolman.management
+
+import org.midonet.odp.FlowMatch
+import org.midonet.packets.{IPAddr, MAC}
+
+object TracerMatcher {
+
+    private final val EtherType = 1 << 0
+    private final val EthSrc = 1 << 1
+    private final val EthDst = 1 << 2
+    private final val IpProto = 1 << 3
+    private final val IpSrc = 1 << 4
+    private final val IpDst = 1 << 5
+    private final val SrcPort = 1 << 6
+    private final val DstPort = 1 << 7
+
+    /** The fields of a tracer, with the set fields in a bit mask. */
+    private final class CompiledTracer(val tracer: PacketTracer) {
+        var fields = 0
+        var etherType = 0
+        var ethSrc = 0L
+        var ethDst = 0L
+        var ipProto = 0
+        var ipSrc: IPAddr = null
+        var ipDst: IPAddr = null
+        var srcPort = 0
+        var dstPort = 0
+
+        if (tracer.etherType ne null) {
+            fields |= EtherType
+            etherType = tracer.etherType.shortValue
+        }
+        if (tracer.srcMac ne null) {
+            fields |= EthSrc
+            ethSrc = MAC.fromString(tracer.srcMac).asLong
+        }
+        if (tracer.dstMac ne null) {
+            fields |= EthDst
+            ethDst = MAC.fromString(tracer.dstMac).asLong
+        }
+        if (tracer.ipProto ne null) {
+            fields |= IpProto
+            ipProto = tracer.ipProto.byteValue
+        }
+        if (tracer.ipSrc ne null) {
+            fields |= IpSrc
+            ipSrc = IPAddr.fromString(tracer.ipSrc)
+        }
+        if (tracer.ipDst ne null) {
+            fields |= IpDst
+            ipDst = IPAddr.fromString(tracer.ipDst)
+        }
+        if (tracer.srcPort ne null) {
+            fields |= SrcPort
+            srcPort = tracer.srcPort.intValue
+        }
+        if (tracer.dstPort ne null) {
+            fields |= DstPort
+            dstPort = tracer.dstPort.intValue
+        }
+    }
+
+    /** Compiles the given tracers, returning null if there are none. */
+    def apply(tracers: Seq[PacketTracer]): TracerMatcher =
+        if (tracers.isEmpty) null
+        else new TracerMatcher(tracers.map(new CompiledTracer(_)).toArray)
+}
+
+/**
+ * Matches packets against a snapshot of the packet tracers, compiled such
+ * that every tracer compares the primitive values of the fields it sets.
+ * The fields set by any tracer are read once per packet, and the fields
+ * that no tracer sets are not read at all.
+ */
+final class TracerMatcher private (tracers: Array[TracerMatcher.CompiledTracer]) {
+
+    import TracerMatcher._
+
+    private val fields = tracers.foldLeft(0)(_ | _.fields)
+
+    /** Returns the first live tracer matching the packet, or null. */
+    def find(fmatch: FlowMatch): PacketTracer = {
+        val etherType =
+            if ((fields & EtherType) != 0) fmatch.getEtherType.toInt else 0
+        val ethSrc = if ((fields & EthSrc) != 0) fmatch.getEthSrc else null
+        val ethDst = if ((fields & EthDst) != 0) fmatch.getEthDst else null
+        val ipProto =
+            if ((fields & IpProto) != 0) fmatch.getNetworkProto.toInt else 0
+        val ipSrc = if ((fields & IpSrc) != 0) fmatch.getNetworkSrcIP else null
+        val ipDst = if ((fields & IpDst) != 0) fmatch.getNetworkDstIP else null
+        val srcPort = if ((fields & SrcPort) != 0) fmatch.getSrcPort else 0
+        val dstPort = if ((fields & DstPort) != 0) fmatch.getDstPort else 0
+
+        var i = 0
+        while (i < tracers.length) {
+            val t = tracers(i)
+            val f = t.fields
+            if (((f & EtherType) == 0 || etherType == t.etherType) &&
+                ((f & EthSrc) == 0 ||
+                 ((ethSrc ne null) && ethSrc.asLong == t.ethSrc)) &&
+                ((f & EthDst) == 0 ||
+                 ((ethDst ne null) && ethDst.asLong == t.ethDst)) &&
+                ((f & IpProto) == 0 || ipProto == t.ipProto) &&
+                ((f & IpSrc) == 0 || t.ipSrc == ipSrc) &&
+                ((f & IpDst) == 0 || t.ipDst == ipDst) &&
+                ((f & SrcPort) == 0 || srcPort == t.srcPort) &&
+                ((f & DstPort) == 0 || dstPort == t.dstPort) &&
+                t.tracer.isAlive) {
+                return t.tracer
+            }
+            i += 1
+        }
+        null
+    }
+}
@@ -18,9 +18,10 @@ package org.midonet.midolman.monitoring.metrics
 
 import java.util.concurrent.TimeUnit
 
-import com.codahale.metrics.{Clock, Gauge, MetricRegistry, Timer}
+import com.codahale.metrics.{Clock, Gauge, Histogram, MetricRegistry, Timer}
 import com.codahale.metrics.MetricRegistry.name
 
+import org.midonet.midolman.simulation.PacketContext
 import org.midonet.util.metrics.HdrHistogramSlidingTimeWindowReservoir
 
 class PacketPipelineMetrics(val registry: MetricRegistry, workerId: Int) {
@@ -66,15 +67,100 @@ class PacketPipelineMetrics(val registry: MetricRegistry, workerId: Int) {
     val dpFlowsRemovedMetric = registry.meter(
         name(classOf[FlowTablesMeter], workerTag, "datapathFlowsRemoved"))
 
+    val simulationCacheHits = registry.meter(
+        name(classOf[PacketPipelineMeter], workerTag, "simulationCache", "hits"))
+
+    val simulationCacheMisses = registry.meter(
+        name(classOf[PacketPipelineMeter], workerTag, "simulationCache", "misses"))
+
+    val simulationCacheSavedNanos = registry.counter(
+        name(classOf[PacketPipelineCounter], workerTag, "simulationCache",
+             "savedNanos"))
+
     val workerQueueOverflow = registry.meter(
         name(classOf[PacketPipelineMeter], workerTag, "packetQueue", "overflow"))
 
+    val invalidationsProcessed = registry.meter(
+        name(classOf[PacketPipelineMeter], workerTag, "invalidations",
+             "processed"))
+
+    val latencies = new PacketPipelineLatencies(registry, workerTag)
+
     def packetPostponed() {
         packetsPostponed.mark()
         packetsOnHold.inc()
     }
 }
 
+/**
+ * The latency histograms of the stages of the packet pipeline, in
+ * nanoseconds, for the packets of a packet worker:
+ *  - ringWait: from the upcall to the start of the simulation.
+ *  - simulation: the time spent simulating, over all the runs.
+ *  - postponement: the time spent waiting for NotYet futures, only for the
+ *    postponed packets.
+ *  - flowCreate: from the handoff to the datapath channel to the flow create
+ *    request being written.
+ *  - execute: from the handoff to the datapath channel to the packet execute
+ *    request being written.
+ *
+ * The flow create and execute stages are recorded by the flow processor and
+ * the packet executors, so the histograms must support concurrent writers,
+ * which the HdrHistogram recorders do. Recording doesn't allocate.
+ *
+ * There are five histograms per worker, so they are smaller than the other
+ * pipeline histograms: a one minute window, two significant digits, and
+ * values up to ten seconds, which takes about 350 KB per histogram instead of
+ * about 13 MB.
+ */
+class PacketPipelineLatencies(registry: MetricRegistry, workerTag: String) {
+
+    import PacketPipelineLatencies._
+
+    private def histogram(stage: String): Histogram =
+        registry.register(
+            name(classOf[PacketPipelineHistogram], workerTag, "latency", stage),
+            new Histogram(new HdrHistogramSlidingTimeWindowReservoir(
+                              1, TimeUnit.MINUTES, 10, TimeUnit.SECONDS,
+                              Clock.defaultClock, MaxNanos,
+                              SignificantDigits)))
+
+    val ringWait = histogram("ringWait")
+    val simulation = histogram("simulation")
+    val postponement = histogram("postponement")
+    val flowCreate = histogram("flowCreate")
+    val execute = histogram("execute")
+
+    /** Records the worker stages of a packet that completed its simulation. */
+    def recordSimulated(context: PacketContext): Unit = {
+        if (context.packet.startTimeNanos > 0)
+            record(ringWait, context.simulationStartNanos -
+                             context.packet.startTimeNanos)
+        record(simulation, context.simulationNanos)
+        if (context.postponedNanos > 0)
+            record(postponement, context.postponedNanos)
+    }
+
+    def recordFlowCreate(handoffNanos: Long, nowNanos: Long): Unit =
+        record(flowCreate, nowNanos - handoffNanos)
+
+    def recordExecute(handoffNanos: Long, nowNanos: Long): Unit =
+        record(execute, nowNanos - handoffNanos)
+
+    // Values outside the range of the reservoirs would throw, so the longer
+    // latencies are recorded as the highest value.
+    @inline private def record(histogram: Histogram, nanos: Long): Unit =
+        if (nanos >= 0)
+            histogram.update(Math.min(nanos, MaxNanos))
+}
+
+object PacketPipelineLatencies {
+    /** The highest value tracked by the reservoirs. */
+    final val MaxNanos = 10000000000L
+    /** The precision of the reservoirs. */
+    final val SignificantDigits = 2
+}
+
 class PacketExecutorMetrics(val registry: MetricRegistry, executorId: Int) {
     val executorTag = s"executor-$executorId"
 
@@ -84,3 +170,18 @@ class PacketExecutorMetrics(val registry: MetricRegistry, executorId: Int) {
                       5, TimeUnit.MINUTES, 10, TimeUnit.SECONDS,
                       Clock.defaultClock)))
 }
+
+class BackChannelMetrics(val registry: MetricRegistry) {
+
+    val invalidationsSent = registry.meter(
+        name(classOf[PacketPipelineMeter], "invalidations", "sent"))
+
+    val invalidationsEnqueued = registry.meter(
+        name(classOf[PacketPipelineMeter], "invalidations", "enqueued"))
+
+    val invalidationsFiltered = registry.meter(
+        name(classOf[PacketPipelineMeter], "invalidations", "filtered"))
+
+    val invalidationsRechecked = registry.meter(
+        name(classOf[PacketPipelineMeter], "invalidations", "rechecked"))
+}
@@ -16,9 +16,30 @@
 
 package org.midonet.midolman.openstack.metadata
 
-import com.sun.jersey.api.client.{Client, ClientResponse, UniformInterfaceException}
+import java.net.URI
+import java.nio.channels.ClosedChannelException
+import java.nio.charset.{Charset, StandardCharsets}
+import java.util.concurrent.{ConcurrentHashMap, TimeUnit, TimeoutException}
 
-import org.apache.commons.io.IOUtils
+import scala.concurrent.duration.Duration
+import scala.concurrent.{ExecutionContext, Future, Promise}
+import scala.util.{Success, Try}
+
+import com.google.common.cache.{Cache, CacheBuilder}
+import com.google.common.util.concurrent.ThreadFactoryBuilder
+
+import io.netty.bootstrap.Bootstrap
+import io.netty.channel.ChannelHandler.Sharable
+import io.netty.channel._
+import io.netty.channel.nio.NioEventLoopGroup
+import io.netty.channel.pool.{AbstractChannelPoolHandler, FixedChannelPool}
+import io.netty.channel.socket.nio.NioSocketChannel
+import io.netty.handler.codec.http._
+import io.netty.handler.ssl.{SslContext, SslContextBuilder}
+import io.netty.util.AttributeKey
+import io.netty.util.concurrent.{FutureListener, ScheduledFuture, Future => NettyFuture}
+
+import org.midonet.util.concurrent._
 
 object Conv {
     implicit def toHexstring(bytes: Array[Byte]): String =
@@ -53,67 +74,304 @@ object Conv {
 class UnknownRemoteAddressException(remoteAddr: String)
     extends RuntimeException(s"Unknown remote address $remoteAddr")
 
+/*
+ * A response of the Nova Metadata API.  Responses with an error status are
+ * returned as well, such that the proxy can forward them to the instance.
+ */
+case class MetadataResponse(status: Int, reason: String, contentType: String,
+                            body: String)
+
 object NovaMetadataClient {
 
     import Conv._
 
+    private final val MaxContentLength = 1 << 20
+
+    private case class RequestKey(info: InstanceInfo, path: String)
+
     private def signInstanceId(sharedSecret: String,
                                instanceId: String): String =
         Hmac.hmac(sharedSecret, instanceId)
 
-    def getMetadata(path: String, remoteAddr: String,
-                    novaMetadataUrl: String,
-                    sharedSecret: String): String = {
+    /*
+     * Whether the response for a path can be cached.  Most of the metadata
+     * does not change during the lifetime of an instance, except for the
+     * password, which the instance itself sets.
+     */
+    def isCacheable(path: String): Boolean = !path.contains("password")
+
+    /*
+     * The charset of a response, from the charset parameter of its content
+     * type, or UTF-8 if missing or unsupported.
+     */
+    def charsetOf(contentType: String): Charset = {
+        val charsets = for {
+            param <- Option(contentType).toSeq.flatMap(_.split(';').drop(1))
+            index = param.indexOf('=')
+            if index > 0 &&
+               param.substring(0, index).trim.equalsIgnoreCase("charset")
+            name = param.substring(index + 1).trim
+                        .stripPrefix("\"").stripSuffix("\"")
+            charset <- Try(Charset.forName(name)).toOption
+        } yield charset
+        charsets.headOption getOrElse StandardCharsets.UTF_8
+    }
+}
+
+/*
+ * Non-blocking client of the Nova Metadata API, shared by the requests of
+ * all instances.
+ *
+ * Requests are sent over a bounded pool of persistent connections, from a
+ * single event loop.  Identical requests (same instance and path) that are
+ * in flight at the same time are coalesced into a single Nova request, and
+ * the successful responses for cacheable paths are kept for cacheTtl.
+ */
+class NovaMetadataClient(novaMetadataUrl: String,
+                         sharedSecret: String,
+                         connections: Int,
+                         requestTimeout: Duration,
+                         cacheTtl: Duration,
+                         cacheSize: Int) {
+
+    import NovaMetadataClient._
+
+    private val uri = URI.create(novaMetadataUrl)
+    private val secure = "https".equalsIgnoreCase(uri.getScheme)
+    private val host = uri.getHost
+    private val port =
+        if (uri.getPort > 0) uri.getPort else if (secure) 443 else 80
+    private val hostHeader =
+        if (uri.getPort > 0) s"$host:${uri.getPort}" else host
+    private val basePath =
+        Option(uri.getRawPath).getOrElse("").stripSuffix("/")
+    private val sslContext: SslContext =
+        if (secure) SslContextBuilder.forClient().build() else null
+
+    private val exchangeKey =
+        AttributeKey.valueOf[Exchange]("nova-metadata-exchange")
+
+    private val group = new NioEventLoopGroup(
+        1, new ThreadFactoryBuilder().setNameFormat("nova-metadata-client")
+                                     .setDaemon(true).build())
+
+    private val bootstrap = new Bootstrap()
+        .group(group)
+        .channel(classOf[NioSocketChannel])
+        .remoteAddress(host, port)
+
+    private val responseHandler = new ResponseHandler
+
+    private val pool = new FixedChannelPool(
+        bootstrap,
+        new AbstractChannelPoolHandler {
+            override def channelCreated(channel: Channel): Unit = {
+                val pipeline = channel.pipeline()
+                if (sslContext ne null) {
+                    pipeline.addLast(
+                        sslContext.newHandler(channel.alloc(), host, port))
+                }
+                pipeline.addLast(new HttpClientCodec())
+                pipeline.addLast(new HttpObjectAggregator(MaxContentLength))
+                pipeline.addLast(responseHandler)
+            }
+        },
+        connections)
+
+    private val inFlight =
+        new ConcurrentHashMap[RequestKey, Future[MetadataResponse]]()
+
+    private val cache: Cache[RequestKey, MetadataResponse] =
+        if (cacheTtl.toMillis > 0 && cacheSize > 0) {
+            CacheBuilder.newBuilder()
+                .maximumSize(cacheSize)
+                .expireAfterWrite(cacheTtl.toMillis, TimeUnit.MILLISECONDS)
+                .build[RequestKey, MetadataResponse]()
+        } else null
+
+    def getMetadata(path: String, remoteAddr: String)
+    : Future[MetadataResponse] = {
         Log debug s"Request from $remoteAddr for path $path"
         InstanceInfoMap getByAddr remoteAddr match {
             case Some(info) =>
                 Log debug s"Request matches instance $info"
-                getMetadata(path, info, novaMetadataUrl, sharedSecret)
+                getMetadata(path, info)
             case None =>
                 /*
                  * This shouldn't happen normally as datapath flows are
                  * installed using InstanceInfo.
                  */
                 Log warn s"Received request from unknown address $remoteAddr"
-                throw new UnknownRemoteAddressException(remoteAddr)
+                Future.failed(new UnknownRemoteAddressException(remoteAddr))
         }
     }
 
-    def getMetadata(path: String, info: InstanceInfo,
-                    novaMetadataUrl: String,
-                    sharedSecret: String): String = {
-        val instanceIdSig = signInstanceId(sharedSecret, info.instanceId)
-        val client = new Client
-        val url = novaMetadataUrl + path
-        Log debug s"Request from instance:${info.instanceId} to $url"
-
-        val resource = client.resource(url)
-            .header("X-Tenant-ID", info.tenantId)
-            .header("X-Instance-ID", info.instanceId)
-            .header("X-Instance-ID-Signature", instanceIdSig)
-            .header("X-Forwarded-For", info.address)
-        try {
-            val response = resource get classOf[ClientResponse]
-
-            if (response.getStatus >= 300) {
-                throw new UniformInterfaceException(response)
+    def getMetadata(path: String, info: InstanceInfo)
+    : Future[MetadataResponse] = {
+        val key = RequestKey(info, path)
+        val cacheable = (cache ne null) && isCacheable(path)
+        if (cacheable) {
+            val cached = cache getIfPresent key
+            if (cached ne null) {
+                Log debug s"Cached response for instance:${info.instanceId} " +
+                          s"path:$path"
+                return Future.successful(cached)
+            }
+        }
+
+        val promise = Promise[MetadataResponse]()
+        val existing = inFlight.putIfAbsent(key, promise.future)
+        if (existing ne null) {
+            Log debug s"Request from instance:${info.instanceId} for " +
+                      s"path:$path already in flight"
+            return existing
+        }
+
+        promise.future.onComplete { result =>
+            result match {
+                case Success(response) if cacheable && response.status == 200 =>
+                    cache.put(key, response)
+                case _ =>
             }
+            inFlight.remove(key, promise.future)
+        }(ExecutionContext.callingThread)
+
+        val exchange = new Exchange(info, path, promise)
+        pool.acquire().addListener(new FutureListener[Channel] {
+            override def operationComplete(future: NettyFuture[Channel])
+            : Unit = {
+                if (future.isSuccess) exchange.send(future.getNow)
+                else exchange.fail(future.cause)
+            }
+        })
+        promise.future
+    }
+
+    def close(): Unit = {
+        pool.close()
+        group.shutdownGracefully(0, 5, TimeUnit.SECONDS)
+    }
+
+    /*
+     * A request sent over a pooled connection.  The exchange is attached to
+     * the connection until it completes, either with the response, an error
+     * or a timeout, after which the connection returns to the pool.
+     */
+    private class Exchange(info: InstanceInfo, path: String,
+                           promise: Promise[MetadataResponse])
+        extends Runnable with ChannelFutureListener {
+
+        private val url = basePath + path
+        private var channel: Channel = _
+        private var timeout: ScheduledFuture[_] = _
+
+        def send(ch: Channel): Unit = {
+            channel = ch
+            ch.attr(exchangeKey).set(this)
+            timeout = ch.eventLoop().schedule(this, requestTimeout.toMillis,
+                                              TimeUnit.MILLISECONDS)
+            Log debug s"Request from instance:${info.instanceId} to " +
+                      s"$novaMetadataUrl$path"
+
+            val request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1,
+                                                     HttpMethod.GET, url)
+            request.headers()
+                .set(HttpHeaderNames.HOST, hostHeader)
+                .set("X-Tenant-ID", info.tenantId)
+                .set("X-Instance-ID", info.instanceId)
+                .set("X-Instance-ID-Signature",
+                     signInstanceId(sharedSecret, info.instanceId))
+                .set("X-Forwarded-For", info.address)
+            ch.writeAndFlush(request).addListener(this)
+        }
+
+        /* Called when the request is written. */
+        override def operationComplete(future: ChannelFuture): Unit = {
+            if (!future.isSuccess && detach()) {
+                release(close = true)
+                fail(future.cause)
+            }
+        }
+
+        /* Called when the request times out. */
+        override def run(): Unit = {
+            if (detach()) {
+                release(close = true)
+                fail(new TimeoutException(
+                    s"Request to $novaMetadataUrl$path timed out"))
+            }
+        }
+
+        def received(response: FullHttpResponse): Unit = {
+            if (!detach())
+                return
+            val status = response.status()
+            val contentType =
+                response.headers().get(HttpHeaderNames.CONTENT_TYPE)
+            val body = response.content().toString(charsetOf(contentType))
+            release(close = response.headers().contains(
+                HttpHeaderNames.CONNECTION, HttpHeaderValues.CLOSE, true))
 
-            val encoding =
-                response.getType.getParameters.getOrDefault("charset", "UTF-8")
-            val data = IOUtils.toString(response.getEntityInputStream,
-                                        encoding)
             Log debug s"Response for instance:${info.instanceId} " +
-                      s"status:${response.getStatus} " +
-                      s"length:${response.getLength} " +
-                      s"media-type:${response.getType} " +
-                      s"data:$data"
-            data
-        } catch {
-            case e: UniformInterfaceException =>
-                Log error s"Unexpected HTTP response: $e for request: " +
-                          s"$url $info"
-                throw e
+                      s"status:${status.code} " +
+                      s"length:${body.length} " +
+                      s"media-type:$contentType " +
+                      s"data:$body"
+            if (status.code >= 300) {
+                Log error s"Unexpected HTTP response: $status for request: " +
+                          s"$novaMetadataUrl$path $info"
+            }
+            promise.trySuccess(MetadataResponse(status.code,
+                                                status.reasonPhrase,
+                                                contentType, body))
+        }
+
+        def closed(cause: Throwable): Unit = {
+            if (detach()) {
+                release(close = true)
+                fail(cause)
+            }
+        }
+
+        def fail(cause: Throwable): Unit = {
+            Log warn s"Request to $novaMetadataUrl$path for instance " +
+                     s"${info.instanceId} failed: ${cause.getMessage}"
+            promise.tryFailure(cause)
+        }
+
+        /* Detaches the exchange from the connection, returning false if it
+         * already completed. */
+        private def detach(): Boolean =
+            (channel ne null) && channel.attr(exchangeKey).compareAndSet(this, null)
+
+        private def release(close: Boolean): Unit = {
+            if (timeout ne null) timeout.cancel(false)
+            if (close) channel.close()
+            pool.release(channel)
+        }
+    }
+
+    @Sharable
+    private class ResponseHandler
+        extends SimpleChannelInboundHandler[FullHttpResponse] {
+
+        override def channelRead0(ctx: ChannelHandlerContext,
+                                  response: FullHttpResponse): Unit = {
+            val exchange = ctx.channel.attr(exchangeKey).get
+            if (exchange ne null) exchange.received(response)
+        }
+
+        override def channelInactive(ctx: ChannelHandlerContext): Unit = {
+            val exchange = ctx.channel.attr(exchangeKey).get
+            if (exchange ne null) exchange.closed(new ClosedChannelException)
+            super.channelInactive(ctx)
+        }
+
+        override def exceptionCaught(ctx: ChannelHandlerContext,
+                                     cause: Throwable): Unit = {
+            val exchange = ctx.channel.attr(exchangeKey).get
+            if (exchange ne null) exchange.closed(cause)
+            else ctx.close()
         }
     }
 }
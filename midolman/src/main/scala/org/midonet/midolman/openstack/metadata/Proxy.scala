@@ -32,18 +32,28 @@ object Proxy {
     final val Address = InetAddress getByName MetadataApi.Address
     final val Port = 9697  // REVISIT(yamamoto): should be a config?
     private var server: Server = _
+    private var client: NovaMetadataClient = _
 
     def start(config: MidolmanConfig): Unit = {
         val sa = new InetSocketAddress(Address, Port)
         Log info s"Starting metadata proxy on $sa"
+        val metadata = config.openstack.metadata
+        val c = new NovaMetadataClient(metadata.novaMetadataUrl,
+                                       metadata.sharedSecret,
+                                       metadata.novaConnections,
+                                       metadata.requestTimeout,
+                                       metadata.cacheTtl,
+                                       metadata.cacheSize)
         val s = new Server(sa)
-        s.setHandler(new ProxyHandler(config))
+        s.setHandler(new ProxyHandler(c, metadata.requestTimeout))
         try {
             s.start()
             server = s
+            client = c
         } catch {
             case NonFatal(e) =>
                 Log.error("Failed to start metadata proxy", e)
+                c.close()
         }
     }
 
@@ -54,5 +64,9 @@ object Proxy {
             server.join()
             server = null
         }
+        if (client != null) {
+            client.close()
+            client = null
+        }
     }
 }
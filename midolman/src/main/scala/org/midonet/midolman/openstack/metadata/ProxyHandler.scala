@@ -16,32 +16,99 @@
 
 package org.midonet.midolman.openstack.metadata
 
+import java.util.concurrent.atomic.AtomicBoolean
+import javax.servlet.{AsyncContext, AsyncEvent, AsyncListener}
 import javax.servlet.http.{HttpServletRequest, HttpServletResponse}
 
-import com.sun.jersey.api.client.UniformInterfaceException
+import scala.concurrent.duration._
+import scala.util.control.NonFatal
+import scala.util.{Failure, Success}
 
 import org.eclipse.jetty.server.Request
 import org.eclipse.jetty.server.handler.AbstractHandler
 
-import org.midonet.midolman.config.MidolmanConfig
+import org.midonet.util.concurrent._
 
-class ProxyHandler(val config: MidolmanConfig) extends AbstractHandler {
+object ProxyHandler {
+    /* The time the suspended requests wait past the Nova request timeout,
+     * such that a Nova request that times out is answered by the client
+     * rather than by the container.
+     */
+    final val TimeoutMargin = 5 seconds
+}
+
+/*
+ * Forwards the requests of the instances to the Nova Metadata API.  The
+ * requests are suspended while the Nova request is in flight, such that the
+ * proxy threads are not blocked on Nova.  A suspended request is completed
+ * once, either by the Nova response or by the container when it expires.
+ */
+class ProxyHandler(client: NovaMetadataClient, requestTimeout: Duration)
+    extends AbstractHandler {
+
+    import ProxyHandler._
 
     def handle(target: String, baseReq: Request, request: HttpServletRequest,
                response: HttpServletResponse) = {
         baseReq setHandled true
-        try {
-            val result = NovaMetadataClient.getMetadata(
-                                request.getPathInfo,
-                                request.getRemoteAddr,
-                                config.openstack.metadata.novaMetadataUrl,
-                                config.openstack.metadata.sharedSecret)
-            response.getWriter print result
-        } catch {
-            case e: UniformInterfaceException =>
-                response.sendError(e.getResponse.getStatus, e.getMessage)
-            case e: UnknownRemoteAddressException =>
-                response.sendError(HttpServletResponse.SC_FORBIDDEN, e.getMessage)
+        val remoteAddr = request.getRemoteAddr
+        val async = request.startAsync()
+        val completed = new AtomicBoolean
+        async.setTimeout((requestTimeout + TimeoutMargin).toMillis)
+        async.addListener(new AsyncListener {
+            override def onTimeout(event: AsyncEvent): Unit = {
+                if (completed.compareAndSet(false, true)) {
+                    Log.warn(s"Metadata request from $remoteAddr timed out")
+                    complete(async, remoteAddr) {
+                        response.sendError(
+                            HttpServletResponse.SC_GATEWAY_TIMEOUT)
+                    }
+                }
+            }
+            override def onError(event: AsyncEvent): Unit = {
+                if (completed.compareAndSet(false, true)) {
+                    complete(async, remoteAddr) { }
+                }
+            }
+            override def onComplete(event: AsyncEvent): Unit = {
+                completed.set(true)
+            }
+            override def onStartAsync(event: AsyncEvent): Unit = { }
+        })
+        client.getMetadata(request.getPathInfo, remoteAddr).onComplete {
+            result =>
+                if (completed.compareAndSet(false, true)) {
+                    complete(async, remoteAddr) {
+                        result match {
+                            case Success(r) if r.status >= 300 =>
+                                response.sendError(r.status, r.reason)
+                            case Success(r) =>
+                                if (r.contentType ne null)
+                                    response.setContentType(r.contentType)
+                                response.getWriter print r.body
+                            case Failure(e: UnknownRemoteAddressException) =>
+                                response.sendError(
+                                    HttpServletResponse.SC_FORBIDDEN,
+                                    e.getMessage)
+                            case Failure(e) =>
+                                response.sendError(
+                                    HttpServletResponse.SC_BAD_GATEWAY,
+                                    e.getMessage)
+                        }
+                    }
+                }
+        }(ExecutionContext.callingThread)
+    }
+
+    private def complete(async: AsyncContext, remoteAddr: String)
+                        (respond: => Unit): Unit = {
+        try respond catch {
+            case NonFatal(e) =>
+                Log.warn(s"Failed to respond to $remoteAddr", e)
+        }
+        try async.complete() catch {
+            case NonFatal(e) =>
+                Log.warn(s"Failed to complete the request of $remoteAddr", e)
         }
     }
 }
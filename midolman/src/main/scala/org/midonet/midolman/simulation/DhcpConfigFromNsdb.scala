@@ -18,103 +18,52 @@ package org.midonet.midolman.simulation
 
 import java.util.UUID
 
-import scala.collection.JavaConversions._
-import scala.concurrent.duration._
-import scala.concurrent.{Await, ExecutionContext, Future}
+import scala.collection.mutable.ArrayBuffer
+import scala.concurrent.{ExecutionContext, Future}
 
-import akka.actor.ActorSystem
-
-import com.google.common.annotations.VisibleForTesting
-
-import org.midonet.cluster.data.dhcp.{ExtraDhcpOpt, Host, Opt121, Subnet}
-import org.midonet.cluster.models.Topology
-import org.midonet.cluster.util.IPAddressUtil._
-import org.midonet.cluster.util.IPSubnetUtil._
-import org.midonet.cluster.util.UUIDUtil._
+import org.midonet.cluster.data.dhcp.{Host, Subnet}
+import org.midonet.midolman.NotYetException
 import org.midonet.midolman.topology.VirtualTopology
 import org.midonet.midolman.topology.VirtualTopology._
-import org.midonet.packets.{IPv4Addr, MAC}
+import org.midonet.midolman.topology.devices.DhcpSubnet
+import org.midonet.util.concurrent._
 
-/** This class enables access to DHCP resources.
-  *
-  * TODO: integrate with the VTA so that Subnets are cached.
+/** This class enables access to DHCP resources. The DHCP subnets are cached
+  * by the [[VirtualTopology]], with their hosts indexed by MAC address. When
+  * a subnet is not yet cached, the methods throw a [[NotYetException]] such
+  * that the packet is postponed until all the subnets of the bridge are
+  * loaded, instead of blocking the simulation thread.
   */
-class DhcpConfigFromNsdb(vt: VirtualTopology)
-                        (implicit val as: ActorSystem, val ec: ExecutionContext)
-    extends DhcpConfig {
+class DhcpConfigFromNsdb(vt: VirtualTopology) extends DhcpConfig {
 
-    private final val timeout = 3 seconds
+    private implicit val ec: ExecutionContext = ExecutionContext.callingThread
 
     override def bridgeDhcpSubnets(deviceId: UUID): Seq[Subnet] = {
-        val f = Future.sequence (
-            tryGet(classOf[Bridge], deviceId).subnetIds.map {
-                vt.store.get(classOf[Topology.Dhcp], _) map toSubnet
+        val subnetIds = tryGet(classOf[Bridge], deviceId).subnetIds
+        val subnets = new ArrayBuffer[Subnet](subnetIds.size)
+        var missing = List.empty[Future[Any]]
+        for (subnetId <- subnetIds) {
+            try {
+                subnets += tryGet(classOf[DhcpSubnet], subnetId).subnet
+            } catch {
+                case NotYetException(f, _) => missing = f :: missing
             }
-        ) recover { case _ => Seq.empty[Subnet] }
-        Await.result(f, timeout)
+        }
+        if (missing.nonEmpty) {
+            // Wait for all missing subnets at once, rather than postponing
+            // the packet once for every subnet.
+            throw NotYetException(Future.sequence(missing),
+                                  s"DHCP subnets of bridge $deviceId not " +
+                                  "yet available")
+        }
+        subnets
     }
 
     override def dhcpHost(deviceId: UUID, subnet: Subnet, srcMac: String)
     : Option[Host] = {
-        val f = vt.store.get(classOf[Topology.Dhcp], subnet.getId) map {
-            _.getHostsList.find(_.getMac == srcMac).map(toHost)
-        } recover { case _ => None }
-        Await.result(f, timeout)
-    }
-
-    @VisibleForTesting
-    private[simulation] def toHost(protoHost: Topology.Dhcp.Host): Host = {
-        val h = new Host()
-        h.setId(h.getId)
-        if (protoHost.hasIpAddress)
-            h.setIp(protoHost.getIpAddress.asIPv4Address)
-        if (protoHost.hasMac)
-            h.setMAC(MAC.fromString(protoHost.getMac))
-        if (protoHost.hasName)
-            h.setName(protoHost.getName)
-        h.setExtraDhcpOpts(protoHost.getExtraDhcpOptsList map { opt =>
-            new ExtraDhcpOpt(opt.getName, opt.getValue)
-        })
-    }
-
-    /** Converts a DHCP Proto object into a legacy cluster Subnet, as used by
-      * the Agent.
-      */
-    @VisibleForTesting
-    private[simulation] def toSubnet(dhcp: Topology.Dhcp): Subnet = {
-        val subnet = new Subnet
-        // Mandatory fields.
-        subnet.setId(dhcp.getId.asJava.toString)
-        subnet.setSubnetAddr(fromV4Proto(dhcp.getSubnetAddress))
-
-        // Optional fields
-        if (dhcp.hasDefaultGateway)
-            subnet.setDefaultGateway(dhcp.getDefaultGateway.asIPv4Address)
-        if (dhcp.hasEnabled)
-            subnet.setEnabled(dhcp.getEnabled)
-        if (dhcp.hasInterfaceMtu)
-            subnet.setInterfaceMTU(dhcp.getInterfaceMtu.toShort)
-        if (dhcp.hasServerAddress) {
-            subnet.setServerAddr(dhcp.getServerAddress.asIPv4Address)
-        } else if (dhcp.hasDefaultGateway) {
-            // If the server address is not set, use the default gateway.
-            subnet.setServerAddr(dhcp.getDefaultGateway.asIPv4Address)
-        } else {
-            // Or else, the network broadcast address minus 1.
-            subnet.setServerAddr(
-                IPv4Addr(subnet.getSubnetAddr.toBroadcastAddress.toInt - 1))
+        val subnetId = try UUID.fromString(subnet.getId) catch {
+            case e: IllegalArgumentException => return None
         }
-        subnet.setOpt121Routes(dhcp.getOpt121RoutesList.map(opt121 => {
-            val o = new Opt121
-            if (opt121.hasGateway)
-                o.setGateway(opt121.getGateway.asIPv4Address)
-            if (opt121.hasDstSubnet)
-                o.setRtDstSubnet(fromV4Proto(opt121.getDstSubnet))
-            o
-        }))
-        subnet.setDnsServerAddrs(dhcp.getDnsServerAddressList.map(toIPv4Addr))
-        subnet
+        Option(tryGet(classOf[DhcpSubnet], subnetId).host(srcMac))
     }
 }
-
-
@@ -15,13 +15,52 @@
  */
 package org.midonet.midolman.simulation
 
-import java.util.UUID
+import java.util.{Arrays, UUID}
 
-import org.midonet.packets.IPAddr
+import org.midonet.midolman.simulation.IPAddrGroup._
 import org.midonet.midolman.topology.VirtualTopology.Device
+import org.midonet.packets.{IPAddr, IPv4Addr}
+
+/**
+ * An IP address group. The IPv4 addresses are kept in a sorted array of their
+ * integer values, such that checking membership does not box the address.
+ *
+ * A group is updated in place when addresses are added or removed, such that
+ * the rule conditions referencing the group need not be rebuilt. The updates
+ * happen on the virtual topology thread and replace the arrays of addresses,
+ * which are never modified once published, while the packet processing
+ * threads read them.
+ */
+class IPAddrGroup(val id: UUID, initialAddrs: Set[IPAddr]) extends Device {
+
+    @volatile private var ipv4Addrs: Array[Int] =
+        sorted(initialAddrs.iterator.collect { case a: IPv4Addr => a.toInt })
+    @volatile private var otherAddrs: Set[IPAddr] =
+        initialAddrs.filterNot(_.isInstanceOf[IPv4Addr])
+
+    def contains(addr: IPAddr): Boolean = addr match {
+        case a: IPv4Addr => Arrays.binarySearch(ipv4Addrs, a.toInt) >= 0
+        case null => false
+        case _ => otherAddrs.contains(addr)
+    }
+
+    def addrs: Set[IPAddr] =
+        ipv4Addrs.iterator.map(IPv4Addr(_): IPAddr).toSet ++ otherAddrs
+
+    /**
+     * Adds and removes the given addresses. This method must be called only
+     * from the virtual topology thread.
+     */
+    def update(added: Iterable[IPAddr], removed: Iterable[IPAddr]): Unit = {
+        ipv4Addrs = merge(
+            ipv4Addrs,
+            sorted(added.iterator.collect { case a: IPv4Addr => a.toInt }),
+            sorted(removed.iterator.collect { case a: IPv4Addr => a.toInt }))
+        otherAddrs = otherAddrs --
+                     removed.filterNot(_.isInstanceOf[IPv4Addr]) ++
+                     added.filterNot(_.isInstanceOf[IPv4Addr])
+    }
 
-class IPAddrGroup(val id: UUID, val addrs: Set[IPAddr]) extends Device {
-    def contains(addr: IPAddr) = addrs.contains(addr)
     override def toString =
         "IPAddrGroup[id=%s, addrs=[%s]]".format(id, addrs.mkString(", "))
 }
@@ -33,4 +72,42 @@ object IPAddrGroup {
     def fromAddrs(id: UUID, addrs: Array[IPAddr]): IPAddrGroup = {
         new IPAddrGroup(id, addrs.toSet)
     }
+
+    private def sorted(addrs: Iterator[Int]): Array[Int] = {
+        val array = addrs.toArray
+        Arrays.sort(array)
+        array
+    }
+
+    /**
+     * Merges the sorted arrays of current and added addresses, without
+     * duplicates and without the removed addresses, into a new array.
+     */
+    private def merge(current: Array[Int], added: Array[Int],
+                      removed: Array[Int]): Array[Int] = {
+        if (added.isEmpty && removed.isEmpty) {
+            return current
+        }
+        val result = new Array[Int](current.length + added.length)
+        var i = 0
+        var j = 0
+        var count = 0
+        while (i < current.length || j < added.length) {
+            val addr =
+                if (j == added.length ||
+                    (i < current.length && current(i) <= added(j))) {
+                    i += 1
+                    current(i - 1)
+                } else {
+                    j += 1
+                    added(j - 1)
+                }
+            if ((count == 0 || result(count - 1) != addr) &&
+                Arrays.binarySearch(removed, addr) < 0) {
+                result(count) = addr
+                count += 1
+            }
+        }
+        Arrays.copyOf(result, count)
+    }
 }
@@ -40,6 +40,8 @@ class LoadBalancer(val id: UUID, val adminStateUp: Boolean, val routerId: UUID,
     val hasStickyVips: Boolean = vips.exists(_.isStickySourceIP)
     val hasNonStickyVips: Boolean = vips.exists(!_.isStickySourceIP)
 
+    private val vipIndex = VipIndex(vips)
+
     def processInbound(context: PacketContext)
     : RuleResult = {
 
@@ -125,25 +127,11 @@ class LoadBalancer(val id: UUID, val adminStateUp: Boolean, val routerId: UUID,
         }
     }
 
-    private def findVip(context: PacketContext): Vip = {
-        var i = 0
-        while (i < vips.length) {
-            if (vips(i).matches(context))
-                return vips(i)
-            i += 1
-        }
-        null
-    }
+    private def findVip(context: PacketContext): Vip =
+        vipIndex.findVip(context.wcmatch)
 
-    private def findVipReturn(context: PacketContext): Vip = {
-        var i = 0
-        while (i < vips.length) {
-            if (vips(i).matchesReturn(context))
-                return vips(i)
-            i += 1
-        }
-        null
-    }
+    private def findVipReturn(context: PacketContext): Vip =
+        vipIndex.findVipReturn(context.wcmatch)
 
     override def equals(obj: Any): Boolean = obj match {
         case loadBalancer: LoadBalancer =>
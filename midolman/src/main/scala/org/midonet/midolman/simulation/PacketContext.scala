@@ -28,6 +28,7 @@ import org.slf4j.LoggerFactory
 import org.midonet.midolman._
 import org.midonet.midolman.flows.ManagedFlow
 import org.midonet.midolman.layer3.Route
+import org.midonet.midolman.monitoring.metrics.PacketPipelineLatencies
 import org.midonet.midolman.PacketWorkflow.{GeneratedLogicalPacket, GeneratedPhysicalPacket}
 import org.midonet.midolman.state.{ArpRequestBroker, FlowStateAgentPackets => FlowStatePackets}
 import org.midonet.midolman.rules.RuleResult
@@ -385,6 +386,7 @@ class PacketContext extends Clearable
     var runs: Int = 0
 
     var devicesTraversed = 0
+    var hasGeneratedPackets = false
 
     var inPortId: UUID = _
     var outPortId: UUID = _
@@ -411,6 +413,16 @@ class PacketContext extends Clearable
     val flowProcessed: AtomicBoolean = new AtomicBoolean(false)
     val packetProcessed: AtomicBoolean = new AtomicBoolean(false)
 
+    // The latency histograms of the worker processing the packet, and the
+    // timestamps and accumulated times of the pipeline stages, in
+    // nanoseconds of the NanoClock.
+    var latencies: PacketPipelineLatencies = null
+    var simulationStartNanos = 0L
+    var simulationNanos = 0L
+    var postponedAtNanos = 0L
+    var postponedNanos = 0L
+    var handoffNanos = 0L
+
     // Stores the callback to call when this flow is removed.
     val flowRemovedCallbacks = new ArrayList[Callback0]()
     def addFlowRemovedCallback(cb: Callback0): Unit = {
@@ -459,6 +471,7 @@ class PacketContext extends Clearable
         this.log = PacketContext.defaultLog
         this.idle = true
         this.devicesTraversed = 0
+        this.hasGeneratedPackets = false
         this.runs = 0
         this.cookie = -1
         this.packet = null
@@ -475,6 +488,12 @@ class PacketContext extends Clearable
         this.inPortGroups = null
         this.outPortGroups = null
         this.flowRemovedCallbacks.clear()
+        this.latencies = null
+        this.simulationStartNanos = 0L
+        this.simulationNanos = 0L
+        this.postponedAtNanos = 0L
+        this.postponedNanos = 0L
+        this.handoffNanos = 0L
     }
 
     override def clear(): Unit = {
@@ -486,6 +505,7 @@ class PacketContext extends Clearable
         idle = false
         runs += 1
         devicesTraversed = 0
+        hasGeneratedPackets = false
         currentDevice = null
         routeTo = null
         origMatch.clearSeenFields()
@@ -513,12 +533,16 @@ class PacketContext extends Clearable
     def setFlowProcessed(): Unit = flowProcessed.set(true)
     def setPacketProcessed(): Unit = packetProcessed.set(true)
 
-    def addGeneratedPacket(uuid: UUID, ethernet: Ethernet): Unit =
+    def addGeneratedPacket(uuid: UUID, ethernet: Ethernet): Unit = {
+        hasGeneratedPackets = true
         backChannel.tell(GeneratedLogicalPacket(uuid, ethernet, cookie))
+    }
 
     def addGeneratedPhysicalPacket(portNo: JInteger,
-                                   ethernet: Ethernet): Unit =
+                                   ethernet: Ethernet): Unit = {
+        hasGeneratedPackets = true
         backChannel.tell(GeneratedPhysicalPacket(portNo, ethernet, cookie))
+    }
 
     def markUserspaceOnly(): Unit =
         wcmatch.markUserspaceOnly()
@@ -25,7 +25,7 @@ import org.midonet.midolman.topology.VirtualTopology.VirtualDevice
 import org.midonet.packets.{ICMP, IPAddr}
 import org.midonet.packets.NatState
 import org.midonet.sdn.flows.FlowTagger
-import org.midonet.util.collection.WeightedSelector
+import org.midonet.util.collection.MaglevSelector
 
 object Pool {
     def findPoolMember(ip: IPAddr, port: Int, pmArray: Array[PoolMember])
@@ -39,6 +39,23 @@ object Pool {
         }
         false
     }
+
+    /**
+     * Computes the hash used to select a pool member for a connection. With
+     * sticky source IP, only the source address is hashed, such that all
+     * connections from a client select the same member.
+     */
+    def connectionHash(context: PacketContext, stickySourceIP: Boolean): Int = {
+        val pktMatch = context.wcmatch
+        var hash = pktMatch.getNetworkSrcIP.hashCode()
+        if (!stickySourceIP) {
+            hash = 31 * hash + pktMatch.getNetworkDstIP.hashCode()
+            hash = 31 * hash + pktMatch.getNetworkProto
+            hash = 31 * hash + pktMatch.getSrcPort
+            hash = 31 * hash + pktMatch.getDstPort
+        }
+        hash
+    }
 }
 
 final class Pool(val id: UUID, val adminStateUp: Boolean,
@@ -55,8 +72,14 @@ final class Pool(val id: UUID, val adminStateUp: Boolean,
 
     val isUp = adminStateUp && activePoolMembers.nonEmpty
 
-    private val memberSelector = if (!isUp) null
-                                 else WeightedSelector(activePoolMembers)
+    // The member selector is a consistent hash of the connection, such that
+    // a connection keeps its member after the loss of its NAT state, and
+    // changes to the active members remap few of the existing connections.
+    private val memberSelector =
+        if (!isUp) null
+        else MaglevSelector(activePoolMembers) { member =>
+            member.id.getMostSignificantBits ^ member.id.getLeastSignificantBits
+        }
 
     /**
      * Choose an active pool member and apply DNAT to the packetContext
@@ -75,7 +98,8 @@ final class Pool(val id: UUID, val adminStateUp: Boolean,
         context.addFlowTag(deviceTag)
 
         if (isUp) {
-            val member = memberSelector.select()
+            val member = memberSelector.select(
+                Pool.connectionHash(context, stickySourceIP))
             if (context.log.underlying.isDebugEnabled) {
                 context.log.debug(s"Selected member $member out of {}",
                                   activePoolMembers.mkString(", "))
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.midonet.midolman.simulation
+
+import java.util.{Arrays, HashMap}
+
+import scala.collection.mutable
+
+import org.midonet.odp.FlowMatch
+import org.midonet.packets.{IPAddr, TCP}
+
+object VipIndex {
+
+    /** The VIPs at the same address, sorted by protocol port. */
+    private[simulation] final class AddressVips(val ports: Array[Int],
+                                                val vips: Array[Vip])
+
+    /**
+     * Builds the index for the given VIPs. Only the VIPs that are
+     * administratively up are indexed, and when several VIPs have the same
+     * address and protocol port, the first of them is indexed, such that
+     * lookups return the same VIP as a linear scan of the array.
+     */
+    def apply(vips: Array[Vip]): VipIndex = {
+        val byAddress = new mutable.LinkedHashMap[IPAddr, mutable.LinkedHashMap[Int, Vip]]
+        for (vip <- vips if vip.adminStateUp && (vip.address ne null)) {
+            val byPort = byAddress.getOrElseUpdate(
+                vip.address, new mutable.LinkedHashMap[Int, Vip])
+            if (!byPort.contains(vip.protocolPort))
+                byPort.put(vip.protocolPort, vip)
+        }
+        val addresses = new HashMap[IPAddr, AddressVips](byAddress.size * 2)
+        for ((address, byPort) <- byAddress) {
+            val sorted = byPort.toArray.sortBy(_._1)
+            addresses.put(address, new AddressVips(sorted.map(_._1),
+                                                   sorted.map(_._2)))
+        }
+        new VipIndex(addresses)
+    }
+}
+
+/**
+ * An immutable index of the VIPs of a load balancer by address and protocol
+ * port, replacing the linear scan of all VIPs for every packet. Lookups do
+ * not allocate.
+ *
+ * The lookups read the fields of the packet match in the same order as
+ * [[Vip.matches]] and [[Vip.matchesReturn]], and only when a VIP could
+ * still match, such that the flows have the same wildcards as when
+ * matching the VIPs one by one.
+ */
+final class VipIndex private (addresses: HashMap[IPAddr, VipIndex.AddressVips]) {
+
+    /** Returns the VIP that is the destination of the packet, or null. */
+    def findVip(fmatch: FlowMatch): Vip = {
+        if (addresses.isEmpty)
+            return null
+        val vips = addresses.get(fmatch.getNetworkDstIP)
+        if (vips eq null)
+            return null
+        find(vips, fmatch.getDstPort, fmatch)
+    }
+
+    /** Returns the VIP that is the source of a return packet, after the
+      * packet was reverse translated, or null. */
+    def findVipReturn(fmatch: FlowMatch): Vip = {
+        if (addresses.isEmpty)
+            return null
+        val vips = addresses.get(fmatch.getNetworkSrcIP)
+        if (vips eq null)
+            return null
+        find(vips, fmatch.getSrcPort, fmatch)
+    }
+
+    private def find(vips: VipIndex.AddressVips, port: Int,
+                     fmatch: FlowMatch): Vip = {
+        val index = Arrays.binarySearch(vips.ports, port)
+        if (index >= 0 && fmatch.getNetworkProto == TCP.PROTOCOL_NUMBER)
+            vips.vips(index)
+        else
+            null
+    }
+}
@@ -107,6 +107,9 @@ trait ConnTrackState extends FlowState { this: PacketContext =>
         isConnectionTracked = false
     }
 
+    /** Whether the simulation looked up the connection tracking state. */
+    def connectionTracked: Boolean = isConnectionTracked
+
     def resetConnTrackState(): Unit = {
         this.conntrackTx = null
         this.isConnectionTracked = false
@@ -92,6 +92,12 @@ import org.midonet.util.functors.Callback0
  *
  *   5 Other threads' read operations will spill over to this shard for the
  *     received keys.
+ *
+ *   6 State imported from storage is broadcast to every packet processing
+ *     thread, but each key is only written to the shard of the thread that
+ *     owns it, as given by `workerId` and `numWorkers`, so that importing
+ *     a port's state is spread across the threads and only stored once.
+ *     Every thread still invalidates its own flows for all imported keys.
  */
 class FlowStateReplicator(
         conntrackTable: FlowStateTable[ConnTrackKey, ConnTrackValue],
@@ -101,7 +107,9 @@ class FlowStateReplicator(
         peerResolver: PeerResolver,
         underlay: UnderlayResolver,
         flowInvalidation: FlowTagIndexer,
-        midolmanConfig: MidolmanConfig) {
+        midolmanConfig: MidolmanConfig,
+        workerId: Int = 0,
+        numWorkers: Int = 1) {
     import FlowStateAgentPackets._
     private val log = Logger(LoggerFactory.getLogger("org.midonet.state.replication"))
 
@@ -189,12 +197,19 @@ class FlowStateReplicator(
         importNat(batch.weakNat.entrySet().iterator())
     }
 
+    /** Whether this replicator's thread imports the given key into its
+      * shard. */
+    @inline private def ownsImported(k: AnyRef): Boolean =
+        numWorkers <= 1 || (k.hashCode & Int.MaxValue) % numWorkers == workerId
+
     private def importConnTrack(keys: JIterator[ConnTrackKey], v: ConnTrackState.ConnTrackValue) {
         while (keys.hasNext) {
             val k = keys.next()
-            log.debug("importing state key from storage: {}", k)
-            conntrackTable.putAndRef(k, v)
-            conntrackTable.unref(k)
+            if (ownsImported(k)) {
+                log.debug("importing state key from storage: {}", k)
+                conntrackTable.putAndRef(k, v)
+                conntrackTable.unref(k)
+            }
             flowInvalidation.invalidateFlowsFor(k)
         }
     }
@@ -202,9 +217,11 @@ class FlowStateReplicator(
     private def importNat(entries: JIterator[java.util.Map.Entry[NatKey, NatBinding]]) {
         while (entries.hasNext) {
             val e = entries.next()
-            log.debug("importing state key from storage: {}", e.getKey)
-            natTable.putAndRef(e.getKey, e.getValue)
-            natTable.unref(e.getKey)
+            if (ownsImported(e.getKey)) {
+                log.debug("importing state key from storage: {}", e.getKey)
+                natTable.putAndRef(e.getKey, e.getValue)
+                natTable.unref(e.getKey)
+            }
             flowInvalidation.invalidateFlowsFor(e.getKey)
         }
     }
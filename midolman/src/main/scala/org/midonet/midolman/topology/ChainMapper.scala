@@ -115,9 +115,16 @@ object ChainMapper {
         private var currentIpAddrGroup: SimIPAddrGroup = null
         private val mark = PublishSubject.create[SimIPAddrGroup]()
 
-        /** The observable emitting IP address group updates. */
+        /**
+         * The observable emitting IP address group updates. The IP address
+         * group mapper updates the addresses of a group in place, and the
+         * flows matching the changed addresses are invalidated by their
+         * address tags: the same group is filtered out here, such that
+         * membership changes do not rebuild the chain.
+         */
         val observable = VirtualTopology
             .observable(classOf[SimIPAddrGroup], ipAddrGroupId)
+            .distinctUntilChanged()
             .doOnNext(makeAction1(currentIpAddrGroup = _))
             .takeUntil(mark)
 
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.midonet.midolman.topology
+
+import java.util.UUID
+
+import org.midonet.cluster.models.Topology.Dhcp
+import org.midonet.midolman.topology.devices.DhcpSubnet
+import org.midonet.util.functors.makeFunc1
+
+/**
+ * This mapper offers an observable of a DHCP subnet simulation object of a
+ * given id. The DHCP subnet is obtained from Zoom as a protocol buffer and
+ * converted into a [[DhcpSubnet]], which indexes the subnet hosts by their
+ * MAC address.
+ */
+final class DhcpSubnetMapper(id: UUID, vt: VirtualTopology)
+    extends DeviceMapper(classOf[DhcpSubnet], id, vt) {
+
+    override def logSource = "org.midonet.devices.dhcp"
+    override def logMark = s"dhcp:$id"
+
+    protected override val observable =
+        vt.store.observable(classOf[Dhcp], id)
+            .map[DhcpSubnet](makeFunc1(DhcpSubnet(_)))
+            .observeOn(vt.vtScheduler)
+
+}
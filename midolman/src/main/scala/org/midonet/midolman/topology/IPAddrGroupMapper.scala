@@ -24,24 +24,57 @@ import org.midonet.cluster.models.Topology.{IPAddrGroup => TopologyIPAddrGroup}
 import org.midonet.cluster.util.IPAddressUtil._
 import org.midonet.cluster.util.UUIDUtil._
 import org.midonet.midolman.simulation.{IPAddrGroup => SimIPAddrGroup}
+import org.midonet.packets.IPAddr
+import org.midonet.sdn.flows.FlowTagger.tagForIPAddrGroupAddress
 import org.midonet.util.functors.makeFunc1
 
+/**
+ * A device mapper for IP address groups. The mapper emits the same simulation
+ * IP address group for every update of the topology object: the added and
+ * removed addresses are computed from the previous version and applied to the
+ * group in place, and only the flows that matched one of these addresses
+ * against the group are invalidated.
+ */
 class IPAddrGroupMapper(addrGroupId: UUID, vt: VirtualTopology) extends
     DeviceMapper(classOf[SimIPAddrGroup], addrGroupId, vt) {
 
     override def logSource = "org.midonet.devices.ip-group"
     override def logMark = s"ip-group:$addrGroupId"
 
+    private var ipAddrGroup: SimIPAddrGroup = null
+    private var addrs = Set.empty[IPAddr]
+    private var changedAddrs = Set.empty[IPAddr]
+
     private def build(ipAddGroup: TopologyIPAddrGroup)
     : SimIPAddrGroup = {
-        val addrs = ipAddGroup.getIpAddrPortsList.asScala.map(ipAddrPort =>
+        assertThread()
+        val currentAddrs = ipAddGroup.getIpAddrPortsList.asScala.map(ipAddrPort =>
             toIPAddr(ipAddrPort.getIpAddress)
         ).toSet
-        new SimIPAddrGroup(ipAddGroup.getId.asJava, addrs)
+        if (ipAddrGroup eq null) {
+            ipAddrGroup = new SimIPAddrGroup(ipAddGroup.getId.asJava,
+                                             currentAddrs)
+        } else {
+            val added = currentAddrs -- addrs
+            val removed = addrs -- currentAddrs
+            log.debug("IP address group updated: added {} removed {}",
+                      added, removed)
+            ipAddrGroup.update(added, removed)
+            changedAddrs = added ++ removed
+        }
+        addrs = currentAddrs
+        ipAddrGroup
+    }
+
+    protected override def onDeviceChanged(device: SimIPAddrGroup): Unit = {
+        for (addr <- changedAddrs) {
+            vt.invalidate(tagForIPAddrGroupAddress(addrGroupId, addr))
+        }
+        changedAddrs = Set.empty
     }
 
     protected override lazy val observable =
         vt.store.observable(classOf[TopologyIPAddrGroup], addrGroupId)
-            .map[SimIPAddrGroup](makeFunc1(build))
             .observeOn(vt.vtScheduler)
+            .map[SimIPAddrGroup](makeFunc1(build))
 }
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.topology.devices
+
+import java.util.{HashMap => JHashMap, UUID}
+
+import scala.collection.JavaConversions._
+
+import org.midonet.cluster.data.dhcp.{ExtraDhcpOpt, Host, Opt121, Subnet}
+import org.midonet.cluster.models.Topology
+import org.midonet.cluster.util.IPAddressUtil._
+import org.midonet.cluster.util.IPSubnetUtil._
+import org.midonet.cluster.util.UUIDUtil._
+import org.midonet.midolman.topology.VirtualTopology.Device
+import org.midonet.packets.{IPv4Addr, MAC}
+
+object DhcpSubnet {
+
+    /** Converts a DHCP Proto object into a simulation DHCP subnet, where the
+      * hosts are indexed by their MAC address.
+      */
+    def apply(dhcp: Topology.Dhcp): DhcpSubnet = {
+        val hosts = new JHashMap[String, Host](dhcp.getHostsCount * 2)
+        for (protoHost <- dhcp.getHostsList if protoHost.hasMac) {
+            // The first host with a given MAC takes precedence.
+            if (!hosts.containsKey(protoHost.getMac))
+                hosts.put(protoHost.getMac, toHost(protoHost))
+        }
+        new DhcpSubnet(dhcp.getId.asJava, toSubnet(dhcp), hosts)
+    }
+
+    /** Converts a DHCP host Proto object into a legacy cluster Host, as used
+      * by the Agent.
+      */
+    def toHost(protoHost: Topology.Dhcp.Host): Host = {
+        val h = new Host()
+        h.setId(h.getId)
+        if (protoHost.hasIpAddress)
+            h.setIp(protoHost.getIpAddress.asIPv4Address)
+        if (protoHost.hasMac)
+            h.setMAC(MAC.fromString(protoHost.getMac))
+        if (protoHost.hasName)
+            h.setName(protoHost.getName)
+        h.setExtraDhcpOpts(protoHost.getExtraDhcpOptsList map { opt =>
+            new ExtraDhcpOpt(opt.getName, opt.getValue)
+        })
+    }
+
+    /** Converts a DHCP Proto object into a legacy cluster Subnet, as used by
+      * the Agent.
+      */
+    def toSubnet(dhcp: Topology.Dhcp): Subnet = {
+        val subnet = new Subnet
+        // Mandatory fields.
+        subnet.setId(dhcp.getId.asJava.toString)
+        subnet.setSubnetAddr(fromV4Proto(dhcp.getSubnetAddress))
+
+        // Optional fields
+        if (dhcp.hasDefaultGateway)
+            subnet.setDefaultGateway(dhcp.getDefaultGateway.asIPv4Address)
+        if (dhcp.hasEnabled)
+            subnet.setEnabled(dhcp.getEnabled)
+        if (dhcp.hasInterfaceMtu)
+            subnet.setInterfaceMTU(dhcp.getInterfaceMtu.toShort)
+        if (dhcp.hasServerAddress) {
+            subnet.setServerAddr(dhcp.getServerAddress.asIPv4Address)
+        } else if (dhcp.hasDefaultGateway) {
+            // If the server address is not set, use the default gateway.
+            subnet.setServerAddr(dhcp.getDefaultGateway.asIPv4Address)
+        } else {
+            // Or else, the network broadcast address minus 1.
+            subnet.setServerAddr(
+                IPv4Addr(subnet.getSubnetAddr.toBroadcastAddress.toInt - 1))
+        }
+        subnet.setOpt121Routes(dhcp.getOpt121RoutesList.map(opt121 => {
+            val o = new Opt121
+            if (opt121.hasGateway)
+                o.setGateway(opt121.getGateway.asIPv4Address)
+            if (opt121.hasDstSubnet)
+                o.setRtDstSubnet(fromV4Proto(opt121.getDstSubnet))
+            o
+        }))
+        subnet.setDnsServerAddrs(dhcp.getDnsServerAddressList.map(toIPv4Addr))
+        subnet
+    }
+
+}
+
+/**
+ * A simulation object for a DHCP subnet of a bridge. The subnet hosts are
+ * indexed by their MAC address as stored in the topology, such that a DHCP
+ * request is answered with a single lookup regardless of the number of hosts
+ * in the subnet.
+ */
+final class DhcpSubnet private[devices](val id: UUID,
+                                        val subnet: Subnet,
+                                        hosts: JHashMap[String, Host])
+    extends Device {
+
+    /** Returns the host with the given MAC address, or null if none. */
+    def host(mac: String): Host = hosts.get(mac)
+
+    def hostCount: Int = hosts.size()
+
+    override def toString =
+        s"DhcpSubnet [id=$id subnet=${subnet.getSubnetAddr} " +
+        s"hosts=${hosts.size()}]"
+
+}
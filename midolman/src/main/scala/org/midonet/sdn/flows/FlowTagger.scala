@@ -423,6 +423,31 @@ object FlowTagger {
         tag
     }
 
+    /**
+     * Tag for the flows whose simulation matched an IP address against an IP
+     * address group, invalidated when the address joins or leaves the group.
+     */
+    case class IPAddrGroupAddressTag(ipAddrGroupId: UUID, address: IPAddr)
+        extends FlowTag {
+        override def toString = "ip_addr_group:" + ipAddrGroupId + ":" + address
+    }
+
+    val cachedIPAddrGroupAddressTags = new ThreadLocal[TagsTrie] {
+        override def initialValue = new TagsTrie
+    }
+
+    def tagForIPAddrGroupAddress(ipAddrGroupId: UUID, address: IPAddr): FlowTag = {
+        val segment = cachedIPAddrGroupAddressTags.get()
+            .getOrAddSegment(ipAddrGroupId)
+            .getOrAddSegment(address)
+        var tag = segment.value
+        if (tag eq null) {
+            tag = new IPAddrGroupAddressTag(ipAddrGroupId, address)
+            segment.value = tag
+        }
+        tag
+    }
+
     /**
      * Tag for the flows associated with a meter
      */
@@ -16,9 +16,7 @@
 
 package org.midonet.services.flowstate.transfer.client
 
-import java.util.{HashMap => JHashMap, HashSet => JHashSet}
-
-import org.midonet.midolman.HostRequestProxy.FlowStateBatch
+import org.midonet.midolman.HostRequestProxy.{EmptyFlowStateBatch, FlowStateBatch}
 import org.midonet.midolman.state.ConnTrackState.ConnTrackKey
 import org.midonet.midolman.state.FlowStateAgentPackets._
 import org.midonet.midolman.state.NatState._
@@ -29,13 +27,16 @@ import org.midonet.packets.SbeEncoder
   * Translates flow state SbeEncoder responses to internally used FlowStateBatch
   * objects. For performance the object is constructed in a pipeline, and since
   * many keys could be repeated, we can also get better memory usage.
+  *
+  * To bound the memory used when receiving the state of a port with many
+  * connections, the aggregator hands over the current batch to `chunks` once
+  * it holds `chunkSize` pieces of flow state, and starts a new one. The
+  * pieces not yet handed over are returned by `batch()`.
   */
-class FlowStateAggregator {
+class FlowStateAggregator(chunkSize: Int = Int.MaxValue,
+                          chunks: FlowStateBatch => Unit = _ => { }) {
 
-    val strongConnTrack = new JHashSet[ConnTrackKey]()
-    val weakConnTrack = new JHashSet[ConnTrackKey]()
-    val strongNat = new JHashMap[NatKey, NatBinding]()
-    val weakNat = new JHashMap[NatKey, NatBinding]()
+    private var current = EmptyFlowStateBatch
 
     def push(sbe: SbeEncoder): Unit = {
         val message = sbe.flowStateMessage
@@ -45,7 +46,8 @@ class FlowStateAggregator {
             val next = connTrackIter.next()
             val connTrack = connTrackKeyFromSbe(next, ConnTrackKey)
 
-            strongConnTrack.add(connTrack)
+            current.strongConnTrack.add(connTrack)
+            checkChunk()
         }
 
         val natIter = message.nat()
@@ -54,10 +56,17 @@ class FlowStateAggregator {
             val natKey = natKeyFromSbe(next, NatKey)
             val natBinding = natBindingFromSbe(next)
 
-            strongNat.put(natKey, natBinding)
+            current.strongNat.put(natKey, natBinding)
+            checkChunk()
         }
     }
 
-    def batch() =
-        FlowStateBatch(strongConnTrack, weakConnTrack, strongNat, weakNat)
+    def batch() = current
+
+    private def checkChunk(): Unit = {
+        if (current.size() >= chunkSize) {
+            chunks(current)
+            current = EmptyFlowStateBatch
+        }
+    }
 }
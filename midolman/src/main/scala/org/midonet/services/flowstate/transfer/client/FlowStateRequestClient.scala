@@ -25,8 +25,9 @@ import scala.util.control.NonFatal
 
 import org.midonet.cluster.flowstate.FlowStateTransfer.{StateRequest, StateResponse}
 import org.midonet.cluster.util.UUIDUtil.fromProto
+import org.midonet.midolman.HostRequestProxy.FlowStateBatch
 import org.midonet.midolman.config.FlowStateConfig
-import org.midonet.packets.SbeEncoder
+import org.midonet.packets.{FlowStateEthernet, SbeEncoder}
 import org.midonet.services.flowstate.transfer.StateTransferProtocolBuilder._
 import org.midonet.services.flowstate.transfer.StateTransferProtocolParser._
 import org.midonet.services.flowstate.transfer.internal._
@@ -92,8 +93,17 @@ trait FlowStateRequestClient extends DefaultRetriable with ClosingRetriable
 class FlowStateInternalClient(override val flowStateConfig: FlowStateConfig)
      extends FlowStateRequestClient {
 
-    def remoteFlowStateFrom(host: String, portId: UUID) = {
-        val aggregator = new FlowStateAggregator
+    /**
+     * Requests the flow state of a port from the flow state minion of a
+     * remote host, through the local minion. The state is decoded as it is
+     * received, handing over every `chunkSize` pieces of it to `chunks`, and
+     * the method returns the pieces not handed over.
+     */
+    def remoteFlowStateFrom(host: String, portId: UUID,
+                            chunkSize: Int = Int.MaxValue,
+                            chunks: FlowStateBatch => Unit = _ => { })
+    : FlowStateBatch = {
+        val aggregator = new FlowStateAggregator(chunkSize, chunks)
         var socket: Socket = null
 
         try retryClosing(socket, s"Request flow state to $host for port $portId") {
@@ -119,8 +129,15 @@ class FlowStateInternalClient(override val flowStateConfig: FlowStateConfig)
         aggregator.batch()
     }
 
-    def internalFlowStateFrom(portId: UUID) = {
-        val aggregator = new FlowStateAggregator
+    /**
+     * Requests the flow state of a port from the local flow state minion,
+     * handing it over in chunks as for `remoteFlowStateFrom`.
+     */
+    def internalFlowStateFrom(portId: UUID,
+                              chunkSize: Int = Int.MaxValue,
+                              chunks: FlowStateBatch => Unit = _ => { })
+    : FlowStateBatch = {
+        val aggregator = new FlowStateAggregator(chunkSize, chunks)
         var socket: Socket = null
 
         try retryClosing(socket, s"Request flow state to internal minion for port $portId") {
@@ -148,21 +165,22 @@ class FlowStateInternalClient(override val flowStateConfig: FlowStateConfig)
 
     private def pipelinedReadTranslatedState(dis: DataInputStream,
                                              aggregator: FlowStateAggregator): Unit = {
+        // The aggregator copies the decoded state, so the buffer and the
+        // decoder are reused for every message.
+        val encoder = new SbeEncoder
+        var buffer = new Array[Byte](FlowStateEthernet.FLOW_STATE_MAX_PAYLOAD_LENGTH)
         var next = dis.readInt()
         while (next > 0) {
-            val rawEncoder = readBytes(dis, next)
-            val sbe = decodeFromBytes(rawEncoder)
-            aggregator.push(sbe)
+            if (next > buffer.length) {
+                buffer = new Array[Byte](next)
+            }
+            dis.readFully(buffer, 0, next)
+            encoder.decodeFrom(buffer)
+            aggregator.push(encoder)
             next = dis.readInt()
         }
     }
 
-    private def decodeFromBytes(bytes: Array[Byte]) = {
-        val encoder = new SbeEncoder
-        encoder.decodeFrom(bytes)
-        encoder
-    }
-
 }
 
 /*
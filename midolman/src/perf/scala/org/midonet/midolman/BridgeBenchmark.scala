@@ -22,10 +22,14 @@ import java.util.concurrent.TimeUnit
 import org.openjdk.jmh.annotations.{Setup => JmhSetup, _}
 import org.openjdk.jmh.infra.Blackhole
 
+import com.codahale.metrics.MetricRegistry
+
 import org.midonet.midolman.PacketWorkflow.SimulationResult
+import org.midonet.midolman.monitoring.metrics.PacketPipelineLatencies
 import org.midonet.midolman.simulation.{PacketContext, Bridge}
 import org.midonet.packets.MAC
 import org.midonet.packets.util.PacketBuilder._
+import org.midonet.util.concurrent.NanoClock
 
 @BenchmarkMode(Array(Mode.AverageTime))
 @OutputTimeUnit(TimeUnit.MICROSECONDS)
@@ -42,6 +46,7 @@ class BridgeBenchmark extends MidolmanBenchmark {
     var leftPortId: UUID = _
     var rightPortId: UUID = _
     var packetContext: PacketContext = _
+    val latencies = new PacketPipelineLatencies(new MetricRegistry, "worker-0")
 
     @JmhSetup
     def setup(): Unit = {
@@ -63,4 +68,25 @@ class BridgeBenchmark extends MidolmanBenchmark {
     @Benchmark
     def benchmarkBridge(bh: Blackhole): (SimulationResult, PacketContext) =
         simulate(packetContext)
+
+    /**
+     * Simulates the packet while taking the stage timestamps and recording
+     * the stage latencies as the packet workflow does, to compare with
+     * benchmarkBridge for the overhead of the latency histograms.
+     */
+    @Benchmark
+    def benchmarkBridgeWithLatencies(bh: Blackhole)
+    : (SimulationResult, PacketContext) = {
+        packetContext.packet.startTimeNanos = NanoClock.DEFAULT.tick
+        packetContext.simulationStartNanos = NanoClock.DEFAULT.tick
+        val result = simulate(packetContext)
+        packetContext.simulationNanos =
+            NanoClock.DEFAULT.tick - packetContext.simulationStartNanos
+        packetContext.handoffNanos = NanoClock.DEFAULT.tick
+        latencies.recordSimulated(packetContext)
+        val now = NanoClock.DEFAULT.tick
+        latencies.recordFlowCreate(packetContext.handoffNanos, now)
+        latencies.recordExecute(packetContext.handoffNanos, now)
+        result
+    }
 }
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman
+
+import java.util.concurrent.TimeUnit
+
+import scala.collection.mutable
+
+import org.openjdk.jmh.annotations.{Setup => JmhSetup, _}
+import org.slf4j.LoggerFactory
+
+import org.midonet.cluster.models.Topology.Dhcp
+import org.midonet.cluster.services.MidonetBackend
+import org.midonet.cluster.util.IPAddressUtil._
+import org.midonet.midolman.simulation.{Bridge, DhcpConfigFromNsdb, DhcpImpl, Port}
+import org.midonet.midolman.topology.VirtualTopology
+import org.midonet.midolman.topology.devices.DhcpSubnet
+import org.midonet.packets._
+import org.midonet.util.concurrent._
+import org.midonet.util.logging.Logger
+
+/**
+ * Measures the handling of a DHCP DISCOVER for a bridge with a DHCP subnet
+ * with a large number of hosts. The requesting host is the last host in the
+ * subnet, which is the worst case for a linear search of the host list.
+ */
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(value = 5)
+@State(Scope.Benchmark)
+class DhcpBenchmark extends MidolmanBenchmark {
+
+    @Param(Array("10", "5000"))
+    var hosts: Int = _
+
+    val log = Logger(LoggerFactory.getLogger("org.midonet.benchmark.dhcp"))
+
+    var port: Port = _
+    var request: DHCP = _
+    var requestMac: MAC = _
+    var dhcpConfig: DhcpConfigFromNsdb = _
+
+    @JmhSetup
+    def setup(): Unit = {
+        newHost("myself", hostId)
+        val bridgeId = newBridge("bridge")
+        val portId = newBridgePort(bridgeId)
+        materializePort(portId, hostId, "port0")
+
+        val subnet = new IPv4Subnet("10.0.0.0", 16)
+        addDhcpSubnet(bridgeId, subnet, enabled = true,
+                      IPv4Addr.fromString("10.0.0.1"), List(), 0, List())
+
+        val store = injector.getInstance(classOf[MidonetBackend]).store
+        val dhcpId = fetchDevice[Bridge](bridgeId).subnetIds.head
+        val dhcp = store.get(classOf[Dhcp], dhcpId).await()
+        val macs = mutable.Buffer[MAC]()
+        val builder = dhcp.toBuilder
+        for (index <- 0 until hosts) {
+            val mac = MAC.random()
+            builder.addHosts(Dhcp.Host.newBuilder()
+                                 .setMac(mac.toString)
+                                 .setIpAddress(IPv4Addr(subnet.getIntAddress +
+                                                        index + 2).asProto)
+                                 .setName(s"host$index"))
+            macs += mac
+        }
+        store.update(builder.build())
+
+        port = fetchDevice[Port](portId)
+        fetchDevice[DhcpSubnet](dhcpId)
+        requestMac = macs.last
+        dhcpConfig = new DhcpConfigFromNsdb(
+            injector.getInstance(classOf[VirtualTopology]))
+
+        request = new DHCP()
+            .setOpCode(DHCP.OPCODE_REQUEST)
+            .setHardwareType(0x01)
+            .setHardwareAddressLength(6)
+            .setClientHardwareAddress(requestMac)
+            .setOptions(mutable.ListBuffer(
+                new DHCPOption(DHCPOption.Code.DHCP_TYPE.value,
+                               DHCPOption.Code.DHCP_TYPE.length,
+                               Array[Byte](DHCPOption.MsgType.DISCOVER.value))))
+    }
+
+    @Benchmark
+    def dhcpDiscover(): Option[Ethernet] =
+        DhcpImpl(dhcpConfig, port, request, requestMac, 1500, 1500, log)
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman
+
+import java.nio.ByteBuffer
+import java.util.UUID
+import java.util.concurrent.{ArrayBlockingQueue, TimeUnit}
+
+import org.openjdk.jmh.annotations.{Setup => JmhSetup, _}
+
+import rx.Observer
+
+import org.midonet.midolman.flows.FlowExpirationIndexer
+import org.midonet.midolman.simulation.PacketContext
+import org.midonet.midolman.util.mock.MockFlowProcessor
+import org.midonet.odp.FlowMatch
+import org.midonet.sdn.flows.FlowTagger
+import org.midonet.util.concurrent.NanoClock
+
+object FlowInvalidationBenchmark {
+
+    /**
+     * A flow processor that accepts up to `capacity` flow deletions in
+     * flight, and completes `perMilli` of them every millisecond, standing
+     * in for the netlink request broker and the kernel.
+     */
+    class ThrottledFlowProcessor(capacity: Int, perMilli: Int)
+        extends MockFlowProcessor {
+
+        private val inFlight = new ArrayBlockingQueue[Observer[ByteBuffer]](
+            capacity)
+
+        private val kernel = new Thread("flow-invalidation-kernel") {
+            override def run(): Unit = {
+                while (!isInterrupted) {
+                    try Thread.sleep(1) catch { case e: InterruptedException =>
+                        return
+                    }
+                    var i = 0
+                    var obs: Observer[ByteBuffer] = null
+                    while (i < perMilli &&
+                           { obs = inFlight.poll(); obs } ne null) {
+                        obs.onCompleted()
+                        i += 1
+                    }
+                }
+            }
+        }
+        kernel.setDaemon(true)
+        kernel.start()
+
+        override def tryEject(sequence: Long, datapathId: Int,
+                              flowMatch: FlowMatch,
+                              obs: Observer[ByteBuffer]): Boolean =
+            inFlight.offer(obs)
+
+        def pending: Int = inFlight.size()
+
+        def stop(): Unit = kernel.interrupt()
+    }
+}
+
+/**
+ * Measures how long a packet worker stops processing packets when a single
+ * tag invalidates 100k flows, as a route change does, with a flow processor
+ * that accepts a bounded number of deletions in flight and completes them at
+ * a fixed rate. The measured time is the time the worker spends in the
+ * invalidation, during which packets queue up: the deletions the flow
+ * processor does not accept are left for the worker to retry as it
+ * processes its back channel, rather than spinning until all have been
+ * accepted. The time until the last deletion completes is printed after
+ * every invocation.
+ */
+@BenchmarkMode(Array(Mode.SingleShotTime))
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, batchSize = 1)
+@Measurement(iterations = 10, batchSize = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+class FlowInvalidationBenchmark extends MidolmanBenchmark {
+
+    import FlowInvalidationBenchmark._
+
+    @Param(Array("100000"))
+    var flows: Int = _
+
+    @Param(Array("512"))
+    var inFlight: Int = _
+
+    @Param(Array("200"))
+    var deletionsPerMilli: Int = _
+
+    private val tag = FlowTagger.tagForBridge(UUID.randomUUID())
+
+    private var processor: ThrottledFlowProcessor = _
+    private var controller: FlowController = _
+    private var invalidatedNanos = 0L
+
+    @JmhSetup(Level.Invocation)
+    def setupInvocation(): Unit = {
+        if (controller eq null) {
+            processor = new ThrottledFlowProcessor(inFlight, deletionsPerMilli)
+            controller = new {
+                val workerId = 0
+                val flowProcessor = processor
+                val config = FlowInvalidationBenchmark.this.config
+                val metrics = FlowInvalidationBenchmark.this.metrics
+                val clock = FlowInvalidationBenchmark.this.clock
+                val datapathId = 0
+            } with FlowController
+        }
+        var i = 0
+        while (i < flows) {
+            val context = PacketContext.generated(0, null, new FlowMatch())
+            context.addFlowTag(tag)
+            controller.addFlow(context, FlowExpirationIndexer.FLOW_EXPIRATION)
+            i += 1
+        }
+    }
+
+    @TearDown(Level.Invocation)
+    def teardownInvocation(): Unit = {
+        while (controller.shouldProcess() || processor.pending > 0) {
+            controller.process()
+            Thread.sleep(1)
+        }
+        val drained = NanoClock.DEFAULT.tick - invalidatedNanos
+        println(s"\nFlow deletions completed after " +
+                s"${TimeUnit.NANOSECONDS.toMillis(drained)} ms")
+    }
+
+    @TearDown(Level.Trial)
+    def teardownTrial(): Unit = {
+        if (processor ne null)
+            processor.stop()
+    }
+
+    @Benchmark
+    def invalidate(): Unit = {
+        invalidatedNanos = NanoClock.DEFAULT.tick
+        controller.invalidateFlowsFor(tag)
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman
+
+import java.util.concurrent.{ThreadLocalRandom, TimeUnit}
+
+import com.lmax.disruptor._
+
+import org.openjdk.jmh.annotations.{Setup => JmhSetup, _}
+import org.openjdk.jmh.infra.Blackhole
+
+import org.midonet.Util
+
+object PacketWorkersBenchmark {
+    final class Event {
+        var hash = 0
+    }
+
+    /** A packet worker that spends a fixed amount of CPU per packet, in
+      * place of the simulation. */
+    final class Worker(parked: Boolean, tokens: Long) {
+        val strategy = new ParkingWaitStrategy(
+            TimeUnit.MICROSECONDS.toNanos(DisruptorPacketWorker.WaitTimeoutMicros),
+            TimeUnit.MILLISECONDS.toNanos(2))
+        if (parked) strategy.park()
+
+        val ring = RingBuffer.createMultiProducer(
+            new EventFactory[Event] { override def newInstance() = new Event },
+            Util.findNextPositivePowerOfTwo(1 << 12), strategy)
+        val processor = new BatchEventProcessor[Event](
+            ring, ring.newBarrier(),
+            new EventHandler[Event] with TimeoutHandler {
+                override def onEvent(event: Event, sequence: Long,
+                                     endOfBatch: Boolean): Unit =
+                    Blackhole.consumeCPU(tokens)
+                override def onTimeout(sequence: Long): Unit = { }
+            })
+        ring.addGatingSequences(processor.getSequence)
+        val thread = new Thread(processor)
+        thread.setDaemon(true)
+        thread.start()
+
+        def submit(hash: Int): Boolean =
+            try {
+                val seq = ring.tryNext()
+                ring.get(seq).hash = hash
+                ring.publish(seq)
+                true
+            } catch { case e: InsufficientCapacityException =>
+                false
+            }
+
+        def stop(): Unit = {
+            processor.halt()
+            thread.join()
+        }
+    }
+}
+
+/**
+ * Measures the packet throughput of 1 to 64 packet workers, with packets
+ * dispatched by connection hash as the upcall handler does, and a fixed
+ * per-packet cost standing in for the simulation. The parked variant shows
+ * the cost of the longer wait timeout of parked workers on a busy system.
+ */
+@BenchmarkMode(Array(Mode.Throughput))
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+@org.openjdk.jmh.annotations.Threads(4)
+class PacketWorkersBenchmark {
+
+    import PacketWorkersBenchmark._
+
+    @Param(Array("1", "2", "4", "8", "16", "32", "64"))
+    var workerCount: Int = _
+
+    @Param(Array("false", "true"))
+    var parked: Boolean = _
+
+    @Param(Array("100"))
+    var simulationTokens: Long = _
+
+    var workers: Array[Worker] = _
+
+    @JmhSetup
+    def setup(): Unit = {
+        workers = Array.fill(workerCount)(new Worker(parked, simulationTokens))
+    }
+
+    @TearDown
+    def teardown(): Unit = {
+        workers foreach { _.stop() }
+    }
+
+    @Benchmark
+    def dispatch(): Boolean = {
+        val hash = ThreadLocalRandom.current().nextInt()
+        var submitted = false
+        while (!submitted) {
+            submitted = workers(Math.abs(hash) % workers.length).submit(hash)
+        }
+        submitted
+    }
+}
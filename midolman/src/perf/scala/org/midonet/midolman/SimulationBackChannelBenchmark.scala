@@ -0,0 +1,83 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman
+
+import java.util.concurrent.TimeUnit
+
+import org.openjdk.jmh.annotations.{Setup => JmhSetup, _}
+import org.openjdk.jmh.infra.Blackhole
+
+import org.midonet.midolman.SimulationBackChannel.BackChannelShard
+import org.midonet.midolman.flows.FlowTagFilter
+import org.midonet.sdn.flows.FlowTagger
+import org.midonet.sdn.flows.FlowTagger.FlowTag
+
+/**
+ * Measures broadcasting a burst of flow tag invalidations to 16 packet
+ * worker shards and draining them, where only one worker has flows with the
+ * invalidated tags. Without filters, every worker receives every tag.
+ */
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+@org.openjdk.jmh.annotations.Threads(1)
+class SimulationBackChannelBenchmark {
+
+    @Param(Array("false", "true"))
+    var filter: Boolean = _
+
+    @Param(Array("1000"))
+    var tags: Int = _
+
+    var backChannel: ShardedSimulationBackChannel = _
+    var shards: Array[BackChannelShard] = _
+    var invalidations: Array[FlowTag] = _
+
+    @JmhSetup
+    def setup(): Unit = {
+        backChannel = new ShardedSimulationBackChannel()
+        shards = Array.fill(16)(backChannel.registerProcessor())
+        invalidations = Array.tabulate(tags)(i => FlowTagger.tagForDpPort(i))
+        if (filter) {
+            for (shard <- shards) {
+                shard.filterInvalidations(new FlowTagFilter(1 << 16))
+            }
+            val owner = new FlowTagFilter(1 << 16)
+            invalidations foreach owner.add
+            shards(0).filterInvalidations(owner)
+        }
+    }
+
+    @Benchmark
+    def invalidate(bh: Blackhole): Unit = {
+        var i = 0
+        while (i < invalidations.length) {
+            backChannel.tell(invalidations(i))
+            i += 1
+        }
+        i = 0
+        while (i < shards.length) {
+            while (shards(i).hasMessages) {
+                bh.consume(shards(i).poll())
+            }
+            i += 1
+        }
+    }
+}
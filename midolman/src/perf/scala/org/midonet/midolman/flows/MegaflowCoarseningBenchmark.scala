@@ -0,0 +1,161 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.flows
+
+import java.util.{ArrayList, HashMap, Random}
+import java.util.concurrent.TimeUnit
+
+import org.openjdk.jmh.annotations.{Setup => JmhSetup, _}
+
+import org.midonet.midolman.rules.Condition
+import org.midonet.midolman.simulation.PacketContext
+import org.midonet.odp.flows.{FlowAction, FlowKeyTCP}
+import org.midonet.odp.{FlowMask, FlowMatch, OpenVSwitch}
+import org.midonet.packets.{IPv4, IPv4Addr, MAC, TCP}
+import org.midonet.util.Range
+
+/**
+ * Models the kernel megaflow table under connection churn: every invocation
+ * opens a connection to port 80 from a random ephemeral port and closes the
+ * oldest open one. A packet missing the table is an upcall, which evaluates
+ * a rule accepting destination port 80 from unprivileged source ports, and
+ * installs a megaflow with the mask computed for it. A megaflow is removed
+ * when its last connection closes, as if it had expired.
+ *
+ * The number of upcalls per connection and of megaflows in the table are
+ * printed after every iteration: with exact port masks, every connection is
+ * an upcall and a megaflow, whereas with coarse port masks the connections
+ * share the megaflow of their source port range.
+ */
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+@org.openjdk.jmh.annotations.Threads(1)
+class MegaflowCoarseningBenchmark {
+
+    @Param(Array("false", "true"))
+    var coarsePortMasks: Boolean = _
+
+    @Param(Array("10000"))
+    var openConnections: Int = _
+
+    private val random = new Random(0)
+    private val actions = new ArrayList[FlowAction]()
+    private val mask = new FlowMask()
+    private val condition = new Condition()
+    condition.tpSrc = new Range[Integer](1024, 65535)
+    condition.tpDst = new Range[Integer](80, 80)
+
+    // The megaflows by masked ports, with the number of open connections
+    // using them, and the port masks in use, with their number of megaflows.
+    private val megaflows = new HashMap[java.lang.Long, Integer]()
+    private val masks = new HashMap[java.lang.Long, Integer]()
+    private var connections: Array[Long] = _
+    private var index = 0
+
+    private var opened = 0L
+    private var upcalls = 0L
+
+    @JmhSetup
+    def setup(): Unit = {
+        connections = Array.fill(openConnections)(open())
+    }
+
+    @TearDown(Level.Iteration)
+    def teardownIteration(): Unit = {
+        println(s"\nUpcalls per connection: ${upcalls.toDouble / opened}, " +
+                s"megaflows: ${megaflows.size()}")
+        opened = 0L
+        upcalls = 0L
+    }
+
+    @Benchmark
+    def churn(): Long = {
+        close(connections(index))
+        connections(index) = open()
+        index = (index + 1) % connections.length
+        connections(index)
+    }
+
+    private def packet(srcPort: Int): FlowMatch =
+        new FlowMatch()
+            .setInputPortNumber(1)
+            .setEthSrc(MAC.fromString("02:00:00:00:00:01"))
+            .setEthDst(MAC.fromString("02:00:00:00:00:02"))
+            .setEtherType(IPv4.ETHERTYPE)
+            .setNetworkSrc(IPv4Addr.fromString("10.0.0.1"))
+            .setNetworkDst(IPv4Addr.fromString("10.0.0.2"))
+            .setNetworkProto(TCP.PROTOCOL_NUMBER)
+            .setSrcPort(srcPort)
+            .setDstPort(80)
+
+    private def key(portMasks: Long, srcPort: Int, dstPort: Int): Long = {
+        val srcMask = (portMasks >>> 16).toInt
+        val dstMask = portMasks.toInt & 0xffff
+        (portMasks << 32) | ((srcPort & srcMask).toLong << 16) |
+            (dstPort & dstMask)
+    }
+
+    /** Opens a connection and returns the key of its megaflow. */
+    private def open(): Long = {
+        val srcPort = 32768 + random.nextInt(28232)
+        opened += 1
+
+        val it = masks.keySet().iterator()
+        while (it.hasNext) {
+            val k = key(it.next(), srcPort, 80)
+            val count = megaflows.get(k)
+            if (count ne null) {
+                megaflows.put(k, count + 1)
+                return k
+            }
+        }
+
+        upcalls += 1
+        val context = PacketContext.generatedForJava(1, null, packet(srcPort),
+                                                     null)
+        context.wcmatch.setPortMasksEnabled(coarsePortMasks)
+        condition.matches(context)
+        mask.clear()
+        mask.calculateFor(context.wcmatch, actions)
+        val tcp = mask.getMaskFor(OpenVSwitch.FlowKey.Attr.TCP)
+                      .asInstanceOf[FlowKeyTCP]
+        val portMasks = ((tcp.tcp_src & 0xffff).toLong << 16) |
+                        (tcp.tcp_dst & 0xffff)
+        val k = key(portMasks, srcPort, 80)
+        megaflows.put(k, 1)
+        val count = masks.get(portMasks)
+        masks.put(portMasks, if (count eq null) 1 else count + 1)
+        k
+    }
+
+    private def close(k: Long): Unit = {
+        val count = megaflows.get(k)
+        if (count > 1) {
+            megaflows.put(k, count - 1)
+        } else {
+            megaflows.remove(k)
+            val portMasks = k >>> 32
+            val masked = masks.get(portMasks)
+            if (masked > 1) masks.put(portMasks, masked - 1)
+            else masks.remove(portMasks)
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.flows
+
+import java.util.ArrayList
+import java.util.concurrent.TimeUnit
+
+import org.openjdk.jmh.annotations.{Setup => JmhSetup, _}
+
+import org.midonet.odp.FlowMatch
+import org.midonet.odp.flows.FlowAction
+import org.midonet.odp.flows.FlowActions.output
+import org.midonet.packets.{IPv4, IPv4Addr, MAC, TCP}
+import org.midonet.sdn.flows.FlowTagger
+import org.midonet.sdn.flows.FlowTagger.FlowTag
+
+/**
+ * Measures the cost of looking up the simulation cache for packets of many
+ * microflows per megaflow: every megaflow is a destination address, and
+ * its microflows differ in their source port, which the simulation does not
+ * read. The entries are spread over a few tuples (masks). Compare the cost
+ * of a hit with the simulation benchmarks (e.g. BridgeBenchmark) for the
+ * simulation CPU saved per hit; the hit rate is the fraction of packets
+ * whose megaflow is cached.
+ */
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+@org.openjdk.jmh.annotations.Threads(1)
+class SimulationCacheBenchmark {
+
+    @Param(Array("100", "10000"))
+    var megaflows: Int = _
+
+    @Param(Array("1", "4"))
+    var tuples: Int = _
+
+    @Param(Array("1024"))
+    var microflowsPerMegaflow: Int = _
+
+    var cache: SimulationCache = _
+    var packets: Array[FlowMatch] = _
+    var index = 0
+
+    private val base = IPv4Addr.fromString("10.0.0.0").toInt
+
+    private def packet(megaflow: Int, microflow: Int): FlowMatch =
+        new FlowMatch()
+            .setInputPortNumber(1)
+            .setEthSrc(MAC.fromString("02:00:00:00:00:01"))
+            .setEthDst(MAC.fromString("02:00:00:00:00:02"))
+            .setEtherType(IPv4.ETHERTYPE)
+            .setNetworkSrc(IPv4Addr.fromString("192.168.0.1"))
+            .setNetworkDst(IPv4Addr(base + megaflow))
+            .setNetworkProto(TCP.PROTOCOL_NUMBER)
+            .setSrcPort(1024 + microflow)
+            .setDstPort(80)
+
+    @JmhSetup
+    def setup(): Unit = {
+        cache = new SimulationCache(megaflows)
+        val actions = new ArrayList[FlowAction]()
+        actions.add(output(2))
+        for (m <- 0 until megaflows) {
+            val fmatch = packet(m, 0)
+            fmatch.getInputPortNumber
+            fmatch.getNetworkDstIP
+            // Spread the megaflows over several masks.
+            if (m % tuples > 0) fmatch.getEthSrc
+            if (m % tuples > 1) fmatch.getEthDst
+            if (m % tuples > 2) fmatch.getNetworkProto
+            val tags = new ArrayList[FlowTag]()
+            tags.add(FlowTagger.tagForDpPort(1))
+            val entry = cache.put(fmatch, actions, tags, 0L)
+            entry.addFlow(new ManagedFlow(null))
+        }
+        packets = Array.tabulate(4096) { i =>
+            packet(i % megaflows, (i / megaflows) % microflowsPerMegaflow)
+        }
+    }
+
+    @Benchmark
+    def lookup(): SimulationCache.Entry = {
+        index = (index + 1) & (packets.length - 1)
+        cache.get(packets(index))
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.midonet.midolman.l4lb
+
+import java.net.{InetAddress, ServerSocket}
+import java.util.UUID
+import java.util.concurrent.{CountDownLatch, TimeUnit}
+
+import org.openjdk.jmh.annotations.{Setup => JmhSetup, TearDown => JmhTearDown, _}
+
+/**
+ * Measures the time until the HealthChecker reports all members of a set of
+ * pools as up, where all members are served by the same loopback server.
+ * Since the first check of every member is spread over the health monitor
+ * delay of one second, the result should stay close to one second when the
+ * event loop keeps up with the number of members.
+ */
+@BenchmarkMode(Array(Mode.SingleShotTime))
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+class HealthCheckerBenchmark {
+
+    @Param(Array("1000", "10000"))
+    var members: Int = _
+
+    @Param(Array("100"))
+    var membersPerPool: Int = _
+
+    var server: ServerSocket = _
+    var acceptor: Thread = _
+    var checker: HealthChecker = _
+    var pools: Seq[PoolConfig] = _
+
+    @JmhSetup(Level.Trial)
+    def setup(): Unit = {
+        server = new ServerSocket(0, 4096, InetAddress.getLoopbackAddress)
+        acceptor = new Thread("health-checker-benchmark-server") {
+            override def run(): Unit = {
+                while (!server.isClosed) {
+                    try server.accept().close()
+                    catch { case e: Exception => }
+                }
+            }
+        }
+        acceptor.setDaemon(true)
+        acceptor.start()
+
+        val address = InetAddress.getLoopbackAddress.getHostAddress
+        val monitor = new HealthMonitorConfig(true, 1, 1, 3)
+        pools = (0 until members / membersPerPool) map { _ =>
+            val poolMembers = (0 until membersPerPool) map { _ =>
+                new PoolMemberConfig(true, UUID.randomUUID(), 1, address,
+                                     server.getLocalPort)
+            }
+            val vip = new VipConfig(true, UUID.randomUUID(), "10.0.0.1", 80,
+                                    null)
+            new PoolConfig(UUID.randomUUID(), UUID.randomUUID(), Set(vip),
+                           poolMembers.toSet, monitor, adminStateUp = true,
+                           "/tmp/", "_hm")
+        }
+    }
+
+    @JmhSetup(Level.Iteration)
+    def setupIteration(): Unit = {
+        checker = new HealthChecker
+    }
+
+    @JmhTearDown(Level.Iteration)
+    def teardownIteration(): Unit = {
+        checker.close()
+    }
+
+    @JmhTearDown(Level.Trial)
+    def teardown(): Unit = {
+        server.close()
+    }
+
+    @Benchmark
+    def allMembersUp(): Unit = {
+        val latch = new CountDownLatch(members)
+        for (pool <- pools) {
+            checker.watch(pool, null, (up, down) => {
+                for (_ <- up) latch.countDown()
+            })
+        }
+        latch.await()
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.midonet.midolman.management
+
+import java.util.concurrent.TimeUnit
+
+import org.openjdk.jmh.annotations.{Setup => JmhSetup, TearDown => JmhTearDown, _}
+
+import org.midonet.odp.FlowMatch
+import org.midonet.packets.{IPv4, IPv4Addr, MAC, TCP}
+import org.midonet.util.logging.Logger
+
+/**
+ * Measures selecting the logger of a packet context when there are 0, 1 or
+ * 50 active tracers, none of which matches the packet.
+ */
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+@org.openjdk.jmh.annotations.Threads(1)
+class PacketTracingBenchmark {
+
+    @Param(Array("0", "1", "50"))
+    var tracers: Int = _
+
+    var fmatch: FlowMatch = _
+
+    @JmhSetup
+    def setup(): Unit = {
+        for (i <- 0 until tracers) {
+            PacketTracing.addTracer(new PacketTracer(
+                null, null, null, TCP.PROTOCOL_NUMBER, null,
+                s"192.168.0.${i + 1}", null, 80, LogLevel.DEBUG, 1000))
+        }
+        fmatch = new FlowMatch()
+            .setEthSrc(MAC.random())
+            .setEtherType(IPv4.ETHERTYPE)
+            .setNetworkProto(TCP.PROTOCOL_NUMBER)
+            .setNetworkDst(IPv4Addr.fromString("10.0.0.1"))
+            .setDstPort(80)
+    }
+
+    @JmhTearDown
+    def teardown(): Unit = {
+        PacketTracing.flush()
+    }
+
+    @Benchmark
+    def loggerFor(): Logger = PacketTracing.loggerFor(fmatch)
+}
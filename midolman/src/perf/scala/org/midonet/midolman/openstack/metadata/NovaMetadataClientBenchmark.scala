@@ -0,0 +1,92 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.openstack.metadata
+
+import java.net.InetSocketAddress
+import java.util.UUID
+import java.util.concurrent.TimeUnit
+import javax.servlet.http.{HttpServletRequest, HttpServletResponse}
+
+import scala.concurrent.Await
+import scala.concurrent.duration._
+
+import org.eclipse.jetty.server.handler.AbstractHandler
+import org.eclipse.jetty.server.{Request, Server, ServerConnector}
+import org.openjdk.jmh.annotations.{Setup => JmhSetup, _}
+
+object NovaMetadataClientBenchmark {
+    @State(Scope.Thread)
+    class Instance {
+        val info = InstanceInfo("10.0.0.1", "fa:16:3e:a8:9f:15",
+                                UUID.randomUUID(), "tenant",
+                                UUID.randomUUID().toString)
+    }
+}
+
+/**
+ * Measures the throughput and the latency distribution of metadata requests
+ * against a local stub of the Nova Metadata API, with and without the
+ * response cache.  Every thread requests the metadata of its own instance.
+ */
+@BenchmarkMode(Array(Mode.Throughput, Mode.SampleTime))
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+@org.openjdk.jmh.annotations.Threads(8)
+class NovaMetadataClientBenchmark {
+
+    import NovaMetadataClientBenchmark._
+
+    @Param(Array("0", "60"))
+    var cacheTtlSeconds: Int = _
+
+    var server: Server = _
+    var client: NovaMetadataClient = _
+
+    @JmhSetup
+    def setup(): Unit = {
+        server = new Server(new InetSocketAddress("127.0.0.1", 0))
+        server.setHandler(new AbstractHandler {
+            override def handle(target: String, baseReq: Request,
+                                request: HttpServletRequest,
+                                response: HttpServletResponse): Unit = {
+                baseReq setHandled true
+                response.setContentType("text/plain")
+                response.getWriter print "instance-0001"
+            }
+        })
+        server.start()
+        val port = server.getConnectors()(0).asInstanceOf[ServerConnector]
+                         .getLocalPort
+        client = new NovaMetadataClient(s"http://127.0.0.1:$port", "secret",
+                                        16, 30 seconds,
+                                        cacheTtlSeconds seconds, 4096)
+    }
+
+    @TearDown
+    def teardown(): Unit = {
+        client.close()
+        server.stop()
+    }
+
+    @Benchmark
+    def getMetadata(instance: Instance): MetadataResponse =
+        Await.result(client.getMetadata("/latest/meta-data/hostname",
+                                        instance.info), 30 seconds)
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.rules
+
+import java.util.UUID
+import java.util.concurrent.TimeUnit
+
+import org.openjdk.jmh.annotations.{Setup => JmhSetup, _}
+
+import org.midonet.midolman.flows.{FlowIndexer, FlowTagIndexer, ManagedFlow}
+import org.midonet.midolman.simulation.{IPAddrGroup, PacketContext}
+import org.midonet.odp.FlowMatch
+import org.midonet.packets.{IPAddr, IPv4, IPv4Addr}
+import org.midonet.sdn.flows.FlowTagger
+
+/**
+ * Measures adding one address to an IP address group of 5k members, which a
+ * chain rule matches against the source address of the flows of every
+ * member, such as a default security group. Every flow is tagged with the
+ * chain, and with the addresses it matched against the group.
+ *
+ * When the group membership is not incremental, the chain is rebuilt and all
+ * flows tagged with it are invalidated. When it is, the group is updated in
+ * place and only the flows tagged with the added address are invalidated.
+ * The number of invalidated flows is printed after every invocation, with
+ * the upcalls per second that follow when every connection sends a packet
+ * per second, since the next packet of an invalidated flow is an upcall.
+ */
+@BenchmarkMode(Array(Mode.SingleShotTime))
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, batchSize = 1)
+@Measurement(iterations = 10, batchSize = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+class IPAddrGroupUpdateBenchmark {
+
+    @Param(Array("false", "true"))
+    var incremental: Boolean = _
+
+    @Param(Array("5000"))
+    var members: Int = _
+
+    @Param(Array("20"))
+    var flowsPerMember: Int = _
+
+    private val chainTag = FlowTagger.tagForChain(UUID.randomUUID())
+    private val dst = IPv4Addr.fromString("172.16.0.1")
+
+    private var group: IPAddrGroup = _
+    private var joining: IPAddr = _
+    private var flows: Array[ManagedFlow] = _
+    private var indexer: FlowTagIndexer = _
+    private var invalidated = 0
+
+    private def newIndexer() = new FlowIndexer with FlowTagIndexer {
+        override def removeFlow(flow: ManagedFlow): Unit = {
+            super.removeFlow(flow)
+            invalidated += 1
+        }
+    }
+
+    @JmhSetup(Level.Trial)
+    def setup(): Unit = {
+        val addrs = Array.tabulate[IPAddr](members + 1) { index =>
+            new IPv4Addr(0x0a000000 + index + 1)
+        }
+        joining = addrs(members)
+        group = IPAddrGroup.fromAddrs(UUID.randomUUID(), addrs.take(members))
+
+        val condition = new Condition()
+        condition.ipAddrGroupIdSrc = group.id
+        condition.ipAddrGroupSrc = group
+
+        // The flows of the members, and of the address about to join, which
+        // did not match the group until now.
+        flows = Array.tabulate(addrs.length * flowsPerMember) { index =>
+            val flowMatch = new FlowMatch()
+                .setEtherType(IPv4.ETHERTYPE)
+                .setNetworkSrc(addrs(index / flowsPerMember))
+                .setNetworkDst(dst)
+            val context = PacketContext.generatedForJava(1, null, flowMatch,
+                                                         null)
+            context.addFlowTag(chainTag)
+            condition.matches(context)
+            val flow = new ManagedFlow(null)
+            flow.tags.addAll(context.flowTags)
+            flow
+        }
+    }
+
+    @JmhSetup(Level.Invocation)
+    def setupInvocation(): Unit = {
+        group.update(Nil, Seq(joining))
+        indexer = newIndexer()
+        var i = 0
+        while (i < flows.length) {
+            indexer.registerFlow(flows(i))
+            i += 1
+        }
+        invalidated = 0
+    }
+
+    @TearDown(Level.Invocation)
+    def teardownInvocation(): Unit = {
+        println(s"\nFlows invalidated: $invalidated of ${flows.length}, " +
+                s"upcalls per second at one packet per second: $invalidated")
+        var i = 0
+        while (i < flows.length) {
+            indexer.removeFlow(flows(i))
+            i += 1
+        }
+    }
+
+    @Benchmark
+    def addMember(): Unit = {
+        group.update(Seq(joining), Nil)
+        if (incremental) {
+            indexer.invalidateFlowsFor(
+                FlowTagger.tagForIPAddrGroupAddress(group.id, joining))
+        } else {
+            indexer.invalidateFlowsFor(chainTag)
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.midonet.midolman.simulation
+
+import java.util.UUID
+import java.util.concurrent.TimeUnit
+
+import org.openjdk.jmh.annotations.{Setup => JmhSetup, _}
+
+import org.midonet.midolman.state.l4lb.VipSessionPersistence
+import org.midonet.odp.FlowMatch
+import org.midonet.packets.{IPv4Addr, TCP}
+
+/**
+ * Compares finding the VIP of a packet with a linear scan of the VIPs of a
+ * load balancer against the VIP index. The packet matches the last VIP,
+ * which is the worst case for the linear scan.
+ */
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+@org.openjdk.jmh.annotations.Threads(1)
+class VipIndexBenchmark {
+
+    @Param(Array("10", "100", "1000"))
+    var vipCount: Int = _
+
+    var vips: Array[Vip] = _
+    var index: VipIndex = _
+    var context: PacketContext = _
+
+    @JmhSetup
+    def setup(): Unit = {
+        val base = IPv4Addr.fromString("10.0.0.1").toInt
+        vips = Array.tabulate(vipCount) { i =>
+            new Vip(UUID.randomUUID(), true, UUID.randomUUID(),
+                    IPv4Addr(base + i / 2), 80 + i % 2,
+                    VipSessionPersistence.SOURCE_IP)
+        }
+        index = VipIndex(vips)
+        val fmatch = new FlowMatch()
+            .setNetworkDst(vips.last.address)
+            .setDstPort(vips.last.protocolPort)
+            .setNetworkProto(TCP.PROTOCOL_NUMBER)
+        context = PacketContext.generated(1, null, fmatch)
+    }
+
+    @Benchmark
+    def linearScan(): Vip = {
+        var i = 0
+        while (i < vips.length) {
+            if (vips(i).matches(context))
+                return vips(i)
+            i += 1
+        }
+        null
+    }
+
+    @Benchmark
+    def indexed(): Vip = index.findVip(context.wcmatch)
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.state
+
+import java.util.UUID
+import java.util.concurrent.{CountDownLatch, LinkedBlockingQueue, TimeUnit}
+
+import org.openjdk.jmh.annotations.{Setup => JmhSetup, _}
+
+import org.midonet.midolman.HostRequestProxy.{EmptyFlowStateBatch, FlowStateBatch}
+import org.midonet.midolman.config.MidolmanConfig
+import org.midonet.midolman.flows.FlowTagIndexer
+import org.midonet.midolman.state.ConnTrackState._
+import org.midonet.midolman.state.FlowStateAgentPackets._
+import org.midonet.midolman.state.NatState.NatKey
+import org.midonet.midolman.state.TraceState.{TraceContext, TraceKey}
+import org.midonet.packets.NatState.NatBinding
+import org.midonet.packets.{FlowStateEthernet, IPv4Addr, SbeEncoder, TCP}
+import org.midonet.sdn.state.ShardedFlowStateTable
+import org.midonet.services.flowstate.transfer.client.FlowStateAggregator
+import org.midonet.util.collection.Reducer
+import org.midonet.util.concurrent.NanoClock
+
+/**
+ * Measures importing the flow state of a port with 500k connections into the
+ * flow state tables of the packet workers, from the encoded messages as they
+ * are received from the flow state minion. Every worker imports the batches
+ * it receives on its own thread, as from its back channel.
+ *
+ * Without chunking, the whole state is decoded before it is handed over, and
+ * every worker stores every key. With chunking, the state is handed over in
+ * bounded chunks as it is decoded, and every worker only stores the keys it
+ * owns. The longest time a worker spends importing a single batch, during
+ * which it does not process packets, and the number of stored entries are
+ * printed after every invocation.
+ */
+@BenchmarkMode(Array(Mode.SingleShotTime))
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, batchSize = 1)
+@Measurement(iterations = 10, batchSize = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+class FlowStateImportBenchmark {
+
+    @Param(Array("false", "true"))
+    var chunked: Boolean = _
+
+    @Param(Array("500000"))
+    var connections: Int = _
+
+    @Param(Array("4096"))
+    var chunkSize: Int = _
+
+    @Param(Array("4"))
+    var workers: Int = _
+
+    private val keysPerMessage = 8
+    private val config = MidolmanConfig.forTests
+    private val hostId = UUID.randomUUID()
+    private val Done = EmptyFlowStateBatch
+
+    private var messages: Array[Array[Byte]] = _
+    private var conntrackTable: ShardedFlowStateTable[ConnTrackKey, ConnTrackValue] = _
+    private var queues: Array[LinkedBlockingQueue[FlowStateBatch]] = _
+    private var replicators: Array[FlowStateReplicator] = _
+    private var stalls: Array[Long] = _
+    private var done: CountDownLatch = _
+
+    @JmhSetup(Level.Trial)
+    def setup(): Unit = {
+        val device = UUID.randomUUID()
+        val dst = IPv4Addr.fromString("10.0.0.2")
+        val encoder = new SbeEncoder
+        messages = Array.tabulate(connections / keysPerMessage) { m =>
+            val buffer =
+                new Array[Byte](FlowStateEthernet.FLOW_STATE_MAX_PAYLOAD_LENGTH)
+            val message = encoder.encodeTo(buffer)
+            uuidToSbe(hostId, message.sender)
+            val conntrack = message.conntrackCount(keysPerMessage)
+            var i = 0
+            while (conntrack.hasNext) {
+                val n = m * keysPerMessage + i
+                val src = new IPv4Addr(0x0a010000 + n / 50000)
+                connTrackKeyToSbe(ConnTrackKey(src, 10000 + n % 50000, dst, 80,
+                                               TCP.PROTOCOL_NUMBER, device),
+                                  conntrack.next())
+                i += 1
+            }
+            message.natCount(0)
+            message.traceCount(0)
+            message.traceRequestIdsCount(0)
+            message.portIdsCount(0)
+            buffer
+        }
+    }
+
+    @JmhSetup(Level.Invocation)
+    def setupInvocation(): Unit = {
+        conntrackTable = new ShardedFlowStateTable[ConnTrackKey, ConnTrackValue](
+            NanoClock.DEFAULT)
+        val natTable = new ShardedFlowStateTable[NatKey, NatBinding](
+            NanoClock.DEFAULT)
+        val traceTable = new ShardedFlowStateTable[TraceKey, TraceContext](
+            NanoClock.DEFAULT)
+        queues = Array.fill(workers)(new LinkedBlockingQueue[FlowStateBatch]())
+        replicators = Array.tabulate(workers) { id =>
+            new FlowStateReplicator(conntrackTable.addShard(),
+                                    natTable.addShard(),
+                                    traceTable.addShard(),
+                                    hostId, null, null,
+                                    new FlowTagIndexer {}, config,
+                                    id, if (chunked) workers else 1)
+        }
+        stalls = new Array[Long](workers)
+        done = new CountDownLatch(workers)
+        for (id <- 0 until workers) {
+            val worker = new Thread(s"flow-state-import-$id") {
+                override def run(): Unit = {
+                    var batch = queues(id).take()
+                    while (batch ne Done) {
+                        val start = NanoClock.DEFAULT.tick
+                        replicators(id).importFromStorage(batch)
+                        stalls(id) = Math.max(stalls(id),
+                                              NanoClock.DEFAULT.tick - start)
+                        batch = queues(id).take()
+                    }
+                    done.countDown()
+                }
+            }
+            worker.setDaemon(true)
+            worker.start()
+        }
+    }
+
+    @TearDown(Level.Invocation)
+    def teardownInvocation(): Unit = {
+        val stored = conntrackTable.fold(0,
+            new Reducer[ConnTrackKey, ConnTrackValue, Int] {
+                override def apply(acc: Int, k: ConnTrackKey,
+                                   v: ConnTrackValue): Int = acc + 1
+            })
+        println(s"\nLongest import of a batch: " +
+                s"${TimeUnit.NANOSECONDS.toMillis(stalls.max)} ms, " +
+                s"stored entries: $stored")
+    }
+
+    @Benchmark
+    def transferAndImport(): Unit = {
+        val aggregator = new FlowStateAggregator(
+            if (chunked) chunkSize else Int.MaxValue, broadcast)
+        val decoder = new SbeEncoder
+        var i = 0
+        while (i < messages.length) {
+            decoder.decodeFrom(messages(i))
+            aggregator.push(decoder)
+            i += 1
+        }
+        broadcast(aggregator.batch())
+        broadcast(Done)
+        done.await()
+    }
+
+    private def broadcast(batch: FlowStateBatch): Unit = {
+        var id = 0
+        while (id < workers) {
+            queues(id).put(batch)
+            id += 1
+        }
+    }
+}
@@ -148,6 +148,8 @@ public class HostServiceTest {
             .withValue("agent.host.wait_time_gen_id",
                        ConfigValueFactory.fromAnyRef(0))
             .withValue("agent.host.retries_gen_id",
+                       ConfigValueFactory.fromAnyRef(0))
+            .withValue("agent.host.interfaces_update_window",
                        ConfigValueFactory.fromAnyRef(0));
     }
 
@@ -199,6 +201,10 @@ public class HostServiceTest {
     }
 
     private TestableHostService makeHostService() {
+        return makeHostService(config);
+    }
+
+    private TestableHostService makeHostService(Config config) {
         return new TestableHostService(
             new MidolmanConfig(config, ConfigFactory.empty()),
             backendConfig,
@@ -213,7 +219,11 @@ public class HostServiceTest {
     }
 
     TestableHostService startService() throws Throwable {
-        TestableHostService hostService = makeHostService();
+        return startService(config);
+    }
+
+    TestableHostService startService(Config config) throws Throwable {
+        TestableHostService hostService = makeHostService(config);
         try {
             hostService.startAsync().awaitRunning();
         } catch (RuntimeException e) {
@@ -402,6 +412,7 @@ public class HostServiceTest {
         MockInterfaceScanner scanner = getInterfaceScanner();
         scanner.addInterface(new InterfaceDescription("eth0", 1));
 
+        eventuallyAssertInterfaceCount(1);
         hostState = getHostState(hostId);
         assertNotNull(hostState);
         assertTrue(hostState.hasHostId());
@@ -411,6 +422,7 @@ public class HostServiceTest {
 
         scanner.removeInterface("eth0");
 
+        eventuallyAssertInterfaceCount(0);
         hostState = getHostState(hostId);
         assertNotNull(hostState);
         assertTrue(hostState.hasHostId());
@@ -420,6 +432,39 @@ public class HostServiceTest {
         stopService(hostService);
     }
 
+    @Test
+    public void hostServiceCoalescesHostInterfacesUpdates() throws Throwable {
+        TestableHostService hostService = startService(
+            config.withValue("agent.host.interfaces_update_window",
+                             ConfigValueFactory.fromAnyRef("2s")));
+
+        int writes = getStateVersion(hostId);
+
+        MockInterfaceScanner scanner = getInterfaceScanner();
+        for (int index = 0; index < 10; index++) {
+            scanner.addInterface(new InterfaceDescription("eth" + index,
+                                                          index + 1));
+        }
+        scanner.removeInterface("eth0");
+
+        State.HostState hostState = getHostState(hostId);
+        assertNotNull(hostState);
+        assertEquals(hostState.getInterfacesCount(), 0);
+
+        // The burst of changes is written once, after the update window.
+        eventuallyAssertInterfaceCount(9);
+        assertEquals(writes + 1, getStateVersion(hostId));
+
+        scanner.removeInterface("eth1");
+        scanner.addInterface(new InterfaceDescription("eth1", 2));
+        scanner.removeInterface("eth2");
+
+        eventuallyAssertInterfaceCount(8);
+        assertEquals(writes + 2, getStateVersion(hostId));
+
+        stopService(hostService);
+    }
+
     @Test
     public void hostServiceDoesNotUpdateHostInterfacesWhenStopped()
         throws Throwable {
@@ -474,6 +519,18 @@ public class HostServiceTest {
         throw new Exception("Eventually host did not exist");
     }
 
+    private void eventuallyAssertInterfaceCount(int count) throws Exception {
+        for (byte attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            State.HostState hostState = getHostState(hostId);
+            if (hostState != null && hostState.getInterfacesCount() == count) {
+                return;
+            }
+            Thread.sleep(WAIT_MILLIS);
+        }
+        throw new Exception("Eventually host did not have " + count +
+                            " interfaces");
+    }
+
     private void eventuallyAssertShutdown(TestableHostService hostService)
         throws Exception {
         for (byte attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
@@ -520,4 +577,13 @@ public class HostServiceTest {
         return backendConfig.rootKey() + "/zoom/0/state/"
                + stateStore.namespace() + "/Host/" + hostId + "/host";
     }
+
+    /**
+     * Returns the version of the host state node, which is incremented by
+     * every write of the host interfaces.
+     */
+    public int getStateVersion(UUID hostId) throws Exception {
+        return getCurator().checkExists().forPath(getStatePath(hostId))
+                           .getVersion();
+    }
 }
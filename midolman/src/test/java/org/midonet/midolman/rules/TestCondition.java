@@ -461,6 +461,29 @@ public class TestCondition {
         Assert.assertTrue(cond.matches(pktCtx));
     }
 
+    @Test
+    public void testTpSrcWithPortMasks() {
+        // Note tpSrc is set to 4321 (0x10e1)
+        FlowMatch wcmatch = pktCtx.wcmatch();
+        wcmatch.setPortMasksEnabled(true);
+        Condition cond = new Condition();
+        pktCtx.inPortId_$eq(UUID.randomUUID());
+        cond.tpSrc = new Range<>(0, 1023);
+        Assert.assertFalse(cond.matches(pktCtx));
+        Assert.assertFalse(wcmatch.isSeen(FlowMatch.Field.SrcPort));
+        Assert.assertEquals(0xf000, wcmatch.getSrcPortMask());
+
+        cond.tpSrcInv = true;
+        Assert.assertTrue(cond.matches(pktCtx));
+        Assert.assertEquals(0xf000, wcmatch.getSrcPortMask());
+
+        cond.tpSrcInv = false;
+        cond.tpSrc = new Range<>(4321, 4321);
+        Assert.assertTrue(cond.matches(pktCtx));
+        Assert.assertFalse(wcmatch.isSeen(FlowMatch.Field.SrcPort));
+        Assert.assertEquals(0xffff, wcmatch.getSrcPortMask());
+    }
+
     @Test
     public void testTpDst() {
         // tpDst is set to 1234
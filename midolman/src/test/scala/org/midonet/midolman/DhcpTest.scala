@@ -30,6 +30,7 @@ import org.midonet.midolman.PacketWorkflow.GeneratedLogicalPacket
 import org.midonet.midolman.layer3.Route
 import org.midonet.midolman.layer3.Route._
 import org.midonet.midolman.simulation.{Bridge, DhcpValueParser, Router}
+import org.midonet.midolman.topology.devices.DhcpSubnet
 import org.midonet.midolman.util.MidolmanSpec
 import org.midonet.midolman.util.VirtualConfigurationBuilders.DhcpOpt121Route
 import org.midonet.packets._
@@ -152,7 +153,7 @@ class DhcpTest extends MidolmanSpec {
                    bridgeIntPort1, bridgeIntPort2, bridgeIntPort3,
                    bridgePort1, bridgePort2, bridgePort3)
         fetchDevice[Router](router)
-        fetchDevice[Bridge](bridge)
+        fetchDevice[Bridge](bridge).subnetIds foreach fetchDevice[DhcpSubnet]
 
         workflow = packetWorkflow(Map(bridgePortNumber1 -> bridgePort1,
                                       bridgePortNumber2 -> bridgePort2,
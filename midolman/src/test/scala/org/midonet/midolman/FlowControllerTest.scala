@@ -164,6 +164,36 @@ class FlowControllerTest extends MidolmanSpec {
         }
     }
 
+    feature("The flow controller defers flow deletions") {
+        scenario("A flow not accepted by the flow processor is retried") {
+            Given("A flow in the flow controller")
+            val flow = new TestableFlow()
+            val managedFlow = flow.add()
+            var deleted = List[FlowMatch]()
+            flowProcessor.flowDelCb = { f => deleted ::= f.getMatch }
+
+            When("The flow is removed while the flow processor rejects it")
+            flowProcessor.rejectEjects = true
+            flow.remove(managedFlow)
+
+            Then("The flow is removed without waiting for the datapath")
+            managedFlow.removed should be (true)
+            flow.callbackCalled should be (true)
+            deleted shouldBe empty
+
+            And("The deletion is pending")
+            flowController.shouldProcess() should be (true)
+
+            When("The flow processor accepts the deletion")
+            flowProcessor.rejectEjects = false
+            flowController.process()
+
+            Then("The flow is deleted from the datapath")
+            deleted should have size 1
+            flowController.shouldProcess() should be (false)
+        }
+    }
+
     final class TestableFlow(val fmatch: FlowMatch = new FlowMatch(),
                              val linked: FlowMatch = null) {
         var callbackCalled = false
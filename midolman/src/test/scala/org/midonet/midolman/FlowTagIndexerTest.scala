@@ -24,7 +24,7 @@ import org.scalatest.junit.JUnitRunner
 import org.slf4j.helpers.NOPLogger
 import com.typesafe.scalalogging.Logger
 
-import org.midonet.midolman.flows.{ManagedFlow, FlowTagIndexer, FlowIndexer}
+import org.midonet.midolman.flows.{FlowIndexer, FlowTagFilter, FlowTagIndexer, ManagedFlow}
 import org.midonet.midolman.util.MidolmanSpec
 import org.midonet.sdn.flows.FlowTagger
 
@@ -130,5 +130,98 @@ class FlowTagIndexerTest extends MidolmanSpec {
             flowInvalidation.flowsFor(tag1) should be (null)
         }
 
+        scenario ("A flow is removed from the middle of a tag list") {
+            val flows = (0 until 3) map { _ =>
+                val flow = new ManagedFlow(null)
+                flow.tags.add(tag1)
+                flowInvalidation.registerFlow(flow)
+                flow
+            }
+
+            flowInvalidation.removeFlow(flows(1))
+            flowInvalidation.flowsFor(tag1).size shouldBe 2
+            flowInvalidation.flowsFor(tag1) should (contain (flows(0)) and
+                                                    contain (flows(2)))
+
+            flowInvalidation.invalidateFlowsFor(tag1)
+            removedFlows should contain theSameElementsAs flows
+            flowInvalidation.flowsFor(tag1) should be (null)
+        }
+    }
+
+    feature ("Tags are indexed by integer identifiers") {
+        scenario ("Duplicate tags of a flow are indexed once") {
+            val flow = new ManagedFlow(null)
+            flow.tags.add(tag1)
+            flow.tags.add(tag1)
+            flowInvalidation.registerFlow(flow)
+
+            flowInvalidation.flowsFor(tag1).size shouldBe 1
+
+            flowInvalidation.invalidateFlowsFor(tag1)
+            removedFlows should contain theSameElementsAs List(flow)
+            flowInvalidation.flowsFor(tag1) should be (null)
+        }
+
+        scenario ("Tags are released when they have no more flows") {
+            val tags = (0 until 2000) map { i => FlowTagger.tagForDpPort(i) }
+            val flows = tags map { tag =>
+                val flow = new ManagedFlow(null)
+                flow.tags.add(tag)
+                flow.tags.add(tag1)
+                flowInvalidation.registerFlow(flow)
+                flow
+            }
+
+            flowInvalidation.indexedTags shouldBe 2000
+
+            flowInvalidation.invalidateFlowsFor(tag1)
+            removedFlows should contain theSameElementsAs flows
+            flowInvalidation.indexedTags shouldBe 0
+        }
+
+        scenario ("A pooled flow can be registered again") {
+            val flow = new ManagedFlow(null)
+            flow.tags.add(tag1)
+            flow.tags.add(tag2)
+            flowInvalidation.registerFlow(flow)
+            flowInvalidation.removeFlow(flow)
+            flow.clear()
+
+            flow.tags.add(tag2)
+            flowInvalidation.registerFlow(flow)
+
+            flowInvalidation.flowsFor(tag1) should be (null)
+            flowInvalidation.flowsFor(tag2) should contain only flow
+
+            flowInvalidation.invalidateFlowsFor(tag2)
+            flowInvalidation.indexedTags shouldBe 0
+        }
+    }
+
+    feature ("Indexed tags are summarized by a filter") {
+        scenario ("The filter contains the tags of the indexed flows") {
+            val filter = new FlowTagFilter(1024)
+            val indexer = new FlowAddRemover(removedFlows) with FlowTagIndexer {
+                override protected val tagFilter = filter
+            }
+            val flow1 = new ManagedFlow(null)
+            flow1.tags.add(tag1)
+            flow1.tags.add(tag2)
+            val flow2 = new ManagedFlow(null)
+            flow2.tags.add(tag1)
+            indexer.registerFlow(flow1)
+            indexer.registerFlow(flow2)
+
+            filter.mightContain(tag1) shouldBe true
+            filter.mightContain(tag2) shouldBe true
+
+            indexer.removeFlow(flow1)
+            filter.mightContain(tag1) shouldBe true
+            filter.mightContain(tag2) shouldBe false
+
+            indexer.invalidateFlowsFor(tag1)
+            filter.mightContain(tag1) shouldBe false
+        }
     }
 }
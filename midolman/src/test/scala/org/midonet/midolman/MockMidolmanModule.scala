@@ -123,6 +123,7 @@ class MockMidolmanModule(override val hostId: UUID,
                                                       backend: MidonetBackend,
                                                       metricsRegistry: MetricRegistry,
                                                       counter: StatisticalCounter,
+                                                      htbRate: TokenBucketAdaptiveRate,
                                                       actorSystem: ActorSystem)
             : PacketWorkersService =
         new PacketWorkersService() {
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman
+
+import com.codahale.metrics.MetricRegistry
+
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.{FeatureSpec, Matchers}
+
+@RunWith(classOf[JUnitRunner])
+class PacketWorkerScalerTest extends FeatureSpec with Matchers {
+
+    private class TestWorker extends ParkablePacketWorker {
+        val load = new PacketWorkerLoad
+        var queuedPackets = 0L
+        var isParked = false
+        override def park(): Unit = isParked = true
+        override def unpark(): Unit = isParked = false
+    }
+
+    private def scaler(workers: TestWorker*) =
+        new PacketWorkerScaler(workers.toIndexedSeq, idleSamples = 3,
+                               targetLatencyNanos = 1000,
+                               registry = new MetricRegistry)
+
+    feature("Parking") {
+        scenario("Idle workers are parked after the idle samples") {
+            val worker = new TestWorker
+            val s = scaler(worker)
+            s.sample()
+            s.sample()
+            worker.isParked shouldBe false
+            s.sample()
+            worker.isParked shouldBe true
+            s.parkedWorkers shouldBe 1
+        }
+
+        scenario("Workers with queued packets are unparked") {
+            val worker = new TestWorker
+            val s = scaler(worker)
+            for (_ <- 0 until 3) s.sample()
+            worker.isParked shouldBe true
+
+            worker.queuedPackets = 10
+            s.sample()
+            worker.isParked shouldBe false
+
+            worker.queuedPackets = 0
+            s.sample()
+            s.sample()
+            worker.isParked shouldBe false
+        }
+
+        scenario("Workers with a high simulation latency are unparked") {
+            val worker = new TestWorker
+            val s = scaler(worker)
+            for (_ <- 0 until 3) s.sample()
+            worker.isParked shouldBe true
+
+            worker.load.recordLatency(500)
+            s.sample()
+            worker.isParked shouldBe true
+
+            worker.load.recordLatency(2000)
+            worker.load.recordLatency(3000)
+            s.sample()
+            worker.isParked shouldBe false
+        }
+
+        scenario("Workers are sampled independently") {
+            val idle = new TestWorker
+            val busy = new TestWorker
+            busy.queuedPackets = 1
+            val s = scaler(idle, busy)
+            for (_ <- 0 until 3) s.sample()
+            idle.isParked shouldBe true
+            busy.isParked shouldBe false
+        }
+    }
+
+    feature("Wait strategy") {
+        scenario("Parking changes the wait timeout") {
+            val strategy = new ParkingWaitStrategy(1000, 1000000)
+            strategy.isParked shouldBe false
+            strategy.park()
+            strategy.isParked shouldBe true
+            strategy.unpark()
+            strategy.isParked shouldBe false
+        }
+    }
+
+    feature("Flow marks") {
+        scenario("The flow mark has room for the maximum number of workers") {
+            val maxWorkerId = FlowController.MaxWorkers - 1
+            val mark = FlowController.IndexMask |
+                       (maxWorkerId << FlowController.IndexShift)
+            (mark >>> FlowController.IndexShift) shouldBe maxWorkerId
+            (mark & FlowController.IndexMask) shouldBe FlowController.IndexMask
+            FlowController.MaxWorkers shouldBe 64
+        }
+    }
+}
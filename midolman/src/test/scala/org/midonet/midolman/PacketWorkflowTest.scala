@@ -47,6 +47,7 @@ import org.midonet.packets.util.EthBuilder
 import org.midonet.packets.util.PacketBuilder._
 import org.midonet.sdn.flows.FlowTagger
 import org.midonet.sdn.state.ShardedFlowStateTable
+import org.midonet.util.concurrent.NanoClock
 import org.midonet.util.functors.Callback0
 
 @RunWith(classOf[JUnitRunner])
@@ -190,6 +191,34 @@ class PacketWorkflowTest extends MidolmanSpec {
             packetsOut should be (1)
         }
 
+        scenario("records the latency of the pipeline stages") {
+            Given("a packet received from the datapath")
+            val pkt = makePacket(1)
+            pkt.startTimeNanos = NanoClock.DEFAULT.tick
+            val latencies = metrics.latencies
+            val ringWait = latencies.ringWait.getCount
+            val simulation = latencies.simulation.getCount
+            val postponement = latencies.postponement.getCount
+
+            When("the simulation is postponed and then completes")
+            packetWorkflow.handlePackets(pkt)
+            latencies.simulation.getCount shouldBe simulation
+            packetWorkflow.complete(List(output(1)))
+            packetWorkflow.process()
+
+            Then("the worker stages are recorded once")
+            latencies.ringWait.getCount shouldBe ringWait + 1
+            latencies.simulation.getCount shouldBe simulation + 1
+            latencies.postponement.getCount shouldBe postponement + 1
+
+            And("the context has the stage timestamps")
+            val context = packetsSeen.head
+            context.latencies shouldBe latencies
+            context.simulationStartNanos should be >= pkt.startTimeNanos
+            context.postponedNanos should be > 0L
+            context.handoffNanos should be >= context.simulationStartNanos
+        }
+
         scenario("expires packets") {
             Given("a pending packet in the packet workflow")
             createPacketWorkflow(0)
@@ -676,7 +705,7 @@ class PacketWorkflowTest extends MidolmanSpec {
                                    metrics,
                                    NullFlowRecorder(),
                                    injector.getInstance(classOf[VirtualTopology]),
-                                   packetOut) {
+                                   packetOut, _ => { }) {
         var p = Promise[Any]()
         var generatedPacket: GeneratedPacket = _
         var generatedException: Exception = _
@@ -15,22 +15,26 @@
  */
 package org.midonet.midolman
 
+import java.util.ArrayList
 import java.util.concurrent.atomic.AtomicInteger
 
+import scala.collection.JavaConversions._
 import scala.collection.mutable
 
 import org.scalatest.{BeforeAndAfter, FeatureSpec, Matchers}
 import org.scalatest.junit.JUnitRunner
 import org.junit.runner.RunWith
 
-import org.midonet.midolman.SimulationBackChannel.{BackChannelMessage, Broadcast}
+import org.midonet.midolman.SimulationBackChannel._
+import org.midonet.midolman.flows.FlowTagFilter
+import org.midonet.sdn.flows.FlowTagger
 
 @RunWith(classOf[JUnitRunner])
 class SimulationBackChannelTest extends FeatureSpec with Matchers with BeforeAndAfter {
 
     private val checkTriggers = new AtomicInteger(0)
     private var backChannel: ShardedSimulationBackChannel = null
-    private var p1, p2, p3, p4: SimulationBackChannel = _
+    private var p1, p2, p3, p4: BackChannelShard = _
     private var c1: mutable.ArrayBuffer[BackChannelMessage] = _
 
     private var _processedMsgs: List[BackChannelMessage] = Nil
@@ -47,6 +51,18 @@ class SimulationBackChannelTest extends FeatureSpec with Matchers with BeforeAnd
 
     case class Message(text: String) extends BackChannelMessage
 
+    private val tag1 = FlowTagger.tagForDpPort(1)
+    private val tag2 = FlowTagger.tagForDpPort(2)
+
+    private def invalidatedTags(backChannel: SimulationBackChannel) = {
+        process(backChannel)
+        processedMsgs.reverse flatMap {
+            case batch: InvalidationBatch => batch.tags.toList
+            case tag: FlowTagger.FlowTag => List(tag)
+            case _ => Nil
+        }
+    }
+
     before {
         checkTriggers.set(0)
         backChannel = new ShardedSimulationBackChannel()
@@ -153,4 +169,79 @@ class SimulationBackChannelTest extends FeatureSpec with Matchers with BeforeAnd
             backChannel.hasMessages should be (false)
         }
     }
+
+    feature("targets and coalesces flow tag invalidations") {
+        scenario("invalidations enqueued before polling are coalesced") {
+            backChannel.tell(tag1)
+            backChannel.tell(tag2)
+            process(p1)
+            processedMsgs match {
+                case List(batch: InvalidationBatch) =>
+                    batch.tags should have size 2
+                case msgs => fail(s"Unexpected messages $msgs")
+            }
+
+            backChannel.tell(tag1)
+            invalidatedTags(p1) shouldBe List(tag1)
+            c1 shouldBe List(tag1, tag2, tag1)
+        }
+
+        scenario("invalidations are only enqueued to shards that may match") {
+            val filter1 = new FlowTagFilter(1024)
+            val filter2 = new FlowTagFilter(1024)
+            filter1.add(tag1)
+            p1.filterInvalidations(filter1)
+            p2.filterInvalidations(filter2)
+
+            backChannel.tell(tag1)
+            invalidatedTags(p1) shouldBe List(tag1)
+            invalidatedTags(p2) shouldBe Nil
+            invalidatedTags(p3) shouldBe List(tag1)
+            c1 should contain only tag1
+
+            filter1.remove(tag1)
+            backChannel.tell(tag1)
+            invalidatedTags(p1) shouldBe Nil
+        }
+
+        scenario("a shard receives its own invalidations") {
+            p1.filterInvalidations(new FlowTagFilter(1024))
+            p1.tell(tag1)
+            invalidatedTags(p1) shouldBe List(tag1)
+        }
+
+        scenario("filtered out invalidations are rechecked") {
+            val filter = new FlowTagFilter(1024)
+            p1.filterInvalidations(filter)
+            val sequence = p1.invalidationSequence
+
+            backChannel.tell(tag1)
+            backChannel.tell(tag2)
+            invalidatedTags(p1) shouldBe Nil
+
+            val tags = new ArrayList[FlowTagger.FlowTag]()
+            tags.add(tag1)
+            filter.add(tag1)
+            p1.recheckInvalidations(sequence, tags)
+            invalidatedTags(p1) shouldBe List(tag1)
+
+            p1.recheckInvalidations(p1.invalidationSequence, tags)
+            invalidatedTags(p1) shouldBe Nil
+        }
+
+        scenario("all tags are rechecked when the invalidations are lost") {
+            p1.filterInvalidations(new FlowTagFilter(1024))
+            val sequence = p1.invalidationSequence
+            for (port <- 0 until LogSize + 1) {
+                backChannel.tell(FlowTagger.tagForDpPort(port + 10))
+            }
+            invalidatedTags(p1) shouldBe Nil
+
+            val tags = new ArrayList[FlowTagger.FlowTag]()
+            tags.add(tag1)
+            tags.add(tag2)
+            p1.recheckInvalidations(sequence, tags)
+            invalidatedTags(p1) shouldBe List(tag1, tag2)
+        }
+    }
 }
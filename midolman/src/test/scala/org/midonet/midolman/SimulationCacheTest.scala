@@ -0,0 +1,131 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman
+
+import java.util.ArrayList
+
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.{FeatureSpec, Matchers}
+
+import org.midonet.midolman.flows.{ManagedFlow, SimulationCache}
+import org.midonet.odp.FlowMatch
+import org.midonet.odp.flows.FlowAction
+import org.midonet.odp.flows.FlowActions.output
+import org.midonet.packets.{IPv4, IPv4Addr, MAC, TCP}
+import org.midonet.sdn.flows.FlowTagger
+import org.midonet.sdn.flows.FlowTagger.FlowTag
+
+@RunWith(classOf[JUnitRunner])
+class SimulationCacheTest extends FeatureSpec with Matchers {
+
+    private val actions = new ArrayList[FlowAction]()
+    actions.add(output(2))
+    private val tags = new ArrayList[FlowTag]()
+    tags.add(FlowTagger.tagForDpPort(1))
+
+    private def packet(srcPort: Int, dst: String = "10.0.0.2"): FlowMatch =
+        new FlowMatch()
+            .setInputPortNumber(1)
+            .setEthSrc(MAC.fromString("02:00:00:00:00:01"))
+            .setEthDst(MAC.fromString("02:00:00:00:00:02"))
+            .setEtherType(IPv4.ETHERTYPE)
+            .setNetworkSrc(IPv4Addr.fromString("10.0.0.1"))
+            .setNetworkDst(IPv4Addr.fromString(dst))
+            .setNetworkProto(TCP.PROTOCOL_NUMBER)
+            .setSrcPort(srcPort)
+            .setDstPort(80)
+
+    /** Simulates reading the destination address. */
+    private def simulated(fmatch: FlowMatch): FlowMatch = {
+        fmatch.getInputPortNumber
+        fmatch.getEtherType
+        fmatch.getNetworkDstIP
+        fmatch
+    }
+
+    feature("Lookups") {
+        scenario("Packets differing in unseen fields share the entry") {
+            val cache = new SimulationCache(16)
+            val entry = cache.put(simulated(packet(1000)), actions, tags, 100)
+            entry should not be null
+
+            val other = packet(2000)
+            cache.get(other) shouldBe entry
+            other.getSeenFields shouldBe 0L
+            entry.actions shouldBe actions
+            entry.tags shouldBe tags
+            entry.seenFields.isSeen(FlowMatch.Field.NetworkDst) shouldBe true
+            entry.seenFields.isSeen(FlowMatch.Field.SrcPort) shouldBe false
+        }
+
+        scenario("Packets differing in seen fields do not match") {
+            val cache = new SimulationCache(16)
+            cache.put(simulated(packet(1000)), actions, tags, 100)
+            cache.get(packet(1000, dst = "10.0.0.3")) shouldBe null
+        }
+
+        scenario("Packets with other used fields do not match") {
+            val cache = new SimulationCache(16)
+            cache.put(simulated(packet(1000)), actions, tags, 100)
+            cache.get(packet(1000).addVlanId(10)) shouldBe null
+        }
+
+        scenario("Entries with different masks are kept in different tuples") {
+            val cache = new SimulationCache(16)
+            cache.put(simulated(packet(1000)), actions, tags, 100)
+            val wide = packet(1000, dst = "10.0.0.3")
+            wide.getInputPortNumber
+            cache.put(wide, actions, tags, 100) should not be null
+            cache.tupleCount shouldBe 2
+            cache.get(packet(3000, dst = "10.0.0.4")) should not be null
+        }
+
+        scenario("The cache is bounded") {
+            val cache = new SimulationCache(1)
+            cache.put(simulated(packet(1000)), actions, tags, 100) should not be null
+            cache.put(simulated(packet(1000, dst = "10.0.0.3")), actions, tags,
+                      100) shouldBe null
+            cache.size shouldBe 1
+        }
+
+        scenario("Duplicate entries are not added") {
+            val cache = new SimulationCache(16)
+            cache.put(simulated(packet(1000)), actions, tags, 100) should not be null
+            cache.put(simulated(packet(2000)), actions, tags, 100) shouldBe null
+        }
+    }
+
+    feature("Entries live as long as their flows") {
+        scenario("An entry is removed with its last flow") {
+            val cache = new SimulationCache(16)
+            val entry = cache.put(simulated(packet(1000)), actions, tags, 100)
+            val flow1 = new ManagedFlow(null)
+            val flow2 = new ManagedFlow(null)
+            entry.addFlow(flow1)
+            entry.addFlow(flow2)
+
+            flow1.callbacks.runAndClear()
+            cache.get(packet(1000)) shouldBe entry
+
+            flow2.callbacks.runAndClear()
+            cache.get(packet(1000)) shouldBe null
+            cache.size shouldBe 0
+            cache.tupleCount shouldBe 0
+        }
+    }
+}
@@ -123,6 +123,47 @@ class DatapathChannelTest extends MidolmanSpec {
             new Ethernet().deserialize(bb) should be (ethernet)
         }
 
+        scenario ("Executes packets with the bytes received from the datapath") {
+            val original: Ethernet = ({ eth src MAC.random() dst MAC.random() } <<
+                                      { ip4 src IPv4Addr.random dst IPv4Addr.random } <<
+                                      payload(Array[Byte](1, 2, 3))).packet
+            val context = packetContextFor(ethernet, UUID.randomUUID())
+            context.packet.setOriginalData(original.serialize())
+            context.packetActions.addAll(actions)
+            dpChannel.handoff(context)
+
+            barrier.waitFor(0)
+            val bb = nlChannel.written.poll()
+            bb.position(NetlinkMessage.GENL_HEADER_SIZE + 4)
+            attributeListShouldMatch(bb, OpenVSwitch.Packet.Attr.Key,
+                                     flowMatchParser, context.origMatch)
+            attributeListShouldMatch(bb, OpenVSwitch.Packet.Attr.Actions,
+                                     FlowActions.reader.deserializeFrom, actions)
+            val attrLen = bb.getShort
+            NetlinkMessage.unnest(bb.getShort) should be (OpenVSwitch.Packet.Attr.Packet)
+            bb.limit(bb.position() + attrLen - 4)
+            new Ethernet().deserialize(bb) should be (original)
+        }
+
+        scenario ("Batches the flow state and packet execute messages") {
+            val context = packetContextFor(ethernet, UUID.randomUUID())
+            context.packetActions.addAll(actions)
+            context.stateActions.add(FlowActions.output(2))
+            context.stateMessageLength = 16
+            dpChannel.handoff(context)
+
+            barrier.waitFor(0)
+            nlChannel.packetsWritten.get() should be (1)
+            nlChannel.messagesWritten.get() should be (2)
+
+            val bb = nlChannel.written.poll()
+            val stateLen = bb.getInt(NetlinkMessage.NLMSG_LEN_OFFSET)
+            val packetPos = NetlinkMessage.align(stateLen)
+            bb.getInt(packetPos + NetlinkMessage.NLMSG_PID_OFFSET) should be (10)
+            bb.getInt(packetPos + NetlinkMessage.GENL_HEADER_SIZE) should be (datapathId)
+            packetPos + bb.getInt(packetPos + NetlinkMessage.NLMSG_LEN_OFFSET) should be (bb.limit())
+        }
+
         scenario ("Can create flows") {
             val context = packetContextFor(ethernet, UUID.randomUUID())
             context.flowActions.addAll(actions)
@@ -151,7 +192,7 @@ class DatapathChannelTest extends MidolmanSpec {
             while (i < 10000) {
                 dpChannel.handoff(context)
                 i += 1
-                i - nlChannel.packetsWritten.get() should be <= capacity
+                i - nlChannel.messagesWritten.get() should be <= capacity
             }
         }
 
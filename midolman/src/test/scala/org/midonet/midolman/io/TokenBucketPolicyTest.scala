@@ -79,6 +79,115 @@ class TokenBucketPolicyTest extends FeatureSpec
         }
     }
 
+    feature("VM port buckets are correctly grouped") {
+        scenario("VM ports result in a leaf bucket under their group") {
+            policy groupVmPortsBy Map("vm1" -> "g1", "vm2" -> "g1",
+                                      "vm3" -> "g2").getOrElse(_, null)
+
+            val tb1 = policy link (new NetDevPort("vm1"), VirtualMachine)
+            val tb2 = policy link (new NetDevPort("vm2"), VirtualMachine)
+            val tb3 = policy link (new NetDevPort("vm3"), VirtualMachine)
+            val tb4 = policy link (new NetDevPort("vm4"), VirtualMachine)
+
+            tb1.underlyingTokenBucket.getName should be ("midolman-root/vms/g1/vm1")
+            tb2.underlyingTokenBucket.getName should be ("midolman-root/vms/g1/vm2")
+            tb3.underlyingTokenBucket.getName should be ("midolman-root/vms/g2/vm3")
+            tb4.underlyingTokenBucket.getName should be ("midolman-root/vms/vm4")
+            tb1.underlyingTokenBucket.getParent should be theSameInstanceAs
+                tb2.underlyingTokenBucket.getParent
+        }
+
+        scenario("The group weight is the number of ports up to the maximum") {
+            val policy = new TokenBucketPolicy(
+                MidolmanConfig.forTests(
+                    """
+                      |agent.datapath.global_incoming_burst_capacity = 1
+                      |agent.datapath.vm_incoming_burst_capacity = 1
+                      |agent.datapath.htb_vm_group_max_weight = 2
+                    """.stripMargin),
+                new TokenBucketTestRate, multiplier,
+                new Bucket(_, 1, null, 0, false))
+            policy groupVmPortsBy (_ => "g")
+
+            val ports = (0 until 3) map (i => new NetDevPort(s"vm$i"))
+            val group = (policy link (ports(0), VirtualMachine))
+                .underlyingTokenBucket.getParent
+            group.getWeight should be (1)
+
+            policy link (ports(1), VirtualMachine)
+            group.getWeight should be (2)
+            policy link (ports(2), VirtualMachine)
+            group.getWeight should be (2)
+
+            policy unlink ports(2)
+            policy unlink ports(1)
+            group.getWeight should be (1)
+        }
+
+        scenario("The group is unlinked with its last port") {
+            policy groupVmPortsBy (_ => "g")
+
+            val port = new NetDevPort("vm")
+            val tb = policy link (port, VirtualMachine)
+            val group = tb.underlyingTokenBucket.getParent
+
+            tb.underlyingTokenBucket.tryGet(1) should be (1)
+            tb.underlyingTokenBucket.tryGet(1) should be (0)
+            policy groupConsumedTokens "g" should be (1)
+            policy groupDeniedTokens "g" should be (1)
+
+            policy unlink port
+
+            group.getNumTokens should be (TokenBucket.UNLINKED)
+            policy groupConsumedTokens "g" should be (-1)
+        }
+
+        scenario("A VM port linked without a group is regrouped later") {
+            var groups = Map.empty[String, String]
+            policy groupVmPortsBy (groups.getOrElse(_, null))
+
+            val tb = policy link (new NetDevPort("vm"), VirtualMachine)
+            tb.underlyingTokenBucket.getName should be ("midolman-root/vms/vm")
+
+            policy regroupVmPort "vm"
+            tb.underlyingTokenBucket.getName should be ("midolman-root/vms/vm")
+
+            groups = Map("vm" -> "g")
+            policy regroupVmPort "vm"
+            tb.underlyingTokenBucket.getName should be ("midolman-root/vms/g/vm")
+            tb.underlyingTokenBucket.tryGet(1) should be (1)
+            policy groupConsumedTokens "g" should be (1)
+        }
+
+        scenario("A VM port regrouped leaves its previous group") {
+            var groups = Map("vm" -> "g1")
+            policy groupVmPortsBy (groups.getOrElse(_, null))
+
+            val port = new NetDevPort("vm")
+            val tb = policy link (port, VirtualMachine)
+            val g1 = tb.underlyingTokenBucket.getParent
+
+            groups = Map("vm" -> "g2")
+            policy regroupVmPort "vm"
+
+            tb.underlyingTokenBucket.getName should be ("midolman-root/vms/g2/vm")
+            g1.getNumTokens should be (TokenBucket.UNLINKED)
+            policy groupConsumedTokens "g1" should be (-1)
+
+            policy unlink port
+            policy groupConsumedTokens "g2" should be (-1)
+        }
+
+        scenario("Tunnel ports are not regrouped") {
+            policy groupVmPortsBy (_ => "g")
+
+            val tb = policy link (new GreTunnelPort("gre"), OverlayTunnel)
+            policy regroupVmPort "gre"
+
+            tb.underlyingTokenBucket.getName should be ("midolman-root/gre")
+        }
+    }
+
     feature("Buckets are correctly unlinked") {
         scenario("Tunnel ports are correctly unlinked") {
             val grePort = new GreTunnelPort("gre")
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.midonet.midolman.l4lb
+
+import java.net.{InetAddress, ServerSocket}
+import java.util.UUID
+import java.util.concurrent.ConcurrentHashMap
+
+import scala.collection.JavaConverters._
+
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.{BeforeAndAfter, FeatureSpec, Matchers}
+
+import org.midonet.util.MidonetEventually
+
+@RunWith(classOf[JUnitRunner])
+class HealthCheckerTest extends FeatureSpec with Matchers
+                                with BeforeAndAfter
+                                with MidonetEventually {
+
+    private var checker: HealthChecker = _
+    private var servers: Seq[ServerSocket] = Seq.empty
+    private val status = new ConcurrentHashMap[UUID, Boolean]()
+    private var reports = 0
+
+    private def callback(up: Set[UUID], down: Set[UUID]): Unit = {
+        status.synchronized { reports += 1 }
+        up foreach { status.put(_, true) }
+        down foreach { status.put(_, false) }
+    }
+
+    private def newServer(): ServerSocket = {
+        val server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress)
+        servers :+= server
+        server
+    }
+
+    private def member(port: Int): PoolMemberConfig =
+        new PoolMemberConfig(true, UUID.randomUUID(), 1,
+                             InetAddress.getLoopbackAddress.getHostAddress,
+                             port)
+
+    private def pool(members: Set[PoolMemberConfig],
+                     maxRetries: Int = 1): PoolConfig = {
+        val vip = new VipConfig(true, UUID.randomUUID(), "10.0.0.1", 80, null)
+        new PoolConfig(UUID.randomUUID(), UUID.randomUUID(), Set(vip), members,
+                       new HealthMonitorConfig(true, 1, 1, maxRetries),
+                       adminStateUp = true, "/tmp/", "_hm")
+    }
+
+    before {
+        checker = new HealthChecker
+        status.clear()
+        reports = 0
+    }
+
+    after {
+        checker.close()
+        servers foreach (_.close())
+        servers = Seq.empty
+    }
+
+    feature("Health checker reports the member status") {
+        scenario("Listening members are up") {
+            Given("A pool with two listening members")
+            val member1 = member(newServer().getLocalPort)
+            val member2 = member(newServer().getLocalPort)
+
+            When("Watching the pool")
+            checker.watch(pool(Set(member1, member2)), null, callback)
+
+            Then("Both members are reported up")
+            eventually {
+                status.asScala shouldBe Map(member1.id -> true,
+                                            member2.id -> true)
+            }
+        }
+
+        scenario("Members not listening are down") {
+            Given("A pool with a listening and a closed member")
+            val member1 = member(newServer().getLocalPort)
+            val closed = newServer()
+            val member2 = member(closed.getLocalPort)
+            closed.close()
+
+            When("Watching the pool")
+            checker.watch(pool(Set(member1, member2)), null, callback)
+
+            Then("The members are reported up and down")
+            eventually {
+                status.asScala shouldBe Map(member1.id -> true,
+                                            member2.id -> false)
+            }
+        }
+
+        scenario("A member that stops listening is reported down") {
+            Given("A pool with a listening member")
+            val server = newServer()
+            val member1 = member(server.getLocalPort)
+            checker.watch(pool(Set(member1), maxRetries = 2), null, callback)
+            eventually { status.get(member1.id) shouldBe true }
+
+            When("The member stops listening")
+            server.close()
+
+            Then("The member is reported down after the retries")
+            eventually { status.get(member1.id) shouldBe false }
+        }
+
+        scenario("Unchanged status is not reported again") {
+            Given("A pool with a listening member")
+            val member1 = member(newServer().getLocalPort)
+            checker.watch(pool(Set(member1)), null, callback)
+            eventually { status.get(member1.id) shouldBe true }
+
+            When("Waiting for more checks")
+            Thread.sleep(2500)
+
+            Then("The status was reported once")
+            status.synchronized { reports shouldBe 1 }
+        }
+
+        scenario("Unwatched pools are not reported") {
+            Given("A watched pool with a closed member")
+            val closed = newServer()
+            val member1 = member(closed.getLocalPort)
+            closed.close()
+            val config = pool(Set(member1))
+            checker.watch(config, null, callback)
+            eventually { status.get(member1.id) shouldBe false }
+
+            When("Unwatching the pool and the member starts listening")
+            checker.unwatch(config.id)
+            val server = new ServerSocket(member1.port, 50,
+                                          InetAddress.getLoopbackAddress)
+            servers :+= server
+
+            Then("The member is not reported up")
+            Thread.sleep(2500)
+            status.get(member1.id) shouldBe false
+        }
+
+        scenario("Members added to a pool are checked") {
+            Given("A watched pool with a listening member")
+            val member1 = member(newServer().getLocalPort)
+            val config = pool(Set(member1))
+            checker.watch(config, null, callback)
+            eventually { status.get(member1.id) shouldBe true }
+
+            When("Adding a member to the pool")
+            val member2 = member(newServer().getLocalPort)
+            checker.watch(new PoolConfig(config.id, config.loadBalancerId,
+                                         config.vips, Set(member1, member2),
+                                         config.healthMonitor, true,
+                                         config.l4lbFileLocs,
+                                         config.nsPostFix), null, callback)
+
+            Then("The new member is reported up")
+            eventually { status.get(member2.id) shouldBe true }
+
+            And("The existing member was reported once")
+            status.synchronized { reports shouldBe 2 }
+        }
+    }
+
+    feature("Health checker is closed") {
+        scenario("Pools watched after closing are not checked") {
+            Given("A closed health checker")
+            checker.close()
+
+            When("Watching a pool with a listening member")
+            val member1 = member(newServer().getLocalPort)
+            checker.watch(pool(Set(member1)), null, callback)
+
+            Then("The member is not reported")
+            Thread.sleep(1500)
+            status.isEmpty shouldBe true
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.midonet.midolman.management
+
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.{BeforeAndAfter, FeatureSpec, Matchers}
+
+import org.midonet.midolman.simulation.PacketContext
+import org.midonet.odp.FlowMatch
+import org.midonet.packets.{IPv4, IPv4Addr, MAC, TCP, UDP}
+
+@RunWith(classOf[JUnitRunner])
+class TracerMatcherTest extends FeatureSpec with Matchers with BeforeAndAfter {
+
+    private val srcMac = "02:00:00:00:00:01"
+
+    private def tracer(ipProto: java.lang.Byte = null, ipDst: String = null,
+                       dstPort: Integer = null, srcMac: String = null,
+                       limit: Int = 10) =
+        new PacketTracer(null, srcMac, null, ipProto, null, ipDst, null,
+                         dstPort, LogLevel.DEBUG, limit)
+
+    private def packet(proto: Byte = TCP.PROTOCOL_NUMBER,
+                       dst: String = "10.0.0.1", dstPort: Int = 80) =
+        new FlowMatch()
+            .setEthSrc(MAC.fromString(srcMac))
+            .setEtherType(IPv4.ETHERTYPE)
+            .setNetworkProto(proto)
+            .setNetworkDst(IPv4Addr.fromString(dst))
+            .setDstPort(dstPort)
+
+    after {
+        PacketTracing.flush()
+    }
+
+    feature("Compiled tracers") {
+        scenario("There is no matcher without tracers") {
+            TracerMatcher(Seq.empty) shouldBe null
+        }
+
+        scenario("Tracers match the fields they set") {
+            val t1 = tracer(ipProto = UDP.PROTOCOL_NUMBER)
+            val t2 = tracer(ipDst = "10.0.0.1", dstPort = 80)
+            val t3 = tracer(srcMac = srcMac)
+            val matcher = TracerMatcher(Seq(t1, t2))
+
+            matcher.find(packet(proto = UDP.PROTOCOL_NUMBER)) shouldBe t1
+            matcher.find(packet()) shouldBe t2
+            matcher.find(packet(dstPort = 81)) shouldBe null
+            matcher.find(packet(dst = "10.0.0.2")) shouldBe null
+            TracerMatcher(Seq(t3)).find(packet()) shouldBe t3
+        }
+
+        scenario("Tracers that reached their limit do not match") {
+            val t = tracer(dstPort = 80, limit = 1)
+            val matcher = TracerMatcher(Seq(t))
+            matcher.find(packet()) shouldBe t
+            t.matched()
+            matcher.find(packet()) shouldBe null
+        }
+
+        scenario("Fields that no tracer sets are not read") {
+            val fmatch = packet()
+            TracerMatcher(Seq(tracer(dstPort = 80))).find(fmatch)
+            fmatch.isSeen(FlowMatch.Field.DstPort) shouldBe true
+            fmatch.isSeen(FlowMatch.Field.NetworkDst) shouldBe false
+        }
+    }
+
+    feature("Packet tracing") {
+        scenario("Packets use the default logger without tracers") {
+            PacketTracing.loggerFor(packet()) shouldBe PacketContext.defaultLog
+        }
+
+        scenario("The matcher is rebuilt when the tracers change") {
+            val t = tracer(dstPort = 80)
+            PacketTracing.addTracer(t)
+            PacketTracing.loggerFor(packet()) shouldBe PacketContext.debugLog
+            PacketTracing.removeTracer(t) shouldBe 1
+            PacketTracing.loggerFor(packet()) shouldBe PacketContext.defaultLog
+        }
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.midolman.openstack.metadata
+
+import java.net.InetSocketAddress
+import java.util.UUID
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.{ConcurrentLinkedQueue, CountDownLatch, TimeUnit, TimeoutException}
+import javax.servlet.http.{HttpServletRequest, HttpServletResponse}
+
+import scala.concurrent.Await
+import scala.concurrent.duration._
+
+import org.eclipse.jetty.server.handler.AbstractHandler
+import org.eclipse.jetty.server.{Request, Server, ServerConnector}
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.{BeforeAndAfter, FeatureSpec, Matchers}
+
+import Conv._
+
+@RunWith(classOf[JUnitRunner])
+class NovaMetadataClientTest extends FeatureSpec with Matchers
+                                     with BeforeAndAfter {
+
+    private val secret = "secret"
+    private val info = InstanceInfo("10.0.0.1", "fa:16:3e:a8:9f:15",
+                                    UUID.randomUUID(),
+                                    "4fc9464564fa4e43a13cc48acea23081",
+                                    "3a680f05-fa1c-48fc-a5bb-b5642a7df11c")
+
+    private class NovaHandler extends AbstractHandler {
+        val requests = new AtomicInteger
+        val headers = new ConcurrentLinkedQueue[Map[String, String]]
+        @volatile var latch: CountDownLatch = null
+        @volatile var status = HttpServletResponse.SC_OK
+        @volatile var contentType = "text/plain"
+        @volatile var body: String = null
+
+        override def handle(target: String, baseReq: Request,
+                            request: HttpServletRequest,
+                            response: HttpServletResponse): Unit = {
+            baseReq setHandled true
+            requests.incrementAndGet()
+            headers add Seq("X-Tenant-ID", "X-Instance-ID",
+                            "X-Instance-ID-Signature", "X-Forwarded-For")
+                .map(h => h -> request.getHeader(h)).toMap
+            if (latch ne null) latch.await(5, TimeUnit.SECONDS)
+            if (status == HttpServletResponse.SC_OK) {
+                response.setContentType(contentType)
+                response.getWriter print (
+                    if (body ne null) body else s"data:${request.getPathInfo}")
+            } else {
+                response.sendError(status)
+            }
+        }
+    }
+
+    private var server: Server = _
+    private var nova: NovaHandler = _
+    private var client: NovaMetadataClient = _
+
+    private def newClient(timeout: Duration = 5 seconds,
+                          cacheTtl: Duration = 1 minute) = {
+        val port = server.getConnectors()(0).asInstanceOf[ServerConnector]
+                         .getLocalPort
+        client = new NovaMetadataClient(s"http://127.0.0.1:$port", secret, 4,
+                                        timeout, cacheTtl, 16)
+        client
+    }
+
+    before {
+        nova = new NovaHandler
+        server = new Server(new InetSocketAddress("127.0.0.1", 0))
+        server.setHandler(nova)
+        server.start()
+    }
+
+    after {
+        if (client ne null) client.close()
+        server.stop()
+    }
+
+    private def get(path: String) =
+        Await.result(client.getMetadata(path, info), 5 seconds)
+
+    feature("Requests") {
+        scenario("The client forwards the instance to Nova") {
+            newClient()
+            val response = get("/latest/meta-data/hostname")
+            response.status shouldBe 200
+            response.body shouldBe "data:/latest/meta-data/hostname"
+            response.contentType should startWith ("text/plain")
+
+            val headers = nova.headers.peek()
+            headers("X-Tenant-ID") shouldBe info.tenantId
+            headers("X-Instance-ID") shouldBe info.instanceId
+            headers("X-Instance-ID-Signature") shouldBe
+                toHexstring(Hmac.hmac(secret, info.instanceId))
+            headers("X-Forwarded-For") shouldBe info.address
+        }
+
+        scenario("The client decodes the body with the charset of the response") {
+            newClient()
+            nova.contentType = "text/plain; charset=ISO-8859-1"
+            nova.body = "caf\u00e9"
+            get("/latest/meta-data/hostname").body shouldBe "caf\u00e9"
+        }
+
+        scenario("Connections are reused") {
+            newClient(cacheTtl = Duration.Zero)
+            for (i <- 0 until 20) {
+                get(s"/latest/meta-data/$i").status shouldBe 200
+            }
+            nova.requests.get shouldBe 20
+        }
+
+        scenario("Error responses are returned to the caller") {
+            newClient()
+            nova.status = HttpServletResponse.SC_NOT_FOUND
+            get("/latest/meta-data/unknown").status shouldBe 404
+            nova.status = HttpServletResponse.SC_OK
+            get("/latest/meta-data/unknown").status shouldBe 200
+            nova.requests.get shouldBe 2
+        }
+
+        scenario("Requests for unknown addresses fail") {
+            newClient()
+            an [UnknownRemoteAddressException] shouldBe thrownBy {
+                Await.result(client.getMetadata("/", "192.0.2.1"), 5 seconds)
+            }
+        }
+
+        scenario("Requests time out") {
+            newClient(timeout = 100 millis)
+            nova.latch = new CountDownLatch(1)
+            try {
+                a [TimeoutException] shouldBe thrownBy {
+                    get("/latest/meta-data/hostname")
+                }
+            } finally {
+                nova.latch.countDown()
+            }
+        }
+    }
+
+    feature("Coalescing and caching") {
+        scenario("Concurrent identical requests are sent once") {
+            newClient(cacheTtl = Duration.Zero)
+            nova.latch = new CountDownLatch(1)
+            val futures = for (_ <- 0 until 10)
+                yield client.getMetadata("/latest/meta-data/hostname", info)
+            nova.latch.countDown()
+            for (f <- futures) {
+                Await.result(f, 5 seconds).status shouldBe 200
+            }
+            nova.requests.get shouldBe 1
+        }
+
+        scenario("Successful responses are cached") {
+            newClient()
+            get("/latest/meta-data/hostname").status shouldBe 200
+            get("/latest/meta-data/hostname").status shouldBe 200
+            nova.requests.get shouldBe 1
+        }
+
+        scenario("Passwords are not cached") {
+            newClient()
+            get("/openstack/latest/password").status shouldBe 200
+            get("/openstack/latest/password").status shouldBe 200
+            nova.requests.get shouldBe 2
+        }
+
+        scenario("Error responses are not cached") {
+            newClient()
+            nova.status = HttpServletResponse.SC_INTERNAL_SERVER_ERROR
+            get("/latest/meta-data/hostname").status shouldBe 500
+            get("/latest/meta-data/hostname").status shouldBe 500
+            nova.requests.get shouldBe 2
+        }
+    }
+}
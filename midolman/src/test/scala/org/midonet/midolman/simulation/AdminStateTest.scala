@@ -33,7 +33,7 @@ import org.junit.runner.RunWith
 import org.scalatest.junit.JUnitRunner
 
 import org.midonet.midolman.PacketWorkflow.{GeneratedLogicalPacket, SimulationResult}
-import org.midonet.midolman.SimulationBackChannel.BackChannelMessage
+import org.midonet.midolman.SimulationBackChannel.{BackChannelMessage, InvalidationBatch}
 import org.midonet.midolman._
 import org.midonet.midolman.layer3.Route
 import org.midonet.midolman.topology._
@@ -566,8 +566,11 @@ class AdminStateTest extends MidolmanSpec {
     }
 
     private[this] def assertFlowTagsInvalidated(tags: FlowTagger.FlowTag*) {
-        val invalidations = getAndClearBC(backChannel)
-                .filter(_.isInstanceOf[FlowTagger.FlowTag])
+        val invalidations = getAndClearBC(backChannel) flatMap {
+            case tag: FlowTagger.FlowTag => Seq(tag)
+            case batch: InvalidationBatch => batch.tags.toSeq
+            case _ => Seq.empty
+        }
 
         for (tag <- tags) {
             invalidations should contain (tag)
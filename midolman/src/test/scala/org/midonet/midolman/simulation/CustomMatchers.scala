@@ -27,6 +27,7 @@ import org.scalactic.Prettifier
 import org.scalatest.matchers._
 
 import org.midonet.midolman.SimulationBackChannel
+import org.midonet.midolman.SimulationBackChannel.InvalidationBatch
 import org.midonet.midolman.PacketWorkflow.{Drop, SimulationResult, AddVirtualWildcardFlow}
 import org.midonet.midolman.PacketWorkflow._
 import org.midonet.midolman.flows.FlowTagIndexer
@@ -219,6 +220,8 @@ trait CustomMatchers {
                 backChannel.poll() match {
                     case tag: FlowTag =>
                         invalidatedTags += tag
+                    case batch: InvalidationBatch =>
+                        invalidatedTags ++= batch.tags
                     case _ =>
                 }
             }
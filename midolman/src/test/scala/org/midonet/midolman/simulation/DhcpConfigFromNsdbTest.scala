@@ -27,12 +27,15 @@ import org.midonet.cluster.data.dhcp.Subnet
 import org.midonet.cluster.data.storage.Storage
 import org.midonet.cluster.services.MidonetBackend
 import org.midonet.cluster.topology.TopologyBuilder
-import org.midonet.cluster.util.IPSubnetUtil._
+import org.midonet.cluster.util.IPAddressUtil._
+import org.midonet.cluster.util.UUIDUtil._
 import org.midonet.midolman.NotYetException
 import org.midonet.midolman.topology.VirtualTopology
+import org.midonet.midolman.topology.devices.DhcpSubnet
 import org.midonet.midolman.util.MidolmanSpec
-import org.midonet.packets.{IPv4Addr, IPv4Subnet, MAC}
+import org.midonet.packets.{IPv4Addr, MAC}
 import org.midonet.util.MidonetEventually
+import org.midonet.util.concurrent._
 
 @RunWith(classOf[JUnitRunner])
 class DhcpConfigFromNsdbTest extends MidolmanSpec
@@ -109,11 +112,10 @@ class DhcpConfigFromNsdbTest extends MidolmanSpec
             store.create(b)
 
             val dhcps = (1 to 3).toList map { i =>
-                val dhcp = createDhcp(bId)
-                dhcp.toBuilder.addAllHosts(List(
+                val dhcp = createDhcp(bId).toBuilder.addAllHosts(List(
                     createDhcpHost(s"h-$i", MAC.random(), IPv4Addr.random),
                     createDhcpHost(s"h-$i", MAC.random(), IPv4Addr.random)
-                ))
+                )).build()
                 store.create(dhcp)
                 dhcp
             }
@@ -125,26 +127,61 @@ class DhcpConfigFromNsdbTest extends MidolmanSpec
                 _b.subnetIds should have size dhcps.size
             }
 
-            When("The subnets are requested ")
+            Then("Requesting the subnets postpones until they are cached")
+            val e = intercept[NotYetException] {
+                cfg.bridgeDhcpSubnets(bId)
+            }
+            e.waitFor.await()
+
+            When("The subnets are requested")
             val subnets = cfg.bridgeDhcpSubnets(bId)
 
             Then("The list of subnets is as expected")
             subnets should have size dhcps.size
 
             dhcps zip subnets foreach {
-                case (d, s) => cfg.toSubnet(d) shouldEqual s
+                case (d, s) => DhcpSubnet.toSubnet(d) shouldEqual s
                 case _ => fail("Unexpected")
             }
 
             And("The hosts can be found")
-            dhcps foreach { dhcp => dhcp.getHostsList foreach { h =>
-                val addr = dhcp.getSubnetAddress.asJava.asInstanceOf[IPv4Subnet]
-                val _h = cfg.dhcpHost(bId, cfg.toSubnet(dhcp), h.getMac)
-                _h shouldBe h
-            }}
+            dhcps zip subnets foreach { case (dhcp, subnet) =>
+                dhcp.getHostsList foreach { h =>
+                    val _h = cfg.dhcpHost(bId, subnet, h.getMac)
+                    _h.get.getName shouldBe h.getName
+                    _h.get.getMAC shouldBe MAC.fromString(h.getMac)
+                    _h.get.getIp shouldBe h.getIpAddress.asIPv4Address
+                }
+            }
 
             And("Non existing hosts are not found")
             cfg.dhcpHost(bId, subnets.head, "aa:bb:cc:dd:ee:ff") shouldBe None
         }
+
+        scenario("The hosts are updated with the subnet") {
+            Given("A bridge with a DHCP subnet")
+            val bId = UUID.randomUUID()
+            store.create(createBridge(bId))
+            val dhcp = createDhcp(bId)
+            store.create(dhcp)
+
+            And("The VTA has the subnet in its cache")
+            eventually {
+                VirtualTopology.tryGet(classOf[Bridge], bId)
+                               .subnetIds should have size 1
+            }
+            VirtualTopology.get(classOf[DhcpSubnet], dhcp.getId.asJava).await()
+            val subnet = cfg.bridgeDhcpSubnets(bId).head
+
+            When("Adding a host to the subnet")
+            val mac = MAC.random()
+            store.update(dhcp.toBuilder.addHosts(
+                createDhcpHost("h", mac, IPv4Addr.random)).build())
+
+            Then("The host is found")
+            eventually {
+                cfg.dhcpHost(bId, subnet, mac.toString).get.getMAC shouldBe mac
+            }
+        }
     }
 }
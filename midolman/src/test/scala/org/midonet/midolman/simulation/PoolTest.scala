@@ -584,6 +584,29 @@ class PoolTest extends MidolmanSpec {
         }
     }
 
+    feature("Connections are consistently balanced") {
+        scenario("Connections keep their backend after losing the NAT state") {
+            Given("Multiple backends are enabled")
+            enableAllBackends
+
+            When("Packets are sent to the VIP from different source ports")
+            val destIps = (1 to timesRun) map { n =>
+                getDestIpsFromResult(sendPacket(fromClientToVipOffset(n.toShort)))
+            }
+
+            And("The NAT state is lost")
+            natTx = new FlowStateTransaction(
+                new ShardedFlowStateTable[NatKey, NatBinding]().addShard())
+
+            Then("The packets are sent to the same backends")
+            (1 to timesRun) foreach { n =>
+                getDestIpsFromResult(
+                    sendPacket(fromClientToVipOffset(n.toShort))) shouldBe
+                    destIps(n - 1)
+            }
+        }
+    }
+
     private def clientToVipPkt(srcTpPort: Short): Ethernet =
         { eth src macClientSide dst fetchDevice[RouterPort](exteriorClientPort).portMac } <<
                 { ip4 src ipClientSide.toUnicastString dst vipIp.toUnicastString } <<
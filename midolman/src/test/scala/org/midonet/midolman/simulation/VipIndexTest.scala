@@ -0,0 +1,120 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.midonet.midolman.simulation
+
+import java.util.UUID
+
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.{FeatureSpec, Matchers}
+
+import org.midonet.midolman.state.l4lb.VipSessionPersistence
+import org.midonet.odp.FlowMatch
+import org.midonet.odp.FlowMatch.Field
+import org.midonet.packets.{IPv4Addr, TCP, UDP}
+
+@RunWith(classOf[JUnitRunner])
+class VipIndexTest extends FeatureSpec with Matchers {
+
+    private val addr1 = IPv4Addr.fromString("10.0.0.1")
+    private val addr2 = IPv4Addr.fromString("10.0.0.2")
+
+    private def vip(address: IPv4Addr, port: Int,
+                    adminStateUp: Boolean = true): Vip =
+        new Vip(UUID.randomUUID(), adminStateUp, UUID.randomUUID(), address,
+                port, VipSessionPersistence.SOURCE_IP)
+
+    private def inbound(address: IPv4Addr, port: Int,
+                        proto: Byte = TCP.PROTOCOL_NUMBER): FlowMatch =
+        new FlowMatch()
+            .setNetworkDst(address)
+            .setDstPort(port)
+            .setNetworkProto(proto)
+
+    private def outbound(address: IPv4Addr, port: Int): FlowMatch =
+        new FlowMatch()
+            .setNetworkSrc(address)
+            .setSrcPort(port)
+            .setNetworkProto(TCP.PROTOCOL_NUMBER)
+
+    feature("VIP lookups") {
+        scenario("Finds the VIP by destination address and port") {
+            val vips = Array(vip(addr1, 80), vip(addr1, 443), vip(addr2, 80))
+            val index = VipIndex(vips)
+
+            index.findVip(inbound(addr1, 80)) shouldBe vips(0)
+            index.findVip(inbound(addr1, 443)) shouldBe vips(1)
+            index.findVip(inbound(addr2, 80)) shouldBe vips(2)
+            index.findVip(inbound(addr2, 443)) shouldBe null
+            index.findVip(inbound(IPv4Addr.fromString("10.0.0.3"), 80)) shouldBe null
+        }
+
+        scenario("Finds the VIP by source address and port") {
+            val vips = Array(vip(addr1, 80), vip(addr2, 80))
+            val index = VipIndex(vips)
+
+            index.findVipReturn(outbound(addr2, 80)) shouldBe vips(1)
+            index.findVipReturn(outbound(addr2, 81)) shouldBe null
+        }
+
+        scenario("Only matches TCP packets") {
+            val index = VipIndex(Array(vip(addr1, 80)))
+            index.findVip(inbound(addr1, 80, UDP.PROTOCOL_NUMBER)) shouldBe null
+        }
+
+        scenario("Ignores VIPs that are administratively down") {
+            val vips = Array(vip(addr1, 80, adminStateUp = false),
+                             vip(addr1, 80))
+            VipIndex(vips).findVip(inbound(addr1, 80)) shouldBe vips(1)
+            VipIndex(vips.take(1)).findVip(inbound(addr1, 80)) shouldBe null
+        }
+
+        scenario("Returns the first of the VIPs with the same address and port") {
+            val vips = Array(vip(addr1, 80), vip(addr1, 80))
+            VipIndex(vips).findVip(inbound(addr1, 80)) shouldBe vips(0)
+        }
+
+        scenario("Matches the same VIP as a linear scan") {
+            val vips = (0 until 100).map { i =>
+                vip(IPv4Addr(addr1.toInt + i % 10), 1000 + i % 7,
+                    adminStateUp = i % 5 != 0)
+            }.toArray
+            val index = VipIndex(vips)
+            for (i <- 0 until 12; port <- 999 to 1007) {
+                val fmatch = inbound(IPv4Addr(addr1.toInt + i), port)
+                val context = PacketContext.generated(1, null, fmatch)
+                index.findVip(context.wcmatch) shouldBe
+                    vips.find(_.matches(context)).orNull
+            }
+        }
+    }
+
+    feature("Wildcards") {
+        scenario("Only the address is seen when no VIP has the address") {
+            val fmatch = inbound(addr2, 80)
+            VipIndex(Array(vip(addr1, 80))).findVip(fmatch)
+            fmatch.isSeen(Field.NetworkDst) shouldBe true
+            fmatch.isSeen(Field.DstPort) shouldBe false
+            fmatch.isSeen(Field.NetworkProto) shouldBe false
+        }
+
+        scenario("No field is seen when there are no VIPs up") {
+            val fmatch = inbound(addr1, 80)
+            VipIndex(Array(vip(addr1, 80, adminStateUp = false))).findVip(fmatch)
+            fmatch.isSeen(Field.NetworkDst) shouldBe false
+        }
+    }
+}
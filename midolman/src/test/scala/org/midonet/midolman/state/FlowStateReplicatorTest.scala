@@ -632,17 +632,54 @@ class FlowStateReplicatorTest extends MidolmanSpec with TopologyBuilder {
             Then("Flows tagged with it should be invalidated")
             mockFlowInvalidation should haveInvalidated (connTrackKeys.head)
         }
+
+        scenario("Stores each key in the shard of one worker") {
+            Given("A flow state batch")
+            val flowState = HostRequestProxy.EmptyFlowStateBatch
+            for (i <- 0 until 64) {
+                flowState.strongConnTrack.add(ConnTrackKey(
+                    "10.0.0.1", 1024 + i, "10.0.0.2", 80, 6, conntrackDevice))
+            }
+            flowState.strongNat.putAll(natMappings)
+
+            And("The replicators of two workers")
+            val workers = for (id <- 0 until 2) yield
+                new TestableFlowStateReplicator(recipientUnderlay, id, 2)
+
+            When("Both workers import it")
+            mockFlowInvalidation.getAndClear()
+            workers foreach { _.importFromStorage(flowState) }
+
+            Then("Each key is stored by exactly one of them")
+            for (k <- flowState.strongConnTrack) {
+                workers.count(_.conntrackTable.get(k) ne null) shouldBe 1
+            }
+            for (k <- flowState.strongNat.keySet) {
+                workers.count(_.natTable.get(k) ne null) shouldBe 1
+            }
+            And("Both workers stored some of the keys")
+            workers foreach { _.conntrackTable.entries should not be empty }
+
+            And("Flows tagged with every key were invalidated by both")
+            val invalidated = mockFlowInvalidation.getAndClear()
+            for (k <- flowState.strongConnTrack) {
+                invalidated.count(_ == k) shouldBe 2
+            }
+        }
     }
 
     class TestableFlowStateReplicator(
-            val underlay: UnderlayResolver) extends {
+            val underlay: UnderlayResolver,
+            workerId: Int = 0,
+            numWorkers: Int = 1) extends {
         val conntrackTable = new MockFlowStateTable[ConnTrackKey, ConnTrackValue]()
         val natTable = new MockFlowStateTable[NatKey, NatBinding]()
         val traceTable = new MockFlowStateTable[TraceKey, TraceContext]()
         var localConfig = midolmanConfig
     } with FlowStateReplicator(conntrackTable, natTable, traceTable,
                                hostId, peerResolver, underlay,
-                               mockFlowInvalidation, midolmanConfig) {
+                               mockFlowInvalidation, midolmanConfig,
+                               workerId, numWorkers) {
 
         var numIncomingFlowStateMessagesReceived = 0
 
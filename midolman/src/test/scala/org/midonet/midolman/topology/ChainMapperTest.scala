@@ -46,13 +46,15 @@ import org.midonet.midolman.simulation.{Chain => SimChain}
 import org.midonet.midolman.topology.TopologyTest.DeviceObserver
 import org.midonet.midolman.util.MidolmanSpec
 import org.midonet.packets.IPAddr
+import org.midonet.util.MidonetEventually
 import org.midonet.util.concurrent.toFutureOps
 
 @RunWith(classOf[JUnitRunner])
 class ChainMapperTest extends TestKit(ActorSystem("ChainMapperTest"))
                       with MidolmanSpec
                       with TopologyBuilder
-                      with TopologyMatchers {
+                      with TopologyMatchers
+                      with MidonetEventually {
 
     import TopologyBuilder._
 
@@ -353,28 +355,31 @@ class ChainMapperTest extends TestKit(ActorSystem("ChainMapperTest"))
                          Map(ipAddrGroupSrc.getId.asJava -> ipAddrGroupSrc,
                              ipAddrGroupDst.getId.asJava -> ipAddrGroupDst))
 
-            When("We update IPAddrGroupSrc")
-            val updatedIPAddrGrpSrc = ipAddrGroupSrc.toBuilder
-                .setName("ipAddrGroupSrc2")
-                .build()
+            When("We add an address to IPAddrGroupSrc")
+            val updatedIPAddrGrpSrc = ipAddrGroupSrc.addIpAddrPort(
+                IPAddr.fromString("192.168.0.3"), Set(UUID.randomUUID))
             store.update(updatedIPAddrGrpSrc)
 
-            Then("We receive the chain with the updated IPAddrGroupSrc")
-            obs.awaitOnNext(2, timeout) shouldBe true
-            obs.getOnNextEvents should have size 2
-            var updatedSimChain = obs.getOnNextEvents.asScala.last
-            assertEquals(chain, updatedSimChain, List(rule), jumpChain = null,
+            Then("The IPAddrGroupSrc of the chain is updated in place")
+            eventually {
+                simChain.rules.get(0).getCondition.ipAddrGroupSrc
+                    .contains(IPAddr.fromString("192.168.0.3")) shouldBe true
+            }
+            assertEquals(chain, simChain, List(rule), jumpChain = null,
                          Map(ipAddrGroupSrc.getId.asJava -> updatedIPAddrGrpSrc,
                              ipAddrGroupDst.getId.asJava -> ipAddrGroupDst))
 
+            And("The chain is not rebuilt")
+            obs.getOnNextEvents should have size 1
+
             When("We remove the rule from the chain")
             val updatedChain = removeRuleFromChain(rule.getId,
                                                    getChain(chainId))
 
             Then("We receive the chain with no rules")
-            obs.awaitOnNext(3, timeout) shouldBe true
-            obs.getOnNextEvents should have size 3
-            updatedSimChain = obs.getOnNextEvents.asScala.last
+            obs.awaitOnNext(2, timeout) shouldBe true
+            obs.getOnNextEvents should have size 2
+            val updatedSimChain = obs.getOnNextEvents.asScala.last
             assertEquals(updatedChain, updatedSimChain, rules = List.empty,
                          jumpChain = null, ipAddrGroups = Map.empty)
 
@@ -387,8 +392,8 @@ class ChainMapperTest extends TestKit(ActorSystem("ChainMapperTest"))
                              .build())
 
             Then("We receive only one update")
-            obs.awaitOnNext(4, timeout) shouldBe true
-            obs.getOnNextEvents should have size 4
+            obs.awaitOnNext(3, timeout) shouldBe true
+            obs.getOnNextEvents should have size 3
 
             When("We update the rule and the main chain")
             store.update(rule.toBuilder
@@ -400,9 +405,9 @@ class ChainMapperTest extends TestKit(ActorSystem("ChainMapperTest"))
                              .build())
 
             Then("We receive only one update")
-            obs.awaitOnNext(5, timeout) shouldBe true
-            obs.getOnNextEvents should have size 5
-            obs.getOnNextEvents.get(4).rules shouldBe empty
+            obs.awaitOnNext(4, timeout) shouldBe true
+            obs.getOnNextEvents should have size 4
+            obs.getOnNextEvents.get(3).rules shouldBe empty
         }
 
         scenario("A chain with two rules pointing to the same IPAddrGroup") {
@@ -444,20 +449,24 @@ class ChainMapperTest extends TestKit(ActorSystem("ChainMapperTest"))
                 IPAddr.fromString("192.168.0.2"), Set(UUID.randomUUID))
             store.update(updatedIPAddrGrpSrc)
 
-            Then("We receive the chain with the updated IPAddrGroupSrc")
-            obs.awaitOnNext(3, timeout) shouldBe true
-            obs.getOnNextEvents should have size 3
-            updatedSimChain = obs.getOnNextEvents.asScala.last
+            Then("The IPAddrGroupSrc of the chain is updated in place")
+            eventually {
+                updatedSimChain.rules.get(0).getCondition.ipAddrGroupSrc
+                    .contains(IPAddr.fromString("192.168.0.2")) shouldBe true
+            }
             assertEquals(chain, updatedSimChain, List(rule2), jumpChain = null,
                          Map(ipAddrGroupSrcId -> updatedIPAddrGrpSrc))
 
+            And("The chain is not rebuilt")
+            obs.getOnNextEvents should have size 2
+
             When("We remove rule2 from the chain")
             deleteRule(rule2.getId)
             updatedChain = getChain(chainId)
 
             Then("We receive the updated chain")
-            obs.awaitOnNext(4, timeout) shouldBe true
-            obs.getOnNextEvents should have size 4
+            obs.awaitOnNext(3, timeout) shouldBe true
+            obs.getOnNextEvents should have size 3
             updatedSimChain = obs.getOnNextEvents.asScala.last
             assertEquals(updatedChain, updatedSimChain, rules = List.empty,
                          jumpChain = null, ipAddrGroups = Map.empty)
@@ -471,8 +480,8 @@ class ChainMapperTest extends TestKit(ActorSystem("ChainMapperTest"))
                              .build())
 
             Then("We receive only one update")
-            obs.awaitOnNext(5, timeout) shouldBe true
-            obs.getOnNextEvents should have size 5
+            obs.awaitOnNext(4, timeout) shouldBe true
+            obs.getOnNextEvents should have size 4
         }
 
         scenario("A chain with a rule that changes its IPAddrGroup reference") {
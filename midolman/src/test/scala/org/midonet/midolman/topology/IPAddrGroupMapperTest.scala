@@ -35,6 +35,7 @@ import org.midonet.midolman.simulation.{IPAddrGroup => SimAddrGroup}
 import org.midonet.midolman.topology.TopologyTest.DeviceObserver
 import org.midonet.midolman.util.MidolmanSpec
 import org.midonet.packets.IPAddr
+import org.midonet.sdn.flows.FlowTagger.tagForIPAddrGroupAddress
 
 @RunWith(classOf[JUnitRunner])
 class IPAddrGroupMapperTest extends MidolmanSpec with TopologyBuilder
@@ -139,6 +140,58 @@ class IPAddrGroupMapperTest extends MidolmanSpec with TopologyBuilder
         }
     }
 
+    feature("The ipAddrGroup mapper updates IpAddrGroup objects in place") {
+        scenario("The mapper invalidates only the changed addresses") {
+            Given("An ipAddrGroup with an address")
+            val ipAddrGroup = addIpToIPAddrGroup(buildAndStoreIpAddrGroup(),
+                                                 "192.168.0.1",
+                                                 Set(UUID.randomUUID()))
+            val id = ipAddrGroup.getId.asJava
+
+            And("An ipAddrGroup mapper")
+            val mapper = new IPAddrGroupMapper(id, vt)
+
+            And("An observer to the ipAddrGroup mapper")
+            val obs = new DeviceObserver[SimAddrGroup](vt)
+
+            When("The observer subscribes to an observable on the mapper")
+            Observable.create(mapper).subscribe(obs)
+
+            Then("The observer should see the ipAddrGroup")
+            obs.awaitOnNext(1, timeout) shouldBe true
+            val simIpAddrGroup = obs.getOnNextEvents.get(0)
+
+            When("We add an address to the IpAddrGroup")
+            val updatedProto = addIpToIPAddrGroup(ipAddrGroup, "192.168.0.2",
+                                                  Set(UUID.randomUUID()))
+
+            Then("The observer receives the same IPAddrGroup")
+            obs.awaitOnNext(2, timeout) shouldBe true
+            (obs.getOnNextEvents.get(1) eq simIpAddrGroup) shouldBe true
+            simIpAddrGroup shouldBeDeviceOf updatedProto
+
+            And("The flows of the added address are invalidated")
+            simBackChannel should invalidate (tagForIPAddrGroupAddress(
+                id, IPAddr.fromString("192.168.0.2")))
+
+            And("The flows of the other address are not invalidated")
+            simBackChannel should not (invalidate (tagForIPAddrGroupAddress(
+                id, IPAddr.fromString("192.168.0.1"))))
+
+            When("We remove all addresses from the IpAddrGroup")
+            removeAllIps(updatedProto)
+
+            Then("The observer receives the same IPAddrGroup")
+            obs.awaitOnNext(3, timeout) shouldBe true
+            (obs.getOnNextEvents.get(2) eq simIpAddrGroup) shouldBe true
+            simIpAddrGroup.addrs shouldBe empty
+
+            And("The flows of the removed address are invalidated")
+            simBackChannel should invalidate (tagForIPAddrGroupAddress(
+                id, IPAddr.fromString("192.168.0.1")))
+        }
+    }
+
     private def removeAllIps(ipAddrGroup: TopologyIPAddrGroup)
     : TopologyIPAddrGroup = {
 
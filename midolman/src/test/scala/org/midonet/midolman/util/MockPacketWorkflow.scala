@@ -72,7 +72,7 @@ class MockPacketWorkflow(config: MidolmanConfig,
                                traceStateTable, peerResolver,
                                HappyGoLuckyLeaser, metrics,
                                flowRecorder, vt,
-                               _ => { }) {
+                               _ => { }, _ => { }) {
     override def runWorkflow(pktCtx: PacketContext) = {
         packetCtxTrap.offer(pktCtx)
         super.runWorkflow(pktCtx)
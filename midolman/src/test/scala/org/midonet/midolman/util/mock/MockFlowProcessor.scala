@@ -48,12 +48,16 @@ class MockFlowProcessor(val flowsTable: JMap[FlowMatch, Flow] = null)
                               new DatapathMetrics(new MetricRegistry()),
                               new MockClock) {
     var flowDelCb: Flow => Unit = _
+    var rejectEjects = false
 
     private val log = Logger(LoggerFactory.getLogger(
         "org.midonet.datapath.mock-flow-processor"))
 
     override def tryEject(sequence: Long, datapathId: Int, flowMatch: FlowMatch,
                           obs: Observer[ByteBuffer]): Boolean = {
+        if (rejectEjects) {
+            return false
+        }
         if (flowDelCb ne null) {
             flowDelCb(new Flow(flowMatch))
         }
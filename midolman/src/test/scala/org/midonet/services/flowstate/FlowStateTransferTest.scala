@@ -22,6 +22,7 @@ import java.util.UUID
 import java.util.concurrent.TimeUnit
 
 import scala.collection.JavaConverters._
+import scala.collection.mutable.ArrayBuffer
 
 import org.junit.runner.RunWith
 import org.mockito.Mockito.{atLeastOnce, mock, times, verify}
@@ -147,6 +148,26 @@ class FlowStateTransferTest extends FlowStateBaseTest with TopologyBuilder {
             sn should not be empty
         }
 
+        scenario("A chunked flow state request between minion and agent") {
+            Given("A previous port id of the server agent")
+            val portId = handler.validPortId
+            And("The flow state for the port")
+            val whole = internalClient.internalFlowStateFrom(portId)
+
+            When("The flow state is requested in chunks of one entry")
+            val chunks = new ArrayBuffer[FlowStateBatch]
+            val remainder =
+                internalClient.internalFlowStateFrom(portId, 1, chunks += _)
+
+            Then("Every piece of flow state was handed over in a chunk")
+            chunks foreach { _.size() shouldBe 1 }
+            remainder.size() shouldBe 0
+            chunks.flatMap(_.strongConnTrack.asScala).toSet shouldBe
+                whole.strongConnTrack.asScala
+            chunks.flatMap(_.strongNat.asScala).toMap shouldBe
+                whole.strongNat.asScala
+        }
+
         scenario("A remote flow state request between minion and agent") {
             Given("A flow state read message handler")
             val localPorts = Seq.empty
@@ -25,6 +25,7 @@ import org.midonet.cluster.services.recycler.Recycler
 import org.midonet.cluster.services.c3po.C3POMinion
 import org.midonet.cluster.services.containers.ContainerService
 import org.midonet.cluster.services.heartbeat.Heartbeat
+import org.midonet.cluster.services.layout.LayoutMigrator
 import org.midonet.cluster.services.rest_api.RestApi
 import org.midonet.cluster.services.state.StateProxy
 import org.midonet.cluster.services.topology.TopologyApiService
@@ -73,6 +74,7 @@ class ClusterConfig(_conf: Config) {
     val stateProxy = new StateProxyConfig(conf)
     val executors = new ExecutorsConfig(conf, prefix)
     val recycler = new RecyclerConfig(conf)
+    val layoutMigrator = new LayoutMigratorConfig(conf)
 }
 
 class AuthConfig(val conf: Config) {
@@ -126,6 +128,17 @@ class HeartbeatConfig(val conf: Config) extends ScheduledMinionConfig[Heartbeat]
     override def periodMs = conf.getDuration(s"$prefix.period", TimeUnit.MILLISECONDS)
 }
 
+class LayoutMigratorConfig(val conf: Config)
+    extends ScheduledMinionConfig[LayoutMigrator] {
+    final val prefix = "cluster.layout_migrator"
+
+    override def isEnabled = conf.getBoolean(s"$prefix.enabled")
+    override def numThreads = conf.getInt(s"$prefix.threads")
+    override def delayMs = conf.getDuration(s"$prefix.delay", TimeUnit.MILLISECONDS)
+    override def periodMs = conf.getDuration(s"$prefix.period", TimeUnit.MILLISECONDS)
+    def cleanupDelay = conf.getDuration(s"$prefix.cleanup_delay", TimeUnit.MILLISECONDS) millis
+}
+
 class VxGwConfig(val conf: Config) extends MinionConfig[VxlanGatewayService] {
     final val prefix = "cluster.vxgw"
 
@@ -214,5 +227,9 @@ class RecyclerConfig(val conf: Config) extends MinionConfig[Recycler] {
     override def isEnabled = conf.getBoolean(s"$prefix.enabled")
     def interval = conf.getDuration(s"$prefix.interval", TimeUnit.MINUTES) minutes
     def throttlingRate = conf.getInt(s"$prefix.throttling_rate")
+    def deleteBatchSize =
+        if (conf.hasPath(s"$prefix.delete_batch_size"))
+            Math.max(conf.getInt(s"$prefix.delete_batch_size"), 1)
+        else 100
     def shutdownTimeout = conf.getDuration(s"$prefix.shutdown_interval", TimeUnit.MILLISECONDS) millis
 }
\ No newline at end of file
@@ -48,7 +48,7 @@ object KeystoneClient {
       * This ensures that clock difference between the client and the Keystone
       * server does not cause the client to use an expired token.
       */
-    private val TokenExpirationGuard = 1 minute
+    private[keystone] val TokenExpirationGuard = 1 minute
 
     /**
       * Contains information about an administrative token.
@@ -16,6 +16,10 @@
 
 package org.midonet.cluster.auth.keystone
 
+import java.util.concurrent.TimeUnit
+
+import scala.concurrent.duration._
+
 import com.typesafe.config.Config
 
 import org.midonet.cluster.AuthConfig
@@ -33,5 +37,8 @@ class KeystoneConfig(conf: Config) extends AuthConfig(conf) {
     def host = conf.getString(s"$prefix.keystone.host")
     def port = conf.getInt(s"$prefix.keystone.port")
     def urlOverride = conf.getString(s"$prefix.keystone.url")
+    def tokenCacheSize = conf.getInt(s"$prefix.keystone.token_cache_size")
+    def tokenCacheTtl =
+        conf.getDuration(s"$prefix.keystone.token_cache_ttl", TimeUnit.MILLISECONDS) millis
 
 }
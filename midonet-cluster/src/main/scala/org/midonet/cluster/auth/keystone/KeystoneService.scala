@@ -37,6 +37,9 @@ class KeystoneService @Inject()(config: Config) extends AuthService {
     private val log = Logger(LoggerFactory.getLogger(KeystoneLog))
     private val keystoneConfig = new KeystoneConfig(config)
     private val keystoneClient = new KeystoneClient(keystoneConfig)
+    private val tokenCache =
+        new KeystoneTokenCache(keystoneConfig.tokenCacheSize,
+                               keystoneConfig.tokenCacheTtl)
 
     /**
       * Authenticates the user with the specified credentials. If the tenant
@@ -60,20 +63,25 @@ class KeystoneService @Inject()(config: Config) extends AuthService {
 
     /**
       * Authorizes the specified token, and returns the corresponding user
-      * identity if the token is valid.
+      * identity if the token is valid. The identities of valid tokens are
+      * cached until the tokens expire, up to the configured time to live.
       */
     @throws[AuthException]
     def authorize(token: String): UserIdentity = {
-        log info s"Authorizing token $token"
+        log debug s"Authorizing token $token"
 
         if (StringUtils.isBlank(token))
             throw new InvalidCredentialsException("No token was passed in.")
 
-        val identity = identityOf(keystoneClient.validate(token))
-
-        log info s"Token $token authorized as $identity"
-
-        identity
+        tokenCache.get(token, tenantScope = None) {
+            log info s"Validating token $token"
+            val response = invalidateOnUnauthorized(token) {
+                keystoneClient.validate(token)
+            }
+            val identity = identityOf(response)
+            log info s"Token $token authorized as $identity"
+            (identity, expiresAtOf(response))
+        }
     }
 
     /**
@@ -81,14 +89,15 @@ class KeystoneService @Inject()(config: Config) extends AuthService {
       */
     @throws[AuthException]
     def tenant(token: String, id: String): Tenant = {
-        keystoneConfig.version match {
-            case 2 => tenantOf(keystoneClient.getTenantById(id, token).tenant)
-            case 3 => tenantOf(keystoneClient.getProjectById(id, token).project)
-            case version => throw new KeystoneException(
-                null, s"Operation not supported with Keystone version $version",
-                null)
+        invalidateOnUnauthorized(token) {
+            keystoneConfig.version match {
+                case 2 => tenantOf(keystoneClient.getTenantById(id, token).tenant)
+                case 3 => tenantOf(keystoneClient.getProjectById(id, token).project)
+                case version => throw new KeystoneException(
+                    null, s"Operation not supported with Keystone version $version",
+                    null)
+            }
         }
-
     }
 
     /**
@@ -99,16 +108,32 @@ class KeystoneService @Inject()(config: Config) extends AuthService {
     @throws[AuthException]
     def tenants(token: String, marker: Option[String], limit: Option[Int])
     : Seq[Tenant] = {
-        keystoneConfig.version match {
-            case 2 =>
-                keystoneClient.listTenants(token, marker, limit).tenants.asScala
-                              .map(tenantOf)
-            case 3 =>
-                keystoneClient.listProjects(token).projects.asScala
-                              .map(tenantOf)
-            case version => throw new KeystoneException(
-                null, s"Operation not supported with Keystone version $version",
-                null)
+        invalidateOnUnauthorized(token) {
+            keystoneConfig.version match {
+                case 2 =>
+                    keystoneClient.listTenants(token, marker, limit).tenants.asScala
+                                  .map(tenantOf)
+                case 3 =>
+                    keystoneClient.listProjects(token).projects.asScala
+                                  .map(tenantOf)
+                case version => throw new KeystoneException(
+                    null, s"Operation not supported with Keystone version $version",
+                    null)
+            }
+        }
+    }
+
+    /**
+      * Calls a Keystone request made on behalf of the given token, removing
+      * the token from the cache if Keystone rejects the request as
+      * unauthorized.
+      */
+    private def invalidateOnUnauthorized[R](token: String)(f: => R): R = {
+        try f
+        catch {
+            case e: KeystoneUnauthorizedException =>
+                tokenCache.invalidate(token)
+                throw e
         }
     }
 
@@ -121,6 +146,16 @@ class KeystoneService @Inject()(config: Config) extends AuthService {
                            response.token.expiresAt)))
     }
 
+    /**
+      * Returns the expiration time of the token in the given [[AuthResponse]]
+      * object, or the current time if the response has no token.
+      */
+    private def expiresAtOf(response: AuthResponse): Long = {
+        val token = response.token
+        if (token eq null) System.currentTimeMillis()
+        else KeystoneClient.parseExpiresAt(token.expiresAt)
+    }
+
     /**
       * Returns the user identity for the given [[AuthResponse]] object.
       */
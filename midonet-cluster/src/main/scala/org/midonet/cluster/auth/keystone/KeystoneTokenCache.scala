@@ -0,0 +1,107 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.cluster.auth.keystone
+
+import java.util.concurrent.{Callable, ExecutionException, TimeUnit}
+
+import scala.collection.JavaConverters._
+import scala.concurrent.duration.Duration
+
+import com.google.common.cache.{Cache, CacheBuilder}
+import com.google.common.util.concurrent.{ExecutionError, UncheckedExecutionException}
+
+import org.midonet.cluster.auth.{AuthException, UserIdentity}
+
+object KeystoneTokenCache {
+
+    private case class Key(token: String, tenantScope: Option[String])
+
+    private case class Entry(identity: UserIdentity, expiresAt: Long)
+
+}
+
+/**
+  * A bounded cache of the user identities of validated Keystone tokens, keyed
+  * by token and tenant scope. An identity is returned from the cache until
+  * the token expires, as indicated by its `expiresAt` timestamp minus the
+  * [[KeystoneClient.TokenExpirationGuard]], and for at most `ttl` after
+  * validation, which bounds the time a revoked token is still accepted.
+  *
+  * Concurrent requests for the same token and scope wait for a single
+  * validation. Failed validations are not cached.
+  */
+class KeystoneTokenCache(maxSize: Long, ttl: Duration) {
+
+    import KeystoneTokenCache._
+
+    private val cache: Cache[Key, Entry] = CacheBuilder.newBuilder()
+        .maximumSize(maxSize)
+        .expireAfterWrite(ttl.toMillis, TimeUnit.MILLISECONDS)
+        .build[Key, Entry]()
+
+    /**
+      * Returns the identity for the given token and tenant scope, calling
+      * the `validate` function when it is not cached. The function returns
+      * the identity and the expiration time of the token, in milliseconds.
+      */
+    @throws[AuthException]
+    def get(token: String, tenantScope: Option[String])
+           (validate: => (UserIdentity, Long)): UserIdentity = {
+        val key = Key(token, tenantScope)
+        var validated = false
+        val entry = load(key, { validated = true; validate })
+        if (validated || isValid(entry)) {
+            entry.identity
+        } else {
+            // The cached token has expired or is about to: validate again.
+            cache.asMap().remove(key, entry)
+            load(key, validate).identity
+        }
+    }
+
+    /**
+      * Removes the identities of the given token, for instance when Keystone
+      * does not accept it any longer.
+      */
+    def invalidate(token: String): Unit = {
+        cache.invalidateAll(
+            cache.asMap().keySet().asScala.filter(_.token == token).asJava)
+    }
+
+    def size: Long = cache.size()
+
+    private def isValid(entry: Entry): Boolean = {
+        System.currentTimeMillis() + KeystoneClient.TokenExpirationGuard.toMillis <
+            entry.expiresAt
+    }
+
+    private def load(key: Key, validate: => (UserIdentity, Long)): Entry = {
+        try {
+            cache.get(key, new Callable[Entry] {
+                override def call(): Entry = {
+                    val (identity, expiresAt) = validate
+                    Entry(identity, expiresAt)
+                }
+            })
+        } catch {
+            case e: ExecutionException => throw e.getCause
+            case e: UncheckedExecutionException => throw e.getCause
+            case e: ExecutionError => throw e.getCause
+        }
+    }
+
+}
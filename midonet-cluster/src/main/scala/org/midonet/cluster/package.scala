@@ -38,6 +38,9 @@ package object cluster {
     final val HeartbeatLog =
         "org.midonet.cluster.services.heartbeat"
 
+    final val LayoutMigratorLog =
+        "org.midonet.cluster.services.layout"
+
     final val RecyclerLog =
         "org.midonet.cluster.services.recycler"
 
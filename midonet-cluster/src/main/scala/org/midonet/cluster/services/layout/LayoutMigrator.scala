@@ -0,0 +1,70 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.cluster.services.layout
+
+import scala.util.control.NonFatal
+
+import com.google.inject.Inject
+
+import org.slf4j.LoggerFactory
+
+import org.midonet.cluster.data.storage.ZookeeperObjectMapper
+import org.midonet.cluster.services.MidonetBackend
+import org.midonet.cluster.{ClusterConfig, LayoutMigratorLog}
+import org.midonet.minion.MinionService.TargetNode
+import org.midonet.minion.{Context, MinionService, ScheduledMinion}
+import org.midonet.util.functors.makeRunnable
+
+/**
+  * Periodically migrates the objects of the NSDB classes whose layout differs
+  * from the `zookeeper.bucketed_classes` configuration, and deletes the nodes
+  * of the previous layouts once every MidoNet node had the time to switch to
+  * the new layout. The storage of the agents and of the other services never
+  * migrates objects, and keeps using the stored layout until this service
+  * changes it.
+  */
+@MinionService(name = "layout-migrator", runsOn = TargetNode.CLUSTER)
+class LayoutMigrator @Inject()(nodeContext: Context, backend: MidonetBackend,
+                               config: ClusterConfig)
+    extends ScheduledMinion(nodeContext, config.layoutMigrator) {
+
+    protected override val log = LoggerFactory.getLogger(LayoutMigratorLog)
+
+    protected override val runnable = makeRunnable(migrate())
+
+    override def isEnabled = config.layoutMigrator.isEnabled
+
+    private def migrate(): Unit = backend.store match {
+        case store: ZookeeperObjectMapper =>
+            try {
+                for (clazz <- store.migrateClassLayouts()) {
+                    log.info(s"Migrated the layout of ${clazz.getSimpleName}")
+                }
+                for (clazz <- store.cleanupClassLayouts(
+                                  config.layoutMigrator.cleanupDelay)) {
+                    log.info("Deleted the previous layouts of " +
+                             clazz.getSimpleName)
+                }
+            } catch {
+                case NonFatal(e) =>
+                    log.warn("Failed to migrate the layout of the NSDB " +
+                             "classes", e)
+            }
+        case _ =>
+            log.warn("The layout migrator requires ZOOM backend storage")
+    }
+}
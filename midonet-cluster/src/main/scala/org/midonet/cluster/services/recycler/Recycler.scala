@@ -23,6 +23,7 @@ import scala.concurrent.duration._
 import scala.util.control.NonFatal
 import scala.util.{Failure, Success, Try}
 
+import com.codahale.metrics.MetricRegistry
 import com.google.common.annotations.VisibleForTesting
 import com.google.inject.Inject
 import com.google.inject.name.Named
@@ -55,12 +56,17 @@ object Recycler {
   * created in ZooKeeper to host a subtree of ephemeral nodes for state (the
   * parent cannot be ephemeral as well as ZK wouldn't allow children on it).
   *
-  * This Minion is responsible for doing the necessary cleanup.
+  * This Minion is responsible for doing the necessary cleanup. A recycling
+  * task is executed in steps, each recycling a single class of objects, and
+  * every step is submitted to the executor after the previous one completes,
+  * such that a recycling task does not hold an executor thread for its whole
+  * duration.
   */
 @MinionService(name = "recycler", runsOn = TargetNode.CLUSTER)
 class Recycler @Inject()(context: Context, backend: MidonetBackend,
                          @Named("cluster-pool") executor: ScheduledExecutorService,
-                         config: ClusterConfig)
+                         config: ClusterConfig,
+                         metrics: MetricRegistry)
     extends Minion(context) {
 
     private val log = Logger(LoggerFactory.getLogger(RecyclerLog))
@@ -74,6 +80,8 @@ class Recycler @Inject()(context: Context, backend: MidonetBackend,
     @VisibleForTesting
     protected val clock = UnixClock()
 
+    private val recyclerMetrics = new RecyclerMetrics(metrics)
+
     private val currentContext = new AtomicReference[RecyclingContext]()
 
     private val recycleTask = makeRunnable { recycle() }
@@ -155,11 +163,9 @@ class Recycler @Inject()(context: Context, backend: MidonetBackend,
       * tasks will consist of the the following steps, which are executed
       * asynchronously:
       * 1. Collects the current hosts to determine the state namespaces that are
-      *    in use.
-      * 2. Collects the current namespaces that were created before the start of
-      *    the recycling operation.
-      * 3. Deletes the orphan namespaces.
-      * 4. Deletes the orphan state for deleted objects.
+      *    in use, and deletes the orphan namespaces.
+      * 2. For every class, deletes the orphan state, tables and legacy tables
+      *    of deleted objects.
       */
     private def recycle(): Unit = {
         // Create a new private recycling context for this recycling task. Each
@@ -168,7 +174,8 @@ class Recycler @Inject()(context: Context, backend: MidonetBackend,
         // next one.
         val context = new RecyclingContext(config.recycler, curator, store,
                                            executor, clock, log,
-                                           recyclingInterval)
+                                           recyclingInterval, runInterval,
+                                           recyclerMetrics)
 
         // Verify if a recycling operation is already running, in which case
         // skip the current recycling and reschedule the next.
@@ -179,11 +186,26 @@ class Recycler @Inject()(context: Context, backend: MidonetBackend,
 
         log info "Collecting NSDB recycling information"
 
+        step(context)
+    }
+
+    /**
+      * Executes the next step of a recycling task, and submits the following
+      * step to the executor. When the task completes, it reports the result
+      * and schedules the next task.
+      */
+    private def step(context: RecyclingContext): Unit = {
+        var completed = true
         try {
-            context.recycle()
+            if (context.step()) {
+                executor execute makeRunnable { step(context) }
+                completed = false
+                return
+            }
 
             log info "NSDB recycling report [version: " +
-                     s"${context.nsdbVersion}] [namespaces: " +
+                     s"${context.nsdbVersion}] [resumed: " +
+                     s"${context.isResumed}] [namespaces: " +
                      s"${context.totalNamespaces} total " +
                      s"${context.deletedNamespaces} deleted " +
                      s"${context.skippedNamespaces} skipped] " +
@@ -195,7 +217,8 @@ class Recycler @Inject()(context: Context, backend: MidonetBackend,
                      s"${context.skippedTables} skipped] " +
                      s"[legacy: ${context.totalLegacy} total " +
                      s"${context.deletedLegacy} deleted " +
-                     s"${context.skippedLegacy} skipped]"
+                     s"${context.skippedLegacy} skipped] " +
+                     s"[duration: ${context.duration} ms]"
 
             tasksSubject onNext Success(context)
 
@@ -210,9 +233,12 @@ class Recycler @Inject()(context: Context, backend: MidonetBackend,
                 log.error("Unhandled exception during NSDB recycling", e)
                 tasksSubject onNext Failure(e)
         } finally {
-            currentContext.lazySet(null)
-            schedule(runInterval)
+            if (completed) {
+                context.complete()
+                currentContext.lazySet(null)
+                schedule(runInterval)
+            }
         }
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.cluster.services.recycler
+
+import java.util.concurrent.TimeUnit
+
+import com.codahale.metrics.MetricRegistry.name
+import com.codahale.metrics.{Gauge, MetricRegistry}
+
+/**
+  * The metrics of the NSDB recycler: the progress of the current recycling
+  * run as the fraction of recycled classes, the throughput of NSDB operations
+  * and of deleted nodes, and the time spent waiting for the throttling rate.
+  */
+class RecyclerMetrics(registry: MetricRegistry) {
+
+    @volatile private var recycledClasses = 0
+    @volatile private var totalClasses = 0
+
+    private val operationsMeter =
+        registry.meter(name(classOf[Recycler], "operations"))
+    private val deletionsMeter =
+        registry.meter(name(classOf[Recycler], "deletions"))
+    private val throttledTimer =
+        registry.timer(name(classOf[Recycler], "throttled"))
+
+    registry.register(name(classOf[Recycler], "progress"), new Gauge[Double] {
+        override def getValue: Double = {
+            val total = totalClasses
+            if (total == 0) 0d else recycledClasses.toDouble / total
+        }
+    })
+
+    /**
+      * Updates the progress of the current recycling run.
+      */
+    def progress(recycled: Int, total: Int): Unit = {
+        totalClasses = total
+        recycledClasses = recycled
+    }
+
+    /**
+      * Records a number of NSDB operations, and the time in seconds they
+      * waited for the throttling rate.
+      */
+    def operations(count: Int, waitSeconds: Double): Unit = {
+        operationsMeter.mark(count)
+        if (waitSeconds > 0d) {
+            throttledTimer.update((waitSeconds * 1000000000d).toLong,
+                                  TimeUnit.NANOSECONDS)
+        }
+    }
+
+    /**
+      * Records a number of deleted NSDB nodes.
+      */
+    def deleted(count: Int): Unit = {
+        deletionsMeter.mark(count)
+    }
+
+}
@@ -16,10 +16,12 @@
 
 package org.midonet.cluster.services.recycler
 
+import java.nio.charset.StandardCharsets
 import java.util
 import java.util.concurrent.{CountDownLatch, ScheduledExecutorService, TimeUnit}
 
 import scala.collection.JavaConverters._
+import scala.collection.mutable.ArrayBuffer
 import scala.concurrent.duration._
 import scala.util.control.NonFatal
 
@@ -27,10 +29,11 @@ import com.google.common.util.concurrent.RateLimiter
 import com.typesafe.scalalogging.Logger
 
 import org.apache.curator.framework.CuratorFramework
-import org.apache.curator.utils.{PathUtils, ZKPaths}
-import org.apache.zookeeper.KeeperException.NoNodeException
-import org.apache.zookeeper.ZooKeeper
+import org.apache.curator.utils.ZKPaths
+import org.apache.zookeeper.AsyncCallback.{ChildrenCallback, StatCallback}
+import org.apache.zookeeper.KeeperException.Code
 import org.apache.zookeeper.data.Stat
+import org.apache.zookeeper.{KeeperException, Op, ZooKeeper}
 
 import org.midonet.cluster.RecyclerConfig
 import org.midonet.cluster.data.storage.ZookeeperObjectMapper
@@ -41,9 +44,64 @@ import org.midonet.util.UnixClock
 object RecyclingContext {
 
     private val ClusterNamespaceId = Seq(MidonetBackend.ClusterNamespaceId.toString)
-    private val StepCount = 12
-    private val LegacyClasses = Map(classOf[Network] -> "/bridges",
-                                    classOf[Router] -> "/routers")
+    private val LegacyClasses = Map[Class[_], String](
+        classOf[Network] -> "/bridges",
+        classOf[Router] -> "/routers")
+    private val AwaitInterval = 100 millis
+    private val CursorSeparator = ':'
+
+    /**
+      * Encodes the recycling cursor stored as data of the NSDB base path:
+      * the timestamp of the recycling run and the name of the next class to
+      * recycle.
+      */
+    private def encodeCursor(timestamp: Long, className: String): Array[Byte] = {
+        s"$timestamp$CursorSeparator$className".getBytes(StandardCharsets.UTF_8)
+    }
+
+    /**
+      * Decodes the recycling cursor, if the data of the NSDB base path
+      * contains one. A completed recycling run does not leave a cursor.
+      */
+    private def decodeCursor(data: Array[Byte]): Option[(Long, String)] = {
+        if (data eq null) return None
+        val cursor = new String(data, StandardCharsets.UTF_8)
+        val index = cursor.indexOf(CursorSeparator)
+        if (index <= 0) return None
+        try Some((cursor.substring(0, index).toLong,
+                  cursor.substring(index + 1)))
+        catch { case e: NumberFormatException => None }
+    }
+
+    /**
+      * The results of pipelined asynchronous reads.
+      */
+    private class PipelinedReads[T](paths: Seq[String]) {
+        val codes = new Array[Int](paths.size)
+        val results = new Array[Any](paths.size)
+        val latch = new CountDownLatch(paths.size)
+
+        def complete(index: Int, code: Int, result: T): Unit = {
+            codes(index) = code
+            results(index) = result
+            latch.countDown()
+        }
+
+        /**
+          * Returns the read results, where a missing node is [[None]].
+          */
+        @throws[RecyclingException]
+        def get: Seq[Option[T]] = {
+            for (index <- paths.indices) yield {
+                Code.get(codes(index)) match {
+                    case Code.OK => Some(results(index).asInstanceOf[T])
+                    case Code.NONODE => None
+                    case code => throw new RecyclingStorageException(
+                        KeeperException.create(code, paths(index)))
+                }
+            }
+        }
+    }
 
 }
 
@@ -52,6 +110,18 @@ object RecyclingContext {
   * class contains the state variable for a recycling operation, including
   * the start and finish timestamps, and the NSDB entries that have been
   * recycled (namespaces, objects, state paths).
+  *
+  * The recycling is incremental: every call of `step()` recycles either the
+  * namespaces or the state, tables and legacy tables of the objects of a
+  * single class, such that the caller may yield the thread between steps.
+  * All reads and writes are throttled to the configured rate, the reads of
+  * the nodes examined in a step are pipelined, and the orphan nodes are
+  * deleted with batched multi-operations.
+  *
+  * After each class, the timestamp of the recycling operation and the next
+  * class are stored as a cursor in the data of the NSDB base path. If the
+  * operation is interrupted, the next operation that finds a cursor not
+  * updated for at least `runInterval` resumes from that class.
   */
 class RecyclingContext(val config: RecyclerConfig,
                        val curator: CuratorFramework,
@@ -59,25 +129,27 @@ class RecyclingContext(val config: RecyclerConfig,
                        val executor: ScheduledExecutorService,
                        val clock: UnixClock,
                        val log: Logger,
-                       val interval: Duration) {
+                       val interval: Duration,
+                       val runInterval: Duration,
+                       val metrics: RecyclerMetrics) {
+
+    import RecyclingContext._
 
     private val start = clock.time
     private var version = 0
     private var timestamp = 0L
+    private var baseVersion = 0
     @volatile private var canceled = false
     private val state = new CountDownLatch(1)
 
     private var hosts: Set[String] = null
-    private var namespaces: Set[String] = null
+    private var classes: IndexedSeq[Class[_]] = null
+    private var classIndex = 0
+    private var resumed = false
 
-    private val modelObjects = new util.HashMap[Class[_], Set[String]]()
-    private val stateObjects = new util.HashMap[(String, Class[_]), Set[String]]()
-    private val tableObjects = new util.HashMap[Class[_], Set[String]]()
-    private val legacyObjects = new util.HashMap[Class[_], Set[String]]()
-
-    private val limiter = RateLimiter.create(config.throttlingRate)
-
-    private var stepIndex = 0
+    private val limiter =
+        if (config.throttlingRate > 0) RateLimiter.create(config.throttlingRate)
+        else null
 
     var totalNamespaces = 0
     var deletedNamespaces = 0
@@ -109,6 +181,14 @@ class RecyclingContext(val config: RecyclerConfig,
         state.await(duration.toMillis, TimeUnit.MILLISECONDS)
     }
 
+    /**
+      * Marks the task corresponding to this context as completed, whether
+      * it succeeded or not.
+      */
+    def complete(): Unit = {
+        state.countDown()
+    }
+
     /**
       * @return The duration of the current recycling operation.
       */
@@ -121,24 +201,42 @@ class RecyclingContext(val config: RecyclerConfig,
       */
     def nsdbVersion = version
 
+    /**
+      * @return True if the recycling operation resumed an interrupted one.
+      */
+    def isResumed = resumed
+
+    /**
+      * Executes the next step of the recycling operation. The first step
+      * validates the NSDB, collects the current hosts and, unless resuming,
+      * deletes the orphan namespaces. Every other step recycles one class.
+      *
+      * @return True if there are more steps to execute.
+      */
     @throws[RecyclingException]
-    def recycle(): Unit = {
+    def step(): Boolean = {
         if (state.getCount == 0) {
-            return
+            return false
         }
-        try {
+        if (classes eq null) {
             validate()
             collectHosts()
-            collectNamespaces()
-            deleteNamespaces()
-            collectObjects()
-            deleteObjects()
-            collectTables()
-            deleteTables()
-            collectLegacyTables()
-            deleteLegacyTables()
-        } finally {
-            state.countDown()
+            if (!resumed) {
+                deleteNamespaces()
+            }
+        } else {
+            recycleClass(classes(classIndex))
+            classIndex += 1
+        }
+        metrics.progress(classIndex, classes.size)
+
+        if (classIndex < classes.size) {
+            storeCursor(encodeCursor(timestamp,
+                                     classes(classIndex).getSimpleName))
+            true
+        } else {
+            storeCursor(Recycler.Data)
+            false
         }
     }
 
@@ -146,26 +244,46 @@ class RecyclingContext(val config: RecyclerConfig,
       * Verifies that the current NSDB is recyclable by checking that the root
       * ZOOM node was last modified before the current time minus the current
       * recycling interval. If the NSDB is recyclable the object will write to
-      * the root znode to update its last modified timestamp.
+      * the root znode to update its last modified timestamp. If the root
+      * znode contains the cursor of an interrupted recycling operation, not
+      * updated for at least the run interval, the operation resumes from the
+      * cursor.
       */
     @throws[RecyclingException]
     private def validate(): Unit = {
 
         val statBefore = new Stat
-        log debug s"Verifying if NSDB is recyclable ${step()}"
-        getData(store.basePath, statBefore)
-
-        if (start - statBefore.getMtime < interval.toMillis) {
-            log debug "Skipping NSDB recycling: already recycled at " +
-                      s"${statBefore.getMtime} current time is $start"
-            throw new RecyclingCanceledException
+        log debug "Verifying if NSDB is recyclable"
+        val data = getData(store.basePath, statBefore)
+        val elapsed = start - statBefore.getMtime
+        val sorted = store.classes.toIndexedSeq.sortBy(_.getSimpleName)
+
+        decodeCursor(data) match {
+            case Some((cursorTimestamp, className))
+                if elapsed >= runInterval.toMillis =>
+                log debug s"Resuming NSDB recycling started at " +
+                          s"$cursorTimestamp from class $className"
+                val statAfter = setNode(store.basePath, data,
+                                        statBefore.getVersion)
+                baseVersion = statAfter.getVersion
+                timestamp = cursorTimestamp
+                classes = sorted.filter(_.getSimpleName >= className)
+                resumed = true
+
+            case _ if elapsed < interval.toMillis =>
+                log debug "Skipping NSDB recycling: already recycled at " +
+                          s"${statBefore.getMtime} current time is $start"
+                throw new RecyclingCanceledException
+
+            case _ =>
+                log debug s"Marking NSDB for recycling at $start"
+                val statAfter = setNode(store.basePath, Recycler.Data,
+                                        statBefore.getVersion)
+                baseVersion = statAfter.getVersion
+                timestamp = statAfter.getMtime
+                classes = sorted
         }
 
-
-        log debug s"Marking NSDB for recycling at $start ${step()}"
-        val statAfter = setNode(store.basePath, Recycler.Data,
-                                statBefore.getVersion)
-
         version =
             try  Integer.parseInt(ZKPaths.getNodeFromPath(store.basePath))
             catch {
@@ -174,34 +292,38 @@ class RecyclingContext(val config: RecyclerConfig,
                     throw new RecyclingException("Invalid NSDB version",
                                                  isError = true, inner = null)
             }
-        timestamp = statAfter.getMtime
     }
 
     /**
-      * Collects the current hosts from the NSDB, and updates the list of hosts
-      * in the current context. The hosts set is used to determine the obsolete
-      * namespaces that should be deleted.
+      * Stores the recycling cursor at the NSDB base path. The write fails if
+      * another recycling operation has since written the base path, in which
+      * case this operation is canceled.
       */
     @throws[RecyclingException]
-    private def collectHosts(): Unit = {
-
-        log debug s"Collecting current hosts ${step()}"
-        hosts = getChildren(store.classPath(classOf[Host])).asScala.toSet
-
-        log debug s"Collected ${hosts.size} hosts"
+    private def storeCursor(data: Array[Byte]): Unit = {
+        try {
+            baseVersion = setNode(store.basePath, data, baseVersion).getVersion
+        } catch {
+            case e: RecyclingStorageException
+                if e.getCause.isInstanceOf[KeeperException.BadVersionException] =>
+                log debug "Recycling taken over by another operation"
+                throw new RecyclingCanceledException
+        }
     }
 
     /**
-      * Collects the current state namespaces from the NSDB, and updates the
-      * list of namespaces from the current context.
+      * Collects the current hosts from the NSDB, and updates the list of hosts
+      * in the current context. The hosts set is used to determine the obsolete
+      * namespaces that should be deleted, and the namespaces whose object
+      * state is recycled.
       */
     @throws[RecyclingException]
-    private def collectNamespaces(): Unit = {
+    private def collectHosts(): Unit = {
 
-        log debug s"Collecting namespaces ${step()}"
-        namespaces = getChildren(store.statePath(version)).asScala.toSet
+        log debug "Collecting current hosts"
+        hosts = getObjects(classOf[Host])
 
-        log debug s"Collected ${namespaces.size} namespaces"
+        log debug s"Collected ${hosts.size} hosts"
     }
 
     /**
@@ -214,249 +336,198 @@ class RecyclingContext(val config: RecyclerConfig,
     @throws[RecyclingException]
     private def deleteNamespaces(): Unit = {
 
-        log debug s"Deleting orphan namespaces ${step()}"
-
-        // Never delete the cluster namespace.
-        val orphan = namespaces -- hosts -- RecyclingContext.ClusterNamespaceId
-
+        log debug "Collecting namespaces"
+        val namespaces = getChildren(store.statePath(version)).asScala.toSet
         totalNamespaces = namespaces.size
 
-        log debug s"Found ${orphan.size} orphan namespaces"
+        // Never delete the cluster namespace.
+        val orphan = namespaces -- hosts -- ClusterNamespaceId
 
-        val stat = new Stat()
-        for (namespace <- orphan) {
+        log debug s"Deleting ${orphan.size} orphan namespaces"
 
-            try {
-                log debug s"Verifying namespace $namespace"
-                val path = store.stateNamespacePath(namespace, version)
-                getData(path, stat)
-
-                if (stat.getCtime < timestamp) {
-                    log debug s"Deleting namespace $namespace verified with " +
-                              s"timestamp ${stat.getCtime}"
-                    delete(path, stat.getVersion)
-                    deletedNamespaces += 1
-                } else {
-                    log debug s"Skipping namespace $namespace with timestamp " +
-                              s"${stat.getCtime} newer than $timestamp"
-                    skippedNamespaces += 1
-                }
-            } catch {
-                case NonFatal(e) =>
-                    log.warn(s"Failed to delete namespace $namespace", e)
-                    skippedNamespaces += 1
-            }
-        }
+        val (deleted, skipped) = deleteOrphans(
+            orphan.toSeq.map(store.stateNamespacePath(_, version)))
+        deletedNamespaces += deleted
+        skippedNamespaces += skipped
     }
 
     /**
-      * Collects all objects and their corresponding state paths from the NSDB,
-      * and updates their lists from the current context.
+      * Recycles the objects of a class: collects the objects of the class,
+      * and deletes the orphan object state for all hosts, the orphan object
+      * tables and the orphan legacy tables, which do not correspond to an
+      * existing object.
       */
     @throws[RecyclingException]
-    private def collectObjects(): Unit = {
-
-        log debug s"Collecting objects ${step()}"
-
-        for (clazz <- store.classes) {
-            val objects = getChildren(store.classPath(clazz)).asScala.toSet
-            modelObjects.put(clazz, objects)
-
-            log debug s"Collected ${objects.size} objects for class " +
-                      s"${clazz.getSimpleName}"
-        }
-
-        log debug s"Collecting object state ${step()}"
-
-        for (host <- hosts; clazz <- store.classes) {
-            val path = store.stateClassPath(host, clazz, version)
-
-            // State paths are created on demand, we must check whether they
-            // exist.
-            val objects = try zk.getChildren(path, null).asScala.toSet
-                          catch { case _: NoNodeException => Set.empty[String] }
-            stateObjects.put((host, clazz), objects)
-
-            totalObjects += objects.size
-
-            log debug s"Collected state for ${objects.size} objects for host " +
-                      s"$host class ${clazz.getSimpleName}"
+    private def recycleClass(clazz: Class[_]): Unit = {
+
+        log debug s"Recycling class ${clazz.getSimpleName} " +
+                  s"(${classIndex + 1} of ${classes.size})"
+
+        val objects = getObjects(clazz)
+
+        log debug s"Collected ${objects.size} objects for class " +
+                  s"${clazz.getSimpleName}"
+
+        // State paths are created on demand, they may not exist.
+        val hostSeq = hosts.toSeq
+        val states = readChildren(
+            hostSeq.map(store.stateClassPath(_, clazz, version)))
+        totalObjects += states.map(_.map(_.size).getOrElse(0)).sum
+        val stateOrphans = for ((host, children) <- hostSeq zip states;
+                                id <- children.getOrElse(Seq.empty)
+                                if !objects.contains(id))
+            yield store.stateObjectPath(host, clazz, id, version)
+
+        val (deletedState, skippedState) = deleteOrphans(stateOrphans)
+        deletedObjects += deletedState
+        skippedObjects += skippedState
+
+        val tables = getChildren(store.tablesClassPath(clazz, version)).asScala
+        totalTables += tables.size
+        val (deletedTable, skippedTable) = deleteOrphans(
+            for (id <- tables if !objects.contains(id))
+                yield store.tablesObjectPath(clazz, id, version))
+        deletedTables += deletedTable
+        skippedTables += skippedTable
+
+        for (path <- LegacyClasses.get(clazz)) {
+            val legacyPath = s"${store.rootPath}$path"
+            val legacy = readChildren(Seq(legacyPath)).head.getOrElse(Seq.empty)
+            totalLegacy += legacy.size
+            val (deletedLegacyTables, skippedLegacyTables) = deleteOrphans(
+                for (id <- legacy if !objects.contains(id))
+                    yield s"$legacyPath/$id")
+            deletedLegacy += deletedLegacyTables
+            skippedLegacy += skippedLegacyTables
         }
     }
 
     /**
-      * Deletes the orphan objects state by comparing the collected objects
-      * and state paths, and deleting those that do not correspond to an
-      * existing object. To delete an object state, it must have been created
-      * before the beginning of the recycling operation.
+      * Deletes the given orphan paths together with their children, if the
+      * paths and all their children were created before the beginning of the
+      * recycling operation. The deletions are batched in multi-operations of
+      * up to the configured batch size: if a batch fails, for instance because
+      * a node was modified in the meantime, its orphans are deleted one at a
+      * time. An orphan whose subtree needs more operations than the batch
+      * size is deleted on its own with [[deleteSubtree]].
+      *
+      * @return The number of deleted and skipped orphan paths.
       */
     @throws[RecyclingException]
-    private def deleteObjects(): Unit = {
-
-        log debug s"Deleting orphan object state for ${hosts.size} hosts ${step()}"
-
-        val stat = new Stat()
-        for (entry <- stateObjects.entrySet().asScala;
-             id <- entry.getValue
-             if !modelObjects.get(entry.getKey._2).contains(id)) {
+    private def deleteOrphans(paths: Seq[String]): (Int, Int) = {
+        if (paths.isEmpty) {
+            return (0, 0)
+        }
 
-            val host = entry.getKey._1
-            val clazz = entry.getKey._2
+        var deleted = 0
+        var skipped = 0
+        val batch = new ArrayBuffer[(String, Seq[Op])]
+        var batchOps = 0
 
+        def flush(): Unit = {
+            if (batch.isEmpty) {
+                return
+            }
             try {
-                log debug s"Verifying object ${clazz.getSimpleName}:$id " +
-                          s"at host $host"
-
-                val path = store.stateObjectPath(host, clazz, id, version)
-                getData(path, stat)
-
-                if (stat.getCtime < timestamp) {
-                    log debug "Deleting state for object with timestamp " +
-                              s"${stat.getCtime}"
-                    delete(path, stat.getVersion)
-                    deletedObjects += 1
-                } else {
-                    log debug "Skipping state for object with timestamp " +
-                              s"${stat.getCtime}"
-                    skippedObjects += 1
-                }
+                multi(batch.flatMap(_._2))
+                deleted += batch.size
             } catch {
-                case NonFatal(e) =>
-                    log.warn("Failed to delete state for object " +
-                             s"${clazz.getSimpleName}:$id host $host", e)
-                    skippedObjects += 1
+                case e: RecyclingStorageException if batch.size == 1 =>
+                    log.warn(s"Failed to delete orphan path ${batch.head._1}", e)
+                    skipped += 1
+                case e: RecyclingStorageException =>
+                    log debug s"Failed to delete ${batch.size} orphan paths " +
+                              "in a batch: deleting one at a time"
+                    for ((path, ops) <- batch) {
+                        try {
+                            multi(ops)
+                            deleted += 1
+                        } catch {
+                            case e: RecyclingStorageException =>
+                                log.warn(s"Failed to delete orphan path $path", e)
+                                skipped += 1
+                        }
+                    }
             }
+            batch.clear()
+            batchOps = 0
         }
-    }
-
-    /**
-      * Collects all state tables for current objects from NSDB.
-      */
-    @throws[RecyclingException]
-    private def collectTables(): Unit = {
-
-        log debug s"Collecting tables ${step()}"
-
-        for (clazz <- store.classes) {
-            val objects =
-                getChildren(store.tablesClassPath(clazz, version)).asScala.toSet
-            tableObjects.put(clazz, objects)
-            totalTables += objects.size
-
-            log debug s"Collected tables for ${objects.size} objects for " +
-                      s"class ${clazz.getSimpleName}"
-        }
-    }
 
-    /**
-      * Deletes the orphan state table paths by comparing the collected objects
-      * and table paths, and deleting those that do not correspond to an
-      * existing object. To delete an object table set, it must have been
-      * created before the beginning of the recycling operation.
-      */
-    @throws[RecyclingException]
-    private def deleteTables(): Unit = {
-
-        log debug s"Deleting orphan object tables ${step()}"
-
-        val stat = new Stat()
-        for (clazz <- store.classes;
-             id <- tableObjects.get(clazz)
-             if !modelObjects.get(clazz).contains(id)) {
-
-            try {
-                log debug s"Verifying tables for object ${clazz.getSimpleName}" +
-                          s":$id"
-
-                val path = store.tablesObjectPath(clazz, id, version)
-                getData(path, stat)
-
-                if (stat.getCtime < timestamp) {
-                    log debug "Deleting tables for object with timestamp " +
-                              s"${stat.getCtime}"
-                    delete(path, stat.getVersion)
-                    deletedTables += 1
-                } else {
-                    log debug "Skipping tables for object with timestamp " +
-                              s"${stat.getCtime}"
-                    skippedTables += 1
-                }
-            } catch {
-                case NonFatal(e) =>
-                    log.warn("Failed to delete tables for object " +
-                             s"${clazz.getSimpleName}:$id", e)
-                    skippedTables += 1
+        for ((path, stat) <- paths zip readStats(paths)) {
+            deleteOps(path, stat) match {
+                case Some(ops) if ops.size > config.deleteBatchSize =>
+                    flush()
+                    if (deleteSubtree(path, ops)) deleted += 1
+                    else skipped += 1
+                case Some(ops) =>
+                    if (batchOps + ops.size > config.deleteBatchSize) {
+                        flush()
+                    }
+                    batch += ((path, ops))
+                    batchOps += ops.size
+                case None =>
+                    skipped += 1
             }
         }
+        flush()
+
+        log debug s"Deleted $deleted and skipped $skipped orphan paths"
+        (deleted, skipped)
     }
 
     /**
-      * Collects all state tables at the legacy paths from NSDB. The legacy
-      * paths are the paths created with MidoNet versions previous to MidoNet
-      * 5.2 and generally are: [root]/bridges or [root]/routers.
+      * Deletes an orphan path whose subtree needs more operations than the
+      * batch size, in multi-operations of up to the batch size. Since the
+      * operations delete the children before their parent, the subtree is
+      * deleted bottom-up. If a multi-operation fails, the remaining nodes of
+      * the subtree are left for a later recycling run.
+      *
+      * @return True if the path was deleted.
       */
     @throws[RecyclingException]
-    private def collectLegacyTables(): Unit = {
-
-        log debug s"Collecting legacy tables for bridges ${step()}"
-
-        for ((clazz, path) <- RecyclingContext.LegacyClasses) {
-            val objectsPath = s"${store.rootPath}$path"
-
-            if (zk.exists(objectsPath, null) ne null) {
-                val objects = getChildren(objectsPath).asScala.toSet
-                legacyObjects.put(clazz, objects)
-                totalLegacy += objects.size
-
-                log debug s"Collected legacy tables for ${objects.size} " +
-                          s"objects for class ${clazz.getSimpleName}"
-            } else {
-                log debug s"Skipping legacy tables for class ${clazz.getSimpleName}"
-                legacyObjects.put(clazz, Set.empty)
+    private def deleteSubtree(path: String, ops: Seq[Op]): Boolean = {
+        for (chunk <- ops.grouped(config.deleteBatchSize)) {
+            try multi(chunk)
+            catch {
+                case e: RecyclingStorageException =>
+                    log.warn(s"Failed to delete orphan path $path", e)
+                    return false
             }
         }
+        true
     }
 
     /**
-      * Deletes the orphan legacy state table paths by comparing the collected
-      * objects and legacy state paths, and deleting those that do not
-      * correspond to an existing object. To delete a legacy path, it must have
-      * been created before the beginning of the recycling operation.
+      * Returns the delete operations for a path and all its children, in the
+      * order they must execute, or [[None]] if the path no longer exists or
+      * if the path or any of its children was created after the beginning of
+      * the recycling operation.
       */
     @throws[RecyclingException]
-    private def deleteLegacyTables(): Unit = {
-
-        log debug s"Deleting orphan object legacy tables ${step()}"
-
-        val stat = new Stat()
-        for (clazz <- RecyclingContext.LegacyClasses.keys;
-             id <- legacyObjects.get(clazz)
-             if !modelObjects.get(clazz).contains(id)) {
-
-            try {
-                log debug s"Verifying legacy tables for object " +
-                          s"${clazz.getSimpleName}:$id"
-
-                val path =
-                    s"${store.rootPath}${RecyclingContext.LegacyClasses(clazz)}/$id"
-                getData(path, stat)
-
-                if (stat.getCtime < timestamp) {
-                    log debug "Deleting legacy tables for object with timestamp " +
-                              s"${stat.getCtime}"
-                    delete(path, stat.getVersion)
-                    deletedLegacy += 1
-                } else {
-                    log debug "Skipping legacy tables for object with timestamp " +
-                              s"${stat.getCtime}"
-                    skippedLegacy += 1
+    private def deleteOps(path: String, stat: Option[Stat]): Option[Seq[Op]] = {
+        stat match {
+            case None =>
+                log debug s"Skipping path $path: already deleted"
+                None
+            case Some(s) if s.getCtime >= timestamp =>
+                log debug s"Skipping path $path with timestamp ${s.getCtime} " +
+                          s"newer than $timestamp"
+                None
+            case Some(s) if s.getNumChildren == 0 =>
+                Some(Seq(Op.delete(path, s.getVersion)))
+            case Some(s) =>
+                val children = readChildren(Seq(path)).head
+                    .getOrElse(Seq.empty).map(ZKPaths.makePath(path, _))
+                val ops = new ArrayBuffer[Op]
+                for ((child, childStat) <- children zip readStats(children)
+                     if childStat.isDefined) {
+                    deleteOps(child, childStat) match {
+                        case Some(childOps) => ops ++= childOps
+                        case None => return None
+                    }
                 }
-            } catch {
-                case NonFatal(e) =>
-                    log.warn("Failed to delete legacy tables for object " +
-                             s"${clazz.getSimpleName}:$id", e)
-                    skippedLegacy += 1
-            }
+                ops += Op.delete(path, s.getVersion)
+                Some(ops)
         }
     }
 
@@ -472,19 +543,31 @@ class RecyclingContext(val config: RecyclerConfig,
     }
 
     /**
-      * Throttles an NSDB read or write operation and verifies before and after
-      * whether the recycling task was canceled.
+      * Throttles a number of NSDB read or write operations and verifies before
+      * and after whether the recycling task was canceled.
       */
     @throws[RecyclingException]
-    private def throttle(): Unit = {
+    private def throttle(permits: Int): Unit = {
         verifyCanceled()
-        limiter.acquire()
+        val waited = if (limiter ne null) limiter.acquire(permits) else 0d
+        metrics.operations(permits, waited)
         verifyCanceled()
     }
 
+    /**
+      * Awaits the completion of pipelined reads, verifying periodically
+      * whether the recycling task was canceled.
+      */
+    @throws[RecyclingException]
+    private def await(latch: CountDownLatch): Unit = {
+        while (!latch.await(AwaitInterval.toMillis, TimeUnit.MILLISECONDS)) {
+            verifyCanceled()
+        }
+    }
+
     @throws[RecyclingException]
     private def getData(path: String, stat: Stat): Array[Byte] = {
-        throttle()
+        throttle(1)
         try zk.getData(path, null, stat)
         catch {
             case NonFatal(e) => throw new RecyclingStorageException(e)
@@ -493,57 +576,97 @@ class RecyclingContext(val config: RecyclerConfig,
 
     @throws[RecyclingException]
     private def setNode(path: String, data: Array[Byte], version: Int): Stat = {
-        throttle()
+        throttle(1)
         try zk.setData(path, data, version)
         catch {
             case NonFatal(e) => throw new RecyclingStorageException(e)
         }
     }
 
+    /**
+      * Returns the identifiers of the objects of the given class, which are
+      * the children of the class node or of its buckets.
+      */
+    @throws[RecyclingException]
+    private def getObjects(clazz: Class[_]): Set[String] = {
+        val paths = store.bucketPaths(clazz)
+        (for ((path, children) <- paths zip readChildren(paths))
+            yield children.getOrElse {
+                throw new RecyclingStorageException(
+                    KeeperException.create(Code.NONODE, path))
+            }).flatten.toSet
+    }
+
     @throws[RecyclingException]
     private def getChildren(path: String): util.List[String] = {
-        throttle()
+        throttle(1)
         try zk.getChildren(path, null)
         catch {
             case NonFatal(e) => throw new RecyclingStorageException(e)
         }
     }
 
+    /**
+      * Reads the children of the given paths with pipelined asynchronous
+      * requests, where the children of a missing path are [[None]].
+      */
     @throws[RecyclingException]
-    private def delete(path: String, version: Int): Unit = {
-        throttle()
-        try {
-            deleteWithChildren(path, version)
-        } catch {
-            case NonFatal(e) => throw new RecyclingStorageException(e)
+    private def readChildren(paths: Seq[String]): Seq[Option[Seq[String]]] = {
+        val reads = new PipelinedReads[Seq[String]](paths)
+        val callback = new ChildrenCallback {
+            override def processResult(rc: Int, path: String, ctx: AnyRef,
+                                       children: util.List[String]): Unit = {
+                reads.complete(ctx.asInstanceOf[Integer], rc,
+                               if (children ne null) children.asScala else null)
+            }
+        }
+        for ((path, index) <- paths.zipWithIndex) {
+            throttle(1)
+            try zk.getChildren(path, false, callback, Int.box(index))
+            catch {
+                case NonFatal(e) => throw new RecyclingStorageException(e)
+            }
         }
+        await(reads.latch)
+        reads.get
     }
 
-    @throws[Exception]
-    private def deleteWithChildren(path: String, version: Int): Boolean = {
-        PathUtils.validatePath(path)
-
-        val children = zk.getChildren(path, null).asScala
-
-        val stat = new Stat
-        val pathsWithVersion = for (child <- children) yield {
-            val childPath = ZKPaths.makePath(path, child)
-            zk.getData(childPath, null, stat)
-            if (stat.getCtime >= timestamp) {
-                return false
+    /**
+      * Reads the stat of the given paths with pipelined asynchronous
+      * requests, where the stat of a missing path is [[None]].
+      */
+    @throws[RecyclingException]
+    private def readStats(paths: Seq[String]): Seq[Option[Stat]] = {
+        val reads = new PipelinedReads[Stat](paths)
+        val callback = new StatCallback {
+            override def processResult(rc: Int, path: String, ctx: AnyRef,
+                                       stat: Stat): Unit = {
+                reads.complete(ctx.asInstanceOf[Integer], rc, stat)
             }
-            (childPath, stat.getVersion)
         }
-
-        var delete = true
-        for ((childPath, childVersion) <- pathsWithVersion) {
-            delete &= deleteWithChildren(childPath, childVersion)
+        for ((path, index) <- paths.zipWithIndex) {
+            throttle(1)
+            try zk.exists(path, false, callback, Int.box(index))
+            catch {
+                case NonFatal(e) => throw new RecyclingStorageException(e)
+            }
         }
+        await(reads.latch)
+        reads.get
+    }
 
-        if (delete) {
-            zk.delete(path, version)
+    /**
+      * Deletes the nodes of the given delete operations in a single
+      * multi-operation.
+      */
+    @throws[RecyclingException]
+    private def multi(ops: Seq[Op]): Unit = {
+        throttle(ops.size)
+        try zk.multi(ops.asJava)
+        catch {
+            case NonFatal(e) => throw new RecyclingStorageException(e)
         }
-        delete
+        metrics.deleted(ops.size)
     }
 
     /**
@@ -551,11 +674,4 @@ class RecyclingContext(val config: RecyclerConfig,
       */
     private def zk: ZooKeeper = curator.getZookeeperClient.getZooKeeper
 
-    /**
-      * Returns the current recycling step as string.
-      */
-    private def step(): String = {
-        stepIndex += 1
-        s"(step $stepIndex of ${RecyclingContext.StepCount})"
-    }
 }
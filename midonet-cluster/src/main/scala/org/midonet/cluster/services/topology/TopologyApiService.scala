@@ -16,6 +16,8 @@
 
 package org.midonet.cluster.services.topology
 
+import java.net.URI
+
 import com.google.inject.Inject
 
 import org.slf4j.LoggerFactory
@@ -57,17 +59,19 @@ class TopologyApiService @Inject()(val nodeContext: Context,
         val connMgr = new ConnectionManager(protocol)
         val reqHandler = new RequestHandler(connMgr)
         val srvHandler = new ApiServerHandler(reqHandler)
+        val encoder = new SharedUpdateEncoder(sessionManager.updateCache)
 
         // Frontend frameworks
         if (cfg.topologyApi.socketEnabled) plainSrv = ServerFrontEnd.tcp(
             new ProtoBufSocketAdapter(
-                srvHandler, Commands.Request.getDefaultInstance),
+                srvHandler, Commands.Request.getDefaultInstance, None, encoder),
             cfg.topologyApi.port
         )
 
         if (cfg.topologyApi.wsEnabled) wsSrv = ServerFrontEnd.tcp(
             new ProtoBufWebSocketServerAdapter(
-                srvHandler, Commands.Request.getDefaultInstance, cfg.topologyApi.wsPath),
+                srvHandler, Commands.Request.getDefaultInstance,
+                URI.create(cfg.topologyApi.wsPath), None, Some(encoder)),
             cfg.topologyApi.wsPort
         )
 
@@ -58,40 +58,12 @@ object SessionInventory {
         extends TimeoutException("session expired")
 
     /** generate an update response */
-    def updateBuilder(m: Message, reqId: UUID = null): Response.Builder = {
-        val u: Update = m match {
-            case h: BgpNetwork => Update.newBuilder().setBgpNetwork(h).build()
-            case h: BgpPeer => Update.newBuilder().setBgpPeer(h).build()
-            case h: Chain => Update.newBuilder().setChain(h).build()
-            case h: Dhcp => Update.newBuilder().setDhcp(h).build()
-            case h: DhcpV6 => Update.newBuilder().setDhcpV6(h).build()
-            case h: HealthMonitor => Update.newBuilder().setHealthMonitor(h).build()
-            case h: Host => Update.newBuilder().setHost(h).build()
-            case h: HostGroup => Update.newBuilder().setHostGroup(h).build()
-            case h: IPAddrGroup => Update.newBuilder().setIpAddrGroup(h).build()
-            case h: L2Insertion => Update.newBuilder().setL2Insertion(h).build()
-            case h: Mirror => Update.newBuilder().setMirror(h).build()
-            case h: Network => Update.newBuilder().setNetwork(h).build()
-            case h: Pool => Update.newBuilder().setPool(h).build()
-            case h: PoolMember => Update.newBuilder().setPoolMember(h).build()
-            case h: Port => Update.newBuilder().setPort(h).build()
-            case h: PortGroup => Update.newBuilder().setPortGroup(h).build()
-            case h: QosPolicy => Update.newBuilder().setQosPolicy(h).build()
-            case h: QosRuleBandwidthLimit => Update.newBuilder().setQosRuleBwLimit(h).build()
-            case h: QosRuleDscp => Update.newBuilder().setQosRuleDscp(h).build()
-            case h: ServiceContainer => Update.newBuilder().setServiceContainer(h).build()
-            case h: ServiceContainerGroup => Update.newBuilder().setServiceContainerGroup(h).build()
-            case h: Route => Update.newBuilder().setRoute(h).build()
-            case h: Router => Update.newBuilder().setRouter(h).build()
-            case h: LoadBalancer => Update.newBuilder().setLoadBalancer(h).build()
-            case h: Vip => Update.newBuilder().setVip(h).build()
-            case h: Rule => Update.newBuilder().setRule(h).build()
-            case h: TunnelZone => Update.newBuilder().setTunnelZone(h).build()
-            case h: TraceRequest => Update.newBuilder().setTraceRequest(h).build()
-            case h: Vtep => Update.newBuilder().setVtep(h).build()
-            case _ => throw new UnknownTopologyEntityException
-        }
-        val objInfo = extractId(m)
+    def updateBuilder(m: Message, reqId: UUID = null): Response.Builder =
+        updateBuilder(extractId(m), updateOf(m), reqId)
+
+    /** generate an update response for an already built update */
+    def updateBuilder(objInfo: ObservableId, u: Update, reqId: UUID)
+        : Response.Builder = {
         val response = Response.newBuilder()
                                .setType(ResponseType.UPDATE)
                                .setObjType(typeOf(objInfo.ofType).get)
@@ -102,6 +74,40 @@ object SessionInventory {
         response
     }
 
+    /** wrap the message into an update */
+    def updateOf(m: Message): Update = m match {
+        case h: BgpNetwork => Update.newBuilder().setBgpNetwork(h).build()
+        case h: BgpPeer => Update.newBuilder().setBgpPeer(h).build()
+        case h: Chain => Update.newBuilder().setChain(h).build()
+        case h: Dhcp => Update.newBuilder().setDhcp(h).build()
+        case h: DhcpV6 => Update.newBuilder().setDhcpV6(h).build()
+        case h: HealthMonitor => Update.newBuilder().setHealthMonitor(h).build()
+        case h: Host => Update.newBuilder().setHost(h).build()
+        case h: HostGroup => Update.newBuilder().setHostGroup(h).build()
+        case h: IPAddrGroup => Update.newBuilder().setIpAddrGroup(h).build()
+        case h: L2Insertion => Update.newBuilder().setL2Insertion(h).build()
+        case h: Mirror => Update.newBuilder().setMirror(h).build()
+        case h: Network => Update.newBuilder().setNetwork(h).build()
+        case h: Pool => Update.newBuilder().setPool(h).build()
+        case h: PoolMember => Update.newBuilder().setPoolMember(h).build()
+        case h: Port => Update.newBuilder().setPort(h).build()
+        case h: PortGroup => Update.newBuilder().setPortGroup(h).build()
+        case h: QosPolicy => Update.newBuilder().setQosPolicy(h).build()
+        case h: QosRuleBandwidthLimit => Update.newBuilder().setQosRuleBwLimit(h).build()
+        case h: QosRuleDscp => Update.newBuilder().setQosRuleDscp(h).build()
+        case h: ServiceContainer => Update.newBuilder().setServiceContainer(h).build()
+        case h: ServiceContainerGroup => Update.newBuilder().setServiceContainerGroup(h).build()
+        case h: Route => Update.newBuilder().setRoute(h).build()
+        case h: Router => Update.newBuilder().setRouter(h).build()
+        case h: LoadBalancer => Update.newBuilder().setLoadBalancer(h).build()
+        case h: Vip => Update.newBuilder().setVip(h).build()
+        case h: Rule => Update.newBuilder().setRule(h).build()
+        case h: TunnelZone => Update.newBuilder().setTunnelZone(h).build()
+        case h: TraceRequest => Update.newBuilder().setTraceRequest(h).build()
+        case h: Vtep => Update.newBuilder().setVtep(h).build()
+        case _ => throw new UnknownTopologyEntityException
+    }
+
     /** generate a deletion response */
     def deletionBuilder[T <: Message](id: UUID, k: Class[T], reqId: UUID)
         : Response.Builder =
@@ -188,8 +194,9 @@ object SessionInventory {
  *
  * @param reqId is the request originating this stream (used for notifications
  *              to user)
+ * @param updates is the cache of updates shared by all sessions
  */
-protected class StorageTransformer(val reqId: UUID)
+protected class StorageTransformer(val reqId: UUID, val updates: UpdateCache)
     extends Observable.Transformer[Message, Response.Builder] {
 
     override def call(s: Observable[Message])
@@ -211,22 +218,28 @@ protected class StorageTransformer(val reqId: UUID)
         extends OnSubscribe[Response.Builder] {
         /* Remember the subscription to the source observable */
         private var sub: Subscription = null
+        private var converter: StorageEventConverter = null
 
         /** Propagate the unsubscription to the source */
         def cancel(): Unit = {
             if (sub != null) sub.unsubscribe()
+            if (converter != null) converter.release()
         }
 
         /** Bind the subscriber to the source */
         override def call(client: Subscriber[_ >: Response.Builder]): Unit = {
-            sub = source.subscribe(new StorageEventConverter(
-                client.asInstanceOf[Subscriber[Response.Builder]],
-                reqId))
+            converter = new StorageEventConverter(
+                client.asInstanceOf[Subscriber[Response.Builder]], reqId)
+            sub = source.subscribe(converter)
         }
     }
 
     /** Convenient wrapper to convert observable completions into
-      * explicit object deletion events, and wrap updates into responses
+      * explicit object deletion events, and wrap updates into responses.
+      * The converter retains the cached update of the object from its first
+      * update, and releases it when the stream terminates or is
+      * unsubscribed, such that the cached update is removed when no session
+      * watches the object.
  *
       * @param observer is the receiver of the processed messages
       * @param reqId the request originating the current stream
@@ -237,24 +250,49 @@ protected class StorageTransformer(val reqId: UUID)
         import org.midonet.cluster.services.topology.server.SessionInventory._
 
         private var oId: ObservableId = null
+        private var released = false
+
+        /** Releases the cached update of the object, at most once. */
+        def release(): Unit = synchronized {
+            if (!released) {
+                released = true
+                if (oId != null) updates.release(oId)
+            }
+        }
 
         override def onCompleted(): Unit = {
-            if (oId != null)
+            if (oId != null) {
+                updates.remove(oId)
                 observer.onNext(deletionBuilder(oId.id, oId.ofType, reqId))
+            }
+            release()
             observer.onCompleted()
         }
-        override def onError(exc: Throwable): Unit = exc match {
-            case e: NotFoundException =>
-                observer.onNext(errorBuilder(reqId, "not found"))
-                observer.onCompleted()
-            case t: Throwable =>
-                observer.onNext(errorBuilder(reqId, "error on watch"))
-                observer.onError(t)
+        override def onError(exc: Throwable): Unit = {
+            release()
+            exc match {
+                case e: NotFoundException =>
+                    observer.onNext(errorBuilder(reqId, "not found"))
+                    observer.onCompleted()
+                case t: Throwable =>
+                    observer.onNext(errorBuilder(reqId, "error on watch"))
+                    observer.onError(t)
+            }
         }
         override def onNext(data: Message): Unit = {
-            if (oId == null)
-                oId = extractId(data)
-            observer.onNext(updateBuilder(data, reqId))
+            // Do not cache updates of a stream that is no longer watched.
+            val builder = synchronized {
+                if (released) {
+                    null
+                } else {
+                    if (oId == null) {
+                        oId = extractId(data)
+                        updates.retain(oId)
+                    }
+                    updates.updateBuilder(data, reqId)
+                }
+            }
+            if (builder ne null) observer.onNext(builder)
         }
     }
 }
@@ -356,6 +394,10 @@ class SessionInventory(private val store: Storage,
     private val bufferSize: Int = SessionInventory.SESSION_BUFFER_SIZE) {
     private val log = LoggerFactory.getLogger(TopologyApiSessionInventoryLog)
 
+    /** The updates shared by all sessions, serialized once per object
+      * version when written to the sessions' channels. */
+    val updateCache = new UpdateCache
+
     /** A class that encapsulates the funnel of a bunch of individual low
       * level subscriptions into a single channel, anend exposes an observable
       * that can at most be subscribed by a single Observer at a given
@@ -515,7 +557,7 @@ class SessionInventory(private val store: Storage,
             val src = store.observable(ofType.asInstanceOf[Class[Message]], id)
             try {
                 val oldReq = funnel.add(
-                    obsId, src.compose(new StorageTransformer(reqId)), reqId)
+                    obsId, src.compose(new StorageTransformer(reqId, updateCache)), reqId)
                 if (reqId == oldReq)
                     funnel.inject(ackBuilder(accept = true, reqId))
                 else
@@ -543,7 +585,7 @@ class SessionInventory(private val store: Storage,
             val obsId = ObservableId(null, ofType)
             val src: Observable[Observable[Response.Builder]] =
                 store.observable(ofType.asInstanceOf[Class[Message]]).map(
-                    makeFunc1 {_.compose(new StorageTransformer(reqId))}
+                    makeFunc1 {_.compose(new StorageTransformer(reqId, updateCache))}
                 )
             try {
                 val oldReq = funnel.add(obsId, Observable.merge(src), reqId)
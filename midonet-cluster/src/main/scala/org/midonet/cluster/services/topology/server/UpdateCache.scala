@@ -0,0 +1,198 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.cluster.services.topology.server
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.function.BiFunction
+import java.util.{List => JList, UUID}
+
+import com.google.protobuf.Message
+
+import io.netty.buffer.{ByteBuf, Unpooled}
+import io.netty.channel.ChannelHandler.Sharable
+import io.netty.channel.ChannelHandlerContext
+import io.netty.handler.codec.MessageToMessageEncoder
+
+import org.midonet.cluster.rpc.Commands.Response.Update
+import org.midonet.cluster.rpc.Commands.{Response, ResponseType}
+import org.midonet.cluster.services.topology.common.TopologyMappings.klassOf
+import org.midonet.cluster.services.topology.server.SessionInventory.{ObservableId, extractId, updateOf}
+import org.midonet.cluster.util.UUIDUtil.fromProto
+
+object UpdateCache {
+
+    /** The latest version of a topology object, with its update and the
+      * serialized session-independent fields of the update response. The
+      * serialized data is created when first needed, and it is reference
+      * counted, such that the buffer can be written to many channels and is
+      * released after the last write of a replaced version. */
+    private final class Entry(val objInfo: ObservableId,
+                              val message: Message,
+                              val update: Update) {
+        private var data: ByteBuf = null
+        private var released = false
+
+        def retainedData(): ByteBuf = synchronized {
+            if (released) {
+                null
+            } else {
+                if (data eq null) {
+                    data = Unpooled.wrappedBuffer(
+                        SessionInventory.updateBuilder(objInfo, update, null)
+                                        .build().toByteArray)
+                }
+                data.duplicate().retain()
+            }
+        }
+
+        def release(): Unit = synchronized {
+            if (!released) {
+                released = true
+                if (data ne null) data.release()
+            }
+        }
+    }
+
+}
+
+/**
+ * A cache of the updates for the topology objects watched by the Topology API
+ * sessions. All sessions watching an object receive the same [[Update]]
+ * instance for each version of the object, such that the update is built
+ * only once, and the [[SharedUpdateEncoder]] serializes it only once for all
+ * sessions.
+ *
+ * This relies on the storage emitting the same message instance to all
+ * observers of an object. A version of an object is replaced when the storage
+ * emits a new message, and removed when the object is deleted or when no
+ * session watches the object anymore: the watches of an object are counted
+ * with [[retain]] and [[release]].
+ */
+class UpdateCache {
+
+    import UpdateCache._
+
+    private val entries = new ConcurrentHashMap[ObservableId, Entry]()
+    private val references = new ConcurrentHashMap[ObservableId, Integer]()
+
+    private val increment = new BiFunction[ObservableId, Integer, Integer] {
+        override def apply(objInfo: ObservableId, count: Integer): Integer =
+            if (count eq null) 1 else count + 1
+    }
+    private val decrement = new BiFunction[ObservableId, Integer, Integer] {
+        override def apply(objInfo: ObservableId, count: Integer): Integer =
+            if ((count eq null) || count <= 1) null else count - 1
+    }
+
+    /** Generates an update response for the given message, with the update
+      * shared by all sessions receiving the same message. */
+    def updateBuilder(m: Message, reqId: UUID): Response.Builder = {
+        val entry = entryOf(m)
+        SessionInventory.updateBuilder(entry.objInfo, entry.update, reqId)
+    }
+
+    /** Counts a new watch of the given object. */
+    def retain(objInfo: ObservableId): Unit = {
+        references.compute(objInfo, increment)
+    }
+
+    /** Counts the end of a watch of the given object, and removes the cached
+      * update of the object when it is no longer watched. */
+    def release(objInfo: ObservableId): Unit = {
+        if (references.compute(objInfo, decrement) eq null) {
+            remove(objInfo)
+        }
+    }
+
+    /** Removes the cached update for the given object. */
+    def remove(objInfo: ObservableId): Unit = {
+        val entry = entries.remove(objInfo)
+        if (entry ne null) entry.release()
+    }
+
+    /** Number of objects in the cache. */
+    def size: Int = entries.size()
+
+    /**
+      * Encodes the given response using the shared serialized update, if the
+      * response contains the cached update of an object. The encoded response
+      * is the concatenation of the session-specific fields and the shared
+      * serialized fields, which a Protocol Buffers parser merges into the
+      * original response. Returns null if the response cannot use a shared
+      * update.
+      */
+    def encode(rsp: Response): ByteBuf = {
+        if (rsp.getType != ResponseType.UPDATE || !rsp.hasUpdate ||
+            !rsp.hasObjId || !rsp.hasObjType) {
+            return null
+        }
+        val klass = klassOf(rsp.getObjType)
+        if (klass.isEmpty) {
+            return null
+        }
+        val entry = entries.get(ObservableId(fromProto(rsp.getObjId),
+                                             klass.get))
+        if ((entry eq null) || (entry.update ne rsp.getUpdate)) {
+            return null
+        }
+        val data = entry.retainedData()
+        if (data eq null) {
+            return null
+        }
+
+        val header = Response.newBuilder()
+        if (rsp.hasSeqno) header.setSeqno(rsp.getSeqno)
+        if (rsp.hasReqId) header.setReqId(rsp.getReqId)
+        Unpooled.wrappedBuffer(
+            Unpooled.wrappedBuffer(header.buildPartial().toByteArray), data)
+    }
+
+    private def entryOf(m: Message): Entry = {
+        val objInfo = extractId(m)
+        var entry = entries.get(objInfo)
+        while ((entry eq null) || (entry.message ne m)) {
+            val newEntry = new Entry(objInfo, m, updateOf(m))
+            if (entry eq null) {
+                if (entries.putIfAbsent(objInfo, newEntry) eq null)
+                    return newEntry
+            } else if (entries.replace(objInfo, entry, newEntry)) {
+                entry.release()
+                return newEntry
+            }
+            entry = entries.get(objInfo)
+        }
+        entry
+    }
+
+}
+
+/**
+ * A Netty encoder for Topology API responses that writes the shared serialized
+ * updates from an [[UpdateCache]], falling back to the regular Protocol
+ * Buffers serialization for any other response.
+ */
+@Sharable
+class SharedUpdateEncoder(cache: UpdateCache)
+    extends MessageToMessageEncoder[Response] {
+
+    override def encode(ctx: ChannelHandlerContext, rsp: Response,
+                        out: JList[AnyRef]): Unit = {
+        val data = cache.encode(rsp)
+        if (data ne null) out.add(data)
+        else out.add(Unpooled.wrappedBuffer(rsp.toByteArray))
+    }
+}
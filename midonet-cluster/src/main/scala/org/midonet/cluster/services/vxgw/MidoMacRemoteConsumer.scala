@@ -76,16 +76,15 @@ class MidoMacRemoteConsumer(nwStates: util.Map[UUID, NetworkInfo])
 
     private def removeIpsOnMac(nwState: NetworkInfo, mac: MAC): Future[Unit] = {
 
-        // Here we can use either the local cache of the table, or making a
-        // remote request.
-        // val ips = nwState.arpTable.getLocalByValue(mac)
-        // val futures = for (ip <- ips) yield {
-        //    nwState.arpTable.removePersistent(ip, mac)
-        // }
-        // Future.sequence(futures)(breakOut, CallingThreadExecutionContext)
-        //    .map { _ => {} } (CallingThreadExecutionContext)
+        // Use the local cache of the table when loaded, since the table
+        // indexes its values, and fall back to a remote request otherwise.
+        val ipsFuture = if (nwState.arpTable.isReady) {
+            Future.successful(nwState.arpTable.getLocalByValue(mac))
+        } else {
+            nwState.arpTable.getRemoteByValue(mac)
+        }
 
-        nwState.arpTable.getRemoteByValue(mac).flatMap { ips =>
+        ipsFuture.flatMap { ips =>
             val futures = for (ip <- ips) yield {
                 nwState.arpTable.removePersistent(ip, mac)
             }
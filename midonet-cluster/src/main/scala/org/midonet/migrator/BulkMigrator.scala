@@ -0,0 +1,263 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.migrator
+
+import java.util.{ConcurrentModificationException, UUID}
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.{Executors, TimeUnit}
+
+import scala.collection.JavaConverters._
+import scala.collection.mutable.ArrayBuffer
+import scala.concurrent.duration.Duration
+import scala.concurrent.{Await, ExecutionContext, Future}
+import scala.util.control.NonFatal
+
+import com.google.protobuf.Message
+import com.typesafe.scalalogging.Logger
+
+import org.slf4j.LoggerFactory
+
+import org.midonet.cluster.data.storage.{CreateOp, ObjectExistsException, Storage}
+import org.midonet.cluster.models.Topology.{Chain, Rule}
+import org.midonet.cluster.util.UUIDUtil._
+import org.midonet.util.concurrent.NamedThreadFactory
+import org.midonet.util.{ImmediateRetriable, Retriable}
+
+object BulkMigrator {
+
+    /**
+      * The objects of an independent subtree of the topology, such as a
+      * bridge and its DHCP subnets, or the rules of a chain, in the order in
+      * which they must be created.
+      */
+    type Subtree = Seq[Message]
+
+}
+
+/**
+  * Creates migrated topology objects directly in the storage, in batched
+  * transactions written by a pool of parallel workers, and reads from the
+  * legacy storage on a separate pool, such that the reads of a migration
+  * stage overlap with the writes of the previous stages.
+  *
+  * The objects of a stage are given as independent subtrees: the objects of
+  * a subtree are created in order, whereas different subtrees are created in
+  * parallel. Small subtrees are grouped into transactions of up to
+  * `batchSize` objects. A transaction conflicting with the concurrent
+  * update of a shared object, for instance a chain referenced by several
+  * bridges, is retried, and a transaction failing otherwise is retried one
+  * object at a time, such that a failed object does not prevent the
+  * migration of the others, as when migrating through the API.
+  */
+class BulkMigrator(store: Storage, batchSize: Int, workers: Int,
+                   suppressExistsWarning: Boolean) extends AutoCloseable {
+
+    import BulkMigrator._
+
+    private val log = Logger(LoggerFactory.getLogger(getClass))
+
+    private val readExecutor = Executors.newFixedThreadPool(
+        workers, new NamedThreadFactory("migrator-read", isDaemon = true))
+    private val writeExecutor = Executors.newFixedThreadPool(
+        workers, new NamedThreadFactory("migrator-write", isDaemon = true))
+    private val readContext = ExecutionContext.fromExecutor(readExecutor)
+    private val writeContext = ExecutionContext.fromExecutor(writeExecutor)
+
+    private val migratedCount = new AtomicLong
+    private val failedCount = new AtomicLong
+    private val startTime = System.nanoTime()
+
+    private trait ConflictRetriable extends Retriable {
+
+        override def maxRetries = 10
+
+        protected override def handleRetry[T](e: Throwable, retries: Int,
+                                              log: org.slf4j.Logger,
+                                              message: String): Unit = {
+            // Only retry the conflicts with the transactions of the other
+            // workers.
+            e match {
+                case e: ConcurrentModificationException =>
+                case _ => throw e
+            }
+        }
+    }
+    private object ConflictRetriable
+        extends ConflictRetriable with ImmediateRetriable
+
+    /** The number of objects created. */
+    def migrated: Long = migratedCount.get
+
+    /** The number of objects that could not be created. */
+    def failed: Long = failedCount.get
+
+    /** The number of objects created per second since this was created. */
+    def rate: Double = rate(migratedCount.get, System.nanoTime() - startTime)
+
+    /**
+      * Reads from the legacy storage asynchronously.
+      */
+    def read[T](f: => T): Future[T] = Future(f)(readContext)
+
+    /**
+      * Reads asynchronously the children of every item of a pending read, for
+      * instance the rules of every chain, in parallel.
+      */
+    def readEach[A, B](items: Future[Seq[A]])(f: A => B): Future[Seq[(A, B)]] = {
+        implicit val ec = readContext
+        items.flatMap { items =>
+            Future.traverse(items) { item => Future((item, f(item))) }
+        }
+    }
+
+    /**
+      * Waits for the result of a read.
+      */
+    def await[T](future: Future[T]): T = Await.result(future, Duration.Inf)
+
+    /**
+      * Creates the objects of the given subtrees, and returns when all have
+      * been written. The method throws the first unexpected error of a
+      * worker, if any.
+      */
+    def create(stage: String, subtrees: Seq[Subtree]): Unit = {
+        val start = System.nanoTime()
+        val before = migratedCount.get
+        implicit val ec = writeContext
+
+        log.info(s"Migrating $stage")
+        val chunks = for (chunk <- group(subtrees)) yield Future {
+            for (batch <- chunk.grouped(batchSize)) {
+                createBatch(batch)
+            }
+        }
+        await(Future.sequence(chunks))
+
+        val count = migratedCount.get - before
+        log.info(f"Migrated $count $stage in " +
+                 f"${TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)} ms " +
+                 f"(${rate(count, System.nanoTime() - start)}%.1f objects/s)")
+    }
+
+    /**
+      * Adds the given jump rules to the jump rule list of their target
+      * chains, as the API does when creating a jump rule, since Zoom does not
+      * maintain this list. Only the rules that exist in the storage are
+      * added, such that a rule that could not be migrated is not referenced,
+      * and the rules already listed are skipped, such that a migration can be
+      * resumed. Every target chain is updated once, and different chains are
+      * updated in parallel.
+      */
+    def linkJumpRules(rules: Seq[Message]): Unit = {
+        val start = System.nanoTime()
+        implicit val ec = writeContext
+
+        val jumpRules = rules.collect {
+            case rule: Rule if rule.getType == Rule.Type.JUMP_RULE &&
+                               rule.getJumpRuleData.hasJumpChainId => rule
+        }.groupBy(_.getJumpRuleData.getJumpChainId.asJava)
+
+        log.info(s"Linking jump rules to ${jumpRules.size} chains")
+        val updates = for ((chainId, chainRules) <- jumpRules) yield Future {
+            try {
+                ConflictRetriable.retry(log.underlying,
+                                        s"Linking jump rules to chain $chainId") {
+                    linkJumpRules(chainId, chainRules)
+                }
+            } catch {
+                case NonFatal(e) =>
+                    failedCount.incrementAndGet()
+                    log.error(s"Failed to link jump rules to chain $chainId", e)
+                    System.err.println("Error: " + e.getMessage)
+            }
+        }
+        await(Future.sequence(updates))
+
+        log.info(s"Linked ${jumpRules.values.map(_.size).sum} jump rules in " +
+                 s"${TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)} ms")
+    }
+
+    override def close(): Unit = {
+        readExecutor.shutdownNow()
+        writeExecutor.shutdownNow()
+    }
+
+    /**
+      * Groups consecutive subtrees into chunks of about `batchSize` objects,
+      * which the workers write in parallel. A subtree is never split across
+      * chunks, so that its objects are created in order.
+      */
+    private def group(subtrees: Seq[Subtree]): Seq[Seq[Message]] = {
+        val chunks = new ArrayBuffer[Seq[Message]]
+        var chunk = new ArrayBuffer[Message]
+        for (subtree <- subtrees if subtree.nonEmpty) {
+            if (chunk.nonEmpty && chunk.size + subtree.size > batchSize) {
+                chunks += chunk
+                chunk = new ArrayBuffer[Message]
+            }
+            chunk ++= subtree
+        }
+        if (chunk.nonEmpty) {
+            chunks += chunk
+        }
+        chunks
+    }
+
+    private def createBatch(batch: Seq[Message]): Unit = {
+        try {
+            ConflictRetriable.retry(log.underlying,
+                                    s"Creating ${batch.size} objects") {
+                store.multi(batch.map(CreateOp(_)))
+            }
+            migratedCount.addAndGet(batch.size)
+        } catch {
+            case NonFatal(e) if batch.size > 1 =>
+                log.debug(s"Failed to create ${batch.size} objects, retrying " +
+                          s"one object at a time: ${e.getMessage}")
+                batch.foreach(obj => createBatch(Seq(obj)))
+            case e: ObjectExistsException =>
+                // Probably just an object that has already been migrated.
+                if (!suppressExistsWarning)
+                    println("Warning: " + e.getMessage)
+            case NonFatal(e) =>
+                failedCount.incrementAndGet()
+                log.error(s"Failed to migrate ${batch.head}", e)
+                System.err.println("Error: " + e.getMessage)
+        }
+    }
+
+    private def linkJumpRules(chainId: UUID, rules: Seq[Rule])
+    : Unit = {
+        val tx = store.transaction()
+        val chain = tx.get(classOf[Chain], chainId)
+        val listed = chain.getJumpRuleIdsList.asScala.map(_.asJava).toSet
+        val linked = rules.map(_.getId.asJava).filter { id =>
+            !listed.contains(id) && tx.exists(classOf[Rule], id)
+        }
+        if (linked.nonEmpty) {
+            tx.update(chain.toBuilder
+                          .addAllJumpRuleIds(linked.map(_.asProto).asJava)
+                          .build())
+            tx.commit()
+        }
+    }
+
+    private def rate(count: Long, nanos: Long): Double = {
+        if (nanos > 0) count * 1e9 / nanos else 0d
+    }
+
+}
@@ -35,6 +35,7 @@ import scala.io.StdIn
 import scala.util.control.NonFatal
 
 import com.codahale.metrics.MetricRegistry
+import com.google.protobuf.Message
 import com.google.inject.name.Names
 import com.google.inject.servlet.{ServletModule, ServletScopes}
 import com.google.inject.{AbstractModule, Guice, Injector, Key}
@@ -68,7 +69,7 @@ import org.midonet.midolman.cluster.serialization.SerializationModule
 import org.midonet.midolman.cluster.zookeeper.ZookeeperConnectionModule.ZookeeperReactorProvider
 import org.midonet.midolman.cluster.zookeeper.DirectoryProvider
 import org.midonet.midolman.state.PathBuilder
-import org.midonet.packets.{IPSubnet, IPv4Addr, IPv4Subnet, IPv6Subnet}
+import org.midonet.packets.{IPSubnet, IPv4Addr, IPv4Subnet, IPv6Subnet, MAC}
 import org.midonet.util.concurrent.toFutureOps
 import org.midonet.util.eventloop.Reactor
 
@@ -115,6 +116,20 @@ object Migrator extends App {
             "bgp-only", default = Some(false), noshort = true,
             descr = "Migrate only BGP data. Useful when reattempting " +
                     "migration after failed conflict resolution.")
+        val bulk = opt[Boolean](
+            "bulk", default = Some(false), noshort = true,
+            descr = "Migrate hosts, chains, rules, load balancers, bridges, " +
+                    "DHCP subnets, routers, port groups and health monitors " +
+                    "directly to the storage, in batched transactions " +
+                    "written by parallel workers. Recommended for large " +
+                    "topologies.")
+        val batchSize = opt[Int](
+            "batch-size", default = Some(100), noshort = true,
+            descr = "Maximum number of objects per transaction in bulk mode.",
+            validate = _ > 0)
+        val workers = opt[Int](
+            "workers", 'w', "Number of parallel workers in bulk mode.",
+            default = Some(8), validate = _ > 0)
 
         private val bgpResolutionValues =
             Set("interactive", "merge-ad-routes", "skip-bgp")
@@ -157,6 +172,8 @@ object Migrator extends App {
 
     private val resources = loadV5Resources()
 
+    private val validator = v5Injector.getInstance(classOf[Validator])
+
     migrateData()
 
     System.exit(0)
@@ -305,6 +322,8 @@ object Migrator extends App {
 
             if (opts.bgpOnly()) {
                 migrateBgp()
+            } else if (opts.bulk()) {
+                migrateDataInBulk(routers)
             } else {
                 migrateHosts()
                 migrateTunnelZones()
@@ -339,6 +358,142 @@ object Migrator extends App {
         }
     }
 
+    /**
+     * Migrates the topology in the same order as [[migrateData]], but creates
+     * the objects that do not need the API, other than for validation,
+     * directly in the storage with a [[BulkMigrator]]. The legacy objects
+     * migrated in bulk are read in advance, such that the reads overlap with
+     * the migration of the previous types. Tunnel zones, IP address groups,
+     * VTEPs, ports, routes, trace requests, pools, VIPs and BGP are migrated
+     * through the API as usual, since their creation allocates tunnel keys,
+     * creates other objects or validates the object against the topology.
+     */
+    private def migrateDataInBulk(routers: Seq[Router]): Unit = {
+        val bulk = new BulkMigrator(backend.store, opts.batchSize(),
+                                    opts.workers(),
+                                    opts.suppressExistsWarning())
+        try {
+            val hosts = bulk.read(legacyImporter.listHosts)
+            val chains = bulk.readEach(bulk.read(legacyImporter.listChains)) {
+                chain => legacyImporter.listRules(chain.id)
+            }
+            val loadBalancers = bulk.read(legacyImporter.listLoadBalancers)
+            val bridges = bulk.readEach(bulk.read(legacyImporter.listBridges)) {
+                bridge =>
+                    val subnets = for (s <- legacyImporter.listDhcpSubnets(bridge.id))
+                        yield (s, legacyImporter.listDhcpHosts(
+                            bridge.id, s.subnetAddress.asInstanceOf[IPv4Subnet]))
+                    (subnets, legacyImporter.listDhcpSubnet6s(bridge.id))
+            }
+            val portGroups = bulk.read(legacyImporter.listPortGroups)
+            val healthMonitors = bulk.read(legacyImporter.listHealthMonitors)
+
+            bulk.create("hosts", for (h <- bulk.await(hosts)) yield {
+                // Zoom will add the ports back when we migrate them.
+                h.portIds = null
+                Seq(ZoomConvert.toProto(h, classOf[Topology.Host]))
+            })
+
+            migrateTunnelZones()
+            migrateIpAddrGroups()
+
+            // Migrate all chains before their rules, since a jump rule may
+            // target any chain. The rules of each chain are created in order,
+            // and Zoom adds them to the chain in that order. Zoom does not
+            // add the jump rules to their target chain, which is done after
+            // all rules have been created, as the API does.
+            val chainsAndRules = bulk.await(chains)
+            bulk.create("chains", for ((chain, _) <- chainsAndRules) yield {
+                chain.ruleIds = null
+                chain.jumpRuleIds = null
+                protoOf(chain, chain.create()).toSeq
+            })
+            val rules = for ((chain, rules) <- chainsAndRules) yield {
+                rules.flatMap { rule =>
+                    protoOf(rule, { rule.create(); rule.chainId = chain.id })
+                }
+            }
+            bulk.create("rules", rules)
+            bulk.linkJumpRules(rules.flatten)
+
+            bulk.create("load balancers", for (lb <- bulk.await(loadBalancers))
+                yield {
+                    lb.routerId = null
+                    protoOf(lb, lb.create()).toSeq
+                })
+
+            val bridgesAndSubnets = bulk.await(bridges)
+            bulk.create("bridges", for ((b, (subnets, _)) <- bridgesAndSubnets)
+                yield {
+                    b.vxLanPortIds = null
+                    val bridge = protoOf(b, b.create()).toSeq
+                    bridge ++ subnets.flatMap { case (s, hosts) =>
+                        // The DHCP hosts are part of the subnet object.
+                        val macs = mutable.Set[MAC]()
+                        s.dhcpHosts = new util.ArrayList[DhcpHost](hosts.filter(
+                            h => macs.add(MAC.fromString(h.macAddr))))
+                        protoOf(s, s.create(b.id))
+                    }
+                })
+            for ((b, (_, subnet6s)) <- bridgesAndSubnets; s <- subnet6s) {
+                migrateDhcpSubnet6(b.id, s)
+            }
+
+            bulk.create("routers", for (r <- routers) yield {
+                if (r.tenantId == null) {
+                    warnIfNotProviderRouter(r)
+                    Seq(ZoomConvert.toProto(r, classOf[Topology.Router]))
+                } else {
+                    protoOf(r, r.create()).toSeq
+                }
+            })
+
+            val vtepIds = migrateVteps()
+            bulk.create("port groups", for (pg <- bulk.await(portGroups))
+                yield protoOf(pg, pg.create()).toSeq)
+            migratePorts(vtepIds)
+            migrateRoutes(routers.map(_.id))
+            migrateTraceRequests()
+            bulk.create("health monitors", for (hm <- bulk.await(healthMonitors))
+                yield protoOf(hm, hm.create()).toSeq)
+            migratePools()
+            migrateVips()
+            migrateBgp()
+
+            println(f"Migrated ${bulk.migrated} objects in bulk " +
+                    f"(${bulk.rate}%.1f objects/s), ${bulk.failed} failed.")
+        } finally {
+            bulk.close()
+        }
+    }
+
+    /**
+     * Validates the given resource as the API would, and returns its Zoom
+     * object. Returns None and prints an error if the resource is not valid.
+     * The `create` argument is evaluated first, to prepare the resource for
+     * creation.
+     */
+    private def protoOf(r: UriResource, create: => Unit = ()): Option[Message] = {
+        try {
+            create
+            val violations = validator.validate(r)
+            if (!violations.isEmpty) {
+                val msg = violations.map { v =>
+                    v.getPropertyPath + " " + v.getMessage
+                }
+                System.err.println(s"Error: Validation error(s) for $r: " +
+                                   msg.mkString("; "))
+                None
+            } else {
+                Some(ZoomConvert.toProto(r, r.getZoomClass))
+            }
+        } catch {
+            case ex: WebApplicationException =>
+                System.err.println("Error: " + getWebAppExErrorMsg(ex))
+                None
+        }
+    }
+
     /** Migrates Hosts. Prerequisites: None. */
     private def migrateHosts(): Unit = {
         for (h <- legacyImporter.listHosts) {
@@ -387,16 +542,20 @@ object Migrator extends App {
         }
 
         for (s <- legacyImporter.listDhcpSubnet6s(bridgeId)) {
-            log.info("Migrating " + s)
-            val resp = resources.bridges.dhcpsv6(bridgeId)
-                .create(s, APPLICATION_DHCPV6_SUBNET_JSON)
-            handleResponse(resp)
-
-            migrateDhcpV6Hosts(bridgeId,
-                               s.subnetAddress.asInstanceOf[IPv6Subnet])
+            migrateDhcpSubnet6(bridgeId, s)
         }
     }
 
+    /** Migrates a DhcpSubnet6 and its hosts for the specified bridge. */
+    private def migrateDhcpSubnet6(bridgeId: UUID, s: DhcpSubnet6): Unit = {
+        log.info("Migrating " + s)
+        val resp = resources.bridges.dhcpsv6(bridgeId)
+            .create(s, APPLICATION_DHCPV6_SUBNET_JSON)
+        handleResponse(resp)
+
+        migrateDhcpV6Hosts(bridgeId, s.subnetAddress.asInstanceOf[IPv6Subnet])
+    }
+
     /** Migrates DhcpHosts for the specified bridge and subnet. */
     private def migrateDhcpHosts(bridgeId: UUID, subnet: IPv4Subnet): Unit = {
         for (h <- legacyImporter.listDhcpHosts(bridgeId, subnet)) {
@@ -479,9 +638,7 @@ object Migrator extends App {
     }
 
     private def migrateTenantlessRouter(r: Router): Unit = {
-        if (r.name != ProviderRouter.NAME)
-            log.warn(s"Router ${r.id}, has no tenantId, but is not the " +
-                     "provider router. This may indicate corruption.")
+        warnIfNotProviderRouter(r)
 
         // Need to bypass RouterResource because it won't accept a router with
         // no tenant.
@@ -492,6 +649,12 @@ object Migrator extends App {
         }
     }
 
+    private def warnIfNotProviderRouter(r: Router): Unit = {
+        if (r.name != ProviderRouter.NAME)
+            log.warn(s"Router ${r.id}, has no tenantId, but is not the " +
+                     "provider router. This may indicate corruption.")
+    }
+
     /** Migrates tunnel zones. Prerequisites: None. */
     private def migrateTunnelZones(): Unit = {
         for (tz <- legacyImporter.listTunnelZones) {
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.cluster.auth.keystone
+
+import java.util.concurrent.TimeUnit
+
+import com.typesafe.config.ConfigFactory
+
+import org.openjdk.jmh.annotations._
+import org.slf4j.LoggerFactory
+
+import org.midonet.cluster.auth.UserIdentity
+import org.midonet.conf.MidoTestConfigurator
+
+import ch.qos.logback.classic.{Level, Logger}
+
+object KeystoneServiceBenchmark {
+
+    /** The stub Keystone server of the Keystone tests. */
+    class StubKeystone extends KeystoneTest {
+        def port = keystonePort
+        def adminToken = keystoneToken
+        def password = keystonePassword
+        def start(): Unit = beforeAll()
+        def stop(): Unit = afterAll()
+    }
+
+}
+
+/**
+  * Measures the number of API requests per second authorized by the
+  * [[KeystoneService]] against a local stub Keystone server, with and
+  * without the token cache. Without the cache, every request validates its
+  * token with a Keystone request.
+  */
+@BenchmarkMode(Array(Mode.Throughput))
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+class KeystoneServiceBenchmark {
+
+    import KeystoneServiceBenchmark._
+
+    @Param(Array("0", "1024"))
+    var tokenCacheSize: Int = _
+
+    private var keystone: StubKeystone = _
+    private var service: KeystoneService = _
+    private var token: String = _
+
+    @Setup
+    def setup(): Unit = {
+        val root = LoggerFactory.getLogger("org.midonet").asInstanceOf[Logger]
+        root.setLevel(Level.OFF)
+
+        keystone = new StubKeystone
+        keystone.start()
+
+        val config = ConfigFactory.parseString(
+            s"""
+               |cluster.auth.keystone.version : 2
+               |cluster.auth.keystone.host : 127.0.0.1
+               |cluster.auth.keystone.port : ${keystone.port}
+               |cluster.auth.keystone.admin_token : ${keystone.adminToken}
+               |cluster.auth.keystone.token_cache_size : $tokenCacheSize
+            """.stripMargin)
+            .withFallback(MidoTestConfigurator.forClusters())
+        service = new KeystoneService(config)
+        token = service.authenticate("admin", keystone.password,
+                                     Some("admin")).key
+    }
+
+    @TearDown
+    def teardown(): Unit = {
+        keystone.stop()
+    }
+
+    @Benchmark
+    def authorize(): UserIdentity = {
+        service.authorize(token)
+    }
+
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.cluster.services.c3po
+
+import java.util.UUID
+import java.util.concurrent.TimeUnit
+
+import com.google.protobuf.Message
+
+import org.openjdk.jmh.annotations._
+import org.openjdk.jmh.infra.Blackhole
+import org.slf4j.LoggerFactory
+
+import org.midonet.cluster.data.storage.{InMemoryStorage, Transaction}
+import org.midonet.cluster.models.Commons.{EtherType, Protocol, RuleDirection}
+import org.midonet.cluster.models.Neutron.{NeutronNetwork, NeutronSubnet, SecurityGroup, SecurityGroupRule}
+import org.midonet.cluster.services.MidonetBackend
+import org.midonet.cluster.services.c3po.NeutronTranslatorManager.{Create, Operation}
+import org.midonet.cluster.services.c3po.translators._
+import org.midonet.cluster.util.IPSubnetUtil
+import org.midonet.cluster.util.UUIDUtil._
+
+import ch.qos.logback.classic.{Level, Logger}
+
+/**
+  * Benchmarks the throughput of the Neutron to MidoNet translation against an
+  * in-memory storage, such that the measurement includes the translation
+  * and the transaction overhead, but excludes any ZooKeeper latency.
+  */
+@BenchmarkMode(Array(Mode.Throughput))
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+class NeutronTranslationBenchmark {
+
+    private var storage: InMemoryStorage = _
+
+    private val networkTranslator = new NetworkTranslator
+    private val subnetTranslator = new SubnetTranslator
+    private val securityGroupTranslator = new SecurityGroupTranslator
+
+    @Param(Array("1", "10"))
+    var subnetsPerNetwork: Int = _
+
+    @Param(Array("4", "40"))
+    var rulesPerSecurityGroup: Int = _
+
+    @Setup
+    def setup(): Unit = {
+        val root = LoggerFactory.getLogger("org.midonet").asInstanceOf[Logger]
+        root.setLevel(Level.OFF)
+
+        storage = new InMemoryStorage
+        MidonetBackend.setupBindings(storage, storage)
+    }
+
+    private def translate[T <: Message](tx: Transaction,
+                                        translator: Translator[T],
+                                        op: Operation[T]): Unit = {
+        translator.translateOp(tx, op).foreach(_.apply(tx))
+    }
+
+    @Benchmark
+    def createNetworkWithSubnets(blackhole: Blackhole): Unit = {
+        val networkId = UUID.randomUUID()
+        val network = NeutronNetwork.newBuilder()
+            .setId(networkId)
+            .setTenantId("tenant")
+            .setName("network")
+            .setAdminStateUp(true)
+            .build()
+
+        storage.tryTransaction { tx =>
+            translate(tx, networkTranslator, Create(network))
+            for (index <- 0 until subnetsPerNetwork) {
+                val subnet = NeutronSubnet.newBuilder()
+                    .setId(UUID.randomUUID())
+                    .setNetworkId(networkId)
+                    .setTenantId("tenant")
+                    .setIpVersion(4)
+                    .setCidr(IPSubnetUtil.toProto(s"10.0.$index.0/24"))
+                    .setEnableDhcp(true)
+                    .build()
+                translate(tx, subnetTranslator, Create(subnet))
+            }
+        }
+        blackhole.consume(networkId)
+    }
+
+    @Benchmark
+    def createSecurityGroup(blackhole: Blackhole): Unit = {
+        val securityGroupId = UUID.randomUUID()
+        val builder = SecurityGroup.newBuilder()
+            .setId(securityGroupId)
+            .setTenantId("tenant")
+            .setName("security-group")
+        for (index <- 0 until rulesPerSecurityGroup) {
+            builder.addSecurityGroupRules(
+                SecurityGroupRule.newBuilder()
+                    .setId(UUID.randomUUID())
+                    .setSecurityGroupId(securityGroupId)
+                    .setDirection(if (index % 2 == 0) RuleDirection.INGRESS
+                                  else RuleDirection.EGRESS)
+                    .setEthertype(EtherType.IPV4)
+                    .setProtocol(Protocol.TCP)
+                    .setPortRangeMin(1000 + index)
+                    .setPortRangeMax(1000 + index)
+                    .setRemoteIpPrefix(s"10.${index % 256}.0.0/16"))
+        }
+
+        storage.tryTransaction { tx =>
+            translate(tx, securityGroupTranslator, Create(builder.build()))
+        }
+        blackhole.consume(securityGroupId)
+    }
+
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.cluster.services.state
+
+import java.util.UUID
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.{CountDownLatch, ExecutorService, Executors, TimeUnit}
+
+import scala.concurrent.Future
+import scala.concurrent.duration._
+
+import com.codahale.metrics.MetricRegistry
+import com.typesafe.config.ConfigFactory
+
+import org.apache.curator.framework.{CuratorFramework, CuratorFrameworkFactory}
+import org.apache.curator.retry.RetryNTimes
+import org.apache.curator.test.TestingServer
+import org.apache.zookeeper.CreateMode
+import org.openjdk.jmh.annotations._
+import org.openjdk.jmh.infra.Blackhole
+import org.slf4j.LoggerFactory
+
+import rx.Observable
+
+import org.midonet.cluster.StateProxyConfig
+import org.midonet.cluster.data.storage.ZookeeperObjectMapper
+import org.midonet.cluster.data.storage.metrics.StorageMetrics
+import org.midonet.cluster.models.Topology.Network
+import org.midonet.cluster.rpc.State.ProxyResponse.Notify
+import org.midonet.cluster.services.MidonetBackend
+import org.midonet.cluster.services.state.client.StateTableClient.ConnectionState.{ConnectionState => StateClientConnectionState}
+import org.midonet.cluster.services.state.client.{StateSubscriptionKey, StateTableClient}
+import org.midonet.cluster.storage.MidonetBackendConfig
+import org.midonet.packets.MAC
+import org.midonet.util.eventloop.CallingThreadReactor
+
+import ch.qos.logback.classic.{Level, Logger}
+
+object StateTableCacheBenchmark {
+
+    private object NoProxy extends StateTableClient {
+        override def stop(): Boolean = false
+        override def observable(table: StateSubscriptionKey): Observable[Notify.Update] =
+            Observable.never()
+        override def connection: Observable[StateClientConnectionState] =
+            Observable.never()
+        override def start(): Unit = { }
+    }
+
+    /**
+      * Counts down a latch for every notification that ends a snapshot or a
+      * relative update.
+      */
+    private class Observer extends StateTableObserver {
+        @volatile private var latch = new CountDownLatch(1)
+        def reset(count: Int): Unit = { latch = new CountDownLatch(count) }
+        override def next(notify: Notify): Future[AnyRef] = {
+            if (notify.hasUpdate && notify.getUpdate.getEnd) {
+                latch.countDown()
+            }
+            Future.successful(null)
+        }
+        def await(duration: Duration): Boolean =
+            latch.await(duration.toMillis, TimeUnit.MILLISECONDS)
+    }
+
+}
+
+/**
+  * Benchmarks the state table cache of the state proxy against an in-process
+  * ZooKeeper test server, using a MAC table with `entries` entries that is
+  * created during the setup: the snapshot sent to a new subscriber, and the
+  * fan-out of a table change to `subscribers` subscribers, which includes
+  * reading the table children and computing the difference with the cached
+  * entries.
+  */
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+class StateTableCacheBenchmark {
+
+    import StateTableCacheBenchmark._
+
+    private final val zkRoot = "/midonet/benchmark"
+    private final val timeout = 30 seconds
+    private final val backendConfig = new MidonetBackendConfig(
+        ConfigFactory.parseString(
+            s"""
+               |zookeeper.root_key=$zkRoot
+            """.stripMargin))
+    private final val proxyConfig = new StateProxyConfig(
+        ConfigFactory.parseString(
+            """
+              |cluster.state_proxy.initial_subscriber_queue_size : 16
+              |cluster.state_proxy.notify_batch_size : 64
+            """.stripMargin))
+
+    @Param(Array("100", "10000"))
+    var entries: Int = _
+
+    @Param(Array("1", "100"))
+    var subscribers: Int = _
+
+    private var zkServer: TestingServer = _
+    private var curator: CuratorFramework = _
+    private var executor: ExecutorService = _
+    private var cache: StateTableCache = _
+    private var tablePath: String = _
+    private var observer: Observer = _
+    private var subscriptions: Seq[StateTableSubscription] = _
+    private var changedEntry: String = _
+
+    @Setup
+    def setup(): Unit = {
+        val root = LoggerFactory.getLogger("org.midonet").asInstanceOf[Logger]
+        root.setLevel(Level.OFF)
+
+        zkServer = new TestingServer
+        zkServer.start()
+        curator = CuratorFrameworkFactory.newClient(zkServer.getConnectString,
+                                                    10000, 10000,
+                                                    new RetryNTimes(2, 1000))
+        curator.start()
+        curator.blockUntilConnected()
+
+        val storage = new ZookeeperObjectMapper(
+            backendConfig, UUID.randomUUID().toString, curator, curator,
+            NoProxy, new CallingThreadReactor,
+            new StorageMetrics(new MetricRegistry))
+        MidonetBackend.setupBindings(storage, storage)
+
+        val networkId = UUID.randomUUID()
+        tablePath = storage.tablePath(classOf[Network], networkId,
+                                      MidonetBackend.MacTable)
+        curator.create().creatingParentsIfNeeded().forPath(tablePath)
+        for (index <- 0 until entries) {
+            curator.create().withMode(CreateMode.EPHEMERAL)
+                   .forPath(f"$tablePath/${MAC.random()},${UUID.randomUUID()}," +
+                            f"$index%010d")
+        }
+        changedEntry = f"$tablePath/${MAC.random()},${UUID.randomUUID()}," +
+                       f"$entries%010d"
+
+        executor = Executors.newSingleThreadExecutor()
+        cache = new StateTableCache(proxyConfig, storage, curator,
+                                    new AtomicLong(), classOf[Network],
+                                    networkId, classOf[MAC], classOf[UUID],
+                                    MidonetBackend.MacTable, Seq.empty,
+                                    executor, _ => { })
+
+        // The subscribers share the same observer, and keep the cache
+        // synchronized with the table between the benchmark invocations.
+        observer = new Observer
+        observer.reset(subscribers)
+        subscriptions = for (index <- 0 until subscribers)
+            yield cache.subscribe(observer, lastVersion = None)
+        observer.await(timeout)
+    }
+
+    @TearDown
+    def tearDown(): Unit = {
+        subscriptions foreach { _.unsubscribe() }
+        cache.close()
+        executor.shutdown()
+        curator.close()
+        zkServer.close()
+    }
+
+    /**
+      * Subscribes to the cache and waits for the snapshot of the table.
+      */
+    @Benchmark
+    def subscribeSnapshot(blackhole: Blackhole): Unit = {
+        val snapshotObserver = new Observer
+        val subscription = cache.subscribe(snapshotObserver, lastVersion = None)
+        blackhole.consume(snapshotObserver.await(timeout))
+        subscription.unsubscribe()
+    }
+
+    /**
+      * Adds or removes an entry of the table and waits until all subscribers
+      * receive the update.
+      */
+    @Benchmark
+    def updateFanOut(blackhole: Blackhole): Unit = {
+        observer.reset(subscribers)
+        if (curator.checkExists().forPath(changedEntry) eq null) {
+            curator.create().withMode(CreateMode.EPHEMERAL)
+                   .forPath(changedEntry)
+        } else {
+            curator.delete().forPath(changedEntry)
+        }
+        blackhole.consume(observer.await(timeout))
+    }
+
+}
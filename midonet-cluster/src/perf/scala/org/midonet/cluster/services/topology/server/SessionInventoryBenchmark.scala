@@ -0,0 +1,153 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.cluster.services.topology.server
+
+import java.util.UUID
+import java.util.concurrent.{CountDownLatch, TimeUnit}
+
+import scala.collection.mutable
+
+import org.openjdk.jmh.annotations._
+import org.openjdk.jmh.infra.Blackhole
+import org.slf4j.LoggerFactory
+
+import rx.{Observer, Subscription}
+
+import org.midonet.cluster.data.storage.InMemoryStorage
+import org.midonet.cluster.models.Topology.Network
+import org.midonet.cluster.rpc.Commands.{Response, ResponseType}
+import org.midonet.cluster.util.UUIDUtil._
+
+import ch.qos.logback.classic.{Level, Logger}
+
+/**
+  * Benchmarks the fan-out of topology updates through the Topology API
+  * [[SessionInventory]]: an update to a single object watched by all sessions
+  * is converted to a response and buffered for every connected session.
+  *
+  * The encode benchmarks compare serializing the update response for every
+  * session with the shared serialization of the [[UpdateCache]]. Run them
+  * with the GC profiler (-prof gc) to compare the allocation per update.
+  */
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+class SessionInventoryBenchmark {
+
+    private final val timeoutMillis = 30000L
+
+    private var storage: InMemoryStorage = _
+    private var inventory: SessionInventory = _
+    private var network: Network = _
+    private var reqIds: Array[UUID] = _
+    private val subscriptions = new mutable.ArrayBuffer[Subscription]
+    @volatile private var latch: CountDownLatch = _
+
+    @Param(Array("1", "100", "1000"))
+    var sessions: Int = _
+
+    private class UpdateObserver extends Observer[Response] {
+        override def onNext(response: Response): Unit = {
+            if (response.getType == ResponseType.UPDATE) {
+                val l = latch
+                if (l ne null) l.countDown()
+            }
+        }
+        override def onCompleted(): Unit = { }
+        override def onError(e: Throwable): Unit = { }
+    }
+
+    @Setup
+    def setup(): Unit = {
+        val root = LoggerFactory.getLogger("org.midonet").asInstanceOf[Logger]
+        root.setLevel(Level.OFF)
+
+        storage = new InMemoryStorage
+        storage.registerClass(classOf[Network])
+        storage.build()
+        inventory = new SessionInventory(storage)
+
+        network = Network.newBuilder()
+            .setId(UUID.randomUUID())
+            .setName("network")
+            .build()
+        storage.create(network)
+
+        reqIds = Array.fill(sessions)(UUID.randomUUID())
+
+        latch = new CountDownLatch(sessions)
+        for (index <- 0 until sessions) {
+            val session = inventory.claim(UUID.randomUUID())
+            subscriptions += session.observable(0).subscribe(new UpdateObserver)
+            session.watch(network.getId, classOf[Network], UUID.randomUUID())
+        }
+        latch.await(timeoutMillis, TimeUnit.MILLISECONDS)
+    }
+
+    @TearDown
+    def tearDown(): Unit = {
+        subscriptions.foreach(_.unsubscribe())
+        subscriptions.clear()
+    }
+
+    @Benchmark
+    def buildUpdate(blackhole: Blackhole): Unit = {
+        blackhole.consume(SessionInventory.updateBuilder(network).build())
+    }
+
+    @Benchmark
+    def encodeUpdatePerSession(blackhole: Blackhole): Unit = {
+        val update = network.toBuilder.setName(UUID.randomUUID().toString)
+                            .build()
+        var index = 0
+        while (index < sessions) {
+            val rsp = SessionInventory.updateBuilder(update, reqIds(index))
+                                      .setSeqno(index).build()
+            blackhole.consume(rsp.toByteArray)
+            index += 1
+        }
+    }
+
+    @Benchmark
+    def encodeUpdateShared(blackhole: Blackhole): Unit = {
+        val update = network.toBuilder.setName(UUID.randomUUID().toString)
+                            .build()
+        val cache = inventory.updateCache
+        var index = 0
+        while (index < sessions) {
+            val rsp = cache.updateBuilder(update, reqIds(index))
+                           .setSeqno(index).build()
+            val data = cache.encode(rsp)
+            blackhole.consume(data)
+            data.release()
+            index += 1
+        }
+    }
+
+    @Benchmark
+    def updateFanOut(blackhole: Blackhole): Unit = {
+        latch = new CountDownLatch(sessions)
+        storage.update(network.toBuilder
+                              .setName(UUID.randomUUID().toString)
+                              .build())
+        blackhole.consume(latch.await(timeoutMillis, TimeUnit.MILLISECONDS))
+    }
+
+}
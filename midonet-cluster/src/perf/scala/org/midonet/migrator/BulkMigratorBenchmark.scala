@@ -0,0 +1,164 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.migrator
+
+import java.util.UUID
+import java.util.concurrent.TimeUnit
+
+import com.codahale.metrics.MetricRegistry
+import com.google.protobuf.Message
+import com.typesafe.config.ConfigFactory
+
+import org.apache.curator.framework.{CuratorFramework, CuratorFrameworkFactory}
+import org.apache.curator.retry.RetryNTimes
+import org.apache.curator.test.TestingServer
+import org.openjdk.jmh.annotations._
+import org.slf4j.LoggerFactory
+
+import rx.Observable
+
+import org.midonet.cluster.data.storage.ZookeeperObjectMapper
+import org.midonet.cluster.data.storage.metrics.StorageMetrics
+import org.midonet.cluster.models.Topology.{Chain, Dhcp, Network, Rule}
+import org.midonet.cluster.rpc.State.ProxyResponse.Notify
+import org.midonet.cluster.services.MidonetBackend
+import org.midonet.cluster.services.state.client.StateTableClient.ConnectionState.{ConnectionState => StateClientConnectionState}
+import org.midonet.cluster.services.state.client.{StateSubscriptionKey, StateTableClient}
+import org.midonet.cluster.storage.MidonetBackendConfig
+import org.midonet.cluster.util.IPSubnetUtil
+import org.midonet.cluster.util.UUIDUtil._
+import org.midonet.util.eventloop.CallingThreadReactor
+
+import ch.qos.logback.classic.{Level, Logger}
+
+/**
+  * Measures the time to migrate a synthetic topology of `objects` objects
+  * with the [[BulkMigrator]] to an in-process ZooKeeper test server: 20% of
+  * the objects are chains with 19 rules each, and the rest are bridges with
+  * a DHCP subnet each. The migration rate in objects per second is `objects`
+  * divided by the measured time. A batch size of one and a single worker
+  * correspond to migrating one object at a time.
+  */
+@BenchmarkMode(Array(Mode.SingleShotTime))
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+@State(Scope.Benchmark)
+class BulkMigratorBenchmark {
+
+    import BulkMigrator.Subtree
+
+    private val stateTables = new StateTableClient {
+        override def stop(): Boolean = false
+        override def observable(table: StateSubscriptionKey): Observable[Notify.Update] =
+            Observable.never()
+        override def connection: Observable[StateClientConnectionState] =
+            Observable.never()
+        override def start(): Unit = { }
+    }
+
+    @Param(Array("100000"))
+    var objects: Int = _
+
+    @Param(Array("1", "100"))
+    var batchSize: Int = _
+
+    @Param(Array("1", "8"))
+    var workers: Int = _
+
+    private var zkServer: TestingServer = _
+    private var curator: CuratorFramework = _
+    private var storage: ZookeeperObjectMapper = _
+
+    private var chains: Seq[Subtree] = _
+    private var rules: Seq[Subtree] = _
+    private var bridges: Seq[Subtree] = _
+
+    @Setup(Level.Trial)
+    def setup(): Unit = {
+        val root = LoggerFactory.getLogger("org.midonet").asInstanceOf[Logger]
+        root.setLevel(Level.OFF)
+
+        zkServer = new TestingServer
+        zkServer.start()
+        curator = CuratorFrameworkFactory.newClient(zkServer.getConnectString,
+                                                    10000, 10000,
+                                                    new RetryNTimes(2, 1000))
+        curator.start()
+        curator.blockUntilConnected()
+
+        val chainIds = Seq.fill(objects / 100)(UUID.randomUUID())
+        chains = for (id <- chainIds) yield Seq[Message](
+            Chain.newBuilder().setId(id.asProto).setName(id.toString).build())
+        rules = for (chainId <- chainIds) yield Seq.fill[Message](19) {
+            Rule.newBuilder()
+                .setId(UUID.randomUUID().asProto)
+                .setChainId(chainId.asProto)
+                .setType(Rule.Type.LITERAL_RULE)
+                .setAction(Rule.Action.ACCEPT)
+                .build()
+        }
+        bridges = for (index <- 0 until (objects - chainIds.size * 20) / 2)
+            yield {
+                val bridgeId = UUID.randomUUID()
+                Seq[Message](
+                    Network.newBuilder()
+                        .setId(bridgeId.asProto)
+                        .setName(s"bridge-$index")
+                        .build(),
+                    Dhcp.newBuilder()
+                        .setId(UUID.randomUUID().asProto)
+                        .setNetworkId(bridgeId.asProto)
+                        .setSubnetAddress(IPSubnetUtil.toProto("10.0.0.0/24"))
+                        .build())
+            }
+    }
+
+    @Setup(Level.Invocation)
+    def setupStorage(): Unit = {
+        // Every migration starts from an empty topology.
+        val config = new MidonetBackendConfig(ConfigFactory.parseString(
+            s"zookeeper.root_key=/midonet/${UUID.randomUUID()}"))
+        storage = new ZookeeperObjectMapper(config, UUID.randomUUID().toString,
+                                            curator, curator, stateTables,
+                                            new CallingThreadReactor,
+                                            new StorageMetrics(new MetricRegistry))
+        MidonetBackend.setupBindings(storage, storage)
+    }
+
+    @TearDown(Level.Trial)
+    def teardown(): Unit = {
+        curator.close()
+        zkServer.close()
+    }
+
+    @Benchmark
+    def migrate(): Long = {
+        val bulk = new BulkMigrator(storage, batchSize, workers,
+                                    suppressExistsWarning = true)
+        try {
+            bulk.create("chains", chains)
+            bulk.create("rules", rules)
+            bulk.create("bridges", bridges)
+            bulk.migrated
+        } finally {
+            bulk.close()
+        }
+    }
+
+}
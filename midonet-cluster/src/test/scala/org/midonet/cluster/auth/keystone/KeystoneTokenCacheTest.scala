@@ -0,0 +1,155 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.cluster.auth.keystone
+
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.{CountDownLatch, Executors, TimeUnit}
+
+import scala.concurrent.duration._
+import scala.concurrent.{Await, ExecutionContext, Future}
+
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.{FlatSpec, Matchers}
+
+import org.midonet.cluster.auth.UserIdentity
+
+@RunWith(classOf[JUnitRunner])
+class KeystoneTokenCacheTest extends FlatSpec with Matchers {
+
+    private val validations = new AtomicInteger
+
+    private def validate(token: String, expiresIn: Duration = 1 hour)
+    : (UserIdentity, Long) = {
+        validations.incrementAndGet()
+        (new UserIdentity("tenant", "tenant", "user", token),
+         System.currentTimeMillis() + expiresIn.toMillis)
+    }
+
+    "Cache" should "validate a token once" in {
+        val cache = new KeystoneTokenCache(16, 1 minute)
+        validations.set(0)
+
+        val identity1 = cache.get("token", None) { validate("token") }
+        val identity2 = cache.get("token", None) { validate("token") }
+
+        identity2 shouldBe identity1
+        validations.get shouldBe 1
+        cache.size shouldBe 1
+    }
+
+    "Cache" should "key identities by token and tenant scope" in {
+        val cache = new KeystoneTokenCache(16, 1 minute)
+        validations.set(0)
+
+        cache.get("token", None) { validate("token") }
+        cache.get("token", Some("tenant")) { validate("token") }
+        cache.get("other", None) { validate("other") }
+
+        validations.get shouldBe 3
+        cache.size shouldBe 3
+    }
+
+    "Cache" should "validate again tokens about to expire" in {
+        val cache = new KeystoneTokenCache(16, 1 minute)
+        validations.set(0)
+
+        cache.get("token", None) { validate("token", 1 second) }
+        cache.get("token", None) { validate("token") }
+        cache.get("token", None) { validate("token") }
+
+        validations.get shouldBe 2
+    }
+
+    "Cache" should "validate again tokens after the time to live" in {
+        val cache = new KeystoneTokenCache(16, 100 millis)
+        validations.set(0)
+
+        cache.get("token", None) { validate("token") }
+        Thread.sleep(200)
+        cache.get("token", None) { validate("token") }
+
+        validations.get shouldBe 2
+    }
+
+    "Cache" should "not cache failed validations" in {
+        val cache = new KeystoneTokenCache(16, 1 minute)
+        validations.set(0)
+
+        an [KeystoneUnauthorizedException] should be thrownBy {
+            cache.get("token", None) {
+                throw new KeystoneUnauthorizedException(null, null, null)
+            }
+        }
+        cache.size shouldBe 0
+
+        cache.get("token", None) { validate("token") }
+        validations.get shouldBe 1
+    }
+
+    "Cache" should "invalidate all scopes of a token" in {
+        val cache = new KeystoneTokenCache(16, 1 minute)
+
+        cache.get("token", None) { validate("token") }
+        cache.get("token", Some("tenant")) { validate("token") }
+        cache.get("other", None) { validate("other") }
+
+        cache.invalidate("token")
+
+        cache.size shouldBe 1
+    }
+
+    "Cache" should "be bounded" in {
+        val cache = new KeystoneTokenCache(2, 1 minute)
+
+        for (index <- 0 until 10) {
+            cache.get(s"token$index", None) { validate(s"token$index") }
+        }
+
+        cache.size should be <= 2L
+    }
+
+    "Cache" should "coalesce concurrent validations of a token" in {
+        val cache = new KeystoneTokenCache(16, 1 minute)
+        val executor = Executors.newFixedThreadPool(4)
+        implicit val ec = ExecutionContext.fromExecutor(executor)
+        val started = new CountDownLatch(1)
+        val release = new CountDownLatch(1)
+        validations.set(0)
+
+        try {
+            val futures = for (_ <- 0 until 4) yield Future {
+                cache.get("token", None) {
+                    started.countDown()
+                    release.await(5, TimeUnit.SECONDS)
+                    validate("token")
+                }
+            }
+
+            started.await(5, TimeUnit.SECONDS) shouldBe true
+            Thread.sleep(100)
+            release.countDown()
+
+            val identities = Await.result(Future.sequence(futures), 5 seconds)
+            identities.toSet should have size 1
+            validations.get shouldBe 1
+        } finally {
+            executor.shutdown()
+        }
+    }
+
+}
@@ -94,8 +94,9 @@ class RecyclerTest extends FeatureSpec with MidonetBackendTest with Matchers
 
     private class TestableRecycler(context: Context, backend: MidonetBackend,
                                    executor: ScheduledExecutorService,
-                                   config: ClusterConfig)
-        extends Recycler(context, backend, executor, config) {
+                                   config: ClusterConfig,
+                                   metrics: MetricRegistry)
+        extends Recycler(context, backend, executor, config, metrics) {
 
         val mockedClock = clock.asInstanceOf[MockUnixClock]
     }
@@ -135,8 +136,11 @@ class RecyclerTest extends FeatureSpec with MidonetBackendTest with Matchers
     }
 
     private def newRecycler(executor: ScheduledExecutorService =
-                                new AutoScheduledExecutorService): TestableRecycler = {
-        new TestableRecycler(context = null, backend, executor, clusterConfig)
+                                new AutoScheduledExecutorService,
+                            config: ClusterConfig = clusterConfig,
+                            metrics: MetricRegistry = new MetricRegistry)
+    : TestableRecycler = {
+        new TestableRecycler(context = null, backend, executor, config, metrics)
     }
 
     /* This method blocks until the creation time of the given path is not
@@ -295,7 +299,7 @@ class RecyclerTest extends FeatureSpec with MidonetBackendTest with Matchers
             And("A recycling service")
             val recycler = new Recycler(context = null, backend,
                                         new AutoScheduledExecutorService,
-                                        clusterConfig)
+                                        clusterConfig, new MetricRegistry)
 
             When("The recycler starting should fail")
             intercept[IllegalStateException] {
@@ -754,4 +758,177 @@ class RecyclerTest extends FeatureSpec with MidonetBackendTest with Matchers
             curator.checkExists().forPath(path) should not be null
         }
     }
+
+    feature("Recycler recycles incrementally") {
+        scenario("Orphan state is deleted in batches") {
+            Given("A recycling service with a delete batch size of 2")
+            val metrics = new MetricRegistry
+            val config = new ClusterConfig(ConfigFactory.parseString(
+                """
+                  |cluster.recycler.delete_batch_size : 2
+                """.stripMargin).withFallback(clusterConfig.conf))
+            val recycler = newRecycler(config = config, metrics = metrics)
+            recycler.mockedClock.time = System.currentTimeMillis() +
+                                        clusterConfig.recycler.interval.toMillis
+
+            And("Multi-value state for three non-existing objects")
+            val namespace = UUID.randomUUID().toString
+            curator.create().forPath(store.objectPath(classOf[Host], namespace))
+            val paths = for (_ <- 0 until 3) yield {
+                val path = store.stateObjectPath(namespace, classOf[Port],
+                                                 UUID.randomUUID())
+                curator.create()
+                       .creatingParentContainersIfNeeded()
+                       .forPath(path + "/value")
+                path
+            }
+            waitForExpiry(paths.last + "/value")
+
+            When("The recycler starts")
+            recycler.startAsync().awaitRunning()
+
+            Then("The recycler should run the recycling task")
+            val result = recycler.tasks.toBlocking.first()
+            result.isSuccess shouldBe true
+            result.get.isResumed shouldBe false
+            result.get.deletedObjects shouldBe 3
+
+            And("The object state paths should be deleted")
+            for (path <- paths) {
+                curator.checkExists().forPath(path) shouldBe null
+            }
+
+            And("The metrics should report the deletions and the progress")
+            metrics.getMeters.get(MetricRegistry.name(
+                classOf[Recycler], "deletions")).getCount shouldBe 6
+            metrics.getGauges.get(MetricRegistry.name(
+                classOf[Recycler], "progress")).getValue shouldBe 1d
+
+            And("The recycler stops")
+            recycler.stopAsync().awaitTerminated()
+        }
+
+        scenario("Orphan namespace larger than the batch size") {
+            Given("A recycling service with a delete batch size of 2")
+            val metrics = new MetricRegistry
+            val config = new ClusterConfig(ConfigFactory.parseString(
+                """
+                  |cluster.recycler.delete_batch_size : 2
+                """.stripMargin).withFallback(clusterConfig.conf))
+            val recycler = newRecycler(config = config, metrics = metrics)
+            recycler.mockedClock.time = System.currentTimeMillis() +
+                                        clusterConfig.recycler.interval.toMillis
+
+            And("A namespace for a non-existing host with seven nodes")
+            val namespace = UUID.randomUUID().toString
+            val path = store.stateNamespacePath(namespace)
+            val leaves = for (index <- 0 until 3)
+                yield s"$path/child$index/value"
+            for (leaf <- leaves) {
+                curator.create().creatingParentContainersIfNeeded()
+                       .forPath(leaf)
+            }
+            waitForExpiry(leaves.last)
+
+            When("The recycler starts")
+            recycler.startAsync().awaitRunning()
+
+            Then("The recycler should run the recycling task")
+            val result = recycler.tasks.toBlocking.first()
+            result.isSuccess shouldBe true
+            result.get.deletedNamespaces shouldBe 1
+            result.get.skippedNamespaces shouldBe 0
+
+            And("The namespace should be deleted")
+            curator.checkExists().forPath(path) shouldBe null
+
+            And("The metrics should report the deletions")
+            metrics.getMeters.get(MetricRegistry.name(
+                classOf[Recycler], "deletions")).getCount shouldBe 7
+
+            And("The recycler stops")
+            recycler.stopAsync().awaitTerminated()
+        }
+
+        scenario("Interrupted recycling resumes from the cursor") {
+            Given("A recycling service")
+            val recycler = newRecycler()
+
+            And("A node for a namespace")
+            val namespace = UUID.randomUUID().toString
+            val namespacePath = store.stateNamespacePath(namespace)
+            curator.create().forPath(namespacePath)
+
+            And("A legacy table for a non-existing bridge")
+            val legacyPath = s"${store.rootPath}/bridges/${UUID.randomUUID()}"
+            curator.create()
+                   .creatingParentContainersIfNeeded()
+                   .forPath(legacyPath)
+
+            And("A state for a non-existing port")
+            val hostId = UUID.randomUUID().toString
+            curator.create().forPath(store.objectPath(classOf[Host], hostId))
+            val statePath = store.stateObjectPath(hostId, classOf[Port],
+                                                  UUID.randomUUID())
+            curator.create()
+                   .creatingParentContainersIfNeeded()
+                   .forPath(statePath)
+            waitForExpiry(statePath)
+
+            And("The cursor of a recycling interrupted before the ports")
+            val stat = new Stat
+            curator.getData.storingStatIn(stat).forPath(statePath)
+            curator.setData().forPath(store.basePath,
+                                      s"${stat.getCtime + 1}:Port".getBytes)
+            curator.getData.storingStatIn(stat).forPath(store.basePath)
+            recycler.mockedClock.time =
+                stat.getMtime + clusterConfig.recycler.interval.toMillis / 2
+
+            When("The recycler starts")
+            recycler.startAsync().awaitRunning()
+
+            Then("The recycler should resume the recycling task")
+            val result = recycler.tasks.toBlocking.first()
+            result.isSuccess shouldBe true
+            result.get.isResumed shouldBe true
+            result.get.deletedNamespaces shouldBe 0
+            result.get.deletedLegacy shouldBe 0
+            result.get.deletedObjects shouldBe 1
+
+            And("Only the state of the port should be deleted")
+            curator.checkExists().forPath(namespacePath) should not be null
+            curator.checkExists().forPath(legacyPath) should not be null
+            curator.checkExists().forPath(statePath) shouldBe null
+
+            And("The cursor should be cleared")
+            curator.getData.forPath(store.basePath) shouldBe Recycler.Data
+
+            And("The recycler stops")
+            recycler.stopAsync().awaitTerminated()
+        }
+
+        scenario("Recently updated cursor is not resumed") {
+            Given("A recycling service")
+            val recycler = newRecycler()
+
+            And("The cursor of a running recycling")
+            val stat = new Stat
+            curator.setData().forPath(store.basePath,
+                                      s"${System.currentTimeMillis()}:Port"
+                                          .getBytes)
+            curator.getData.storingStatIn(stat).forPath(store.basePath)
+            recycler.mockedClock.time = stat.getMtime + 1
+
+            When("The recycler starts")
+            recycler.startAsync().awaitRunning()
+
+            Then("Recycling should be skipped")
+            val result = recycler.tasks.toBlocking.first()
+            result.isFailure shouldBe true
+            result.failed.get.getClass shouldBe classOf[RecyclingCanceledException]
+
+            And("The recycler stops")
+            recycler.stopAsync().awaitTerminated()
+        }
+    }
 }
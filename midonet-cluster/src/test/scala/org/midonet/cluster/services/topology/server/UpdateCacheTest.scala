@@ -0,0 +1,193 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.cluster.services.topology.server
+
+import java.util.UUID
+
+import com.google.protobuf.Message
+
+import io.netty.buffer.ByteBuf
+
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.{FeatureSpec, Matchers}
+
+import rx.observers.TestObserver
+import rx.subjects.BehaviorSubject
+
+import org.midonet.cluster.models.Topology.Network
+import org.midonet.cluster.rpc.Commands.Response
+import org.midonet.cluster.services.topology.server.SessionInventory.{ObservableId, updateBuilder}
+import org.midonet.cluster.util.UUIDUtil
+
+@RunWith(classOf[JUnitRunner])
+class UpdateCacheTest extends FeatureSpec with Matchers {
+
+    private def network(id: UUID, name: String) = Network.newBuilder()
+        .setId(UUIDUtil.toProto(id))
+        .setName(name)
+        .build()
+
+    private def bytesOf(buf: ByteBuf): Array[Byte] = {
+        val bytes = new Array[Byte](buf.readableBytes())
+        buf.readBytes(bytes)
+        buf.release()
+        bytes
+    }
+
+    feature("Cache shares updates among sessions") {
+        scenario("Same message version shares the update") {
+            val cache = new UpdateCache
+            val net = network(UUID.randomUUID(), "net")
+
+            val rsp1 = cache.updateBuilder(net, UUID.randomUUID()).build()
+            val rsp2 = cache.updateBuilder(net, UUID.randomUUID()).build()
+
+            rsp1.getUpdate shouldBe theSameInstanceAs (rsp2.getUpdate)
+            rsp1.getUpdate.getNetwork shouldBe net
+            cache.size shouldBe 1
+        }
+
+        scenario("New message version replaces the update") {
+            val cache = new UpdateCache
+            val id = UUID.randomUUID()
+
+            val rsp1 = cache.updateBuilder(network(id, "net1"), null).build()
+            val rsp2 = cache.updateBuilder(network(id, "net2"), null).build()
+
+            rsp1.getUpdate should not be theSameInstanceAs (rsp2.getUpdate)
+            rsp2.getUpdate.getNetwork.getName shouldBe "net2"
+            cache.size shouldBe 1
+        }
+
+        scenario("Deleted objects are removed") {
+            val cache = new UpdateCache
+            val id = UUID.randomUUID()
+
+            cache.updateBuilder(network(id, "net"), null)
+            cache.remove(ObservableId(id, classOf[Network]))
+
+            cache.size shouldBe 0
+        }
+
+        scenario("Objects no longer watched are removed") {
+            val cache = new UpdateCache
+            val id = UUID.randomUUID()
+            val objInfo = ObservableId(id, classOf[Network])
+
+            cache.retain(objInfo)
+            cache.retain(objInfo)
+            cache.updateBuilder(network(id, "net"), null)
+
+            cache.release(objInfo)
+            cache.size shouldBe 1
+
+            cache.release(objInfo)
+            cache.size shouldBe 0
+        }
+
+        scenario("Objects are removed when all subscribers unsubscribe") {
+            val cache = new UpdateCache
+            val id = UUID.randomUUID()
+            val source = BehaviorSubject.create[Message](network(id, "net"))
+            def watch() = source.compose(new StorageTransformer(null, cache))
+                                .subscribe(new TestObserver[Response.Builder])
+
+            val sub1 = watch()
+            val sub2 = watch()
+            source.onNext(network(id, "net2"))
+            cache.size shouldBe 1
+
+            sub1.unsubscribe()
+            cache.size shouldBe 1
+
+            sub2.unsubscribe()
+            cache.size shouldBe 0
+        }
+
+        scenario("Objects are removed when the watch fails") {
+            val cache = new UpdateCache
+            val id = UUID.randomUUID()
+            val source = BehaviorSubject.create[Message](network(id, "net"))
+            val updates = source.compose(new StorageTransformer(null, cache))
+
+            val observer = new TestObserver[Response.Builder]
+            updates.subscribe(observer)
+            cache.size shouldBe 1
+
+            source.onError(new Exception("storage failure"))
+            observer.getOnErrorEvents should have size 1
+            cache.size shouldBe 0
+        }
+    }
+
+    feature("Cache encodes the shared updates") {
+        scenario("Encoded update parses to the original response") {
+            val cache = new UpdateCache
+            val net = network(UUID.randomUUID(), "net")
+            val reqId = UUID.randomUUID()
+
+            val rsp = cache.updateBuilder(net, reqId).setSeqno(10L).build()
+            val data = cache.encode(rsp)
+
+            data should not be null
+            Response.parseFrom(bytesOf(data)) shouldBe rsp
+        }
+
+        scenario("Encoded update is shared by all sessions") {
+            val cache = new UpdateCache
+            val net = network(UUID.randomUUID(), "net")
+
+            for (seqno <- 0L until 10L) {
+                val rsp = cache.updateBuilder(net, UUID.randomUUID())
+                               .setSeqno(seqno).build()
+                Response.parseFrom(bytesOf(cache.encode(rsp))) shouldBe rsp
+            }
+        }
+
+        scenario("Updates not in the cache are not encoded") {
+            val cache = new UpdateCache
+            val net = network(UUID.randomUUID(), "net")
+
+            cache.encode(updateBuilder(net, null).build()) shouldBe null
+
+            cache.updateBuilder(net, null)
+            cache.encode(updateBuilder(net, null).build()) shouldBe null
+        }
+
+        scenario("Replaced updates are not encoded") {
+            val cache = new UpdateCache
+            val id = UUID.randomUUID()
+
+            val rsp = cache.updateBuilder(network(id, "net1"), null).build()
+            cache.updateBuilder(network(id, "net2"), null)
+
+            cache.encode(rsp) shouldBe null
+        }
+
+        scenario("Encoded data remains valid after the update is replaced") {
+            val cache = new UpdateCache
+            val id = UUID.randomUUID()
+
+            val rsp = cache.updateBuilder(network(id, "net1"), null).build()
+            val data = cache.encode(rsp)
+            cache.updateBuilder(network(id, "net2"), null)
+
+            Response.parseFrom(bytesOf(data)) shouldBe rsp
+        }
+    }
+}
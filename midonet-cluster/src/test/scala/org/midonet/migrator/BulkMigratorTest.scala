@@ -0,0 +1,185 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.migrator
+
+import java.util.UUID
+
+import scala.collection.JavaConverters._
+
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.{BeforeAndAfter, FeatureSpec, GivenWhenThen, Matchers}
+
+import org.midonet.cluster.data.storage.InMemoryStorage
+import org.midonet.cluster.models.Topology.{Chain, Rule}
+import org.midonet.cluster.services.MidonetBackend
+import org.midonet.cluster.topology.TopologyBuilder
+import org.midonet.cluster.util.UUIDUtil._
+import org.midonet.util.concurrent.toFutureOps
+
+@RunWith(classOf[JUnitRunner])
+class BulkMigratorTest extends FeatureSpec with Matchers
+                       with GivenWhenThen with BeforeAndAfter
+                       with TopologyBuilder {
+
+    private var store: InMemoryStorage = _
+    private var bulk: BulkMigrator = _
+
+    before {
+        store = new InMemoryStorage
+        MidonetBackend.setupBindings(store, store)
+        bulk = new BulkMigrator(store, batchSize = 4, workers = 4,
+                                suppressExistsWarning = true)
+    }
+
+    after {
+        bulk.close()
+    }
+
+    private def rule(chainId: UUID): Rule =
+        createLiteralRuleBuilder(UUID.randomUUID(), Some(chainId)).build()
+
+    private def jumpRule(chainId: UUID, jumpChainId: UUID): Rule =
+        createJumpRuleBuilder(UUID.randomUUID(), Some(chainId),
+                              Some(jumpChainId)).build()
+
+    private def chainOf(id: UUID): Chain = store.get(classOf[Chain], id).await()
+
+    private def ruleIds(rules: Seq[Rule]) = rules.map(_.getId)
+
+    feature("Bulk migrator creates the objects of a stage") {
+        scenario("Subtrees are created in order across batches") {
+            Given("Chains created in a first stage")
+            val chains = Seq.fill(10)(createChain())
+            bulk.create("chains", chains.map(Seq(_)))
+
+            When("Creating the rules of every chain in a second stage, with " +
+                 "subtrees larger and smaller than a batch")
+            val rules = chains.zipWithIndex.map { case (chain, index) =>
+                Seq.fill(index % 7)(rule(chain.getId.asJava))
+            }
+            bulk.create("rules", rules)
+
+            Then("All objects are created")
+            bulk.migrated shouldBe chains.size + rules.map(_.size).sum
+            bulk.failed shouldBe 0
+
+            And("The rules of every chain are in the order of their subtree")
+            for ((chain, chainRules) <- chains zip rules) {
+                chainOf(chain.getId.asJava).getRuleIdsList.asScala shouldBe
+                    ruleIds(chainRules)
+            }
+        }
+
+        scenario("A failed batch is retried one object at a time") {
+            Given("A chain")
+            val chain = createChain()
+            bulk.create("chains", Seq(Seq(chain)))
+
+            When("Creating a batch with a rule of a non-existing chain")
+            val rules = Seq(rule(chain.getId.asJava),
+                            rule(UUID.randomUUID()),
+                            rule(chain.getId.asJava))
+            bulk.create("rules", Seq(rules))
+
+            Then("The other rules are created")
+            bulk.migrated shouldBe 3
+            bulk.failed shouldBe 1
+            chainOf(chain.getId.asJava).getRuleIdsList.asScala shouldBe
+                Seq(rules(0).getId, rules(2).getId)
+        }
+
+        scenario("Existing objects are skipped") {
+            Given("A chain that has already been migrated")
+            val existing = createChain()
+            store.create(existing)
+
+            When("Creating a batch with the existing chain")
+            val chains = Seq(createChain(), existing, createChain())
+            bulk.create("chains", chains.map(Seq(_)))
+
+            Then("The other chains are created")
+            bulk.migrated shouldBe 2
+            bulk.failed shouldBe 0
+            for (chain <- chains) {
+                store.exists(classOf[Chain], chain.getId.asJava).await() shouldBe true
+            }
+        }
+    }
+
+    feature("Bulk migrator links the jump rules to their target chains") {
+        scenario("Jump rules are added to their target chains") {
+            Given("Chains and their rules, with jump rules to a shared chain")
+            val target = createChain()
+            val chains = Seq.fill(8)(createChain())
+            bulk.create("chains", (chains :+ target).map(Seq(_)))
+            val rules = chains.map { chain =>
+                Seq(rule(chain.getId.asJava),
+                    jumpRule(chain.getId.asJava, target.getId.asJava))
+            }
+            bulk.create("rules", rules)
+
+            When("Linking the jump rules")
+            bulk.linkJumpRules(rules.flatten)
+
+            Then("The target chain lists every jump rule")
+            chainOf(target.getId.asJava).getJumpRuleIdsList.asScala should
+                contain theSameElementsAs rules.map(_(1).getId)
+            bulk.failed shouldBe 0
+
+            And("The other chains list no jump rules")
+            for (chain <- chains) {
+                chainOf(chain.getId.asJava).getJumpRuleIdsCount shouldBe 0
+            }
+        }
+
+        scenario("Jump rules that were not created are not linked") {
+            Given("A chain with a jump rule, and a jump rule that fails")
+            val chain = createChain()
+            val target = createChain()
+            bulk.create("chains", Seq(Seq(chain), Seq(target)))
+            val created = jumpRule(chain.getId.asJava, target.getId.asJava)
+            val failed = jumpRule(UUID.randomUUID(), target.getId.asJava)
+            bulk.create("rules", Seq(Seq(created, failed)))
+
+            When("Linking the jump rules")
+            bulk.linkJumpRules(Seq(created, failed))
+
+            Then("The target chain lists only the created jump rule")
+            chainOf(target.getId.asJava).getJumpRuleIdsList.asScala shouldBe
+                Seq(created.getId)
+        }
+
+        scenario("Linking jump rules again does not duplicate them") {
+            Given("A chain with a jump rule already linked")
+            val chain = createChain()
+            val target = createChain()
+            bulk.create("chains", Seq(Seq(chain), Seq(target)))
+            val rules = Seq(jumpRule(chain.getId.asJava, target.getId.asJava))
+            bulk.create("rules", Seq(rules))
+            bulk.linkJumpRules(rules)
+
+            When("Resuming the migration, which links the jump rules again")
+            bulk.create("rules", Seq(rules))
+            bulk.linkJumpRules(rules)
+
+            Then("The target chain lists the jump rule once")
+            chainOf(target.getId.asJava).getJumpRuleIdsList.asScala shouldBe
+                ruleIds(rules)
+        }
+    }
+}
@@ -18,6 +18,7 @@ package org.midonet.util;
 
 import java.util.concurrent.CyclicBarrier;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -31,6 +32,11 @@ import static java.util.Arrays.copyOf;
  * recursively among the root's children. When all the buckets in a level of
  * the hierarchy are full, they accumulate in the parent bucket. Tokens can
  * only be retrieved from the leaf buckets.
+ *
+ * Tokens are distributed among the children of a bucket using a weighted
+ * deficit round-robin: on each turn, a child receives up to as many tokens as
+ * its weight before the distribution moves to the next sibling. With the
+ * default weight of one, this is equivalent to a plain round-robin.
  */
 public class TokenBucket {
     public static final int UNLINKED = -1;
@@ -40,9 +46,9 @@ public class TokenBucket {
     protected static final boolean isTraceEnabled = log.isTraceEnabled();
 
     protected final PaddedAtomicInteger numTokens = new PaddedAtomicInteger();
-    protected final String name;
+    protected String name;
     private final RootTokenBucket root;
-    private final TokenBucket parent;
+    private TokenBucket parent;
 
     protected int capacity;
     private int numChildren;
@@ -63,6 +69,20 @@ public class TokenBucket {
     // This field enables round-robin distributions, needed for fairness
     private int distributionIndex;
 
+    /* The weight of this bucket relative to its siblings, and the number of
+     * tokens it can still receive in the current round-robin turn. Both are
+     * only accessed under the distribution lock.
+     */
+    private int weight = 1;
+    private int deficit;
+
+    /* Statistics of the tokens obtained and of the tokens requested but not
+     * obtained from this leaf bucket. There is a single thread getting tokens
+     * from a leaf bucket, so we only need ordered writes for the readers.
+     */
+    private final AtomicLong consumedTokens = new AtomicLong();
+    private final AtomicLong deniedTokens = new AtomicLong();
+
     protected TokenBucket(int capacity, String name, TokenBucket parent) {
         this.capacity = capacity;
         this.name = name;
@@ -93,10 +113,21 @@ public class TokenBucket {
     /* Creates a new TokenBucket and links it as a child of this bucket.
      */
     public final TokenBucket link(int capacity, String name) {
+        return link(capacity, name, 1);
+    }
+
+    /* Creates a new TokenBucket with the given weight and links it as a
+     * child of this bucket.
+     */
+    public final TokenBucket link(int capacity, String name, int weight) {
+        if (weight <= 0)
+            throw new IllegalArgumentException("Weight must be positive");
+
         root.lock();
         try {
             String n = this.name + "/" + name;
             TokenBucket ntb = new TokenBucket(capacity, n, this);
+            ntb.weight = weight;
             int idx = findFreeIndex();
             if (idx < 0) {
                 idx = children.length;
@@ -138,6 +169,45 @@ public class TokenBucket {
         }
     }
 
+    /* Moves this TokenBucket, with its tokens, from its parent to another
+     * bucket of the same hierarchy.
+     */
+    public final void relink(TokenBucket newParent) {
+        if (newParent.root != root)
+            throw new IllegalArgumentException(
+                "Bucket " + newParent.name + " is not in the hierarchy of " +
+                name);
+
+        root.lock();
+        try {
+            if (isUnlinked() || parent == null || parent == newParent)
+                return;
+
+            TokenBucket[] siblings = parent.children;
+            for (int i = 0; i < siblings.length; ++i) {
+                if (siblings[i] == this) {
+                    siblings[i] = null;
+                    parent.numChildren -= 1;
+                    break;
+                }
+            }
+
+            int idx = newParent.findFreeIndex();
+            if (idx < 0) {
+                idx = newParent.children.length;
+                newParent.growArray();
+            }
+            newParent.children[idx] = this;
+            newParent.numChildren += 1;
+
+            name = newParent.name + name.substring(parent.name.length());
+            parent = newParent;
+        } finally {
+            root.unlock();
+            root.tryDistribute();
+        }
+    }
+
     public final int getCapacity() {
         return capacity;
     }
@@ -156,6 +226,49 @@ public class TokenBucket {
         }
     }
 
+    public final int getWeight() {
+        return weight;
+    }
+
+    public final void setWeight(int weight) {
+        if (weight <= 0)
+            throw new IllegalArgumentException("Weight must be positive");
+
+        root.lock();
+        try {
+            this.weight = weight;
+            if (deficit > weight)
+                deficit = weight;
+        } finally {
+            root.unlock();
+        }
+    }
+
+    /* Returns the number of tokens obtained from the leaf buckets of this
+     * subtree. The value is not a snapshot and may be slightly stale.
+     */
+    public final long getConsumedTokens() {
+        long tokens = consumedTokens.get();
+        for (TokenBucket tb : children) {
+            if (tb != null)
+                tokens += tb.getConsumedTokens();
+        }
+        return tokens;
+    }
+
+    /* Returns the number of tokens requested from the leaf buckets of this
+     * subtree that could not be obtained. The value is not a snapshot and
+     * may be slightly stale.
+     */
+    public final long getDeniedTokens() {
+        long tokens = deniedTokens.get();
+        for (TokenBucket tb : children) {
+            if (tb != null)
+                tokens += tb.getDeniedTokens();
+        }
+        return tokens;
+    }
+
     public final String getName() {
         return name;
     }
@@ -186,6 +299,10 @@ public class TokenBucket {
         }
 
         int acquired = tokens - remaining;
+        if (acquired > 0)
+            consumedTokens.lazySet(consumedTokens.get() + acquired);
+        if (remaining > 0)
+            deniedTokens.lazySet(deniedTokens.get() + remaining);
         if (isTraceEnabled) {
             log.trace("[{}|{}] got {}/{} tokens", new Object[] {
                     Thread.currentThread().getId(), name, acquired, tokens });
@@ -236,7 +353,10 @@ public class TokenBucket {
 
     /* This method performs a distribution of the specified amount of tokens
      * among this bucket's children. It returns any excess tokens that couldn't
-     * be distributed.
+     * be distributed. Each child receives up to its weight in tokens per turn;
+     * if we run out of tokens in the middle of a child's turn, the next
+     * distribution resumes at that child with its remaining deficit. A child
+     * that becomes full forfeits the remainder of its turn.
      */
     protected final int doDistribution(int tokens) {
         boolean hasNonFullChildren;
@@ -247,13 +367,20 @@ public class TokenBucket {
             hasNonFullChildren = false;
             for (int i = 0; i < children.length; ++i) {
                 TokenBucket tb = children[(distributionIndex + i) & mask];
-                if (tb != null && tb.reserve()) {
+                if (tb == null)
+                    continue;
+
+                if (tb.deficit <= 0)
+                    tb.deficit = tb.weight;
+                while (tb.deficit > 0 && tb.reserve()) {
                     hasNonFullChildren = true;
+                    tb.deficit -= 1;
                     if ((tokens -= 1) == 0) {
-                        distributionIndex += i + 1;
+                        distributionIndex += tb.deficit > 0 ? i : i + 1;
                         return 0;
                     }
                 }
+                tb.deficit = 0;
             }
         } while (hasNonFullChildren);
         return tokens;
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.util;
+
+/**
+ * A fill rate that scales the tokens of an underlying fill rate according to
+ * the measured simulation latency. Latency samples are recorded by the packet
+ * workers in per-worker slots of a StatisticalCounter, and aggregated into a
+ * moving average when the HTB asks for new tokens. While the average latency
+ * is above the target, only a fraction target/latency of the new tokens are
+ * distributed, down to a minimum factor. The withheld tokens are released
+ * once the workers become idle, so that the HTB never runs dry.
+ *
+ * The packet workers also record the number of flow deletions they have
+ * queued for the datapath. While the total exceeds a maximum backlog, the new
+ * tokens are scaled down by the minimum factor regardless of the latency, so
+ * that fewer packets are admitted while the flow deletions catch up. These
+ * tokens are withheld as well, and released once the backlog clears.
+ *
+ * The withheld tokens are capped at a maximum, typically the capacity of the
+ * root bucket, so that a long period of throttling does not release a burst
+ * larger than the HTB can hold in a single refill.
+ *
+ * The getNewTokens() method is only called under the HTB distribution lock,
+ * so the aggregation state is not thread-safe.
+ */
+public class TokenBucketAdaptiveRate implements TokenBucketFillRate {
+    /* The weight of a new aggregated sample in the latency moving average. */
+    private static final double ALPHA = 0.25;
+
+    private final TokenBucketFillRate rate;
+    private final long targetLatencyNanos;
+    private final long idleNanos;
+    private final double minFactor;
+    private final long maxBacklog;
+    private final int maxWithheld;
+
+    private final StatisticalCounter latencies;
+    private final StatisticalCounter samples;
+    private final StatisticalCounter backlogs;
+
+    private long lastLatencies;
+    private long lastSamples;
+    private long lastSampleNanos;
+    private double averageLatency;
+    private double factor = 1.0;
+    private double fraction;
+    private int withheld;
+    private int backlogWithheld;
+
+    public TokenBucketAdaptiveRate(TokenBucketFillRate rate, int workers,
+                                   long targetLatencyNanos, double minFactor) {
+        this(rate, workers, targetLatencyNanos, minFactor, Long.MAX_VALUE,
+             Integer.MAX_VALUE);
+    }
+
+    public TokenBucketAdaptiveRate(TokenBucketFillRate rate, int workers,
+                                   long targetLatencyNanos, double minFactor,
+                                   long maxBacklog, int maxWithheld) {
+        if (minFactor <= 0.0 || minFactor > 1.0)
+            throw new IllegalArgumentException(
+                "The minimum factor must be in the interval (0, 1]");
+        if (maxWithheld < 0)
+            throw new IllegalArgumentException(
+                "The maximum withheld tokens must not be negative");
+
+        this.rate = rate;
+        this.targetLatencyNanos = targetLatencyNanos;
+        this.idleNanos = Math.max(1000000L, 10 * targetLatencyNanos);
+        this.minFactor = minFactor;
+        this.maxBacklog = maxBacklog;
+        this.maxWithheld = maxWithheld;
+        this.latencies = new StatisticalCounter(Math.max(1, workers));
+        this.samples = new StatisticalCounter(Math.max(1, workers));
+        this.backlogs = new StatisticalCounter(Math.max(1, workers));
+    }
+
+    /* Records the simulation latency of a packet processed by the specified
+     * worker. Each worker must use its own index.
+     */
+    public void recordLatency(int worker, long latencyNanos) {
+        if (targetLatencyNanos <= 0)
+            return;
+        latencies.addAndGet(worker,
+                            (int)Math.min(latencyNanos, Integer.MAX_VALUE));
+        samples.addAndGet(worker, 1);
+    }
+
+    /* Records the number of flow deletions queued by the specified worker.
+     * Each worker must use its own index.
+     */
+    public void recordBacklog(int worker, int backlog) {
+        long current = backlogs.addAndGet(worker, 0);
+        backlogs.addAndGet(worker, (int)(backlog - current));
+    }
+
+    public long getBacklog() {
+        return backlogs.getValue();
+    }
+
+    public double getFactor() {
+        return factor;
+    }
+
+    public double getAverageLatencyNanos() {
+        return averageLatency;
+    }
+
+    @Override
+    public int getNewTokens() {
+        int tokens = rate.getNewTokens();
+        if (backlogs.getValue() > maxBacklog) {
+            // The flow deletions are lagging behind: throttle the admission
+            // of new packets, which would only add flows.
+            int admitted = (int)(tokens * minFactor);
+            backlogWithheld = withhold(backlogWithheld, tokens - admitted);
+            return admitted;
+        }
+        tokens += backlogWithheld;
+        backlogWithheld = 0;
+        if (targetLatencyNanos <= 0)
+            return tokens;
+
+        long n = samples.getValue();
+        if (n > lastSamples) {
+            long l = latencies.getValue();
+            double latency = (double)(l - lastLatencies) / (n - lastSamples);
+            averageLatency = averageLatency == 0.0
+                             ? latency
+                             : averageLatency + ALPHA * (latency - averageLatency);
+            factor = Math.max(minFactor,
+                              Math.min(1.0, targetLatencyNanos / averageLatency));
+            lastLatencies = l;
+            lastSamples = n;
+            lastSampleNanos = System.nanoTime();
+        } else if (withheld > 0 &&
+                   System.nanoTime() - lastSampleNanos > idleNanos) {
+            // The workers are idle, so the latency has recovered.
+            tokens += withheld;
+            withheld = 0;
+            fraction = 0.0;
+            factor = 1.0;
+            return tokens;
+        }
+
+        if (factor >= 1.0 || tokens == 0)
+            return tokens;
+
+        double scaled = tokens * factor + fraction;
+        int admitted = (int)scaled;
+        fraction = scaled - admitted;
+        withheld = withhold(withheld, tokens - admitted);
+        return admitted;
+    }
+
+    public int getWithheldTokens() {
+        return withheld + backlogWithheld;
+    }
+
+    /* Adds tokens to a withheld count, up to the maximum. The excess tokens
+     * are dropped, as the buckets would not be able to hold them anyway.
+     */
+    private int withhold(int count, int tokens) {
+        return (int)Math.min((long)count + tokens, maxWithheld);
+    }
+}
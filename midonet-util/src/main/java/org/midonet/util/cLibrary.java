@@ -108,6 +108,12 @@ public interface cLibrary extends Library {
 
     public static final int STDOUT_FILENO = 1;
 
+    /* fcntl.h */
+    public static final int O_RDONLY = 0;
+
+    /* sched.h */
+    public static final int CLONE_NEWNET = 0x40000000;
+
     int mlockall(int flags) throws LastErrorException;
 
     int munlockall() throws LastErrorException;
@@ -141,6 +147,10 @@ public interface cLibrary extends Library {
 
     int close(long l);
 
+    int open(String path, int flags) throws LastErrorException;
+
+    int setns(int fd, int nstype) throws LastErrorException;
+
     String strerror(int errno);
 
     int isatty(int fd);
@@ -19,6 +19,7 @@ package org.midonet.util.netty;
 import scala.Option;
 
 import com.google.protobuf.GeneratedMessage;
+import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelPipeline;
 import io.netty.channel.SimpleChannelInboundHandler;
@@ -45,6 +46,7 @@ public class ProtoBufSocketAdapter<T extends GeneratedMessage>
     private final SimpleChannelInboundHandler<T> handler;
     private final T prototype;
     private final SslContext sslCtx;
+    private final ChannelHandler encoder;
 
     /**
      * Create a plain adapter pipeline (protobuf-based)
@@ -58,9 +60,21 @@ public class ProtoBufSocketAdapter<T extends GeneratedMessage>
 
     public ProtoBufSocketAdapter(SimpleChannelInboundHandler<T> handler,
                                  T prototype, Option<SslContext> sslCtx) {
+        this(handler, prototype, sslCtx, null);
+    }
+
+    /**
+     * Create an adapter pipeline with an additional outbound encoder, which
+     * processes the outgoing messages before the protobuf encoder. The
+     * encoder is shared by all channels, and it must be sharable.
+     */
+    public ProtoBufSocketAdapter(SimpleChannelInboundHandler<T> handler,
+                                 T prototype, Option<SslContext> sslCtx,
+                                 ChannelHandler encoder) {
         this.handler = handler;
         this.prototype = prototype;
         this.sslCtx = sslCtx.isDefined()? sslCtx.get(): null;
+        this.encoder = encoder;
     }
 
     @Override
@@ -73,6 +87,8 @@ public class ProtoBufSocketAdapter<T extends GeneratedMessage>
         pipe.addLast(new ProtobufDecoder(prototype));
         pipe.addLast(new ProtobufVarint32LengthFieldPrepender());
         pipe.addLast(new ProtobufEncoder());
+        if (encoder != null)
+            pipe.addLast(encoder);
 
         // process request
         pipe.addLast(executor, handler);
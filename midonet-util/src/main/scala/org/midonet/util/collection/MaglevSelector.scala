@@ -0,0 +1,154 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.midonet.util.collection
+
+import scala.reflect.ClassTag
+
+/**
+ * Constructs a MaglevSelector for a traversable collection of objects with
+ * weights, where every object is identified by a stable 64-bit key.
+ *
+ * Throws an IllegalArgumentException if ts has no element with weight > 0.
+ */
+object MaglevSelector {
+
+    /* Candidate lookup table sizes. The size must be prime, such that every
+     * skip value generates a full permutation of the table. Changing the
+     * size remaps all entries, so the sizes are few and large enough to
+     * remain the same when objects are added or removed in most cases. */
+    private val TableSizes = Array(4093, 16381, 65521)
+
+    /* The minimum number of table entries per object, which bounds the
+     * imbalance between objects of the same weight to about 1%. */
+    private val EntriesPerObject = 100
+
+    def apply[T <: HasWeight : ClassTag](ts: Traversable[T])
+                                        (key: T => Long): MaglevSelector[T] = {
+        // Sort the objects by key, such that the table does not depend on
+        // their order.
+        val objs = ts.filter(_.weight > 0).toArray.sortBy(key)
+        if (objs.isEmpty)
+            throw new IllegalArgumentException(
+                "Ts must have at least one element with weight > 0.")
+        val size = tableSize(objs.length)
+        new MaglevSelector[T](objs, populate(objs, objs.map(key), size))
+    }
+
+    /** Mixes the bits of a hash code, such that similar inputs such as
+      * consecutive ports are spread over the lookup table. */
+    @inline def mix(hash: Int): Int = {
+        var h = hash
+        h ^= h >>> 16
+        h *= 0x85ebca6b
+        h ^= h >>> 13
+        h *= 0xc2b2ae35
+        h ^= h >>> 16
+        h
+    }
+
+    private def mix64(key: Long): Long = {
+        var k = key
+        k ^= k >>> 33
+        k *= 0xff51afd7ed558ccdL
+        k ^= k >>> 33
+        k *= 0xc4ceb9fe1a85ec53L
+        k ^= k >>> 33
+        k
+    }
+
+    private def tableSize(count: Int): Int = {
+        var index = 0
+        while (index < TableSizes.length - 1 &&
+               TableSizes(index) < count.toLong * EntriesPerObject) {
+            index += 1
+        }
+        TableSizes(index)
+    }
+
+    /**
+     * Populates the lookup table as described by the Maglev paper, where
+     * every object fills its next preferred empty entry in turn. To support
+     * weights, an object takes a turn only when its cumulative weight has
+     * caught up with the maximum weight, such that the number of entries of
+     * every object is proportional to its weight.
+     */
+    private def populate(objs: Array[_ <: HasWeight], keys: Array[Long],
+                         size: Int): Array[Int] = {
+        val count = objs.length
+        val offsets = new Array[Int](count)
+        val skips = new Array[Int](count)
+        val next = new Array[Int](count)
+        val targets = new Array[Long](count)
+        var maxWeight = 0
+        var index = 0
+        while (index < count) {
+            offsets(index) = ((mix64(keys(index)) >>> 1) % size).toInt
+            skips(index) = ((mix64(~keys(index)) >>> 1) % (size - 1)).toInt + 1
+            maxWeight = Math.max(maxWeight, objs(index).weight)
+            index += 1
+        }
+
+        val table = Array.fill(size)(-1)
+        var filled = 0
+        var iteration = 1L
+        while (filled < size) {
+            index = 0
+            while (index < count && filled < size) {
+                if (iteration * objs(index).weight >= targets(index)) {
+                    targets(index) += maxWeight
+                    var entry = position(offsets(index), skips(index),
+                                         next(index), size)
+                    while (table(entry) >= 0) {
+                        next(index) += 1
+                        entry = position(offsets(index), skips(index),
+                                         next(index), size)
+                    }
+                    table(entry) = index
+                    next(index) += 1
+                    filled += 1
+                }
+                index += 1
+            }
+            iteration += 1
+        }
+        table
+    }
+
+    @inline
+    private def position(offset: Int, skip: Int, next: Int, size: Int): Int =
+        ((offset + next.toLong * skip) % size).toInt
+}
+
+/**
+ * Performs consistent weighted selection using a precomputed Maglev lookup
+ * table. The same hash always selects the same object, and when objects are
+ * added or removed, only a small fraction of the hashes selecting the
+ * remaining objects change their selection. Selection does not allocate.
+ * Constructor is private; use companion object to create instances.
+ */
+class MaglevSelector[T <: AnyRef] private (objs: Array[T], table: Array[Int]) {
+
+    /** The number of entries in the lookup table. */
+    def tableSize: Int = table.length
+
+    /** Selects the object for the specified hash, typically the hash of
+      * the fields identifying a connection. */
+    def select(hash: Int): T =
+        objs(table((MaglevSelector.mix(hash) & Int.MaxValue) % table.length))
+
+    /** Returns the object owning the specified table entry. */
+    protected[collection] def entry(index: Int): T = objs(table(index))
+}
@@ -35,10 +35,13 @@ import scala.concurrent.{Future, Promise}
  * @param handler is the protocol buffer message handler
  * @param prototype is the 'default instance' for the received protobufs
  * @param uri is the websocket url.
+ * @param encoder is an optional sharable outbound encoder, which processes
+ *                the outgoing messages before the protobuf encoder
  */
 abstract class ProtoBufWebSocketAdapter[T <: GeneratedMessage](
     val handler: SimpleChannelInboundHandler[T], val prototype: T,
-    val uri: URI, sslCtx: Option[SslContext])
+    val uri: URI, sslCtx: Option[SslContext],
+    encoder: Option[ChannelHandler] = None)
     extends ChannelInitializer[SocketChannel] {
 
     import ProtoBufWebSocketAdapter._
@@ -103,6 +106,7 @@ abstract class ProtoBufWebSocketAdapter[T <: GeneratedMessage](
 
         pipe.addLast(new ProtobufVarint32LengthFieldPrepender())
         pipe.addLast(new ProtobufEncoder())
+        encoder.foreach(pipe.addLast(_))
 
         pipe.addLast(executor, handler)
     }
@@ -146,8 +150,8 @@ protected object ProtoBufWebSocketAdapter {
  */
 class ProtoBufWebSocketServerAdapter[T <: GeneratedMessage](
     handler: SimpleChannelInboundHandler[T], prototype: T, uri: URI,
-    sslCtx: Option[SslContext] = None)
-    extends ProtoBufWebSocketAdapter(handler, prototype, uri, sslCtx) {
+    sslCtx: Option[SslContext] = None, encoder: Option[ChannelHandler] = None)
+    extends ProtoBufWebSocketAdapter(handler, prototype, uri, sslCtx, encoder) {
     def this(handler: SimpleChannelInboundHandler[T], prototype: T,
              wsPath: String, sslCtx: Option[SslContext]) =
         this(handler, prototype, URI.create(wsPath), sslCtx)
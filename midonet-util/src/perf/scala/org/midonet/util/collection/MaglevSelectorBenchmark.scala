@@ -0,0 +1,74 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.midonet.util.collection
+
+import java.util.concurrent.TimeUnit
+
+import scala.util.Random
+
+import org.openjdk.jmh.annotations.{Setup => JmhSetup, _}
+
+object MaglevSelectorBenchmark {
+    class Member(val key: Long, val weight: Int) extends HasWeight
+}
+
+/**
+ * Compares the cost of selecting a member with the consistent hashing
+ * MaglevSelector against the random WeightedSelector, as well as the cost
+ * of building the Maglev lookup table for a new set of members.
+ */
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+@org.openjdk.jmh.annotations.Threads(1)
+class MaglevSelectorBenchmark {
+
+    import MaglevSelectorBenchmark._
+
+    @Param(Array("2", "10", "100"))
+    var members: Int = _
+
+    var objs: Seq[Member] = _
+    var maglev: MaglevSelector[Member] = _
+    var weighted: WeightedSelector[Member] = _
+    var hash: Int = 0
+
+    @JmhSetup
+    def setup(): Unit = {
+        val random = new Random()
+        objs = (0 until members) map { _ =>
+            new Member(random.nextLong(), 1 + random.nextInt(4))
+        }
+        maglev = MaglevSelector(objs)(_.key)
+        weighted = WeightedSelector(objs)
+    }
+
+    @Benchmark
+    def maglevSelect(): Member = {
+        hash += 1
+        maglev.select(hash)
+    }
+
+    @Benchmark
+    def weightedSelect(): Member = weighted.select()
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    def maglevBuild(): MaglevSelector[Member] = MaglevSelector(objs)(_.key)
+}
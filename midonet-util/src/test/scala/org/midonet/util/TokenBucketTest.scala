@@ -209,6 +209,224 @@ class TokenBucketTest extends FeatureSpec with Matchers {
         }
     }
 
+    feature("TokenBucket distributes tokens according to the weights") {
+        scenario("siblings receive tokens proportional to their weight") {
+            val rate = new TokenBucketTestRate
+            val root = TokenBucket.create(100, "root", rate)
+            val heavy = root.link(100, "heavy", 3)
+            val light = root.link(100, "light")
+
+            rate.setNewTokens(40)
+            heavy.tryGet(1) should be (1)
+
+            heavy.getNumTokens + 1 should be (30)
+            light.getNumTokens should be (10)
+        }
+
+        scenario("a full sibling forfeits its turn") {
+            val rate = new TokenBucketTestRate
+            val root = TokenBucket.create(100, "root", rate)
+            val heavy = root.link(2, "heavy", 4)
+            val light = root.link(100, "light")
+
+            rate.setNewTokens(20)
+            light.tryGet(1) should be (1)
+
+            heavy.getNumTokens should be (2)
+            light.getNumTokens + 1 should be (18)
+        }
+
+        scenario("weights must be positive") {
+            val root = TokenBucket.create(1, "root", new TokenBucketTestRate)
+            intercept[IllegalArgumentException] {
+                root.link(1, "bucket", 0)
+            }
+            intercept[IllegalArgumentException] {
+                root.link(1, "bucket").setWeight(-1)
+            }
+        }
+    }
+
+    feature("TokenBucket is fair among groups of buckets") {
+        /* A tenant with eight busy ports competes with a tenant with a single
+         * busy port for two new tokens every tick. Each port requests one
+         * token every tick.
+         */
+        def simulate(grouped: Boolean, noisyWeight: Int)
+        : (TokenBucket, TokenBucket, Seq[TokenBucket]) = {
+            val rate = new TokenBucketTestRate
+            val root = TokenBucket.create(16, "root", rate)
+            val vms = root.link(0, "vms")
+            val noisy = if (grouped) vms.link(0, "noisy", noisyWeight) else vms
+            val quiet = if (grouped) vms.link(0, "quiet") else vms
+            val ports = (0 until 8).map(i => noisy.link(1, s"noisy-$i")) :+
+                        quiet.link(1, "quiet-0")
+
+            for (tick <- 0 until 1000) {
+                rate.addTokens(2)
+                ports foreach (_.tryGet(1))
+            }
+            (noisy, quiet, ports)
+        }
+
+        scenario("without groups, a tenant gets a share proportional " +
+                 "to its ports") {
+            val (_, _, ports) = simulate(grouped = false, 1)
+            val total = (ports foldLeft 0L)(_ + _.getConsumedTokens)
+            val quiet = ports.last.getConsumedTokens
+
+            total should be (2000L)
+            quiet.toDouble / total should be (1d / 9 +- 0.02)
+        }
+
+        scenario("with groups, tenants get an equal share") {
+            val (noisy, quiet, _) = simulate(grouped = true, 1)
+            val total = noisy.getConsumedTokens + quiet.getConsumedTokens
+
+            total should be (2000L)
+            quiet.getConsumedTokens.toDouble / total should be (0.5 +- 0.02)
+            noisy.getDeniedTokens should be (8000L - noisy.getConsumedTokens)
+            quiet.getDeniedTokens should be (1000L - quiet.getConsumedTokens)
+        }
+
+        scenario("with groups, tenants get a share proportional " +
+                 "to their weight") {
+            val (noisy, quiet, _) = simulate(grouped = true, 3)
+            val total = noisy.getConsumedTokens + quiet.getConsumedTokens
+
+            total should be (2000L)
+            quiet.getConsumedTokens.toDouble / total should be (0.25 +- 0.02)
+        }
+
+        scenario("a bucket relinked to a group keeps its tokens") {
+            val rate = new TokenBucketTestRate
+            val root = TokenBucket.create(16, "root", rate)
+            val vms = root.link(0, "vms")
+            val group = vms.link(0, "group")
+            val port = vms.link(4, "port")
+            rate.setNewTokens(4)
+            port.tryGet(1) should be (1)
+
+            port.relink(group)
+
+            port.getParent should be (group)
+            port.getName should be ("root/vms/group/port")
+            port.getNumTokens should be (3)
+
+            port.tryGet(1) should be (1)
+            group.getConsumedTokens should be (port.getConsumedTokens)
+        }
+
+        scenario("a bucket cannot be relinked to another hierarchy") {
+            val rate = new TokenBucketTestRate
+            val port = TokenBucket.create(1, "root", rate).link(1, "port")
+            intercept[IllegalArgumentException] {
+                port.relink(TokenBucket.create(1, "other", rate))
+            }
+        }
+    }
+
+    feature("TokenBucketAdaptiveRate adapts to the simulation latency") {
+        scenario("tokens are unchanged when the latency is below target") {
+            val rate = new TokenBucketTestRate
+            val r = new TokenBucketAdaptiveRate(rate, 1, 1000, 0.25)
+
+            r.recordLatency(0, 500)
+            rate.setNewTokens(10)
+            r.getNewTokens should be (10)
+            r.getFactor should be (1.0)
+        }
+
+        scenario("tokens are scaled down when the latency is above target") {
+            val rate = new TokenBucketTestRate
+            val r = new TokenBucketAdaptiveRate(rate, 2, 1000, 0.25)
+
+            r.recordLatency(0, 2000)
+            r.recordLatency(1, 2000)
+            rate.setNewTokens(10)
+            r.getNewTokens should be (5)
+            r.getFactor should be (0.5)
+
+            r.recordLatency(0, 100000)
+            rate.setNewTokens(8)
+            r.getNewTokens should be (2)
+            r.getFactor should be (0.25)
+        }
+
+        scenario("withheld tokens are released when the workers are idle") {
+            val rate = new TokenBucketTestRate
+            val r = new TokenBucketAdaptiveRate(rate, 1, 1000, 0.5)
+
+            r.recordLatency(0, 2000)
+            rate.setNewTokens(10)
+            r.getNewTokens should be (5)
+
+            Thread.sleep(5)
+            r.getNewTokens should be (5)
+            r.getFactor should be (1.0)
+        }
+
+        scenario("a zero target disables the adaptation") {
+            val rate = new TokenBucketTestRate
+            val r = new TokenBucketAdaptiveRate(rate, 1, 0, 0.25)
+
+            r.recordLatency(0, 100000)
+            rate.setNewTokens(10)
+            r.getNewTokens should be (10)
+        }
+
+        scenario("tokens are scaled down while flow deletions are backlogged") {
+            val rate = new TokenBucketTestRate
+            val r = new TokenBucketAdaptiveRate(rate, 2, 0, 0.25, 100,
+                                                Int.MaxValue)
+
+            r.recordBacklog(0, 60)
+            r.recordBacklog(1, 60)
+            r.getBacklog should be (120)
+            rate.setNewTokens(8)
+            r.getNewTokens should be (2)
+
+            r.recordBacklog(1, 0)
+            r.getBacklog should be (60)
+            rate.setNewTokens(8)
+            r.getNewTokens should be (14)
+        }
+
+        scenario("withheld tokens are capped at the maximum") {
+            val rate = new TokenBucketTestRate
+            val r = new TokenBucketAdaptiveRate(rate, 1, 0, 0.25, 100, 10)
+
+            r.recordBacklog(0, 200)
+            for (_ <- 0 until 100) {
+                rate.setNewTokens(8)
+                r.getNewTokens should be (2)
+            }
+            r.getWithheldTokens should be (10)
+
+            r.recordBacklog(0, 0)
+            rate.setNewTokens(8)
+            r.getNewTokens should be (18)
+            r.getWithheldTokens should be (0)
+        }
+
+        scenario("tokens withheld for the latency are capped at the maximum") {
+            val rate = new TokenBucketTestRate
+            val r = new TokenBucketAdaptiveRate(rate, 1, 1000, 0.5,
+                                                Long.MaxValue, 10)
+
+            for (_ <- 0 until 100) {
+                r.recordLatency(0, 2000)
+                rate.setNewTokens(10)
+                r.getNewTokens should be (5)
+            }
+            r.getWithheldTokens should be (10)
+
+            Thread.sleep(15)
+            rate.setNewTokens(10)
+            r.getNewTokens should be (20)
+        }
+    }
+
     feature("TokenBucketSystemRate correctly accounts for tokens") {
         scenario("without using a multiplier") {
             val c = new StatisticalCounter(1)
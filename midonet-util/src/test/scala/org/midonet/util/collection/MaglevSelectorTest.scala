@@ -0,0 +1,149 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.midonet.util.collection
+
+import scala.util.Random
+
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.{FeatureSpec, Matchers}
+
+@RunWith(classOf[JUnitRunner])
+class MaglevSelectorTest extends FeatureSpec with Matchers {
+
+    private class WeightedObject(val key: Long, val weight: Int)
+        extends HasWeight
+
+    private def selector(objs: Seq[WeightedObject]) =
+        MaglevSelector(objs)(_.key)
+
+    private def objects(count: Int, weight: Int = 1) = {
+        val random = new Random(count)
+        (0 until count) map { _ => new WeightedObject(random.nextLong(), weight) }
+    }
+
+    private def entries(s: MaglevSelector[WeightedObject]) =
+        (0 until s.tableSize) map s.entry
+
+    /** Percentage of the table entries of the objects in both selectors that
+      * changed their object. */
+    private def disruption(s1: MaglevSelector[WeightedObject],
+                           s2: MaglevSelector[WeightedObject]): Double = {
+        val common = entries(s1).toSet intersect entries(s2).toSet
+        val pairs = entries(s1) zip entries(s2) filter {
+            case (o1, o2) => common.contains(o1) && common.contains(o2)
+        }
+        val moved = pairs count { case (o1, o2) => o1 ne o2 }
+        100.0 * moved / pairs.size
+    }
+
+    feature("Selector construction") {
+        scenario("Attempt to create a MaglevSelector with an empty list") {
+            intercept[IllegalArgumentException] {
+                selector(Seq())
+            }
+        }
+
+        scenario("Attempt to create a MaglevSelector with zero weights") {
+            intercept[IllegalArgumentException] {
+                selector(objects(3, weight = 0))
+            }
+        }
+
+        scenario("One object is always selected") {
+            val obj = new WeightedObject(1L, 1)
+            val s = selector(Seq(obj))
+            for (hash <- 0 until 1000) {
+                s.select(hash) should be theSameInstanceAs obj
+            }
+        }
+
+        scenario("The table does not depend on the object order") {
+            val objs = objects(10)
+            entries(selector(objs)) shouldBe entries(selector(objs.reverse))
+        }
+
+        scenario("Objects with zero weight are never selected") {
+            val objs = objects(3) :+ new WeightedObject(0L, 0)
+            entries(selector(objs)) should not contain objs.last
+        }
+    }
+
+    feature("Weighted selection") {
+        scenario("Objects with the same weight share the table evenly") {
+            val objs = objects(10)
+            val s = selector(objs)
+            val counts = entries(s) groupBy identity mapValues (_.size)
+            for (obj <- objs) {
+                counts(obj).toDouble / s.tableSize shouldBe 0.1 +- 0.002
+            }
+        }
+
+        scenario("Objects share the table according to their weights") {
+            val objs = Seq(new WeightedObject(1L, 1), new WeightedObject(2L, 2),
+                           new WeightedObject(3L, 4))
+            val s = selector(objs)
+            val counts = entries(s) groupBy identity mapValues (_.size)
+            counts(objs(0)).toDouble / s.tableSize shouldBe 1.0 / 7 +- 0.005
+            counts(objs(1)).toDouble / s.tableSize shouldBe 2.0 / 7 +- 0.005
+            counts(objs(2)).toDouble / s.tableSize shouldBe 4.0 / 7 +- 0.005
+        }
+
+        scenario("Consecutive hashes are spread over all objects") {
+            val objs = objects(5)
+            val s = selector(objs)
+            val selected = (5000 until 5100) map s.select
+            selected.toSet shouldBe objs.toSet
+        }
+    }
+
+    feature("Selection is consistent") {
+        scenario("The same hash selects the same object") {
+            val objs = objects(10)
+            val s1 = selector(objs)
+            val s2 = selector(objs)
+            for (hash <- 0 until 10000) {
+                s1.select(hash) should be theSameInstanceAs s2.select(hash)
+            }
+        }
+
+        scenario("Removing an object causes minimal disruption") {
+            val objs = objects(10)
+            val before = selector(objs)
+            val after = selector(objs.tail)
+
+            disruption(before, after) should be < 5.0
+            entries(after) should not contain objs.head
+        }
+
+        scenario("Adding an object causes minimal disruption") {
+            val objs = objects(10)
+            val before = selector(objs)
+            val after = selector(objs :+ new WeightedObject(0L, 1))
+
+            disruption(before, after) should be < 5.0
+        }
+
+        scenario("Changing a weight causes minimal disruption") {
+            val objs = objects(10)
+            val before = selector(objs)
+            val after = selector(objs.updated(0, new WeightedObject(
+                objs.head.key, 2)))
+
+            disruption(before, after) should be < 5.0
+        }
+    }
+}
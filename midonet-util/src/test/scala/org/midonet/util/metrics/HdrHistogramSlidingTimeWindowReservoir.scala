@@ -96,5 +96,23 @@ class HdrHistogramSlidingTimeWindowReservoirTest extends FeatureSpec with Matche
             snap.getMax shouldBe 0
             snap.getMin shouldBe 0
         }
+
+        scenario("Lower range and precision") {
+            val clock = new TestClock()
+            val reservoir = new HdrHistogramSlidingTimeWindowReservoir(
+                1, TimeUnit.MINUTES, 10, TimeUnit.SECONDS, clock,
+                10000000000L, 2)
+            reservoir.buckets shouldBe 8
+
+            clock.nanoTime = 1
+            reservoir.update(10)
+            reservoir.update(5000000000L)
+            reservoir.update(10000000000L)
+
+            val snap = reservoir.getSnapshot()
+            snap.size shouldBe 3
+            snap.getMin shouldBe 10
+            snap.getMax.toDouble shouldBe 10000000000.0 +- 100000000.0
+        }
     }
 }
@@ -31,6 +31,7 @@ public class MockNetlinkChannel extends NetlinkChannel {
 
     public Queue<ByteBuffer> written = new LinkedList<>();
     public AtomicInteger packetsWritten = new AtomicInteger();
+    public AtomicInteger messagesWritten = new AtomicInteger();
     public Queue<ByteBuffer> toRead = new LinkedList<>();
 
     public Netlink.Address address;
@@ -88,9 +89,24 @@ public class MockNetlinkChannel extends NetlinkChannel {
         clone.put(src);
         written.add(clone);
         packetsWritten.incrementAndGet();
+        messagesWritten.addAndGet(countMessages(clone, size));
         return size;
     }
 
+    /** Counts the Netlink messages batched in a written buffer. */
+    private static int countMessages(ByteBuffer buf, int size) {
+        int count = 0;
+        int pos = 0;
+        while (pos + NetlinkMessage.NLMSG_LEN_SIZE <= size) {
+            int len = buf.getInt(pos + NetlinkMessage.NLMSG_LEN_OFFSET);
+            if (len <= 0)
+                break;
+            count++;
+            pos += NetlinkMessage.align(len);
+        }
+        return Math.max(count, 1);
+    }
+
     @Override
     protected void implCloseSelectableChannel() {
 
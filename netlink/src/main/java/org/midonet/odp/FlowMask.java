@@ -318,34 +318,38 @@ public class FlowMask implements NetlinkSerializable, AttributeHandler {
         }
     }
 
+    /*
+     * The transport ports that were only seen through range tests use the
+     * prefix mask of the bits that determined the result of the tests, such
+     * that a single megaflow covers the connections of a block of ports.
+     */
+
+    private static short srcPortMask(FlowMatch fmatch) {
+        return fmatch.isSeen(FlowMatch.Field.SrcPort)
+               ? EXACT_16 : (short) fmatch.getSrcPortMask();
+    }
+
+    private static short dstPortMask(FlowMatch fmatch) {
+        return fmatch.isSeen(FlowMatch.Field.DstPort)
+               ? EXACT_16 : (short) fmatch.getDstPortMask();
+    }
+
     private void maskIcmp(FlowMatch fmatch) {
         FlowKeyICMP icmp = key(ICMP);
-        if (fmatch.isSeen(FlowMatch.Field.SrcPort)) {
-            icmp.icmp_type = EXACT_8;
-        }
-        if (fmatch.isSeen(FlowMatch.Field.DstPort)) {
-            icmp.icmp_code = EXACT_8;
-        }
+        icmp.icmp_type = (byte) srcPortMask(fmatch);
+        icmp.icmp_code = (byte) dstPortMask(fmatch);
     }
 
     private void maskTcp(FlowMatch fmatch) {
         FlowKeyTCP tcp = key(TCP);
-        if (fmatch.isSeen(FlowMatch.Field.SrcPort)) {
-            tcp.tcp_src = EXACT_16;
-        }
-        if (fmatch.isSeen(FlowMatch.Field.DstPort)) {
-            tcp.tcp_dst = EXACT_16;
-        }
+        tcp.tcp_src = srcPortMask(fmatch);
+        tcp.tcp_dst = dstPortMask(fmatch);
     }
 
     private void maskUdp(FlowMatch fmatch) {
         FlowKeyUDP udp = key(UDP);
-        if (fmatch.isSeen(FlowMatch.Field.SrcPort)) {
-            udp.udp_src = EXACT_16;
-        }
-        if (fmatch.isSeen(FlowMatch.Field.DstPort)) {
-            udp.udp_dst = EXACT_16;
-        }
+        udp.udp_src = srcPortMask(fmatch);
+        udp.udp_dst = dstPortMask(fmatch);
     }
 
     @Override
@@ -368,6 +368,12 @@ public class FlowMatch {
     private long usedFields = 0;
     private long seenFields = 0;
 
+    // The bits of the transport ports that were seen through range tests,
+    // when the ports themselves were not seen.
+    private boolean portMasksEnabled = false;
+    private int srcPortMask = 0;
+    private int dstPortMask = 0;
+
     private final ArrayList<FlowKey> keys = new ArrayList<>();
     private int hashCode = 0;
     private int connectionHash = 0;
@@ -417,6 +423,8 @@ public class FlowMatch {
 
     public final void clearSeenFields() {
         seenFields = 0;
+        srcPortMask = 0;
+        dstPortMask = 0;
     }
 
     /**
@@ -450,7 +458,7 @@ public class FlowMatch {
      * srcPort was seen, it'll return 4. Returns 0 if no field was seen.
      */
     public short highestLayerSeen() {
-        return highestLayer(seenFields & usedFields);
+        return highestLayer((seenFields | getPortMaskedFields()) & usedFields);
     }
 
     public boolean userspaceFieldsSeen() {
@@ -463,6 +471,8 @@ public class FlowMatch {
 
     public void propagateSeenFieldsFrom(FlowMatch that) {
         seenFields |= that.seenFields;
+        srcPortMask |= that.srcPortMask;
+        dstPortMask |= that.dstPortMask;
     }
 
     public void allFieldsSeen() {
@@ -528,6 +538,8 @@ public class FlowMatch {
         usedFields = that.usedFields;
         trackSeenFields = that.trackSeenFields;
         seenFields = that.seenFields;
+        srcPortMask = that.srcPortMask;
+        dstPortMask = that.dstPortMask;
 
         resetWith(that.keys, keys);
         invalidateHashCode();
@@ -548,6 +560,8 @@ public class FlowMatch {
         this.usedFields = 0;
         this.trackSeenFields = 1;
         this.seenFields = 0;
+        this.srcPortMask = 0;
+        this.dstPortMask = 0;
         keys.clear();
         invalidateHashCode();
     }
@@ -780,6 +794,91 @@ public class FlowMatch {
         return dstPort;
     }
 
+    /**
+     * Enables the tracking of the port bits seen through range tests. When
+     * disabled, a range test sees the whole port.
+     */
+    public void setPortMasksEnabled(boolean enabled) {
+        portMasksEnabled = enabled;
+    }
+
+    /**
+     * Tests whether the source port is within the range [start, end]. When
+     * port masks are enabled, this does not see the source port but only the
+     * bits of the port that determine the result of the test, which are
+     * added to the source port mask.
+     */
+    public boolean isSrcPortInRange(int start, int end) {
+        if (portMasksEnabled) {
+            if (trackSeenFields != 0)
+                srcPortMask |= rangeMask(srcPort, start, end);
+        } else {
+            fieldSeen(Field.SrcPort);
+        }
+        return srcPort >= start && srcPort <= end;
+    }
+
+    /**
+     * Tests whether the destination port is within the range [start, end].
+     * @see #isSrcPortInRange(int, int)
+     */
+    public boolean isDstPortInRange(int start, int end) {
+        if (portMasksEnabled) {
+            if (trackSeenFields != 0)
+                dstPortMask |= rangeMask(dstPort, start, end);
+        } else {
+            fieldSeen(Field.DstPort);
+        }
+        return dstPort >= start && dstPort <= end;
+    }
+
+    /**
+     * @return the mask of the source port bits seen through range tests, or
+     * 0 if none were. The mask is only meaningful when the source port was
+     * not seen.
+     */
+    public int getSrcPortMask() {
+        return srcPortMask;
+    }
+
+    /**
+     * @return the mask of the destination port bits seen through range
+     * tests, or 0 if none were.
+     */
+    public int getDstPortMask() {
+        return dstPortMask;
+    }
+
+    /**
+     * @return the set of port Fields with bits seen through range tests.
+     */
+    public long getPortMaskedFields() {
+        long fields = 0L;
+        if (srcPortMask != 0)
+            fields |= 1L << Field.SrcPort.ordinal();
+        if (dstPortMask != 0)
+            fields |= 1L << Field.DstPort.ordinal();
+        return fields;
+    }
+
+    /**
+     * Returns the prefix mask of the largest aligned block of ports that
+     * contains the given port and is either entirely inside or entirely
+     * outside the range [start, end]: every port with the same masked bits
+     * gives the same result when tested against the range.
+     */
+    static int rangeMask(int port, int start, int end) {
+        for (int bits = 16; bits > 0; bits--) {
+            int blockStart = port & ~((1 << bits) - 1);
+            int blockEnd = blockStart + (1 << bits) - 1;
+            if (blockEnd < start || blockStart > end ||
+                (blockStart >= start && blockEnd <= end)) {
+                return ~((1 << bits) - 1) & 0xffff;
+            }
+        }
+        return 0xffff;
+    }
+
     public FlowMatch setIcmpIdentifier(int identifier) {
         fieldUsed(Field.IcmpId);
         this.icmpId = identifier;
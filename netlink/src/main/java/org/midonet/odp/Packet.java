@@ -42,6 +42,7 @@ public class Packet {
     private Long userData;
     private Reason reason;
     private Ethernet eth;
+    private byte[] data;
     public final int packetLen;
 
     // user field used by midolman packet pipeline to track time statistics,
@@ -64,10 +65,44 @@ public class Packet {
 
     public void setEthernet(Ethernet eth) {
         this.eth = eth;
+        this.data = null;
     }
 
+    /**
+     * Sets the bytes of the packet as received from the datapath, which
+     * must be the serialization of the packet's {@link Ethernet}.
+     */
+    public Packet setOriginalData(byte[] data) {
+        this.data = data;
+        return this;
+    }
+
+    /**
+     * Whether the packet still holds the bytes received from the datapath,
+     * which can then be sent back to the datapath without serializing the
+     * {@link Ethernet}.
+     */
+    public boolean hasOriginalData() {
+        return data != null;
+    }
+
+    /**
+     * Must be called after modifying the {@link Ethernet} of the packet in
+     * place, so that the bytes received from the datapath are not used
+     * instead of the modified packet. Changes to the packet headers made by
+     * datapath actions don't require this.
+     */
+    public void invalidateOriginalData() {
+        data = null;
+    }
+
+    /**
+     * Returns the bytes of the packet: those received from the datapath if
+     * the packet was not modified, or otherwise the serialization of its
+     * {@link Ethernet}.
+     */
     public byte[] getData() {
-        return eth.serialize();
+        return (data != null) ? data : eth.serialize();
     }
 
     public FlowMatch getMatch() {
@@ -76,6 +76,7 @@ public class OvsDatapathConnectionImpl extends OvsDatapathConnection {
     static class PacketBuilder implements AttributeHandler {
         private ArrayList<FlowKey> keys = new ArrayList<>(16);
         private Ethernet eth;
+        private byte[] data;
         private Long userData;
         private int packetLen = 0;
 
@@ -88,8 +89,10 @@ public class OvsDatapathConnectionImpl extends OvsDatapathConnection {
             }
             FlowKeys.addUserspaceKeys(eth, keys);
             Packet p = new Packet(eth, new FlowMatch(keys), packetLen);
+            p.setOriginalData(data);
             p.setUserData(userData);
             eth = null;
+            data = null;
             keys.clear();
             userData = null;
             return p;
@@ -103,10 +106,18 @@ public class OvsDatapathConnectionImpl extends OvsDatapathConnection {
                     try {
                         eth = new Ethernet();
                         packetLen = buffer.remaining();
+                        // Keep the packet bytes, which the packet executor
+                        // sends back to the datapath if the simulation does
+                        // not modify the packet.
+                        int start = buffer.position();
+                        data = new byte[packetLen];
+                        buffer.get(data);
+                        buffer.position(start);
                         eth.deserialize(buffer);
                     } catch (Exception e) {
                         log.warn("Dropping malformed packet", e);
                         this.eth = null;
+                        this.data = null;
                     } finally {
                         buffer.order(originalOrder);
                     }
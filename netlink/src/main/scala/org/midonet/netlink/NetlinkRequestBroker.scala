@@ -98,6 +98,14 @@ object NetlinkRequestBroker {
  * with a valid value. This could cause the reader thread to timeout a new request
  * in the same position (when wrapping around the queue) even before it is written.
  *
+ * Batching:
+ *
+ * The writer thread coalesces up to maxBatchSize consecutive published requests
+ * into a single gathering write, such that the kernel receives them in one
+ * datagram and processes them in one system call. The kernel still replies to
+ * each request individually. A failed write fails all the requests in the
+ * batch.
+ *
  * TODO: Use @Contended on some of these fields when on java 8
  */
 final class NetlinkRequestBroker(writer: NetlinkBlockingWriter,
@@ -106,7 +114,8 @@ final class NetlinkRequestBroker(writer: NetlinkBlockingWriter,
                                  maxRequestSize: Int,
                                  readBuf: ByteBuffer,
                                  clock: NanoClock,
-                                 val timeout: Duration = 1 minute) {
+                                 val timeout: Duration = 1 minute,
+                                 maxBatchSize: Int = 1) {
     import NetlinkRequestBroker._
 
     val capacity = Util.findNextPositivePowerOfTwo(maxPendingRequests)
@@ -179,6 +188,13 @@ final class NetlinkRequestBroker(writer: NetlinkBlockingWriter,
     private val expirations = Array.fill(capacity)(Long.MaxValue)
     private val timeoutNanos = timeout.toNanos
 
+    /**
+     * The requests coalesced into the current write. Confined to the writer
+     * thread.
+     */
+    private val batch = new Array[ByteBuffer](Math.max(1, maxBatchSize))
+    private val batchSize = batch.length
+
     def hasRequestsToWrite: Boolean =
         isAvailable(writtenSequence)
 
@@ -227,16 +243,17 @@ final class NetlinkRequestBroker(writer: NetlinkBlockingWriter,
     }
 
     /**
-     * Writes all the new published requests. Returns the number of
-     * bytes written.
+     * Writes all the new published requests, in batches of up to
+     * maxBatchSize requests. Returns the number of bytes written.
      */
     def writePublishedRequests(): Int = {
         var seq = writtenSequence
         var nbytes = 0
         while (isAvailable(seq)) {
-            val pos = position(seq)
-            val buf = buffers(pos)
-            try {
+            var length = 0
+            while (length < batchSize && isAvailable(seq + length)) {
+                val pos = position(seq + length)
+                val buf = buffers(pos)
                 expirations(pos) = {
                     val timeout = clock.tick + timeoutNanos
                     if (timeout == NO_TIMEOUT)
@@ -245,17 +262,32 @@ final class NetlinkRequestBroker(writer: NetlinkBlockingWriter,
                         timeout
                 }
                 buf.putInt(buf.position() + NetlinkMessage.NLMSG_SEQ_OFFSET, pos)
-                nbytes += writer.write(buf)
+                batch(length) = buf
+                length += 1
+            }
+            try {
+                nbytes += (if (length == 1) writer.write(batch(0))
+                           else writer.write(batch, length).toInt)
             } catch { case e: Throwable =>
-                val obs = observers(pos)
-                freeObserver(pos)
-                obs.onError(e)
+                var i = 0
+                while (i < length) {
+                    val pos = position(seq + i)
+                    val obs = observers(pos)
+                    freeObserver(pos)
+                    obs.onError(e)
+                    i += 1
+                }
             } finally {
                 // IOUtil modifies the buffer's position after the write has
                 // been performed, so this method is the best place to clear it.
-                buf.clear()
+                var i = 0
+                while (i < length) {
+                    batch(i).clear()
+                    batch(i) = null
+                    i += 1
+                }
             }
-            seq += 1
+            seq += length
         }
         writtenSequence = seq
         nbytes
@@ -35,6 +35,16 @@ class NetlinkWriter(val channel: NetlinkChannel) {
     @throws(classOf[IOException])
     def write(src: ByteBuffer): Int =
         channel.write(src)
+
+    /**
+     * Writes the first `length` source buffers into the channel with a
+     * single gathering write. Returns the amount of bytes written. As with
+     * the single buffer variant, the buffers must contain correctly
+     * formatted Netlink messages, which the kernel receives in one datagram.
+     */
+    @throws(classOf[IOException])
+    def write(srcs: Array[ByteBuffer], length: Int): Long =
+        channel.write(srcs, 0, length)
 }
 
 class NetlinkBlockingWriter(channel: NetlinkChannel) extends NetlinkWriter(channel) {
@@ -55,6 +65,19 @@ class NetlinkBlockingWriter(channel: NetlinkChannel) extends NetlinkWriter(chann
         nbytes
     }
 
+    /**
+     * Writes the source buffers into the underlying channel, blocking
+     * regardless of the channel mode while the write doesn't succeed.
+     */
+    @throws(classOf[IOException])
+    override def write(srcs: Array[ByteBuffer], length: Int): Long = {
+        var nbytes = 0L
+        do {
+            nbytes = super.write(srcs, length)
+        } while (nbytes == 0 && srcs(0).remaining() > 0 && waitForChannel())
+        nbytes
+    }
+
     private def waitForChannel(): Boolean =
         channel.isOpen && {
             channel.register(selector, SelectionKey.OP_WRITE)
@@ -19,7 +19,7 @@ package org.midonet.odp
 import java.nio.ByteBuffer
 import java.util.{List => JList}
 
-import org.midonet.netlink.{NLFlag, NetlinkMessage, NetlinkMessageWrapper, NetlinkRequestContext}
+import org.midonet.netlink.{BytesUtil, NLFlag, NetlinkMessage, NetlinkMessageWrapper, NetlinkRequestContext}
 import org.midonet.odp.flows.{FlowAction, FlowActions, FlowKey, FlowKeys}
 
 /**
@@ -217,9 +217,24 @@ sealed class OvsProtocol(pid: Int,
             FlowKeys.writer)
         NetlinkMessage.writeAttrSeq(buf, Attr.Actions, actions,
             FlowActions.writer)
-        NetlinkMessage.writeRawAttribute(buf, Attr.Packet,
-            packet.getEthernet.serialize())
+        NetlinkMessage.writeRawAttribute(buf, Attr.Packet, packet.getData)
 
         message.finalize(pid)
     }
+
+    /**
+     * Appends a packet execute message at the current position of a buffer
+     * holding a batch of Netlink messages, and moves the position past the
+     * message. The buffer can be sent once flipped. Throws a
+     * BufferOverflowException, leaving the position unchanged, if the
+     * message doesn't fit in the remaining space of the buffer.
+     */
+    def appendPacketExecute(datapathId: Int, packet: Packet,
+                            actions: JList[FlowAction],
+                            batch: ByteBuffer): Unit = {
+        val buf = BytesUtil.instance.sliceOf(batch)
+        preparePacketExecute(datapathId, packet, actions, buf)
+        batch.position(math.min(batch.position() + NetlinkMessage.align(buf.limit()),
+                                batch.limit()))
+    }
 }
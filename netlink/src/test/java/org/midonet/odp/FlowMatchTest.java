@@ -417,4 +417,56 @@ public class FlowMatchTest {
         m.getNetworkTTL();
         assertEquals(m.highestLayerSeen(), 4);
     }
+
+    @Test
+    public void testRangeMask() {
+        // Port 1025 is in [1024, 65535]: the block 1024-2047 is inside.
+        assertEquals(0xfc00, FlowMatch.rangeMask(1025, 1024, 65535));
+        // Port 80 is outside [1024, 65535]: the block 0-1023 is outside.
+        assertEquals(0xfc00, FlowMatch.rangeMask(80, 1024, 65535));
+        // Port 80 in [80, 80] must be exact.
+        assertEquals(0xffff, FlowMatch.rangeMask(80, 80, 80));
+        // Port 443 is outside [80, 80]: the block 256-511 is outside.
+        assertEquals(0xff00, FlowMatch.rangeMask(443, 80, 80));
+        // The whole port range is inside [0, 65535].
+        assertEquals(0, FlowMatch.rangeMask(12345, 0, 65535));
+    }
+
+    @Test
+    public void testPortRangeWithPortMasks() {
+        FlowMatch m = new FlowMatch();
+        m.setSrcPort(40000);
+        m.setDstPort(80);
+        m.setPortMasksEnabled(true);
+
+        assertTrue(m.isSrcPortInRange(1024, 65535));
+        assertFalse(m.isDstPortInRange(1024, 65535));
+        assertFalse(m.isSeen(FlowMatch.Field.SrcPort));
+        assertFalse(m.isSeen(FlowMatch.Field.DstPort));
+        assertEquals(0x8000, m.getSrcPortMask());
+        assertEquals(0xfc00, m.getDstPortMask());
+        assertEquals(m.highestLayerSeen(), 4);
+
+        // The masks are accumulated, and propagated with the seen fields.
+        assertTrue(m.isSrcPortInRange(32768, 40000));
+        FlowMatch orig = new FlowMatch();
+        orig.setSrcPort(40000);
+        orig.setDstPort(80);
+        orig.propagateSeenFieldsFrom(m);
+        assertEquals(m.getSrcPortMask(), orig.getSrcPortMask());
+        assertEquals(m.getDstPortMask(), orig.getDstPortMask());
+
+        m.clearSeenFields();
+        assertEquals(0, m.getSrcPortMask());
+        assertEquals(0, m.getPortMaskedFields());
+    }
+
+    @Test
+    public void testPortRangeWithoutPortMasks() {
+        FlowMatch m = new FlowMatch();
+        m.setSrcPort(40000);
+        assertTrue(m.isSrcPortInRange(1024, 65535));
+        assertTrue(m.isSeen(FlowMatch.Field.SrcPort));
+        assertEquals(0, m.getSrcPortMask());
+    }
 }
@@ -22,6 +22,7 @@ class MockNetlinkWriter extends NetlinkBlockingWriter(
             new MockNetlinkChannel(Netlink.selectorProvider,
                                    NetlinkProtocol.NETLINK_GENERIC)) {
     var shouldThrow = false
+    var writes = 0
 
     val ERROR = new Exception
 
@@ -29,6 +30,21 @@ class MockNetlinkWriter extends NetlinkBlockingWriter(
         if (shouldThrow) {
             throw ERROR
         } else {
+            writes += 1
             src.remaining()
         }
+
+    override def write(srcs: Array[ByteBuffer], length: Int): Long =
+        if (shouldThrow) {
+            throw ERROR
+        } else {
+            writes += 1
+            var nbytes = 0L
+            var i = 0
+            while (i < length) {
+                nbytes += srcs(i).remaining()
+                i += 1
+            }
+            nbytes
+        }
 }
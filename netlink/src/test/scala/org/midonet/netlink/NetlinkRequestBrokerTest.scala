@@ -71,6 +71,39 @@ class NetlinkRequestBrokerTest extends FeatureSpec
             obs.onErrorCalls should be (1)
         }
 
+        scenario ("Published requests are written in batches") {
+            val batchingBroker = new NetlinkRequestBroker(
+                writer, reader, maxRequests, 512, ByteBuffer.allocate(1024),
+                clock, timeout = 1 milli, maxBatchSize = 3)
+            (0 until 7) foreach { i =>
+                val seq = batchingBroker.nextSequence()
+                NetlinkMessage.writeHeader(batchingBroker.get(seq), 16, 1, 2,
+                                           0, 4, 5, 6)
+                batchingBroker.get(seq).limit(16)
+                batchingBroker.publishRequest(seq, null)
+            }
+            batchingBroker.writePublishedRequests() should be (7 * 16)
+            writer.writes should be (3)
+            (0 until 7) foreach { i =>
+                batchingBroker.get(i).getInt(
+                    NetlinkMessage.NLMSG_SEQ_OFFSET) should be (i)
+            }
+            batchingBroker.hasRequestsToWrite should be (false)
+        }
+
+        scenario ("Errors fail all the requests in a batch") {
+            val batchingBroker = new NetlinkRequestBroker(
+                writer, reader, maxRequests, 512, ByteBuffer.allocate(1024),
+                clock, timeout = 1 milli, maxBatchSize = 4)
+            writer.shouldThrow = true
+            val obs = new CountingObserver
+            (0 until 3) foreach { i =>
+                batchingBroker.publishRequest(batchingBroker.nextSequence(), obs)
+            }
+            batchingBroker.writePublishedRequests() should be (0)
+            obs.onErrorCalls should be (3)
+        }
+
         scenario ("Number of in-flight requests is bounded") {
             (0 until maxRequests) foreach { i =>
                 broker.nextSequence() should be (i)
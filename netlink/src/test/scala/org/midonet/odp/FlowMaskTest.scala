@@ -232,4 +232,26 @@ class FlowMaskTest  extends FlatSpec with ShouldMatchers {
             OpenVSwitch.FlowKey.Attr.IPv4).asInstanceOf[FlowKeyIPv4]
         allOnes(ipv4MaskedKey.ipv4_proto)
     }
+
+    "Ports seen through range tests" should "be masked by prefix" in {
+        val fmatch = new FlowMatch()
+        fmatch.addKey(FlowKeys.inPort(9))
+        fmatch.addKey(FlowKeys.etherType(IPv4.ETHERTYPE))
+        fmatch.addKey(FlowKeys.ethernet(MAC.random().getAddress, MAC.random().getAddress))
+        fmatch.addKey(FlowKeys.ipv4(IPv4Addr.random, IPv4Addr.random, IpProtocol.TCP))
+        fmatch.addKey(FlowKeys.tcp(40000, 80))
+        fmatch.setPortMasksEnabled(true)
+        fmatch.isSrcPortInRange(1024, 65535) shouldBe true
+        fmatch.getDstPort
+
+        val mask = new FlowMask()
+        mask.calculateFor(fmatch, new ArrayList[FlowAction]())
+        val tcpMaskedKey = mask.getMaskFor(
+            OpenVSwitch.FlowKey.Attr.TCP).asInstanceOf[FlowKeyTCP]
+        tcpMaskedKey.tcp_src.toShort shouldBe 0x8000.toShort
+        allOnes(tcpMaskedKey.tcp_dst.toShort)
+        val ipv4MaskedKey = mask.getMaskFor(
+            OpenVSwitch.FlowKey.Attr.IPv4).asInstanceOf[FlowKeyIPv4]
+        allOnes(ipv4MaskedKey.ipv4_proto)
+    }
 }
@@ -111,6 +111,14 @@ trait ScalableStateTable[K, V] extends StateTable[K, V] with StateTableEncoder[K
 
     protected[storage] def nullValue: V
 
+    /**
+      * Indicates whether the table maintains an index of its keys by value,
+      * such that [[getLocalByValue]] does not scan the whole table. Tables
+      * that are queried by value should enable the index, at the cost of
+      * additional memory per entry.
+      */
+    protected[storage] def indexValues: Boolean = false
+
     @volatile private var manager: ScalableStateTableManager[K, V] = null
 
     private var subscriptions = 0L
@@ -295,6 +295,11 @@ private class ScalableStateTableManager[K, V](table: ScalableStateTable[K, V])
     private val proxyConnectedFlag = new AtomicBoolean(false)
 
     private val cache = new ConcurrentHashMap[K, TableEntry[K, V]]
+    // Secondary index of the cache keys by value, maintained only if
+    // requested by the table. The index is modified together with the cache
+    // while synchronized, and read without synchronization.
+    private val valueIndex =
+        if (table.indexValues) new ConcurrentHashMap[V, Set[K]] else null
     private var version = -1L
     private val failures = new ConcurrentLinkedQueue[TableEntry[K, V]]()
 
@@ -354,6 +359,9 @@ private class ScalableStateTableManager[K, V](table: ScalableStateTable[K, V])
         proxyConnectionSubscriber.unsubscribe()
         storageConnectionSubscriber.unsubscribe()
         cache.clear()
+        if (valueIndex ne null) {
+            valueIndex.clear()
+        }
         failures.clear()
         proxySubscriber = EmptySubscriber
         version = Long.MaxValue
@@ -411,7 +419,7 @@ private class ScalableStateTableManager[K, V](table: ScalableStateTable[K, V])
             entry.timestamp = adding.remove(keyValue)
             callbackLatency(entry)
             val removeEntry = if (oldEntry eq null) {
-                cache.put(entry.key, entry)
+                putEntry(entry, oldEntry)
                 publish(Update(entry.key, table.nullValue, entry.value))
 
                 log trace s"Added ${entry.key} -> ${entry.value} " +
@@ -419,7 +427,7 @@ private class ScalableStateTableManager[K, V](table: ScalableStateTable[K, V])
                 null
             } else if (oldEntry.version == PersistentVersion ||
                        oldEntry.version < entry.version) {
-                cache.put(entry.key, entry)
+                putEntry(entry, oldEntry)
                 publish(Update(entry.key, oldEntry.value, entry.value))
 
                 log trace s"Updated ${entry.key} -> ${entry.value} " +
@@ -491,6 +499,7 @@ private class ScalableStateTableManager[K, V](table: ScalableStateTable[K, V])
 
         this.synchronized {
             if (cache.remove(entry.key, entry)) {
+                unindexValue(entry.key, entry.value)
                 publish(Update(entry.key, entry.value, table.nullValue))
             }
             owned.remove(entry.version)
@@ -527,9 +536,15 @@ private class ScalableStateTableManager[K, V](table: ScalableStateTable[K, V])
     }
 
     /**
-      * @return The set of keys for the specified value.
+      * @return The set of keys for the specified value. If the table indexes
+      *         its values, this is a constant time lookup, otherwise it scans
+      *         all entries.
       */
     def getByValue(value: V): Set[K] = {
+        if ((valueIndex ne null) && (value != null)) {
+            val keys = valueIndex.get(value)
+            return if (keys eq null) Set.empty else keys
+        }
         val iterator = cache.entrySet().iterator()
         val set = Set.newBuilder[K]
         while (iterator.hasNext) {
@@ -834,12 +849,12 @@ private class ScalableStateTableManager[K, V](table: ScalableStateTable[K, V])
                 if (oldEntry == newEntry) {
                     roundTripLatency(oldEntry)
                 } else if (oldEntry eq null) {
-                    cache.put(newEntry.key, newEntry)
+                    putEntry(newEntry, oldEntry)
                     updates.add(Update(newEntry.key, table.nullValue,
                                        newEntry.value))
                 } else if (oldEntry.version == PersistentVersion
                         || oldEntry.version < newEntry.version) {
-                    cache.put(newEntry.key, newEntry)
+                    putEntry(newEntry, oldEntry)
                     updates.add(Update(newEntry.key, oldEntry.value,
                                        newEntry.value))
                     // Remove owned deleted entry.
@@ -856,6 +871,7 @@ private class ScalableStateTableManager[K, V](table: ScalableStateTable[K, V])
                 val oldEntry = cache.get(key)
                 if ((oldEntry ne null) && oldEntry.version <= newVersion) {
                     cache.remove(key)
+                    unindexValue(oldEntry.key, oldEntry.value)
                     updates.add(Update(oldEntry.key, oldEntry.value,
                                        table.nullValue))
                     // Remove owned deleted entry.
@@ -935,12 +951,12 @@ private class ScalableStateTableManager[K, V](table: ScalableStateTable[K, V])
             if (oldEntry == newEntry) {
                 roundTripLatency(oldEntry)
             } else if (oldEntry eq null) {
-                cache.put(newEntry.key, newEntry)
+                putEntry(newEntry, oldEntry)
                 updates.add(Update(newEntry.key, table.nullValue,
                                    newEntry.value))
             } else if (oldEntry.version == PersistentVersion
                     || oldEntry.version < newEntry.version) {
-                cache.put(newEntry.key, newEntry)
+                putEntry(newEntry, oldEntry)
                 updates.add(Update(newEntry.key, oldEntry.value,
                                    newEntry.value))
                 // Remove owned replaced entry.
@@ -965,12 +981,51 @@ private class ScalableStateTableManager[K, V](table: ScalableStateTable[K, V])
             val oldEntry = removeIterator.next()
             if (!updateCache.containsKey(oldEntry.getKey)) {
                 removeIterator.remove()
+                unindexValue(oldEntry.getKey, oldEntry.getValue.value)
                 updates.add(Update(oldEntry.getKey, oldEntry.getValue.value,
                                    table.nullValue))
             }
         }
     }
 
+    /**
+      * Puts a new entry in the cache, replacing the given old entry, which
+      * may be null, and updates the value index.
+      *
+      * The call of this method must be synchronized.
+      */
+    private def putEntry(newEntry: TableEntry[K, V],
+                         oldEntry: TableEntry[K, V]): Unit = {
+        cache.put(newEntry.key, newEntry)
+        if (valueIndex ne null) {
+            if (oldEntry ne null) {
+                unindexValue(oldEntry.key, oldEntry.value)
+            }
+            if (newEntry.value != null) {
+                val keys = valueIndex.get(newEntry.value)
+                valueIndex.put(newEntry.value,
+                               if (keys eq null) Set(newEntry.key)
+                               else keys + newEntry.key)
+            }
+        }
+    }
+
+    /**
+      * Removes the key of a removed or replaced entry from the value index.
+      *
+      * The call of this method must be synchronized.
+      */
+    private def unindexValue(key: K, value: V): Unit = {
+        if ((valueIndex ne null) && (value != null)) {
+            val keys = valueIndex.get(value)
+            if (keys ne null) {
+                val newKeys = keys - key
+                if (newKeys.isEmpty) valueIndex.remove(value)
+                else valueIndex.put(value, newKeys)
+            }
+        }
+    }
+
     /**
       * Deletes from storage the list of entries.
       */
@@ -182,6 +182,7 @@ trait StateTable[K, V] {
 
     /**
       * Gets the local cached set of keys corresponding to the specified value.
+      * Tables that index their values perform this lookup in constant time.
       */
     def getLocalByValue(value: V): Set[K]
 
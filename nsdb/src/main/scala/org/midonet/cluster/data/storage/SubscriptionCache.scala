@@ -17,6 +17,7 @@ package org.midonet.cluster.data.storage
 
 import java.util.concurrent.atomic.AtomicInteger
 
+import scala.collection.JavaConverters._
 import scala.collection.concurrent.TrieMap
 
 import com.google.common.annotations.VisibleForTesting
@@ -108,32 +109,42 @@ class InstanceSubscriptionCache[T](val clazz: Class[T],
 }
 
 /**
- * Watches a Zookeeper node's children. Subscribers will receive a stream of
- * Observable[T] instances, one for each child of the specified node.
- * Subscribing to one of these Observables will have the same effect as
- * subscribing to an InstanceSubscriptionCache.
+ * Watches the children of one or more Zookeeper nodes. Subscribers will
+ * receive a stream of Observable[T] instances, one for each child of the
+ * specified nodes. Subscribing to one of these Observables will have the same
+ * effect as subscribing to an InstanceSubscriptionCache.
+ *
+ * Every node is watched by its own path cache, such that a change to the
+ * children of a node only re-lists the children of that node.
  *
  * @param clazz Class to deserialize to.
- * @param path Path of parent node to watch.
+ * @param paths Paths of the parent nodes to watch.
  */
 private[storage]
 class ClassSubscriptionCache[T](val clazz: Class[T],
-                                path: String,
+                                paths: Seq[String],
                                 curator: CuratorFramework,
                                 storageMetrics: StorageMetrics) {
 
-    private val pathCache = ObservablePathChildrenCache.create(curator, path,
-                                                               storageMetrics)
+    private val pathCaches = paths map {
+        ObservablePathChildrenCache.create(curator, _, storageMetrics)
+    }
     private val deserializer = makeFunc1 {
         obs: Observable[ChildData] =>
             obs.map[T](DeserializerCache.deserializer(clazz))
     }
 
-    val observable = pathCache.map[Observable[T]](deserializer)
+    val observable =
+        if (pathCaches.size == 1) {
+            pathCaches.head.map[Observable[T]](deserializer)
+        } else {
+            Observable.merge[Observable[T]](
+                pathCaches.map(_.map[Observable[T]](deserializer)).asJava)
+        }
 
-    def close() = pathCache.close()
+    def close() = pathCaches foreach { _.close() }
 
-    def isStarted = pathCache.isStarted
+    def isStarted = pathCaches forall { _.isStarted }
 }
 
 /**
@@ -17,7 +17,7 @@ package org.midonet.cluster.data.storage
 
 import java.util.ConcurrentModificationException
 import java.util.concurrent.Executors._
-import java.util.concurrent.TimeUnit
+import java.util.concurrent.{CountDownLatch, TimeUnit}
 import java.util.concurrent.atomic.AtomicLong
 
 import scala.collection.JavaConversions._
@@ -25,6 +25,7 @@ import scala.collection.JavaConverters._
 import scala.collection.concurrent.TrieMap
 import scala.collection.mutable
 import scala.concurrent.ExecutionContext._
+import scala.concurrent.duration.Duration
 import scala.concurrent.{Future, Promise}
 import scala.util.control.NonFatal
 import scala.util.{Failure, Success}
@@ -36,6 +37,7 @@ import org.apache.curator.framework.CuratorFramework
 import org.apache.curator.framework.api.transaction.CuratorTransactionFinal
 import org.apache.curator.framework.api.{BackgroundCallback, CuratorEvent, CuratorEventType}
 import org.apache.curator.framework.recipes.locks.InterProcessSemaphoreMutex
+import org.apache.curator.framework.state.{ConnectionState, ConnectionStateListener}
 import org.apache.curator.utils.ZKPaths
 import org.apache.zookeeper.KeeperException._
 import org.apache.zookeeper.OpResult.ErrorResult
@@ -107,6 +109,17 @@ import org.midonet.util.functors.makeFunc1
  * declareBinding(Port.class, "peerId", CLEAR,
  * Port.class, "peerId", CLEAR);
  *
+ * The objects of a class are stored as children of the class node, or, for
+ * the classes listed in the `zookeeper.bucketed_classes` configuration, spread
+ * by the hash of their identifier across a fixed number of bucket nodes, such
+ * that listing or watching the objects of the class does not read a single
+ * list of children exceeding the limits of ZooKeeper, and that class
+ * observables re-list only the bucket of a created or deleted object. The
+ * layout in use is the one stored in the class node, which every storage
+ * watches: building the storage never moves objects, and until the cluster
+ * migrates a class with [[migrateClassLayouts()]], all readers and writers
+ * keep using its previous layout.
+ *
  */
 class ZookeeperObjectMapper(config: MidonetBackendConfig,
                             protected override val namespace: String,
@@ -126,6 +139,7 @@ class ZookeeperObjectMapper(config: MidonetBackendConfig,
 
     private[cluster] val basePath = s"$zoomPath/" + version.get
     private[storage] val topologyLockPath = s"$basePath/locks/zoom-topology"
+    private[storage] val layoutLockPath = s"$basePath/locks/zoom-layout"
     private[storage] val transactionLocksPath = basePath + s"/zoomlocks/lock"
     private[storage] val modelPath = basePath + s"/models"
     @volatile private var lockFree = false
@@ -137,6 +151,10 @@ class ZookeeperObjectMapper(config: MidonetBackendConfig,
     private val objectObservableRef = new AtomicLong()
 
     private val simpleNameToClass = new mutable.HashMap[String, Class[_]]()
+    private val bucketedClasses = config.bucketedClasses
+    private val targetBuckets = new TrieMap[Class[_], Int]
+    private val classLayouts = new TrieMap[Class[_], ClassLayout]
+    private val pathToClass = new TrieMap[String, Class[_]]
     private val objectObservables = new TrieMap[Key, ObjectObservable]
     private val classObservables = new TrieMap[Class[_], ClassObservable]
 
@@ -165,6 +183,27 @@ class ZookeeperObjectMapper(config: MidonetBackendConfig,
         }
     }
 
+    private val classLayoutWatcher = new Watcher {
+        override def process(event: WatchedEvent): Unit = {
+            // Reload the layout from the notification thread, such that the
+            // observables of the class switch to the new layout before
+            // processing any later notification.
+            if (event.getType == EventType.NodeDataChanged) {
+                pathToClass.get(event.getPath) foreach reloadClassLayout
+            }
+        }
+    }
+
+    private val classLayoutConnectionListener = new ConnectionStateListener {
+        override def stateChanged(client: CuratorFramework,
+                                  state: ConnectionState): Unit = {
+            // The layout watchers are lost with an expired session.
+            if (state == ConnectionState.RECONNECTED) {
+                classInfo.keys foreach reloadClassLayout
+            }
+        }
+    }
+
     /* Functions and variables to expose metrics using JMX in class
        ZoomMetrics. */
 
@@ -218,8 +257,17 @@ class ZookeeperObjectMapper(config: MidonetBackendConfig,
                 "Could not acquire current zxid.", ex)
         }
 
+        // The layouts of the classes when the transaction started. The commit
+        // checks the version of the layout of every class it writes, such that
+        // a transaction never spans the migration of a class.
+        private val layouts = classLayouts.readOnlySnapshot()
+
+        private def layout(clazz: Class[_]): ClassLayout = {
+            layouts.getOrElse(clazz, FlatLayout)
+        }
+
         private def getPath(clazz: Class[_], id: ObjId) = {
-            ZookeeperObjectMapper.this.objectPath(clazz, id, version)
+            layoutPath(clazz, getIdString(id), layout(clazz).buckets)
         }
 
         override def isRegistered(clazz: Class[_]): Boolean = {
@@ -254,8 +302,19 @@ class ZookeeperObjectMapper(config: MidonetBackendConfig,
         }
 
         override def getIds(clazz: Class[_]): Observable[Seq[ObjId]] = {
-            val path = classPath(clazz)
+            val paths = bucketPaths(clazz, layout(clazz).buckets)
+            if (paths.size == 1) {
+                childIds(paths.head)
+            } else {
+                Observable.merge[Seq[ObjId]](paths.map(childIds).asJava)
+                          .toList
+                          .map[Seq[ObjId]](makeFunc1(
+                              (ids: java.util.List[Seq[ObjId]]) =>
+                                  ids.asScala.flatten))
+            }
+        }
 
+        private def childIds(path: String): Observable[Seq[ObjId]] = {
             asObservable {
                 curator.getChildren.inBackground(_).forPath(path)
             } map[Notification[Seq[ObjId]]] makeFunc1 { event =>
@@ -278,6 +337,16 @@ class ZookeeperObjectMapper(config: MidonetBackendConfig,
         @throws[StorageNodeNotFoundException]
         override def commit(): Unit = {
             val ops = flattenOps ++ createStateTableOps
+            val writtenClasses = ops.collect {
+                case (Key(clazz, _), _: TxCreate | _: TxUpdate | _: TxDelete) =>
+                    clazz
+            }.distinct
+            for (clazz <- writtenClasses if layout(clazz).isMigrating) {
+                throw new ConcurrentModificationException(
+                    s"The objects of class ${clazz.getSimpleName} are being " +
+                    s"migrated from ${layout(clazz).buckets} to " +
+                    s"${layout(clazz).target} buckets.")
+            }
             var txn =
                 curator.inTransaction().asInstanceOf[CuratorTransactionFinal]
 
@@ -308,6 +377,12 @@ class ZookeeperObjectMapper(config: MidonetBackendConfig,
                     throw new InternalObjectMapperException(
                         "TxNodeExists should have been filtered by flattenOps.")
             }
+            // The layout checks come last, so that the results of the previous
+            // operations match their index in the list of operations.
+            for (clazz <- writtenClasses) {
+                txn = txn.check().withVersion(layout(clazz).version)
+                         .forPath(classPath(clazz)).and()
+            }
 
             val startTime = System.nanoTime()
             try {
@@ -316,7 +391,12 @@ class ZookeeperObjectMapper(config: MidonetBackendConfig,
                 case bve: BadVersionException =>
                     // NoNodeException is assumed to be due to concurrent delete
                     // operation because we already successfully fetched any
-                    // objects that are being updated.
+                    // objects that are being updated. The layout of a class
+                    // may have changed as well, in which case reload it before
+                    // the transaction is retried.
+                    writtenClasses filter { clazz =>
+                        classLayouts.get(clazz) contains layout(clazz)
+                    } foreach reloadClassLayout
                     throw new ConcurrentModificationException(bve)
                 case e: KeeperException =>
                     rethrowException(ops, e)
@@ -460,6 +540,10 @@ class ZookeeperObjectMapper(config: MidonetBackendConfig,
         }
 
         classInfo(clazz) = makeInfo(clazz)
+        targetBuckets(clazz) =
+            if (bucketedClasses.contains(name)) config.classBuckets else 0
+        classLayouts(clazz) = FlatLayout
+        pathToClass(classPath(clazz)) = clazz
         stateInfo(clazz) = new StateInfo
         tableInfo(clazz) = new TableInfo
     }
@@ -473,6 +557,7 @@ class ZookeeperObjectMapper(config: MidonetBackendConfig,
 
     override def build(): Unit = {
         ensureClassNodes()
+        loadClassLayouts()
         ensureStateTableNodes()
         lockFreeAndWatch(async = false)
         metrics.build(this)
@@ -527,6 +612,296 @@ class ZookeeperObjectMapper(config: MidonetBackendConfig,
         }
     }
 
+    /**
+      * Loads the layouts of all classes, and watches them for changes.
+      */
+    private def loadClassLayouts(): Unit = {
+        try classInfo.keys foreach loadClassLayout
+        catch {
+            case e: InternalObjectMapperException => throw e
+            case NonFatal(e) => throw new InternalObjectMapperException(e)
+        }
+        curator.getConnectionStateListenable
+               .addListener(classLayoutConnectionListener)
+    }
+
+    /**
+      * Loads the layout of the given class from the data of its class node,
+      * and watches it for changes. When the number of buckets changes, the
+      * object and class observables of the class are closed, such that their
+      * subscribers re-subscribe to the paths of the new layout.
+      */
+    private def loadClassLayout(clazz: Class[_]): ClassLayout = {
+        val stat = new Stat()
+        val data = curator.getData.storingStatIn(stat)
+                          .usingWatcher(classLayoutWatcher)
+                          .forPath(classPath(clazz))
+        val layout = parseLayout(data, stat.getVersion)
+        val previous = classLayouts.put(clazz, layout)
+        if (previous.exists(_.buckets != layout.buckets)) {
+            Log.info(s"Objects of class ${clazz.getSimpleName} are stored " +
+                     s"in ${layout.buckets} buckets")
+            for ((key, entry) <- objectObservables if key.clazz == clazz) {
+                entry.nodeObservable.close()
+            }
+            classObservables.get(clazz) foreach { _.cache.close() }
+        }
+        layout
+    }
+
+    private def reloadClassLayout(clazz: Class[_]): Unit = {
+        try loadClassLayout(clazz)
+        catch {
+            case NonFatal(e) =>
+                Log.warn(s"Failed to load the layout of class " +
+                         s"${clazz.getSimpleName}", e)
+        }
+    }
+
+    /**
+      * Migrates the objects of the classes whose stored layout differs from
+      * the `zookeeper.bucketed_classes` configuration, and returns the
+      * migrated classes. The migration is an explicit step run by the cluster,
+      * and it is resumed by calling this method again if interrupted.
+      *
+      * The objects of a class are first copied to the new layout while the
+      * class remains writable. Then, holding the topology lock, the layout is
+      * marked as migrating, which fails the transactions writing the class,
+      * the objects modified since their copy are copied again, and the new
+      * layout is stored in the class node. The storages watching the layout
+      * use the new paths from then on, and the nodes of the previous layout
+      * are kept until [[cleanupClassLayouts()]] deletes them, such that the
+      * storages that have not yet seen the new layout do not observe their
+      * objects as deleted.
+      */
+    @throws[StorageException]
+    protected[cluster] def migrateClassLayouts(): Seq[Class[_]] = {
+        assertBuilt()
+        val lock = new InterProcessSemaphoreMutex(curator, layoutLockPath)
+        if (!lock.acquire(config.lockTimeoutMs, TimeUnit.MILLISECONDS)) {
+            throw new StorageException("Acquiring lock timed-out after " +
+                                       s"${config.lockTimeoutMs} ms")
+        }
+        try {
+            for (clazz <- classInfo.keys.toSeq
+                 if migrateClassLayout(clazz, loadClassLayout(clazz)))
+                yield clazz
+        } catch {
+            case e: StorageException => throw e
+            case NonFatal(e) => throw new InternalObjectMapperException(e)
+        } finally {
+            lock.release()
+        }
+    }
+
+    private def migrateClassLayout(clazz: Class[_], layout: ClassLayout)
+    : Boolean = {
+        val target = targetBuckets(clazz)
+        if (layout.buckets == target) {
+            if (layout.isMigrating) {
+                // Cancel the interrupted migration to a previous layout.
+                storeClassLayout(clazz, ClassLayout(target, target,
+                                                    layout.version))
+                loadClassLayout(clazz)
+            }
+            return false
+        }
+
+        Log.info(s"Migrating objects of class ${clazz.getSimpleName} from " +
+                 s"${layout.buckets} to $target buckets")
+        val zk = curator.getZookeeperClient.getZooKeeper
+        if (target == 0) {
+            ZKPaths.deleteChildren(zk, classPath(clazz), false)
+        } else {
+            val path = bucketsPath(clazz) + "/" + target
+            if (curator.checkExists().forPath(path) ne null) {
+                ZKPaths.deleteChildren(zk, path, true)
+            }
+            for (bucketPath <- bucketPaths(clazz, target)) {
+                ZKPaths.mkdirs(zk, bucketPath)
+            }
+        }
+
+        val copied = new mutable.HashMap[String, Long]
+        copyObjects(clazz, layout.buckets, target, copied)
+
+        val lock = new InterProcessSemaphoreMutex(curator, topologyLockPath)
+        if (!lock.acquire(config.lockTimeoutMs, TimeUnit.MILLISECONDS)) {
+            throw new StorageException("Acquiring lock timed-out after " +
+                                       s"${config.lockTimeoutMs} ms")
+        }
+        try {
+            val migrating = storeClassLayout(
+                clazz, ClassLayout(layout.buckets, target, layout.version))
+            copyObjects(clazz, layout.buckets, target, copied)
+            storeClassLayout(clazz, ClassLayout(target, target,
+                                                migrating.version))
+        } finally {
+            lock.release()
+        }
+        loadClassLayout(clazz)
+
+        Log.info(s"Migrated ${copied.size} objects of class " +
+                 s"${clazz.getSimpleName} to $target buckets")
+        true
+    }
+
+    private def storeClassLayout(clazz: Class[_], layout: ClassLayout)
+    : ClassLayout = {
+        val stat = curator.setData().withVersion(layout.version)
+                          .forPath(classPath(clazz), layout.data)
+        layout.copy(version = stat.getVersion)
+    }
+
+    /**
+      * Copies the objects of a class from a layout to another, skipping the
+      * objects copied before and not modified since, and deleting the copies
+      * of the objects no longer found. The `copied` map contains the
+      * modification ZXID of the objects copied so far.
+      */
+    private def copyObjects(clazz: Class[_], from: Int, to: Int,
+                            copied: mutable.Map[String, Long]): Unit = {
+        val found = new mutable.HashSet[String]
+        for (parentPath <- bucketPaths(clazz, from)) {
+            val ids = listObjects(clazz, parentPath, from, to)
+            for (batch <- ids.grouped(MigrationBatchSize)) {
+                val stats = statNodes(batch.map(parentPath + "/" + _))
+                for ((id, stat) <- batch zip stats if stat ne null) {
+                    if (copied.get(id) contains stat.getMzxid) {
+                        found += id
+                    } else if (copyObject(clazz, parentPath + "/" + id, id,
+                                          to, copied)) {
+                        found += id
+                    }
+                }
+            }
+        }
+        for (id <- copied.keys.toList if !found.contains(id)) {
+            try curator.delete().forPath(layoutPath(clazz, id, to))
+            catch { case e: NoNodeException => }
+            copied -= id
+        }
+    }
+
+    /**
+      * Copies an object to its path in the given layout, and returns false if
+      * the object no longer exists.
+      */
+    private def copyObject(clazz: Class[_], path: String, id: String, to: Int,
+                           copied: mutable.Map[String, Long]): Boolean = {
+        val stat = new Stat()
+        val data = try curator.getData.storingStatIn(stat).forPath(path)
+                   catch { case e: NoNodeException => return false }
+        val newPath = layoutPath(clazz, id, to)
+        try curator.create().forPath(newPath, data)
+        catch {
+            case e: NodeExistsException =>
+                curator.setData().forPath(newPath, data)
+        }
+        copied(id) = stat.getMzxid
+        true
+    }
+
+    /**
+      * Lists the objects of a class for a migration, failing with an
+      * explanation if the list cannot be read.
+      */
+    private def listObjects(clazz: Class[_], path: String, from: Int, to: Int)
+    : Seq[String] = {
+        try curator.getChildren.forPath(path).asScala
+        catch {
+            case NonFatal(e) =>
+                throw new InternalObjectMapperException(
+                    s"Cannot list the objects of class ${clazz.getSimpleName} " +
+                    s"to migrate them from $from to $to buckets. The " +
+                    "children of a class node with very many objects exceed " +
+                    "the ZooKeeper packet size: such a class must be bucketed " +
+                    "before it grows that large, or the migration must run " +
+                    "with a larger jute.maxbuffer", e)
+        }
+    }
+
+    /**
+      * Reads the statistics of the given nodes in parallel, returning null
+      * for the nodes that do not exist.
+      */
+    private def statNodes(paths: Seq[String]): Seq[Stat] = {
+        val stats = new Array[Stat](paths.size)
+        val codes = new Array[Int](paths.size)
+        val latch = new CountDownLatch(paths.size)
+        for ((path, index) <- paths.zipWithIndex) {
+            curator.checkExists().inBackground(new BackgroundCallback {
+                override def processResult(client: CuratorFramework,
+                                           event: CuratorEvent): Unit = {
+                    stats(index) = event.getStat
+                    codes(index) = event.getResultCode
+                    latch.countDown()
+                }
+            }).forPath(path)
+        }
+        if (!latch.await(config.lockTimeoutMs, TimeUnit.MILLISECONDS)) {
+            throw new StorageException("Reading the nodes timed-out after " +
+                                       s"${config.lockTimeoutMs} ms")
+        }
+        for (index <- codes.indices
+             if codes(index) != Code.OK.intValue() &&
+                codes(index) != Code.NONODE.intValue()) {
+            throw new InternalObjectMapperException(
+                KeeperException.create(Code.get(codes(index)), paths(index)))
+        }
+        stats
+    }
+
+    /**
+      * Deletes the nodes of the previous layouts of the classes whose current
+      * layout was stored at least `delay` ago, and returns the classes whose
+      * nodes were deleted. The delay must exceed the time it takes every
+      * storage to see a new layout.
+      */
+    @throws[StorageException]
+    protected[cluster] def cleanupClassLayouts(delay: Duration)
+    : Seq[Class[_]] = {
+        assertBuilt()
+        try {
+            for (clazz <- classInfo.keys.toSeq
+                 if cleanupClassLayout(clazz, delay)) yield clazz
+        } catch {
+            case e: StorageException => throw e
+            case NonFatal(e) => throw new InternalObjectMapperException(e)
+        }
+    }
+
+    private def cleanupClassLayout(clazz: Class[_], delay: Duration)
+    : Boolean = {
+        val stat = new Stat()
+        val data = curator.getData.storingStatIn(stat).forPath(classPath(clazz))
+        val layout = parseLayout(data, stat.getVersion)
+        if (layout.isMigrating ||
+            System.currentTimeMillis() - stat.getMtime < delay.toMillis) {
+            return false
+        }
+
+        val zk = curator.getZookeeperClient.getZooKeeper
+        var deleted = false
+        if (layout.buckets > 0 && stat.getNumChildren > 0) {
+            ZKPaths.deleteChildren(zk, classPath(clazz), false)
+            deleted = true
+        }
+        val path = bucketsPath(clazz)
+        if (curator.checkExists().forPath(path) ne null) {
+            for (buckets <- curator.getChildren.forPath(path).asScala
+                 if buckets != layout.buckets.toString) {
+                ZKPaths.deleteChildren(zk, path + "/" + buckets, true)
+                deleted = true
+            }
+        }
+        if (deleted) {
+            Log.info(s"Deleted the previous layouts of class " +
+                     s"${clazz.getSimpleName}")
+        }
+        deleted
+    }
+
     /**
       * Ensures that the global state table nodes in ZooKeeper for each table
       * exist, creating them if needed.
@@ -617,6 +992,22 @@ class ZookeeperObjectMapper(config: MidonetBackendConfig,
         assert(isRegistered(clazz))
 
         val all = Promise[Seq[T]]()
+        Future.sequence(bucketPaths(clazz) map readChildren).onComplete {
+            case Success(ids) =>
+                getAll(clazz, ids.flatten).onComplete {
+                    case Success(l) => all trySuccess l
+                    case Failure(t) => all tryFailure t
+                }
+            case Failure(t) => all tryFailure t
+        }
+        all.future
+    }
+
+    /**
+     * Reads the children of the given node, which contains objects.
+     */
+    private def readChildren(path: String): Future[Seq[String]] = {
+        val children = Promise[Seq[String]]()
         val start = System.nanoTime()
         val cb = new BackgroundCallback {
             override def processResult(client: CuratorFramework,
@@ -624,14 +1015,10 @@ class ZookeeperObjectMapper(config: MidonetBackendConfig,
                 val end = System.nanoTime()
                 metrics.performance.addReadChildrenLatency(end - start)
                 assert(CuratorEventType.CHILDREN == evt.getType)
-                getAll(clazz, evt.getChildren).onComplete {
-                    case Success(l) => all trySuccess l
-                    case Failure(t) => all tryFailure t
-                }
+                children trySuccess evt.getChildren.asScala
             }
         }
 
-        val path = classPath(clazz)
         try {
             curator.getChildren.inBackground(cb).forPath(path)
         } catch {
@@ -639,7 +1026,7 @@ class ZookeeperObjectMapper(config: MidonetBackendConfig,
                 throw new InternalObjectMapperException(
                     s"Node $path does not exist in Zookeeper.", ex)
         }
-        all.future
+        children.future
     }
 
     /**
@@ -794,7 +1181,7 @@ class ZookeeperObjectMapper(config: MidonetBackendConfig,
         assert(isRegistered(clazz))
 
         classObservables.getOrElse(clazz, {
-            val cache = new ClassSubscriptionCache(clazz, classPath(clazz),
+            val cache = new ClassSubscriptionCache(clazz, bucketPaths(clazz),
                                                    curator, metrics)
             val obs = cache.observable
                 .onErrorResumeNext(makeFunc1((t: Throwable) => t match {
@@ -863,11 +1250,50 @@ class ZookeeperObjectMapper(config: MidonetBackendConfig,
         modelPath + "/" + clazz.getSimpleName
     }
 
+    /**
+      * Returns the path of the bucket layouts of the given class, which are
+      * kept outside the class node such that the observers of a class node
+      * in the flat layout do not see the buckets.
+      */
+    @inline
+    private[storage] def bucketsPath(clazz: Class[_]): String = {
+        basePath + "/buckets/" + clazz.getSimpleName
+    }
+
+    /**
+      * Returns the paths of the nodes whose children are the objects of the
+      * given class in its current layout: the class node, or the bucket nodes
+      * of a bucketed class.
+      */
+    protected[cluster] def bucketPaths(clazz: Class[_]): Seq[String] = {
+        bucketPaths(clazz, classLayouts.getOrElse(clazz, FlatLayout).buckets)
+    }
+
+    private def bucketPaths(clazz: Class[_], buckets: Int): Seq[String] = {
+        if (buckets == 0) Seq(classPath(clazz))
+        else (0 until buckets) map { bucketPath(clazz, buckets, _) }
+    }
+
+    @inline
+    private def bucketPath(clazz: Class[_], buckets: Int, bucket: Int)
+    : String = {
+        bucketsPath(clazz) + "/" + buckets + "/" + bucket
+    }
+
+    @inline
+    private def layoutPath(clazz: Class[_], id: String, buckets: Int)
+    : String = {
+        if (buckets == 0) classPath(clazz) + "/" + id
+        else bucketPath(clazz, buckets, (id.hashCode & Int.MaxValue) % buckets) +
+             "/" + id
+    }
+
     @inline
     protected[cluster] override def objectPath(clazz: Class[_], id: ObjId,
                                                version: Long = version.longValue())
     : String = {
-        classPath(clazz) + "/" + getIdString(id)
+        layoutPath(clazz, getIdString(id),
+                   classLayouts.getOrElse(clazz, FlatLayout).buckets)
     }
 
     protected[cluster] def isLockFree = lockFree
@@ -929,6 +1355,48 @@ object ZookeeperObjectMapper {
     protected val Log = LoggerFactory.getLogger("org.midonet.nsdb")
     private val OnCloseDefault = { }
 
+    /**
+      * The layout of the objects of a class, stored as the data of the class
+      * node: the number of buckets, where zero means that the objects are the
+      * children of the class node, the number of buckets to which the objects
+      * are being migrated, and the version of the class node.
+      */
+    private[storage] case class ClassLayout(buckets: Int, target: Int,
+                                            version: Int) {
+        def isMigrating: Boolean = buckets != target
+        def data: Array[Byte] = {
+            (if (isMigrating) s"$buckets>$target" else buckets.toString).getBytes
+        }
+    }
+
+    private[storage] final val FlatLayout = ClassLayout(0, 0, 0)
+
+    /** The number of nodes read in a batch during a migration. */
+    private final val MigrationBatchSize = 1000
+
+    private[storage] def parseLayout(data: Array[Byte], version: Int)
+    : ClassLayout = {
+        val layout = if (data eq null) "" else new String(data).trim
+        val index = layout.indexOf('>')
+        try {
+            if (layout.isEmpty) {
+                ClassLayout(0, 0, version)
+            } else if (index < 0) {
+                val buckets = Integer.parseInt(layout)
+                ClassLayout(buckets, buckets, version)
+            } else {
+                ClassLayout(Integer.parseInt(layout.substring(0, index)),
+                            Integer.parseInt(layout.substring(index + 1)),
+                            version)
+            }
+        } catch {
+            case e: NumberFormatException =>
+                throw new InternalObjectMapperException(
+                    s"Invalid class layout $layout", e)
+        }
+    }
+
+
     private[storage] def makeInfo(clazz: Class[_])
     : ClassInfo = {
         try {
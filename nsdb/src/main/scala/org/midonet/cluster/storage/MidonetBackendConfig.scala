@@ -18,6 +18,8 @@ package org.midonet.cluster.storage
 
 import java.util.concurrent.TimeUnit
 
+import scala.collection.JavaConverters._
+
 import com.typesafe.config.Config
 
 import org.midonet.cluster.services.state.client.StateProxyClientConfig
@@ -39,6 +41,16 @@ class MidonetBackendConfig(val conf: Config) {
     def stateClient = new StateProxyClientConfig(conf)
     def lockTimeoutMs = conf.getDuration("zookeeper.lock_timeout", TimeUnit.MILLISECONDS)
     def transactionAttempts = conf.getInt("zookeeper.transaction_attempts")
+    // The class layout defaults to unbucketed for configurations built
+    // without the NSDB schema.
+    def bucketedClasses =
+        if (conf.hasPath("zookeeper.bucketed_classes"))
+            conf.getStringList("zookeeper.bucketed_classes").asScala.toSet
+        else Set.empty[String]
+    def classBuckets =
+        if (conf.hasPath("zookeeper.class_buckets"))
+            Math.max(conf.getInt("zookeeper.class_buckets"), 1)
+        else 256
 }
 
 class CassandraConfig(val conf: Config) {
@@ -94,6 +94,12 @@ object MidolmanMetricCatalog {
     val SIM_LATENCY = s"$BASE.PacketPipelineHistogram.simulationLatency"
     val SIM_PACKETS = s"$BASE.PacketPipelineMeter.packetsSimulated.packets"
 
+    val STAGES = List("ringWait", "simulation", "postponement", "flowCreate",
+                      "execute")
+
+    def stageLatency(worker: Int, stage: String) =
+        s"$BASE.PacketPipelineHistogram.worker-$worker.latency.$stage"
+
     val CMS_GC= "java.lang:type=GarbageCollector,name=G1 Old Generation"
     val NEW_GC= "java.lang:type=GarbageCollector,name=G1 Young Generation"
 
@@ -101,7 +107,7 @@ object MidolmanMetricCatalog {
     val SURVIVOR_MEM = "java.lang:type=MemoryPool,name=G1 Survivor Space"
     val EDEN_MEM = "java.lang:type=MemoryPool,name=G1 Eden Space"
 
-    class AllMetrics(val mbsc: MBeanServerConnection) {
+    class AllMetrics(val mbsc: MBeanServerConnection, worker: Int = 0) {
         val dpFlowsGauge = new Gauge(mbsc, DP_FLOWS_GAUGE)
         val latency = new Histogram(mbsc, SIM_LATENCY)
         val packets = new Meter(mbsc, SIM_PACKETS)
@@ -125,9 +131,17 @@ object MidolmanMetricCatalog {
                  new StatColumn("75th", 7, latency.get75th, 1000),
                  new StatColumn("95th", 7, latency.get95th, 1000)))
 
+        val stageLatencies = new ColumnGroup(
+            s"worker $worker 99th latency (microsecs)",
+            for (stage <- STAGES) yield {
+                val histogram = new Histogram(mbsc, stageLatency(worker, stage))
+                new StatColumn(stage, 7, histogram.get99th, 1000)
+            })
+
         val columns = List(
             new StatColumn("dpflows", 7, dpFlowsGauge.get),
             latencies,
+            stageLatencies,
             new StatColumn("packets", 7, packets.countDelta),
             new StatColumn("gc time", 8, gc.getDelta),
             edenGroup, survivorGroup, oldGroup)
@@ -248,6 +262,8 @@ object MidolmanStat extends App {
                                           "delay is specified, only one report is printed.")
         val count = trailArg[Int](required = false, default = Some(Integer.MAX_VALUE),
                                   descr = "number of updates, defaults to infinity")
+        val worker = opt[Int]("worker", short = 'w', default = Option(0),
+                              descr = "Packet worker for the stage latencies")
 
         printedName = "mm-stat"
         footer("Copyright (c) 2014 Midokura SARL, All Rights Reserved.")
@@ -255,7 +271,8 @@ object MidolmanStat extends App {
 
     try {
         val conn = connect(opts.host.get.get, opts.port.get.get)
-        val metrics = new MidolmanMetricCatalog.AllMetrics(conn)
+        val metrics = new MidolmanMetricCatalog.AllMetrics(conn,
+                                                           opts.worker.get.get)
         metrics.run(opts.delay.get.get, opts.count.get.get)
     } catch { case e: Throwable =>
         var t = e
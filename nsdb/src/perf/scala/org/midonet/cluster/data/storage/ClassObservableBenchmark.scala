@@ -0,0 +1,176 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.cluster.data.storage
+
+import java.util.UUID
+import java.util.concurrent.{CountDownLatch, TimeUnit}
+
+import scala.concurrent.duration._
+
+import com.codahale.metrics.MetricRegistry
+import com.typesafe.config.ConfigFactory
+
+import org.apache.curator.framework.api.transaction.CuratorTransactionFinal
+import org.apache.curator.framework.{CuratorFramework, CuratorFrameworkFactory}
+import org.apache.curator.retry.RetryNTimes
+import org.apache.curator.test.TestingServer
+import org.openjdk.jmh.annotations._
+import org.slf4j.LoggerFactory
+
+import rx.{Observable, Observer}
+
+import org.midonet.cluster.data.storage.ZoomSerializer.serialize
+import org.midonet.cluster.data.storage.metrics.StorageMetrics
+import org.midonet.cluster.models.Topology.Port
+import org.midonet.cluster.rpc.State.ProxyResponse.Notify
+import org.midonet.cluster.services.MidonetBackend
+import org.midonet.cluster.services.state.client.StateTableClient.ConnectionState.{ConnectionState => StateClientConnectionState}
+import org.midonet.cluster.services.state.client.{StateSubscriptionKey, StateTableClient}
+import org.midonet.cluster.storage.MidonetBackendConfig
+import org.midonet.cluster.util.UUIDUtil._
+import org.midonet.util.eventloop.CallingThreadReactor
+
+import ch.qos.logback.classic.{Level, Logger}
+
+/**
+  * Measures the latency of a class observable of 200k ports against an
+  * in-process ZooKeeper test server: the time from the creation of a port
+  * until the class observable emits the observable for the new port.
+  *
+  * When the ports are children of the class node, every creation makes the
+  * class observable re-list all ports. When the ports are bucketed, only the
+  * ports of the bucket of the new port are listed. The ZooKeeper packet limit
+  * is raised for the benchmark, since listing all ports exceeds the default.
+  */
+@BenchmarkMode(Array(Mode.SampleTime))
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = Array("-Djute.maxbuffer=67108864"))
+@State(Scope.Benchmark)
+class ClassObservableBenchmark {
+
+    private final val zkRoot = "/midonet/benchmark"
+    private final val timeout = 60 seconds
+    private final val batchSize = 1000
+
+    @Param(Array("0", "256"))
+    var buckets: Int = _
+
+    @Param(Array("200000"))
+    var objects: Int = _
+
+    private val stateTables = new StateTableClient {
+        override def stop(): Boolean = false
+        override def observable(table: StateSubscriptionKey): Observable[Notify.Update] =
+            Observable.never()
+        override def connection: Observable[StateClientConnectionState] =
+            Observable.never()
+        override def start(): Unit = { }
+    }
+
+    private class ClassObserver extends Observer[Observable[Port]] {
+        @volatile private var latch: CountDownLatch = _
+        def reset(count: Int): Unit = { latch = new CountDownLatch(count) }
+        override def onNext(port: Observable[Port]): Unit = latch.countDown()
+        override def onCompleted(): Unit = { }
+        override def onError(e: Throwable): Unit = { }
+        def await(duration: Duration): Boolean =
+            latch.await(duration.toMillis, TimeUnit.MILLISECONDS)
+    }
+
+    private var zkServer: TestingServer = _
+    private var curator: CuratorFramework = _
+    private var storage: ZookeeperObjectMapper = _
+    private val observer = new ClassObserver
+
+    @Setup
+    def setup(): Unit = {
+        val root = LoggerFactory.getLogger("org.midonet").asInstanceOf[Logger]
+        root.setLevel(Level.OFF)
+
+        zkServer = new TestingServer
+        zkServer.start()
+        curator = CuratorFrameworkFactory.newClient(zkServer.getConnectString,
+                                                    60000, 10000,
+                                                    new RetryNTimes(2, 1000))
+        curator.start()
+        curator.blockUntilConnected()
+
+        val layout =
+            if (buckets > 0)
+                s"""
+                   |zookeeper.bucketed_classes : [ "Port" ]
+                   |zookeeper.class_buckets : $buckets
+                 """.stripMargin
+            else ""
+        val config = new MidonetBackendConfig(ConfigFactory.parseString(
+            s"""
+               |zookeeper.root_key=$zkRoot
+               |$layout
+            """.stripMargin))
+
+        storage = new ZookeeperObjectMapper(config, UUID.randomUUID().toString,
+                                            curator, curator, stateTables,
+                                            new CallingThreadReactor,
+                                            new StorageMetrics(new MetricRegistry))
+        MidonetBackend.setupBindings(storage, storage)
+        // Building the storage does not change the layout of the ports.
+        storage.migrateClassLayouts()
+
+        // Write the ports directly, in batches, rather than through ZOOM
+        // transactions.
+        var created = 0
+        while (created < objects) {
+            var txn = curator.inTransaction().asInstanceOf[CuratorTransactionFinal]
+            var index = 0
+            while (index < batchSize && created < objects) {
+                val id = UUID.randomUUID()
+                txn = txn.create().forPath(storage.objectPath(classOf[Port], id),
+                                           serialize(port(id))).and()
+                index += 1
+                created += 1
+            }
+            txn.commit()
+        }
+
+        observer.reset(objects)
+        storage.observable(classOf[Port]).subscribe(observer)
+        observer.await(timeout)
+    }
+
+    @TearDown
+    def tearDown(): Unit = {
+        curator.close()
+        zkServer.close()
+    }
+
+    /**
+      * Creates a port and waits until the class observable emits it.
+      */
+    @Benchmark
+    def createObserved(): Boolean = {
+        val id = UUID.randomUUID()
+        observer.reset(1)
+        curator.create().forPath(storage.objectPath(classOf[Port], id),
+                                 serialize(port(id)))
+        observer.await(timeout)
+    }
+
+    private def port(id: UUID): Port = Port.newBuilder().setId(id).build()
+
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.cluster.data.storage
+
+import java.util.UUID
+import java.util.concurrent.TimeUnit
+
+import com.codahale.metrics.MetricRegistry
+
+import org.apache.curator.framework.state.ConnectionState
+import org.apache.zookeeper.CreateMode
+import org.openjdk.jmh.annotations._
+import org.slf4j.LoggerFactory
+
+import rx.Observable
+
+import org.midonet.cluster.backend.{Directory, MockDirectory}
+import org.midonet.cluster.data.storage.StateTable.Key
+import org.midonet.cluster.data.storage.metrics.StorageMetrics
+import org.midonet.cluster.rpc.State.KeyValue
+import org.midonet.cluster.rpc.State.ProxyResponse.Notify
+import org.midonet.cluster.services.state.client.StateTableClient.ConnectionState.{ConnectionState => StateClientConnectionState}
+import org.midonet.cluster.services.state.client.{StateSubscriptionKey, StateTableClient}
+
+import ch.qos.logback.classic.{Level, Logger}
+
+object StateTableBenchmark {
+
+    private object NoProxy extends StateTableClient {
+        override def stop(): Boolean = false
+        override def observable(table: StateSubscriptionKey): Observable[Notify.Update] =
+            Observable.never()
+        override def connection: Observable[StateClientConnectionState] =
+            Observable.never()
+        override def start(): Unit = { }
+    }
+
+    private class Table(override val directory: Directory,
+                        override val indexValues: Boolean)
+        extends ScalableStateTable[String, String]
+        with DirectoryStateTable[String, String] {
+
+        protected[storage] override val nullValue = null
+        protected[storage] override val tableKey =
+            Key(classOf[Object], UUID.randomUUID(), classOf[String],
+                classOf[String], "benchmark", Seq.empty)
+        protected[storage] override val proxy = NoProxy
+        protected[storage] override val connection =
+            Observable.never[ConnectionState]()
+        protected[storage] override val metrics =
+            new StorageMetrics(new MetricRegistry)
+
+        protected override def decodeKey(string: String): String = string
+        protected override def decodeValue(string: String): String = string
+        protected override def encodeKey(key: String): String = key
+        protected override def encodeValue(value: String): String = value
+        protected override def decodeKey(kv: KeyValue): String =
+            kv.getDataVariable.toStringUtf8
+        protected override def decodeValue(kv: KeyValue): String =
+            kv.getDataVariable.toStringUtf8
+    }
+}
+
+/**
+  * Benchmarks the lookup of keys by value in a scalable state table, such as
+  * the IPv4-MAC tables queried by the VXLAN gateway on every MAC update, with
+  * and without the value index. Every value maps to two keys.
+  */
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+class StateTableBenchmark {
+
+    import StateTableBenchmark._
+
+    @Param(Array("100000"))
+    var entries: Int = _
+
+    @Param(Array("false", "true"))
+    var indexValues: Boolean = _
+
+    private var table: Table = _
+    private var values: Array[String] = _
+    private var index = 0
+
+    @Setup
+    def setup(): Unit = {
+        val root = LoggerFactory.getLogger("org.midonet").asInstanceOf[Logger]
+        root.setLevel(Level.OFF)
+
+        val directory = new MockDirectory()
+        values = Array.tabulate(entries / 2)(index => s"value$index")
+        for (index <- 0 until entries) {
+            directory.add(f"/key$index,${values(index / 2)},$index%010d", null,
+                          CreateMode.EPHEMERAL)
+        }
+        table = new Table(directory, indexValues)
+        table.start()
+    }
+
+    @TearDown
+    def tearDown(): Unit = {
+        table.stop()
+    }
+
+    @Benchmark
+    def getByValue(): Set[String] = {
+        index = (index + 1) % values.length
+        table.getLocalByValue(values(index))
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.cluster.data.storage
+
+import java.util.UUID
+import java.util.concurrent.{CountDownLatch, TimeUnit}
+
+import scala.concurrent.duration._
+
+import com.codahale.metrics.MetricRegistry
+import com.typesafe.config.ConfigFactory
+
+import org.apache.curator.framework.{CuratorFramework, CuratorFrameworkFactory}
+import org.apache.curator.retry.RetryNTimes
+import org.apache.curator.test.TestingServer
+import org.openjdk.jmh.annotations._
+import org.openjdk.jmh.infra.Blackhole
+import org.slf4j.LoggerFactory
+
+import rx.{Observable, Observer}
+
+import org.midonet.cluster.data.storage.metrics.StorageMetrics
+import org.midonet.cluster.models.Topology.{Network, Port}
+import org.midonet.cluster.rpc.State.ProxyResponse.Notify
+import org.midonet.cluster.services.MidonetBackend
+import org.midonet.cluster.services.state.client.StateTableClient.ConnectionState.{ConnectionState => StateClientConnectionState}
+import org.midonet.cluster.services.state.client.{StateSubscriptionKey, StateTableClient}
+import org.midonet.cluster.storage.MidonetBackendConfig
+import org.midonet.cluster.util.UUIDUtil._
+import org.midonet.util.concurrent._
+import org.midonet.util.eventloop.CallingThreadReactor
+
+import ch.qos.logback.classic.{Level, Logger}
+
+/**
+  * Benchmarks the ZOOM storage against an in-process ZooKeeper test server:
+  * single object creation, multi-operation transactions with bindings and the
+  * fan-out of object updates to a number of observers.
+  */
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+class ZookeeperObjectMapperBenchmark {
+
+    private final val zkRoot = "/midonet/benchmark"
+    private final val timeout = 30 seconds
+    private final val config = new MidonetBackendConfig(ConfigFactory.parseString(
+        s"""
+           |zookeeper.root_key=$zkRoot
+        """.stripMargin))
+
+    private val stateTables = new StateTableClient {
+        override def stop(): Boolean = false
+        override def observable(table: StateSubscriptionKey): Observable[Notify.Update] =
+            Observable.never()
+        override def connection: Observable[StateClientConnectionState] =
+            Observable.never()
+        override def start(): Unit = { }
+    }
+
+    private var zkServer: TestingServer = _
+    private var curator: CuratorFramework = _
+    private var storage: ZookeeperObjectMapper = _
+    private var networkId: UUID = _
+
+    @Param(Array("1", "10", "50"))
+    var opsPerTransaction: Int = _
+
+    @Param(Array("1", "100"))
+    var observers: Int = _
+
+    private class NetworkObserver(count: Int) extends Observer[Network] {
+        @volatile private var latch = new CountDownLatch(count)
+        def reset(count: Int): Unit = { latch = new CountDownLatch(count) }
+        override def onNext(network: Network): Unit = latch.countDown()
+        override def onCompleted(): Unit = { }
+        override def onError(e: Throwable): Unit = { }
+        def await(duration: Duration): Boolean =
+            latch.await(duration.toMillis, TimeUnit.MILLISECONDS)
+    }
+
+    private var observer: NetworkObserver = _
+
+    @Setup
+    def setup(): Unit = {
+        val root = LoggerFactory.getLogger("org.midonet").asInstanceOf[Logger]
+        root.setLevel(Level.OFF)
+
+        zkServer = new TestingServer
+        zkServer.start()
+        curator = CuratorFrameworkFactory.newClient(zkServer.getConnectString,
+                                                    10000, 10000,
+                                                    new RetryNTimes(2, 1000))
+        curator.start()
+        curator.blockUntilConnected()
+
+        storage = new ZookeeperObjectMapper(config, UUID.randomUUID().toString,
+                                            curator, curator, stateTables,
+                                            new CallingThreadReactor,
+                                            new StorageMetrics(new MetricRegistry))
+        MidonetBackend.setupBindings(storage, storage)
+
+        networkId = UUID.randomUUID()
+        storage.create(Network.newBuilder().setId(networkId).build())
+
+        // All observers share the same object observable, such that each
+        // update is read once from ZooKeeper and emitted `observers` times.
+        observer = new NetworkObserver(observers)
+        val observable = storage.observable(classOf[Network], networkId)
+        for (index <- 0 until observers) {
+            observable.subscribe(observer)
+        }
+        observer.await(timeout)
+    }
+
+    @TearDown
+    def tearDown(): Unit = {
+        curator.close()
+        zkServer.close()
+    }
+
+    @Benchmark
+    def createNetwork(blackhole: Blackhole): Unit = {
+        val network = Network.newBuilder().setId(UUID.randomUUID()).build()
+        storage.create(network)
+        blackhole.consume(network)
+    }
+
+    @Benchmark
+    def getNetwork(blackhole: Blackhole): Unit = {
+        blackhole.consume(storage.get(classOf[Network], networkId).await(timeout))
+    }
+
+    /**
+      * Creates a network with `opsPerTransaction - 1` bound ports in a single
+      * ZOOM transaction, which includes updating the network back-references.
+      */
+    @Benchmark
+    def multiCreateNetworkWithPorts(blackhole: Blackhole): Unit = {
+        val id = UUID.randomUUID()
+        val ops = Seq.newBuilder[PersistenceOp]
+        ops += CreateOp(Network.newBuilder().setId(id).build())
+        for (index <- 1 until opsPerTransaction) {
+            ops += CreateOp(Port.newBuilder()
+                                .setId(UUID.randomUUID())
+                                .setNetworkId(id)
+                                .build())
+        }
+        storage.multi(ops.result())
+    }
+
+    /**
+      * Updates a network observed by `observers` subscribers and waits until
+      * all of them receive the update.
+      */
+    @Benchmark
+    def updateObservableFanOut(blackhole: Blackhole): Unit = {
+        observer.reset(observers)
+        storage.update(Network.newBuilder()
+                           .setId(networkId)
+                           .setName(UUID.randomUUID().toString)
+                           .build())
+        blackhole.consume(observer.await(timeout))
+    }
+
+}
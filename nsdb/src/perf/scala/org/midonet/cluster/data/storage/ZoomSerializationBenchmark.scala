@@ -0,0 +1,109 @@
+/*
+ * Copyright 2016 Midokura SARL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.midonet.cluster.data.storage
+
+import java.util.UUID
+import java.util.concurrent.TimeUnit
+
+import org.openjdk.jmh.annotations._
+import org.openjdk.jmh.infra.Blackhole
+
+import org.midonet.cluster.data.ZoomConvert
+import org.midonet.cluster.data.ZoomConvertTest.Top
+import org.midonet.cluster.data.storage.StateTableEncoder.MacToIdEncoder
+import org.midonet.cluster.models.TestModels.TestFlatMessage
+import org.midonet.cluster.models.Topology.Port
+import org.midonet.cluster.util.UUIDUtil._
+import org.midonet.packets.MAC
+
+/**
+  * Benchmarks the serialization paths used by the NSDB: the ZOOM
+  * serialization of Protocol Buffers messages, the conversion between
+  * [[org.midonet.cluster.data.ZoomObject]]s and messages, and the encoding of
+  * state table entries as ZooKeeper paths.
+  */
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+class ZoomSerializationBenchmark {
+
+    private var port: Port = _
+    private var portData: Array[Byte] = _
+
+    private var pojo: Top = _
+    private var message: TestFlatMessage = _
+
+    private var mac: MAC = _
+    private var portId: UUID = _
+    private var path: String = _
+
+    @Setup
+    def setup(): Unit = {
+        val builder = Port.newBuilder()
+            .setId(UUID.randomUUID())
+            .setNetworkId(UUID.randomUUID())
+            .setHostId(UUID.randomUUID())
+            .setInterfaceName("tap0123456789")
+            .setAdminStateUp(true)
+        for (index <- 0 until 10) {
+            builder.addPortGroupIds(UUID.randomUUID())
+        }
+        port = builder.build()
+        portData = ZoomSerializer.serialize(port)
+
+        pojo = new Top
+        message = ZoomConvert.toProto(pojo, classOf[TestFlatMessage])
+
+        mac = MAC.random()
+        portId = UUID.randomUUID()
+        path = MacToIdEncoder.encodePath(mac, portId, 1)
+    }
+
+    @Benchmark
+    def serializeMessage(blackhole: Blackhole): Unit = {
+        blackhole.consume(ZoomSerializer.serialize(port))
+    }
+
+    @Benchmark
+    def deserializeMessage(blackhole: Blackhole): Unit = {
+        blackhole.consume(ZoomSerializer.deserialize(portData, classOf[Port]))
+    }
+
+    @Benchmark
+    def convertToProto(blackhole: Blackhole): Unit = {
+        blackhole.consume(ZoomConvert.toProto(pojo, classOf[TestFlatMessage]))
+    }
+
+    @Benchmark
+    def convertFromProto(blackhole: Blackhole): Unit = {
+        blackhole.consume(ZoomConvert.fromProto(message, classOf[Top]))
+    }
+
+    @Benchmark
+    def encodeStateTablePath(blackhole: Blackhole): Unit = {
+        blackhole.consume(MacToIdEncoder.encodePath(mac, portId, 1))
+    }
+
+    @Benchmark
+    def decodeStateTablePath(blackhole: Blackhole): Unit = {
+        blackhole.consume(MacToIdEncoder.decodePath(path))
+    }
+
+}
@@ -60,7 +60,8 @@ class ScalableStateTableTest extends FeatureSpec with Matchers
                         override val directory: Directory,
                         override val proxy: StateTableClient,
                         override val connection: Observable[ConnectionState],
-                        override val metrics: StorageMetrics)
+                        override val metrics: StorageMetrics,
+                        override val indexValues: Boolean = false)
         extends ScalableStateTable[String, String]
         with DirectoryStateTable[String, String] {
 
@@ -100,11 +101,12 @@ class ScalableStateTableTest extends FeatureSpec with Matchers
     private def mockTable(connection: Observable[ConnectionState] =
                               Observable.never(),
                           proxy: StateTableClient = Proxy,
-                          metrics: StorageMetrics = DefaultMetrics)
+                          metrics: StorageMetrics = DefaultMetrics,
+                          indexValues: Boolean = false)
     : (ScalableStateTable[String, String], Directory) = {
         val directory = new MockDirectory()
-        (new Table(UUID.randomUUID(), directory, proxy, connection, metrics),
-            directory)
+        (new Table(UUID.randomUUID(), directory, proxy, connection, metrics,
+                   indexValues), directory)
     }
 
     private def zkTable(create: Boolean = true,
@@ -753,6 +755,101 @@ class ScalableStateTableTest extends FeatureSpec with Matchers
         }
     }
 
+    feature("Table indexes keys by value") {
+        scenario("Index follows storage updates") {
+            Given("A state table with mock directory and value index")
+            val (table, directory) = mockTable(indexValues = true)
+            table.start()
+
+            When("Adding entries with the same value")
+            directory.add("/key0,value0,0000000000", null, CreateMode.EPHEMERAL)
+            directory.add("/key1,value0,0000000001", null, CreateMode.EPHEMERAL)
+            directory.add("/key2,value1,0000000002", null, CreateMode.EPHEMERAL)
+
+            Then("The table returns the keys by value")
+            table.getLocalByValue("value0") shouldBe Set("key0", "key1")
+            table.getLocalByValue("value1") shouldBe Set("key2")
+            table.getLocalByValue("value2") shouldBe Set.empty
+
+            When("Updating the value of an entry")
+            directory.add("/key1,value1,0000000003", null, CreateMode.EPHEMERAL)
+
+            Then("The key moves to the new value")
+            table.getLocalByValue("value0") shouldBe Set("key0")
+            table.getLocalByValue("value1") shouldBe Set("key1", "key2")
+
+            When("Removing an entry")
+            directory.delete("/key0,value0,0000000000")
+
+            Then("The value is no longer indexed")
+            table.getLocalByValue("value0") shouldBe Set.empty
+            table.getLocalByValue("value1") shouldBe Set("key1", "key2")
+
+            When("Stopping the table")
+            table.stop()
+
+            Then("The index is cleared")
+            table.getLocalByValue("value1") shouldBe Set.empty
+        }
+
+        scenario("Index follows state proxy updates") {
+            Given("A connected proxy client")
+            val proxy = new TestableProxyClient
+            proxy.state onNext ProxyConnectionState.Connected
+
+            And("A state table with mock backend and value index")
+            val (table, _) = mockTable(proxy = proxy, indexValues = true)
+            table.start()
+
+            When("The proxy publishes a snapshot")
+            snapshot(proxy, begin = true, end = true, 0L,
+                     Map("key0" -> ("value0", 0), "key1" -> ("value0", 1)))
+
+            Then("The table returns the keys by value")
+            table.getLocalByValue("value0") shouldBe Set("key0", "key1")
+
+            When("The proxy publishes an update and a removal")
+            diff(proxy, 1L, Seq(("key0", "value1", 2), ("key1", null, 1)))
+
+            Then("The index reflects the changes")
+            table.getLocalByValue("value0") shouldBe Set.empty
+            table.getLocalByValue("value1") shouldBe Set("key0")
+
+            When("The proxy publishes a new snapshot")
+            snapshot(proxy, begin = true, end = true, 2L,
+                     Map("key2" -> ("value1", 3)))
+
+            Then("The index contains only the snapshot entries")
+            table.getLocalByValue("value1") shouldBe Set("key2")
+
+            table.stop()
+        }
+
+        scenario("Indexed and scanned lookups are equivalent") {
+            Given("Two state tables with and without value index")
+            val (indexed, indexedDirectory) = mockTable(indexValues = true)
+            val (scanned, scannedDirectory) = mockTable()
+            indexed.start()
+            scanned.start()
+
+            When("Adding the same entries to both tables")
+            for (index <- 0 until 100) {
+                val path = f"/key$index,value${index % 7},$index%010d"
+                indexedDirectory.add(path, null, CreateMode.EPHEMERAL)
+                scannedDirectory.add(path, null, CreateMode.EPHEMERAL)
+            }
+
+            Then("Both tables return the same keys by value")
+            for (value <- 0 until 8) {
+                indexed.getLocalByValue(s"value$value") shouldBe
+                    scanned.getLocalByValue(s"value$value")
+            }
+
+            indexed.stop()
+            scanned.stop()
+        }
+    }
+
     feature("Table merges entries") {
         scenario("Table loads existing entries") {
             Given("A state table with ZooKeeper directory")
@@ -20,6 +20,7 @@ import java.util.{ConcurrentModificationException, UUID}
 import scala.concurrent.duration._
 
 import com.codahale.metrics.MetricRegistry
+import com.typesafe.config.ConfigFactory
 
 import org.apache.curator.utils.ZKPaths
 import org.junit.runner.RunWith
@@ -32,6 +33,7 @@ import rx.observers.TestObserver
 
 import org.midonet.cluster.data.storage.StorageTestClasses._
 import org.midonet.cluster.data.storage.metrics.StorageMetrics
+import org.midonet.cluster.storage.MidonetBackendConfig
 import org.midonet.cluster.util.MidonetBackendTest
 import org.midonet.util.reactivex.{AwaitableObserver, TestAwaitableObserver}
 
@@ -57,6 +59,19 @@ class ZookeeperObjectMapperTest extends StorageTest with MidonetBackendTest
                                   reactor, new StorageMetrics(new MetricRegistry))
     }
 
+    private def bucketedStorage(buckets: Int): ZookeeperObjectMapper = {
+        val bucketedConfig = new MidonetBackendConfig(ConfigFactory.parseString(
+            s"""
+              |zookeeper.bucketed_classes : [ "PojoBridge" ]
+              |zookeeper.class_buckets : $buckets
+            """.stripMargin).withFallback(config.conf))
+        val storage = new ZookeeperObjectMapper(bucketedConfig, hostId, curator,
+                                                curator, stateTables, reactor,
+                                                new StorageMetrics(new MetricRegistry))
+        initAndBuildStorage(storage)
+        storage
+    }
+
     protected override def configParams =
         """
           |zookeeper.lock_timeout : 60s
@@ -850,6 +865,181 @@ class ZookeeperObjectMapperTest extends StorageTest with MidonetBackendTest
         }
     }
 
+    feature("Test bucketed classes") {
+        scenario("Objects of a bucketed class are stored in buckets") {
+            Given("A storage with bucketed bridges")
+            val bucketed = bucketedStorage(4)
+            bucketed.migrateClassLayouts() shouldBe Seq(classOf[PojoBridge])
+
+            And("A class observer")
+            val observer = new TestObserver[Observable[PojoBridge]]
+                               with AwaitableObserver[Observable[PojoBridge]]
+            bucketed.observable(classOf[PojoBridge]).subscribe(observer)
+
+            When("Creating several bridges")
+            val bridges = for (index <- 0 until 16) yield createPojoBridge()
+            bridges foreach { bucketed.create(_) }
+
+            Then("Every bridge is stored in its bucket")
+            bucketed.bucketPaths(classOf[PojoBridge]) should have size 4
+            for (bridge <- bridges) {
+                val path = bucketed.objectPath(classOf[PojoBridge], bridge.id)
+                path should startWith (
+                    bucketed.bucketsPath(classOf[PojoBridge]) + "/4/")
+                curator.checkExists().forPath(path) should not be null
+            }
+
+            And("The bridges can be read")
+            await(bucketed.get(classOf[PojoBridge], bridges.head.id)).id shouldBe
+                bridges.head.id
+            await(bucketed.getAll(classOf[PojoBridge])).map(_.id).toSet shouldBe
+                bridges.map(_.id).toSet
+            val tx = bucketed.transaction()
+            tx.getAll(classOf[PojoBridge]).map(_.id).toSet shouldBe
+                bridges.map(_.id).toSet
+
+            And("The class observer receives all bridges")
+            observer.awaitOnNext(16, timeout) shouldBe true
+
+            When("Deleting a bridge")
+            bucketed.delete(classOf[PojoBridge], bridges.head.id)
+
+            Then("The bridge is deleted from its bucket")
+            curator.checkExists().forPath(
+                bucketed.objectPath(classOf[PojoBridge], bridges.head.id)) shouldBe null
+            await(bucketed.getAll(classOf[PojoBridge])) should have size 15
+        }
+
+        scenario("Building a storage does not migrate the objects") {
+            Given("Bridges stored as children of the class node")
+            val bridges = for (index <- 0 until 4) yield createPojoBridge()
+            bridges foreach { storage.create(_) }
+
+            When("Building a storage with bucketed bridges")
+            val bucketed = bucketedStorage(4)
+
+            Then("The bridges remain children of the class node")
+            bucketed.bucketPaths(classOf[PojoBridge]) shouldBe
+                Seq(bucketed.classPath(classOf[PojoBridge]))
+            zoom.getNodeChildren(zoom.classPath(classOf[PojoBridge])) should
+                contain theSameElementsAs bridges.map(_.id.toString)
+            curator.checkExists().forPath(
+                bucketed.bucketsPath(classOf[PojoBridge])) shouldBe null
+
+            And("Both storages read and write the bridges")
+            await(bucketed.getAll(classOf[PojoBridge])).map(_.id).toSet shouldBe
+                bridges.map(_.id).toSet
+            val bridge = createPojoBridge()
+            bucketed.create(bridge)
+            await(storage.get(classOf[PojoBridge], bridge.id)).id shouldBe
+                bridge.id
+        }
+
+        scenario("Objects are migrated by the cluster") {
+            Given("Bridges stored as children of the class node")
+            val bridges = for (index <- 0 until 16) yield createPojoBridge()
+            bridges foreach { storage.create(_) }
+
+            And("Object and class observers of a storage without buckets")
+            val objectObserver = new TestAwaitableObserver[PojoBridge]
+            storage.observable(classOf[PojoBridge], bridges.head.id)
+                   .subscribe(objectObserver)
+            val classObserver = new TestObserver[Observable[PojoBridge]]
+                                    with AwaitableObserver[Observable[PojoBridge]]
+            storage.observable(classOf[PojoBridge]).subscribe(classObserver)
+            objectObserver.awaitOnNext(1, timeout) shouldBe true
+            classObserver.awaitOnNext(16, timeout) shouldBe true
+
+            When("Migrating the bridges to buckets")
+            val bucketed = bucketedStorage(4)
+            bucketed.migrateClassLayouts() shouldBe Seq(classOf[PojoBridge])
+
+            Then("Both storages use the buckets")
+            eventually {
+                zoom.bucketPaths(classOf[PojoBridge]) shouldBe
+                    bucketed.bucketPaths(classOf[PojoBridge])
+            }
+            for (bridge <- bridges) {
+                curator.checkExists().forPath(
+                    bucketed.objectPath(classOf[PojoBridge], bridge.id)) should not be null
+            }
+
+            And("The bridges are not deleted for the observers")
+            objectObserver.getOnCompletedEvents shouldBe empty
+            objectObserver.getOnErrorEvents shouldBe empty
+            classObserver.getOnErrorEvents shouldBe empty
+
+            When("Updating a bridge through the storage without buckets")
+            val bridge = bridges.head
+            bridge.name = "updated"
+            storage.update(bridge)
+
+            Then("The bridge is updated in its bucket")
+            await(bucketed.get(classOf[PojoBridge], bridge.id)).name shouldBe
+                "updated"
+            eventually {
+                val events = objectObserver.getOnNextEvents
+                events.get(events.size - 1).name shouldBe "updated"
+            }
+
+            And("The previous layout is kept until it is cleaned up")
+            zoom.getNodeChildren(zoom.classPath(classOf[PojoBridge])) should
+                have size 16
+            bucketed.cleanupClassLayouts(1 hour) shouldBe empty
+            bucketed.cleanupClassLayouts(Duration.Zero) shouldBe
+                Seq(classOf[PojoBridge])
+            zoom.getNodeChildren(zoom.classPath(classOf[PojoBridge])) shouldBe
+                empty
+
+            When("Migrating the bridges to a different number of buckets")
+            val rebucketed = bucketedStorage(3)
+            rebucketed.migrateClassLayouts() shouldBe Seq(classOf[PojoBridge])
+            rebucketed.cleanupClassLayouts(Duration.Zero)
+
+            Then("The bridges are moved to their new buckets")
+            await(rebucketed.getAll(classOf[PojoBridge])).map(_.id).toSet shouldBe
+                bridges.map(_.id).toSet
+            zoom.getNodeChildren(rebucketed.bucketsPath(classOf[PojoBridge])) shouldBe
+                Seq("3")
+
+            When("Migrating the bridges back to the class node")
+            zoom.migrateClassLayouts() shouldBe Seq(classOf[PojoBridge])
+            zoom.cleanupClassLayouts(Duration.Zero)
+
+            Then("The bridges are children of the class node")
+            zoom.getNodeChildren(zoom.classPath(classOf[PojoBridge])) should
+                contain theSameElementsAs bridges.map(_.id.toString)
+            zoom.getNodeChildren(zoom.bucketsPath(classOf[PojoBridge])) shouldBe
+                empty
+            eventually {
+                await(bucketed.getAll(classOf[PojoBridge])).map(_.id).toSet shouldBe
+                    bridges.map(_.id).toSet
+            }
+        }
+
+        scenario("Objects cannot be written while they are migrated") {
+            Given("A bridge class being migrated")
+            curator.setData().forPath(zoom.classPath(classOf[PojoBridge]),
+                                      "0>4".getBytes)
+
+            Then("Creating a bridge fails")
+            eventually {
+                intercept[ConcurrentModificationException] {
+                    storage.create(createPojoBridge())
+                }
+            }
+
+            When("Completing the migration")
+            val bucketed = bucketedStorage(4)
+            bucketed.migrateClassLayouts() shouldBe Seq(classOf[PojoBridge])
+
+            Then("Creating a bridge succeeds")
+            eventually {
+                storage.create(createPojoBridge())
+            }
+        }
+    }
+
     feature("Test Zookeeper") {
         scenario("Test get path") {
             val zoom = storage.asInstanceOf[ZookeeperObjectMapper]